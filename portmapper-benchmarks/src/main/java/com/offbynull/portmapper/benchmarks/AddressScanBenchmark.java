@@ -0,0 +1,127 @@
+/*
+ * Copyright 2013-2016, Kasra Faghihi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.offbynull.portmapper.benchmarks;
+
+import com.offbynull.portmapper.helpers.StreamingAddressExtractor;
+import com.offbynull.portmapper.helpers.TextUtils;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Address scanning benchmarks over the kind of output that gateway discovery runs through (ifconfig and route tables), generated for
+ * hosts with many interfaces (e.g. hosts running lots of containers, each with a veth pair). Reports the time it takes to scan the whole
+ * output.
+ * @author Kasra Faghihi
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class AddressScanBenchmark {
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
+    private static final int CHUNK_SIZE = 8192; // same as what ProcessGateway reads in at a time
+
+    /**
+     * Number of interfaces in the generated output (roughly 1 KB of output per interface).
+     */
+    @Param({"100", "1000", "5000"})
+    public int interfaceCount;
+
+    private String text;
+    private byte[] data;
+
+    /**
+     * Generate output.
+     */
+    @Setup
+    public void setup() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("Kernel IP routing table\n");
+        sb.append("Destination     Gateway         Genmask         Flags   MSS Window  irtt Iface\n");
+        sb.append("0.0.0.0         192.168.1.1     0.0.0.0         UG        0 0          0 eth0\n");
+        for (int i = 0; i < interfaceCount; i++) {
+            int b = (i >> 8) & 0xFF;
+            int c = i & 0xFF;
+            sb.append("172.").append(16 + b % 16).append('.').append(c).append(".0      0.0.0.0         255.255.255.0   U         0 0")
+                    .append("          0 veth").append(Integer.toHexString(i)).append('\n');
+        }
+        for (int i = 0; i < interfaceCount; i++) {
+            int b = (i >> 8) & 0xFF;
+            int c = i & 0xFF;
+            String hex = Integer.toHexString(i);
+            sb.append("veth").append(hex).append(": flags=4163<UP,BROADCAST,RUNNING,MULTICAST>  mtu 1500\n");
+            sb.append("        inet 172.").append(16 + b % 16).append('.').append(c).append(".1  netmask 255.255.255.0  broadcast 172.")
+                    .append(16 + b % 16).append('.').append(c).append(".255\n");
+            sb.append("        inet6 fe80::").append(hex).append(":ff:fe00:").append(hex).append("  prefixlen 64  scopeid 0x20<link>\n");
+            sb.append("        ether 02:42:ac:").append(String.format("%02x:%02x", b, c)).append(":01  txqueuelen 0  (Ethernet)\n");
+            sb.append("        RX packets 123456  bytes 98765432 (94.1 MiB)\n");
+            sb.append("        RX errors 0  dropped 0  overruns 0  frame 0\n");
+            sb.append("        TX packets 654321  bytes 12345678 (11.7 MiB)\n");
+            sb.append("        TX errors 0  dropped 0 overruns 0  carrier 0  collisions 0\n\n");
+        }
+        text = sb.toString();
+        data = text.getBytes(US_ASCII);
+    }
+
+    /**
+     * Scan for IPv4 addresses.
+     * @return addresses found
+     */
+    @Benchmark
+    public List<String> findAllIpv4Addresses() {
+        return TextUtils.findAllIpv4Addresses(text);
+    }
+
+    /**
+     * Scan for IPv6 addresses.
+     * @return addresses found
+     */
+    @Benchmark
+    public List<String> findAllIpv6Addresses() {
+        return TextUtils.findAllIpv6Addresses(text);
+    }
+
+    /**
+     * Scan for IPv4 and IPv6 addresses the way process output is scanned during discovery (fed in chunk by chunk).
+     * @return IPv4 addresses found
+     */
+    @Benchmark
+    public Set<String> streamingExtractor() {
+        StreamingAddressExtractor extractor = new StreamingAddressExtractor();
+        for (int i = 0; i < data.length; i += CHUNK_SIZE) {
+            byte[] chunk = new byte[Math.min(CHUNK_SIZE, data.length - i)];
+            System.arraycopy(data, i, chunk, 0, chunk.length);
+            extractor.feed(chunk);
+        }
+        extractor.finish();
+        return extractor.getIpv4Addresses();
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2013-2016, Kasra Faghihi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.offbynull.portmapper.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Entry point for the benchmarks JAR. Accepts the same arguments as JMH's own main class, but always attaches the GC profiler and
+ * {@link GatewayAllocationProfiler} so that allocation rates are reported alongside throughput.
+ * @author Kasra Faghihi
+ */
+public final class BenchmarkMain {
+    private BenchmarkMain() {
+        // do nothing
+    }
+
+    /**
+     * Run benchmarks.
+     * @param args JMH command-line arguments (e.g. a regex to select benchmarks, or {@code -h} for help)
+     * @throws Exception on error
+     */
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions cmdOptions = new CommandLineOptions(args);
+        if (cmdOptions.shouldHelp()) {
+            cmdOptions.showHelp();
+            return;
+        }
+
+        Options options = new OptionsBuilder()
+                .parent(cmdOptions)
+                .addProfiler(GCProfiler.class)
+                .addProfiler(GatewayAllocationProfiler.class)
+                .build();
+        Runner runner = new Runner(options);
+        if (cmdOptions.shouldList()) {
+            runner.list();
+            return;
+        }
+
+        runner.run();
+    }
+}
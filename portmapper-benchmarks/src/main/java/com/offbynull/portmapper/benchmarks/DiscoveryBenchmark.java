@@ -0,0 +1,210 @@
+/*
+ * Copyright 2013-2016, Kasra Faghihi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.offbynull.portmapper.benchmarks;
+
+import com.offbynull.portmapper.PortMapperFactory;
+import com.offbynull.portmapper.gateway.Bus;
+import com.offbynull.portmapper.gateways.network.NetworkGateway;
+import com.offbynull.portmapper.gateways.network.internalmessages.KillNetworkRequest;
+import com.offbynull.portmapper.mapper.PortMapper;
+import com.offbynull.portmapper.mappers.natpmp.NatPmpPortMapper;
+import com.offbynull.portmapper.mappers.pcp.PcpPortMapper;
+import com.offbynull.portmapper.mappers.upnpigd.UpnpIgdPortMapper;
+import com.offbynull.portmapper.mappers.upnpigd.externalmessages.ServiceDiscoveryUpnpIgdRequest.ProbeDeviceType;
+import com.offbynull.portmapper.testtools.RouterEmulator;
+import com.offbynull.portmapper.testtools.StubProcessBus;
+import com.offbynull.portmapper.testtools.VirtualNetworkBus;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * End-to-end discovery latency. Discovery runs against an in-process router emulator on 127.0.0.1 rather than a real gateway: the network
+ * bus is wrapped so that the machine appears to have stub interfaces on 10.99.0.0/16 with a default gateway of 10.99.0.1, and the process
+ * bus is replaced with one that returns a canned routing table instead of running {@code netstat}/{@code route}/etc.. Datagrams sent to
+ * anything other than the stand-in gateway are dropped, so this runs the same on an isolated machine as it does on a real network.
+ * <p>
+ * {@code scenario} selects which protocols the stand-in gateway speaks ({@code PCP_ONLY}, {@code NATPMP_ONLY}, {@code UPNPIGD_ONLY}),
+ * whether there's a gateway at all ({@code NO_GATEWAY}), or whether the machine has many interfaces that all lead to a gateway speaking
+ * every protocol ({@code MANY_INTERFACES}).
+ * @author Kasra Faghihi
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DiscoveryBenchmark {
+    private static final int PCP_PORT = 5351; // NAT-PMP and PCP mappers always send to this port
+    private static final int MANY_INTERFACES_COUNT = 32;
+    private static final String ROUTE_TABLE = ""
+            + "Kernel IP routing table\n"
+            + "Destination     Gateway         Genmask         Flags   MSS Window  irtt Iface\n"
+            + "0.0.0.0         10.99.0.1       0.0.0.0         UG        0 0          0 eth0\n";
+
+    @Param({"PCP_ONLY", "NATPMP_ONLY", "UPNPIGD_ONLY", "NO_GATEWAY", "MANY_INTERFACES"})
+    private String scenario;
+
+    private RouterEmulator emulator;
+    private NetworkGateway network;
+    private Bus networkBus;
+    private VirtualNetworkBus virtualBus;
+    private StubProcessBus processBus;
+    private ExecutorService executor;
+
+    /**
+     * Start router emulator/gateway and set up the stub interfaces, routes and process output for the scenario.
+     * @throws IOException on error
+     */
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        InetAddress gatewayAddress = InetAddress.getByAddress(new byte[] {10, 99, 0, 1});
+
+        emulator = RouterEmulator.create(InetAddress.getLoopbackAddress(), PCP_PORT, InetAddress.getByAddress(new byte[] {1, 2, 3, 4}));
+        network = NetworkGateway.create();
+        networkBus = network.getBus();
+        virtualBus = new VirtualNetworkBus(networkBus);
+        processBus = new StubProcessBus();
+        processBus.setOutput("netstat -rn", ROUTE_TABLE);
+        executor = Executors.newFixedThreadPool(3);
+
+        int interfaceCount = 1;
+        switch (scenario) {
+            case "PCP_ONLY":
+                emulator.setNatPmpEnabled(false);
+                emulator.setUpnpIgdEnabled(false);
+                break;
+            case "NATPMP_ONLY":
+                emulator.setPcpEnabled(false);
+                emulator.setUpnpIgdEnabled(false);
+                break;
+            case "UPNPIGD_ONLY":
+                emulator.setNatPmpEnabled(false);
+                emulator.setPcpEnabled(false);
+                break;
+            case "NO_GATEWAY":
+                emulator.setNatPmpEnabled(false);
+                emulator.setPcpEnabled(false);
+                emulator.setUpnpIgdEnabled(false);
+                break;
+            case "MANY_INTERFACES":
+                interfaceCount = MANY_INTERFACES_COUNT;
+                break;
+            default:
+                throw new IllegalArgumentException(scenario);
+        }
+
+        List<InetAddress> localAddresses = new ArrayList<>(interfaceCount);
+        for (int i = 0; i < interfaceCount; i++) {
+            localAddresses.add(InetAddress.getByAddress(new byte[] {10, 99, (byte) (i / 200), (byte) (2 + i % 200)}));
+        }
+        virtualBus.setLocalAddresses(localAddresses);
+        virtualBus.addRoute(new InetSocketAddress(gatewayAddress, PCP_PORT), emulator.getPcpAddress());
+        virtualBus.addRoute(ProbeDeviceType.IPV4.getMulticastSocketAddress(), emulator.getSsdpAddress());
+    }
+
+    /**
+     * Stop router emulator/gateway.
+     * @throws IOException on error
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        executor.shutdownNow();
+        networkBus.send(new KillNetworkRequest());
+        emulator.close();
+    }
+
+    /**
+     * Time-to-complete: run {@link PortMapperFactory#discover(com.offbynull.portmapper.gateway.Bus,
+     * com.offbynull.portmapper.gateway.Bus, java.net.InetAddress...) } until it returns every mapper it could find.
+     * @return mappers found
+     * @throws InterruptedException if interrupted
+     */
+    @Benchmark
+    public List<PortMapper> discover() throws InterruptedException {
+        return PortMapperFactory.discover(virtualBus, processBus);
+    }
+
+    /**
+     * Time-to-first-mapper: run each protocol's {@code identify()} at the same time and stop as soon as any of them finds a mapper (or
+     * once all of them have finished without finding one).
+     * @return first mappers found (empty if none were found)
+     * @throws InterruptedException if interrupted
+     * @throws ExecutionException if an {@code identify()} call failed
+     */
+    @Benchmark
+    public List<? extends PortMapper> firstMapper() throws InterruptedException, ExecutionException {
+        CompletionService<List<? extends PortMapper>> completionService = new ExecutorCompletionService<>(executor);
+        List<Future<List<? extends PortMapper>>> futures = new ArrayList<>(3);
+        futures.add(completionService.submit(new Callable<List<? extends PortMapper>>() {
+            @Override
+            public List<? extends PortMapper> call() throws Exception {
+                return UpnpIgdPortMapper.identify(virtualBus);
+            }
+        }));
+        futures.add(completionService.submit(new Callable<List<? extends PortMapper>>() {
+            @Override
+            public List<? extends PortMapper> call() throws Exception {
+                return NatPmpPortMapper.identify(virtualBus, processBus);
+            }
+        }));
+        futures.add(completionService.submit(new Callable<List<? extends PortMapper>>() {
+            @Override
+            public List<? extends PortMapper> call() throws Exception {
+                return PcpPortMapper.identify(virtualBus, processBus);
+            }
+        }));
+
+        try {
+            List<? extends PortMapper> ret = new ArrayList<>();
+            for (int i = 0; i < futures.size(); i++) {
+                ret = completionService.take().get();
+                if (!ret.isEmpty()) {
+                    break;
+                }
+            }
+            return ret;
+        } finally {
+            for (Future<?> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2013-2016, Kasra Faghihi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.offbynull.portmapper.benchmarks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.Validate;
+
+final class Fixtures {
+    private Fixtures() {
+        // do nothing
+    }
+
+    // Resources are copies of fixtures in the main project's tests -- root-igd.txt is GOOD_BUFFER_1 from RootUpnpIgdResponseTest and
+    // scpd-wanipconnection.txt is WAN_IP_CONNECTION_1 from ServiceDescriptionUpnpIgdResponseTest
+    static byte[] load(String name) {
+        try (InputStream is = Fixtures.class.getResourceAsStream(name)) {
+            Validate.validState(is != null, "Fixture missing: %s", name);
+            return IOUtils.toByteArray(is);
+        } catch (IOException ioe) {
+            throw new IllegalStateException(ioe);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2013-2016, Kasra Faghihi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.offbynull.portmapper.benchmarks;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collection;
+import java.util.Collections;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.infra.IterationParams;
+import org.openjdk.jmh.profile.InternalProfiler;
+import org.openjdk.jmh.results.AggregationPolicy;
+import org.openjdk.jmh.results.IterationResult;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.ScalarResult;
+
+/**
+ * Reports how many bytes the {@link com.offbynull.portmapper.gateways.network.NetworkGateway} thread allocates per benchmark operation
+ * ({@code gateway.alloc.rate.norm}). JMH's GC profiler only reports what the benchmark threads allocate, which leaves out the gateway's
+ * selector loop. Relies on HotSpot's per-thread allocation counters, and reports nothing for benchmarks that don't run a gateway.
+ * @author Kasra Faghihi
+ */
+public final class GatewayAllocationProfiler implements InternalProfiler {
+    private static final String GATEWAY_THREAD_NAME = "Network IO";
+
+    private final com.sun.management.ThreadMXBean threadMxBean;
+    private long gatewayThreadId;
+    private long startBytes;
+
+    /**
+     * Constructs a {@link GatewayAllocationProfiler} object.
+     */
+    public GatewayAllocationProfiler() {
+        threadMxBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    }
+
+    @Override
+    public String getDescription() {
+        return "Bytes allocated by the NetworkGateway thread per operation";
+    }
+
+    @Override
+    public void beforeIteration(BenchmarkParams benchmarkParams, IterationParams iterationParams) {
+        gatewayThreadId = -1L;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().equals(GATEWAY_THREAD_NAME)) {
+                gatewayThreadId = thread.getId();
+                startBytes = threadMxBean.getThreadAllocatedBytes(gatewayThreadId);
+                break;
+            }
+        }
+    }
+
+    @Override
+    public Collection<? extends Result> afterIteration(BenchmarkParams benchmarkParams, IterationParams iterationParams,
+            IterationResult result) {
+        long ops = result.getMetadata().getAllOps();
+        if (gatewayThreadId == -1L || ops == 0L) {
+            return Collections.emptyList();
+        }
+
+        long endBytes = threadMxBean.getThreadAllocatedBytes(gatewayThreadId);
+        if (endBytes == -1L) {
+            return Collections.emptyList(); // thread died during the iteration
+        }
+
+        double bytesPerOp = (double) (endBytes - startBytes) / ops;
+        return Collections.singletonList(new ScalarResult("gateway.alloc.rate.norm", bytesPerOp, "B/op", AggregationPolicy.AVG));
+    }
+}
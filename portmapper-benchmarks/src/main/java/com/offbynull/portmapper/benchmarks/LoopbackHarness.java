@@ -0,0 +1,134 @@
+/*
+ * Copyright 2013-2016, Kasra Faghihi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.offbynull.portmapper.benchmarks;
+
+import com.offbynull.portmapper.gateway.BasicBus;
+import com.offbynull.portmapper.gateway.Bus;
+import com.offbynull.portmapper.gateways.network.NetworkGateway;
+import com.offbynull.portmapper.gateways.network.internalmessages.CloseNetworkRequest;
+import com.offbynull.portmapper.gateways.network.internalmessages.CloseNetworkResponse;
+import com.offbynull.portmapper.gateways.network.internalmessages.ConnectedTcpNetworkNotification;
+import com.offbynull.portmapper.gateways.network.internalmessages.CreateTcpNetworkRequest;
+import com.offbynull.portmapper.gateways.network.internalmessages.CreateTcpNetworkResponse;
+import com.offbynull.portmapper.gateways.network.internalmessages.CreateUdpNetworkRequest;
+import com.offbynull.portmapper.gateways.network.internalmessages.CreateUdpNetworkResponse;
+import com.offbynull.portmapper.gateways.network.internalmessages.GetNextIdNetworkRequest;
+import com.offbynull.portmapper.gateways.network.internalmessages.GetNextIdNetworkResponse;
+import com.offbynull.portmapper.gateways.network.internalmessages.IdentifiableErrorNetworkNotification;
+import com.offbynull.portmapper.gateways.network.internalmessages.IdentifiableErrorNetworkResponse;
+import com.offbynull.portmapper.gateways.network.internalmessages.KillNetworkRequest;
+import com.offbynull.portmapper.gateways.network.internalmessages.ReadTcpNetworkNotification;
+import com.offbynull.portmapper.gateways.network.internalmessages.ReadUdpNetworkNotification;
+import com.offbynull.portmapper.gateways.network.internalmessages.WriteTcpNetworkRequest;
+import com.offbynull.portmapper.gateways.network.internalmessages.WriteUdpNetworkRequest;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+// Drives a NetworkGateway through its bus against UDP/TCP echo servers on the loopback interface. Everything stays on 127.0.0.1, so this
+// works without any network connectivity. Not thread-safe -- each benchmark thread needs its own instance.
+final class LoopbackHarness implements Closeable {
+    private static final long TIMEOUT = 10000L;
+
+    private final NetworkGateway gateway;
+    private final Bus networkBus;
+    private final LinkedBlockingQueue<Object> queue;
+    private final Bus selfBus;
+    private final UdpEchoServer udpEchoServer;
+    private final TcpEchoServer tcpEchoServer;
+
+    LoopbackHarness() throws IOException {
+        gateway = NetworkGateway.create();
+        networkBus = gateway.getBus();
+        queue = new LinkedBlockingQueue<>();
+        selfBus = new BasicBus(queue);
+        udpEchoServer = new UdpEchoServer();
+        tcpEchoServer = new TcpEchoServer();
+    }
+
+    int createUdpSocket() throws InterruptedException {
+        int id = nextId();
+        networkBus.send(new CreateUdpNetworkRequest(id, selfBus, InetAddress.getLoopbackAddress()));
+        await(CreateUdpNetworkResponse.class);
+        return id;
+    }
+
+    int createTcpSocket() throws InterruptedException {
+        int id = nextId();
+        InetSocketAddress dst = tcpEchoServer.getAddress();
+        networkBus.send(new CreateTcpNetworkRequest(id, selfBus, InetAddress.getLoopbackAddress(), dst.getAddress(), dst.getPort()));
+        await(CreateTcpNetworkResponse.class);
+        await(ConnectedTcpNetworkNotification.class);
+        return id;
+    }
+
+    void closeSocket(int id) throws InterruptedException {
+        networkBus.send(new CloseNetworkRequest(id));
+        await(CloseNetworkResponse.class);
+    }
+
+    void sendUdp(int id, byte[] data) {
+        networkBus.send(new WriteUdpNetworkRequest(id, udpEchoServer.getAddress(), data));
+    }
+
+    void sendTcp(int id, byte[] data) {
+        networkBus.send(new WriteTcpNetworkRequest(id, data));
+    }
+
+    ReadUdpNetworkNotification awaitUdp() throws InterruptedException {
+        return await(ReadUdpNetworkNotification.class);
+    }
+
+    ReadTcpNetworkNotification awaitTcp() throws InterruptedException {
+        return await(ReadTcpNetworkNotification.class);
+    }
+
+    private int nextId() throws InterruptedException {
+        networkBus.send(new GetNextIdNetworkRequest(selfBus));
+        return await(GetNextIdNetworkResponse.class).getId();
+    }
+
+    // Messages of other types (e.g. write acknowledgements) are discarded while waiting
+    private <T> T await(Class<T> type) throws InterruptedException {
+        while (true) {
+            Object msg = queue.poll(TIMEOUT, TimeUnit.MILLISECONDS);
+            if (msg == null) {
+                throw new IllegalStateException("Timed out waiting for " + type.getSimpleName());
+            }
+            if (type.isInstance(msg)) {
+                return type.cast(msg);
+            }
+            if (msg instanceof IdentifiableErrorNetworkResponse || msg instanceof IdentifiableErrorNetworkNotification) {
+                throw new IllegalStateException("Gateway error while waiting for " + type.getSimpleName() + ": " + msg);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        networkBus.send(new KillNetworkRequest());
+        try {
+            gateway.join();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+        udpEchoServer.close();
+        tcpEchoServer.close();
+    }
+}
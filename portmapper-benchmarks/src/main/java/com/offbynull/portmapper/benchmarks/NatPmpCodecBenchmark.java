@@ -0,0 +1,308 @@
+/*
+ * Copyright 2013-2016, Kasra Faghihi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.offbynull.portmapper.benchmarks;
+
+import com.offbynull.portmapper.helpers.NetworkUtils;
+import com.offbynull.portmapper.mappers.natpmp.externalmessages.ExternalAddressNatPmpRequest;
+import com.offbynull.portmapper.mappers.natpmp.externalmessages.ExternalAddressNatPmpResponse;
+import com.offbynull.portmapper.mappers.natpmp.externalmessages.ExternalAddressNatPmpResponseView;
+import com.offbynull.portmapper.mappers.natpmp.externalmessages.TcpMappingNatPmpRequest;
+import com.offbynull.portmapper.mappers.natpmp.externalmessages.TcpMappingNatPmpResponse;
+import com.offbynull.portmapper.mappers.natpmp.externalmessages.TcpMappingNatPmpResponseView;
+import com.offbynull.portmapper.mappers.natpmp.externalmessages.UdpMappingNatPmpRequest;
+import com.offbynull.portmapper.mappers.natpmp.externalmessages.UdpMappingNatPmpResponse;
+import com.offbynull.portmapper.mappers.natpmp.externalmessages.UdpMappingNatPmpResponseView;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parse/dump benchmarks for NAT-PMP messages. Messages mirror the ones used in the main project's NAT-PMP message tests.
+ * @author Kasra Faghihi
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class NatPmpCodecBenchmark {
+    private ExternalAddressNatPmpRequest externalAddressRequest;
+    private byte[] externalAddressRequestBuffer;
+    private ExternalAddressNatPmpResponse externalAddressResponse;
+    private byte[] externalAddressResponseBuffer;
+    private ByteBuffer externalAddressResponseByteBuffer;
+    private ExternalAddressNatPmpResponseView externalAddressResponseView;
+    private byte[] addressOut;
+
+    private TcpMappingNatPmpRequest tcpMappingRequest;
+    private byte[] tcpMappingRequestBuffer;
+    private TcpMappingNatPmpResponse tcpMappingResponse;
+    private byte[] tcpMappingResponseBuffer;
+    private ByteBuffer tcpMappingResponseByteBuffer;
+    private TcpMappingNatPmpResponseView tcpMappingResponseView;
+
+    private UdpMappingNatPmpRequest udpMappingRequest;
+    private byte[] udpMappingRequestBuffer;
+    private UdpMappingNatPmpResponse udpMappingResponse;
+    private byte[] udpMappingResponseBuffer;
+    private ByteBuffer udpMappingResponseByteBuffer;
+    private UdpMappingNatPmpResponseView udpMappingResponseView;
+
+    private ByteBuffer outBuffer;
+
+    /**
+     * Set up messages.
+     */
+    @Setup
+    public void setup() {
+        externalAddressRequest = new ExternalAddressNatPmpRequest();
+        externalAddressRequestBuffer = externalAddressRequest.dump();
+        externalAddressResponse = new ExternalAddressNatPmpResponse(1, 0xFFFFFFFFL,
+                NetworkUtils.convertBytesToAddress(new byte[] {1, 2, 3, 4}));
+        externalAddressResponseBuffer = externalAddressResponse.dump();
+        externalAddressResponseByteBuffer = ByteBuffer.wrap(externalAddressResponseBuffer);
+        externalAddressResponseView = new ExternalAddressNatPmpResponseView();
+        addressOut = new byte[4];
+
+        tcpMappingRequest = new TcpMappingNatPmpRequest(0xF1F2, 0, 0xFFFFFFFFL);
+        tcpMappingRequestBuffer = tcpMappingRequest.dump();
+        tcpMappingResponse = new TcpMappingNatPmpResponse(1, 0xFFFFFFFEL, 0xF1F2, 0xF3F4, 0xFFFFFFFFL);
+        tcpMappingResponseBuffer = tcpMappingResponse.dump();
+        tcpMappingResponseByteBuffer = ByteBuffer.wrap(tcpMappingResponseBuffer);
+        tcpMappingResponseView = new TcpMappingNatPmpResponseView();
+
+        udpMappingRequest = new UdpMappingNatPmpRequest(0xF1F2, 0, 0xFFFFFFFFL);
+        udpMappingRequestBuffer = udpMappingRequest.dump();
+        udpMappingResponse = new UdpMappingNatPmpResponse(1, 0xFFFFFFFEL, 0xF1F2, 0xF3F4, 0xFFFFFFFFL);
+        udpMappingResponseBuffer = udpMappingResponse.dump();
+        udpMappingResponseByteBuffer = ByteBuffer.wrap(udpMappingResponseBuffer);
+        udpMappingResponseView = new UdpMappingNatPmpResponseView();
+
+        outBuffer = ByteBuffer.allocate(16);
+    }
+
+    /**
+     * Dump external address request.
+     * @return dumped request
+     */
+    @Benchmark
+    public byte[] externalAddressRequestDump() {
+        return externalAddressRequest.dump();
+    }
+
+    /**
+     * Write external address request in to a reused buffer.
+     * @return buffer written to
+     */
+    @Benchmark
+    public ByteBuffer externalAddressRequestWriteTo() {
+        outBuffer.clear();
+        externalAddressRequest.writeTo(outBuffer);
+        return outBuffer;
+    }
+
+    /**
+     * Parse external address request.
+     * @return parsed request
+     */
+    @Benchmark
+    public ExternalAddressNatPmpRequest externalAddressRequestParse() {
+        return new ExternalAddressNatPmpRequest(externalAddressRequestBuffer);
+    }
+
+    /**
+     * Dump external address response.
+     * @return dumped response
+     */
+    @Benchmark
+    public byte[] externalAddressResponseDump() {
+        return externalAddressResponse.dump();
+    }
+
+    /**
+     * Write external address response in to a reused buffer.
+     * @return buffer written to
+     */
+    @Benchmark
+    public ByteBuffer externalAddressResponseWriteTo() {
+        outBuffer.clear();
+        externalAddressResponse.writeTo(outBuffer);
+        return outBuffer;
+    }
+
+    /**
+     * Parse external address response.
+     * @return parsed response
+     */
+    @Benchmark
+    public ExternalAddressNatPmpResponse externalAddressResponseParse() {
+        return new ExternalAddressNatPmpResponse(externalAddressResponseBuffer);
+    }
+
+    /**
+     * Read external address response fields through a reused view.
+     * @return first byte of external address
+     */
+    @Benchmark
+    public byte externalAddressResponseView() {
+        externalAddressResponseView.wrap(externalAddressResponseByteBuffer).getAddress(addressOut);
+        return addressOut[0];
+    }
+
+    /**
+     * Dump TCP mapping request.
+     * @return dumped request
+     */
+    @Benchmark
+    public byte[] tcpMappingRequestDump() {
+        return tcpMappingRequest.dump();
+    }
+
+    /**
+     * Write TCP mapping request in to a reused buffer.
+     * @return buffer written to
+     */
+    @Benchmark
+    public ByteBuffer tcpMappingRequestWriteTo() {
+        outBuffer.clear();
+        tcpMappingRequest.writeTo(outBuffer);
+        return outBuffer;
+    }
+
+    /**
+     * Parse TCP mapping request.
+     * @return parsed request
+     */
+    @Benchmark
+    public TcpMappingNatPmpRequest tcpMappingRequestParse() {
+        return new TcpMappingNatPmpRequest(tcpMappingRequestBuffer);
+    }
+
+    /**
+     * Dump TCP mapping response.
+     * @return dumped response
+     */
+    @Benchmark
+    public byte[] tcpMappingResponseDump() {
+        return tcpMappingResponse.dump();
+    }
+
+    /**
+     * Write TCP mapping response in to a reused buffer.
+     * @return buffer written to
+     */
+    @Benchmark
+    public ByteBuffer tcpMappingResponseWriteTo() {
+        outBuffer.clear();
+        tcpMappingResponse.writeTo(outBuffer);
+        return outBuffer;
+    }
+
+    /**
+     * Parse TCP mapping response.
+     * @return parsed response
+     */
+    @Benchmark
+    public TcpMappingNatPmpResponse tcpMappingResponseParse() {
+        return new TcpMappingNatPmpResponse(tcpMappingResponseBuffer);
+    }
+
+    /**
+     * Read TCP mapping response fields through a reused view.
+     * @return external port
+     */
+    @Benchmark
+    public int tcpMappingResponseView() {
+        return tcpMappingResponseView.wrap(tcpMappingResponseByteBuffer).getExternalPort();
+    }
+
+    /**
+     * Dump UDP mapping request.
+     * @return dumped request
+     */
+    @Benchmark
+    public byte[] udpMappingRequestDump() {
+        return udpMappingRequest.dump();
+    }
+
+    /**
+     * Write UDP mapping request in to a reused buffer.
+     * @return buffer written to
+     */
+    @Benchmark
+    public ByteBuffer udpMappingRequestWriteTo() {
+        outBuffer.clear();
+        udpMappingRequest.writeTo(outBuffer);
+        return outBuffer;
+    }
+
+    /**
+     * Parse UDP mapping request.
+     * @return parsed request
+     */
+    @Benchmark
+    public UdpMappingNatPmpRequest udpMappingRequestParse() {
+        return new UdpMappingNatPmpRequest(udpMappingRequestBuffer);
+    }
+
+    /**
+     * Dump UDP mapping response.
+     * @return dumped response
+     */
+    @Benchmark
+    public byte[] udpMappingResponseDump() {
+        return udpMappingResponse.dump();
+    }
+
+    /**
+     * Write UDP mapping response in to a reused buffer.
+     * @return buffer written to
+     */
+    @Benchmark
+    public ByteBuffer udpMappingResponseWriteTo() {
+        outBuffer.clear();
+        udpMappingResponse.writeTo(outBuffer);
+        return outBuffer;
+    }
+
+    /**
+     * Parse UDP mapping response.
+     * @return parsed response
+     */
+    @Benchmark
+    public UdpMappingNatPmpResponse udpMappingResponseParse() {
+        return new UdpMappingNatPmpResponse(udpMappingResponseBuffer);
+    }
+
+    /**
+     * Read UDP mapping response fields through a reused view.
+     * @return external port
+     */
+    @Benchmark
+    public int udpMappingResponseView() {
+        return udpMappingResponseView.wrap(udpMappingResponseByteBuffer).getExternalPort();
+    }
+}
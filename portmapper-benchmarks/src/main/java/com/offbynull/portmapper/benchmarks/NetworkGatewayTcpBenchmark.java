@@ -0,0 +1,134 @@
+/*
+ * Copyright 2013-2016, Kasra Faghihi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.offbynull.portmapper.benchmarks;
+
+import com.offbynull.portmapper.gateways.network.internalmessages.ReadTcpNetworkNotification;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * TCP benchmarks for {@link com.offbynull.portmapper.gateways.network.NetworkGateway}, driven through its bus against an echo server on
+ * 127.0.0.1. {@code concurrency} is the number of gateway connections that have a chunk in flight at the same time.
+ * @author Kasra Faghihi
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class NetworkGatewayTcpBenchmark {
+    @Param({"1", "8"})
+    private int concurrency;
+
+    @Param({"1024", "65536"})
+    private int chunkSize;
+
+    private LoopbackHarness harness;
+    private int[] ids;
+    private Map<Integer, Integer> idToIndex;
+    private int[] remaining;
+    private byte[] data;
+
+    /**
+     * Start gateway/echo server and open connections.
+     * @throws IOException on error
+     * @throws InterruptedException if interrupted
+     */
+    @Setup(Level.Trial)
+    public void setup() throws IOException, InterruptedException {
+        harness = new LoopbackHarness();
+        ids = new int[concurrency];
+        idToIndex = new HashMap<>();
+        for (int i = 0; i < concurrency; i++) {
+            ids[i] = harness.createTcpSocket();
+            idToIndex.put(ids[i], i);
+        }
+        remaining = new int[concurrency];
+        data = new byte[chunkSize];
+    }
+
+    /**
+     * Stop gateway/echo server.
+     * @throws IOException on error
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        harness.close();
+    }
+
+    /**
+     * Write a chunk to every connection and wait for all of it to be echoed back. Reported as bytes per second (each way) in the
+     * {@code bytes} counter.
+     * @param counters counters
+     * @throws InterruptedException if interrupted
+     */
+    @Benchmark
+    public void echo(Counters counters) throws InterruptedException {
+        for (int i = 0; i < concurrency; i++) {
+            remaining[i] = chunkSize;
+            harness.sendTcp(ids[i], data);
+        }
+
+        int outstanding = concurrency;
+        while (outstanding > 0) {
+            ReadTcpNetworkNotification read = harness.awaitTcp();
+            int idx = idToIndex.get(read.getId());
+            remaining[idx] -= read.getData().length;
+            if (remaining[idx] == 0) {
+                outstanding--;
+            }
+        }
+
+        counters.bytes += (long) concurrency * chunkSize;
+    }
+
+    /**
+     * Secondary counters. JMH reports each as a rate.
+     */
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Counters {
+        /**
+         * Bytes echoed.
+         */
+        public long bytes;
+
+        /**
+         * Reset counters.
+         */
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytes = 0L;
+        }
+    }
+}
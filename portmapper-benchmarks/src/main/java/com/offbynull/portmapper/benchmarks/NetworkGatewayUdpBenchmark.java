@@ -0,0 +1,170 @@
+/*
+ * Copyright 2013-2016, Kasra Faghihi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.offbynull.portmapper.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * UDP benchmarks for {@link com.offbynull.portmapper.gateways.network.NetworkGateway}, driven through its bus against an echo server on
+ * 127.0.0.1. {@code concurrency} is the number of gateway sockets that have a datagram in flight at the same time.
+ * @author Kasra Faghihi
+ */
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class NetworkGatewayUdpBenchmark {
+    private static final int DATAGRAM_SIZE = 64;
+
+    @Param({"1", "8", "32"})
+    private int concurrency;
+
+    private LoopbackHarness harness;
+    private int[] ids;
+    private byte[] data;
+
+    /**
+     * Start gateway/echo server and create sockets.
+     * @throws IOException on error
+     * @throws InterruptedException if interrupted
+     */
+    @Setup(Level.Trial)
+    public void setup() throws IOException, InterruptedException {
+        harness = new LoopbackHarness();
+        ids = new int[concurrency];
+        for (int i = 0; i < concurrency; i++) {
+            ids[i] = harness.createUdpSocket();
+        }
+        data = new byte[DATAGRAM_SIZE];
+    }
+
+    /**
+     * Stop gateway/echo server.
+     * @throws IOException on error
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        harness.close();
+    }
+
+    /**
+     * Send a datagram from every socket and wait for all of them to be echoed back. Reported as datagrams per second in the
+     * {@code datagrams} counter.
+     * @param counters counters
+     * @throws InterruptedException if interrupted
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    public void echo(DatagramCounter counters) throws InterruptedException {
+        sendAndAwaitAll();
+        counters.datagrams += concurrency;
+    }
+
+    /**
+     * Same as {@link #echo(com.offbynull.portmapper.benchmarks.NetworkGatewayUdpBenchmark.DatagramCounter) }, but sampled to get round-trip
+     * latency percentiles. With a {@code concurrency} above 1, this is the time for the last of the in-flight datagrams to come back.
+     * @throws InterruptedException if interrupted
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void roundTrip() throws InterruptedException {
+        sendAndAwaitAll();
+    }
+
+    /**
+     * Create and close as many sockets as {@code concurrency}. Reported as sockets per second in the {@code sockets} counter.
+     * @param counters counters
+     * @throws InterruptedException if interrupted
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    public void createAndClose(SocketCounter counters) throws InterruptedException {
+        int[] tempIds = new int[concurrency];
+        for (int i = 0; i < concurrency; i++) {
+            tempIds[i] = harness.createUdpSocket();
+        }
+        for (int i = 0; i < concurrency; i++) {
+            harness.closeSocket(tempIds[i]);
+        }
+        counters.sockets += concurrency;
+    }
+
+    private void sendAndAwaitAll() throws InterruptedException {
+        for (int i = 0; i < concurrency; i++) {
+            harness.sendUdp(ids[i], data);
+        }
+        for (int i = 0; i < concurrency; i++) {
+            harness.awaitUdp();
+        }
+    }
+
+    /**
+     * Datagram counter. JMH reports it as a rate.
+     */
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class DatagramCounter {
+        /**
+         * Datagrams echoed.
+         */
+        public long datagrams;
+
+        /**
+         * Reset counter.
+         */
+        @Setup(Level.Iteration)
+        public void reset() {
+            datagrams = 0L;
+        }
+    }
+
+    /**
+     * Socket counter. JMH reports it as a rate.
+     */
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class SocketCounter {
+        /**
+         * Sockets created and closed.
+         */
+        public long sockets;
+
+        /**
+         * Reset counter.
+         */
+        @Setup(Level.Iteration)
+        public void reset() {
+            sockets = 0L;
+        }
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright 2013-2016, Kasra Faghihi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.offbynull.portmapper.benchmarks;
+
+import com.offbynull.portmapper.helpers.NetworkUtils;
+import com.offbynull.portmapper.mappers.pcp.externalmessages.MapPcpRequest;
+import com.offbynull.portmapper.mappers.pcp.externalmessages.MapPcpResponse;
+import com.offbynull.portmapper.mappers.pcp.externalmessages.MapPcpResponseView;
+import com.offbynull.portmapper.mappers.pcp.externalmessages.PeerPcpRequest;
+import com.offbynull.portmapper.mappers.pcp.externalmessages.PeerPcpResponse;
+import com.offbynull.portmapper.mappers.pcp.externalmessages.PeerPcpResponseView;
+import com.offbynull.portmapper.mappers.pcp.externalmessages.PreferFailurePcpOption;
+import com.offbynull.portmapper.mappers.pcp.externalmessages.ThirdPartyPcpOption;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parse/dump benchmarks for PCP MAP and PEER messages. Messages mirror the ones used in the main project's PCP message tests.
+ * @author Kasra Faghihi
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PcpCodecBenchmark {
+    private static final InetAddress IPV4_TEST_ADDRESS
+            = NetworkUtils.convertBytesToAddress(new byte[] {1, 2, 3, 4});
+    private static final InetAddress IPV6_TEST_ADDRESS
+            = NetworkUtils.convertBytesToAddress(new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16});
+    private static final byte[] NONCE = new byte[] { 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12 };
+
+    private MapPcpRequest mapRequest;
+    private byte[] mapRequestBuffer;
+    private MapPcpResponse mapResponse;
+    private byte[] mapResponseBuffer;
+    private ByteBuffer mapResponseByteBuffer;
+    private MapPcpResponseView mapResponseView;
+
+    private PeerPcpRequest peerRequest;
+    private byte[] peerRequestBuffer;
+    private PeerPcpResponse peerResponse;
+    private byte[] peerResponseBuffer;
+    private ByteBuffer peerResponseByteBuffer;
+    private PeerPcpResponseView peerResponseView;
+
+    private ByteBuffer outBuffer;
+
+    /**
+     * Set up messages.
+     */
+    @Setup
+    public void setup() {
+        mapRequest = new MapPcpRequest(NONCE, 1, 2, 0, IPV4_TEST_ADDRESS, 0xFFFFFFFFL, IPV6_TEST_ADDRESS,
+                new PreferFailurePcpOption(), new ThirdPartyPcpOption(IPV6_TEST_ADDRESS));
+        mapRequestBuffer = mapRequest.dump();
+        mapResponse = new MapPcpResponse(NONCE, 1, 2, 3, IPV6_TEST_ADDRESS, 0, 0xFFFFFFFFL, 0xFFFFFFFEL);
+        mapResponseBuffer = mapResponse.dump();
+        mapResponseByteBuffer = ByteBuffer.wrap(mapResponseBuffer);
+        mapResponseView = new MapPcpResponseView();
+
+        peerRequest = new PeerPcpRequest(NONCE, 1, 2, 3, IPV6_TEST_ADDRESS, 4, IPV4_TEST_ADDRESS, 0xFFFFFFFFL, IPV6_TEST_ADDRESS,
+                new PreferFailurePcpOption(), new ThirdPartyPcpOption(IPV6_TEST_ADDRESS));
+        peerRequestBuffer = peerRequest.dump();
+        peerResponse = new PeerPcpResponse(NONCE, 1, 2, 3, IPV6_TEST_ADDRESS, 4, IPV4_TEST_ADDRESS, 0, 0xFFFFFFFFL, 0xFFFFFFFEL);
+        peerResponseBuffer = peerResponse.dump();
+        peerResponseByteBuffer = ByteBuffer.wrap(peerResponseBuffer);
+        peerResponseView = new PeerPcpResponseView();
+
+        outBuffer = ByteBuffer.allocate(1100);
+    }
+
+    /**
+     * Dump MAP request.
+     * @return dumped request
+     */
+    @Benchmark
+    public byte[] mapRequestDump() {
+        return mapRequest.dump();
+    }
+
+    /**
+     * Write MAP request in to a reused buffer.
+     * @return buffer written to
+     */
+    @Benchmark
+    public ByteBuffer mapRequestWriteTo() {
+        outBuffer.clear();
+        mapRequest.writeTo(outBuffer);
+        return outBuffer;
+    }
+
+    /**
+     * Parse MAP request.
+     * @return parsed request
+     */
+    @Benchmark
+    public MapPcpRequest mapRequestParse() {
+        return new MapPcpRequest(mapRequestBuffer);
+    }
+
+    /**
+     * Dump MAP response.
+     * @return dumped response
+     */
+    @Benchmark
+    public byte[] mapResponseDump() {
+        return mapResponse.dump();
+    }
+
+    /**
+     * Parse MAP response.
+     * @return parsed response
+     */
+    @Benchmark
+    public MapPcpResponse mapResponseParse() {
+        return new MapPcpResponse(mapResponseBuffer);
+    }
+
+    /**
+     * Read MAP response fields through a reused view.
+     * @return assigned external port
+     */
+    @Benchmark
+    public int mapResponseView() {
+        mapResponseView.wrap(mapResponseByteBuffer);
+        return mapResponseView.isMappingNonce(NONCE) ? mapResponseView.getAssignedExternalPort() : -1;
+    }
+
+    /**
+     * Dump PEER request.
+     * @return dumped request
+     */
+    @Benchmark
+    public byte[] peerRequestDump() {
+        return peerRequest.dump();
+    }
+
+    /**
+     * Write PEER request in to a reused buffer.
+     * @return buffer written to
+     */
+    @Benchmark
+    public ByteBuffer peerRequestWriteTo() {
+        outBuffer.clear();
+        peerRequest.writeTo(outBuffer);
+        return outBuffer;
+    }
+
+    /**
+     * Parse PEER request.
+     * @return parsed request
+     */
+    @Benchmark
+    public PeerPcpRequest peerRequestParse() {
+        return new PeerPcpRequest(peerRequestBuffer);
+    }
+
+    /**
+     * Dump PEER response.
+     * @return dumped response
+     */
+    @Benchmark
+    public byte[] peerResponseDump() {
+        return peerResponse.dump();
+    }
+
+    /**
+     * Parse PEER response.
+     * @return parsed response
+     */
+    @Benchmark
+    public PeerPcpResponse peerResponseParse() {
+        return new PeerPcpResponse(peerResponseBuffer);
+    }
+
+    /**
+     * Read PEER response fields through a reused view.
+     * @return remote peer port
+     */
+    @Benchmark
+    public int peerResponseView() {
+        peerResponseView.wrap(peerResponseByteBuffer);
+        return peerResponseView.isMappingNonce(NONCE) ? peerResponseView.getRemotePeerPort() : -1;
+    }
+}
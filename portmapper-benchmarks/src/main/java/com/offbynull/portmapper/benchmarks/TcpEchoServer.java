@@ -0,0 +1,106 @@
+/*
+ * Copyright 2013-2016, Kasra Faghihi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.offbynull.portmapper.benchmarks;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import org.apache.commons.io.IOUtils;
+
+// Echoes everything read from each accepted connection back over that same connection. Each connection gets its own thread.
+final class TcpEchoServer implements Closeable {
+    private final ServerSocket serverSocket;
+    private final Set<Socket> sockets = Collections.synchronizedSet(new HashSet<Socket>());
+    private final Thread acceptThread;
+
+    TcpEchoServer() throws IOException {
+        serverSocket = new ServerSocket();
+        serverSocket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        acceptThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (true) {
+                        Socket socket = serverSocket.accept();
+                        socket.setTcpNoDelay(true);
+                        sockets.add(socket);
+                        startEchoThread(socket);
+                    }
+                } catch (SocketException se) {
+                    // server socket closed, exit
+                } catch (IOException ioe) {
+                    throw new IllegalStateException(ioe);
+                }
+            }
+        });
+        acceptThread.setDaemon(true);
+        acceptThread.setName("TCP Echo Server");
+        acceptThread.start();
+    }
+
+    private void startEchoThread(final Socket socket) {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                byte[] buffer = new byte[65536];
+                try {
+                    InputStream is = socket.getInputStream();
+                    OutputStream os = socket.getOutputStream();
+                    int amount;
+                    while ((amount = is.read(buffer)) != -1) {
+                        os.write(buffer, 0, amount);
+                    }
+                } catch (IOException ioe) {
+                    // socket closed, exit
+                } finally {
+                    IOUtils.closeQuietly(socket);
+                    sockets.remove(socket);
+                }
+            }
+        });
+        thread.setDaemon(true);
+        thread.setName("TCP Echo Connection");
+        thread.start();
+    }
+
+    InetSocketAddress getAddress() {
+        return (InetSocketAddress) serverSocket.getLocalSocketAddress();
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOUtils.closeQuietly(serverSocket);
+        synchronized (sockets) {
+            for (Socket socket : sockets) {
+                IOUtils.closeQuietly(socket);
+            }
+        }
+        try {
+            acceptThread.join();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2013-2016, Kasra Faghihi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.offbynull.portmapper.benchmarks;
+
+import com.offbynull.portmapper.gateway.Bus;
+import com.offbynull.portmapper.gateways.network.NetworkGateway;
+import com.offbynull.portmapper.gateways.network.internalmessages.KillNetworkRequest;
+import com.offbynull.portmapper.mapper.PortMapper;
+import com.offbynull.portmapper.mapper.PortType;
+import com.offbynull.portmapper.mappers.natpmp.NatPmpPortMapper;
+import com.offbynull.portmapper.mappers.pcp.PcpPortMapper;
+import com.offbynull.portmapper.mappers.upnpigd.PortMapperUpnpIgdPortMapper;
+import com.offbynull.portmapper.testtools.FaultInjectingBus;
+import com.offbynull.portmapper.testtools.FaultProfile;
+import com.offbynull.portmapper.testtools.RouterEmulator;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.lang3.Range;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time-to-mapping distribution of each port mapper under different network conditions. The mapper talks to an in-process router emulator
+ * on 127.0.0.1 through a fault-injecting bus, so the numbers show how the retry schedules (NAT-PMP/PCP exponential backoff, UPnP-IGD TCP
+ * attempts) hold up against loss, latency, duplication, reordering and connection resets. {@code profile} is one of the presets in
+ * {@link FaultProfile}.
+ * <p>
+ * Failed attempts are sampled as well (their time is the time it took the mapper to give up) -- the returned flag tells them apart, but
+ * JMH doesn't report on it. Run with {@code -p profile=...} to narrow down which profile causes failures.
+ * @author Kasra Faghihi
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1, time = 5)
+@Measurement(iterations = 3, time = 10)
+@Fork(1)
+@State(Scope.Thread)
+public class TimeToMappingBenchmark {
+    private static final int PCP_PORT = 5351; // NAT-PMP and PCP mappers always send to this port
+    private static final long SEED = 1L;
+    private static final int MIN_PORT = 1024;
+    private static final int PORT_COUNT = 60000;
+
+    @Param({"IDEAL", "LOSSY", "SLOW", "REORDERING", "HOSTILE"})
+    private String profile;
+
+    @Param({"NATPMP", "PCP", "UPNPIGD"})
+    private String protocol;
+
+    private RouterEmulator emulator;
+    private NetworkGateway network;
+    private Bus networkBus;
+    private FaultInjectingBus faultBus;
+    private PortMapper mapper;
+    private int nextPort;
+
+    /**
+     * Start router emulator/gateway and create the mapper.
+     * @throws IOException on error
+     */
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        InetAddress localAddress = InetAddress.getLoopbackAddress();
+        emulator = RouterEmulator.create(localAddress, PCP_PORT, InetAddress.getByAddress(new byte[] {1, 2, 3, 4}));
+        network = NetworkGateway.create();
+        networkBus = network.getBus();
+        faultBus = new FaultInjectingBus(networkBus, FaultProfile.valueOf(profile), SEED);
+
+        switch (protocol) {
+            case "NATPMP":
+                mapper = new NatPmpPortMapper(faultBus, localAddress, localAddress);
+                break;
+            case "PCP":
+                mapper = new PcpPortMapper(faultBus, localAddress, localAddress);
+                break;
+            case "UPNPIGD":
+                // discovery is skipped, the mapper is pointed straight at the control URL
+                mapper = new PortMapperUpnpIgdPortMapper(faultBus, localAddress, emulator.getControlUrl(true),
+                        RouterEmulator.SERVER_NAME, RouterEmulator.NEW_SERVICE_TYPE, Range.between(1L, 65535L),
+                        Range.between(1L, 86400L), true);
+                break;
+            default:
+                throw new IllegalArgumentException(protocol);
+        }
+    }
+
+    /**
+     * Drop all mappings so that every iteration starts with an empty router.
+     */
+    @TearDown(Level.Iteration)
+    public void resetRouter() {
+        emulator.reboot();
+    }
+
+    /**
+     * Stop router emulator/gateway.
+     * @throws IOException on error
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        faultBus.close();
+        networkBus.send(new KillNetworkRequest());
+        emulator.close();
+    }
+
+    /**
+     * Map a TCP port, each invocation using a different internal port.
+     * @return {@code true} if the port was mapped, {@code false} if the mapper gave up
+     * @throws InterruptedException if interrupted
+     */
+    @Benchmark
+    public boolean mapPort() throws InterruptedException {
+        int port = MIN_PORT + nextPort;
+        nextPort = (nextPort + 1) % PORT_COUNT;
+        try {
+            mapper.mapPort(PortType.TCP, port, port, 3600L);
+            return true;
+        } catch (IllegalStateException ise) {
+            return false;
+        }
+    }
+}
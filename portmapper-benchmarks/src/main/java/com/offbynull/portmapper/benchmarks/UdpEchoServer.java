@@ -0,0 +1,70 @@
+/*
+ * Copyright 2013-2016, Kasra Faghihi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.offbynull.portmapper.benchmarks;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import org.apache.commons.io.IOUtils;
+
+// Echoes every datagram it receives back to its sender. Runs on its own thread so it doesn't compete with the gateway's selector thread.
+final class UdpEchoServer implements Closeable {
+    private final DatagramSocket socket;
+    private final Thread thread;
+
+    UdpEchoServer() throws IOException {
+        socket = new DatagramSocket(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                byte[] buffer = new byte[65535];
+                DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+                try {
+                    while (true) {
+                        packet.setLength(buffer.length);
+                        socket.receive(packet);
+                        socket.send(packet); // packet's address is now the sender's address
+                    }
+                } catch (SocketException se) {
+                    // socket closed, exit
+                } catch (IOException ioe) {
+                    throw new IllegalStateException(ioe);
+                }
+            }
+        });
+        thread.setDaemon(true);
+        thread.setName("UDP Echo Server");
+        thread.start();
+    }
+
+    InetSocketAddress getAddress() {
+        return (InetSocketAddress) socket.getLocalSocketAddress();
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOUtils.closeQuietly(socket);
+        try {
+            thread.join();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
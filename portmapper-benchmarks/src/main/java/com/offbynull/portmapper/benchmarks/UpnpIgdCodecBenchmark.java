@@ -0,0 +1,142 @@
+/*
+ * Copyright 2013-2016, Kasra Faghihi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.offbynull.portmapper.benchmarks;
+
+import com.offbynull.portmapper.mappers.upnpigd.externalmessages.RootUpnpIgdRequest;
+import com.offbynull.portmapper.mappers.upnpigd.externalmessages.RootUpnpIgdResponse;
+import com.offbynull.portmapper.mappers.upnpigd.externalmessages.ServiceDescriptionUpnpIgdRequest;
+import com.offbynull.portmapper.mappers.upnpigd.externalmessages.ServiceDescriptionUpnpIgdResponse;
+import com.offbynull.portmapper.mappers.upnpigd.externalmessages.ServiceDiscoveryUpnpIgdRequest;
+import com.offbynull.portmapper.mappers.upnpigd.externalmessages.ServiceDiscoveryUpnpIgdRequest.ProbeDeviceType;
+import com.offbynull.portmapper.mappers.upnpigd.externalmessages.ServiceDiscoveryUpnpIgdResponse;
+import java.io.UnsupportedEncodingException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parse/dump benchmarks for UPnP-IGD discovery and description messages. Responses are taken from the main project's UPnP-IGD message
+ * tests. Only requests are dumped, since responses are parse-only.
+ * @author Kasra Faghihi
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class UpnpIgdCodecBenchmark {
+    private ServiceDiscoveryUpnpIgdRequest serviceDiscoveryRequest;
+    private byte[] serviceDiscoveryResponseBuffer;
+
+    private RootUpnpIgdRequest rootRequest;
+    private URL rootUrl;
+    private byte[] rootResponseBuffer;
+
+    private ServiceDescriptionUpnpIgdRequest serviceDescriptionRequest;
+    private byte[] serviceDescriptionResponseBuffer;
+
+    /**
+     * Set up messages.
+     * @throws UnsupportedEncodingException never happens
+     * @throws MalformedURLException never happens
+     */
+    @Setup
+    public void setup() throws UnsupportedEncodingException, MalformedURLException {
+        serviceDiscoveryRequest = new ServiceDiscoveryUpnpIgdRequest(ProbeDeviceType.IPV4, null, 3, "ssdp:all");
+        // taken from ServiceDiscoveryUpnpIgdResponseTest
+        serviceDiscoveryResponseBuffer = ("HTTP/1.1 200 OK\r\n"
+                + "CACHE-CONTROL:max-age=1800\r\n"
+                + "EXT:\r\n"
+                + "LOCATION: http://10.0.0.138:80/IGD.xml\r\n"
+                + "SERVER:SpeedTouch 510 4.0.0.9.0 UPnP/1.0 (DG233B00011961)\r\n"
+                + "ST: urn:schemas-upnp-org:service:WANPPPConnection:1\r\n"
+                + "USN:uuid:UPnP-SpeedTouch510::urn:schemas-upnp-org:service:WANPPPConnection:1\r\n"
+                + "\r\n")
+                .getBytes("US-ASCII");
+
+        rootRequest = new RootUpnpIgdRequest("fake:80", "/IGD.xml");
+        rootUrl = new URL("http://fake:80/IGD.xml");
+        rootResponseBuffer = Fixtures.load("root-igd.txt");
+
+        serviceDescriptionRequest = new ServiceDescriptionUpnpIgdRequest("fake:80", "/WANIPConnection.xml");
+        serviceDescriptionResponseBuffer = Fixtures.load("scpd-wanipconnection.txt");
+    }
+
+    /**
+     * Dump SSDP M-SEARCH request.
+     * @return dumped request
+     */
+    @Benchmark
+    public byte[] serviceDiscoveryRequestDump() {
+        return serviceDiscoveryRequest.dump();
+    }
+
+    /**
+     * Parse SSDP M-SEARCH response.
+     * @return parsed response
+     */
+    @Benchmark
+    public ServiceDiscoveryUpnpIgdResponse serviceDiscoveryResponseParse() {
+        return new ServiceDiscoveryUpnpIgdResponse(serviceDiscoveryResponseBuffer);
+    }
+
+    /**
+     * Dump root device description request.
+     * @return dumped request
+     */
+    @Benchmark
+    public byte[] rootRequestDump() {
+        return rootRequest.dump();
+    }
+
+    /**
+     * Parse root device description response.
+     * @return parsed response
+     */
+    @Benchmark
+    public RootUpnpIgdResponse rootResponseParse() {
+        return new RootUpnpIgdResponse(rootUrl, rootResponseBuffer);
+    }
+
+    /**
+     * Dump service description (SCPD) request.
+     * @return dumped request
+     */
+    @Benchmark
+    public byte[] serviceDescriptionRequestDump() {
+        return serviceDescriptionRequest.dump();
+    }
+
+    /**
+     * Parse service description (SCPD) response.
+     * @return parsed response
+     */
+    @Benchmark
+    public ServiceDescriptionUpnpIgdResponse serviceDescriptionResponseParse() {
+        return new ServiceDescriptionUpnpIgdResponse(serviceDescriptionResponseBuffer);
+    }
+}
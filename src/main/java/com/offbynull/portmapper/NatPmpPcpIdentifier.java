@@ -0,0 +1,228 @@
+/*
+ * Copyright 2013-2016, Kasra Faghihi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.offbynull.portmapper;
+
+import com.offbynull.portmapper.gateway.Bus;
+import static com.offbynull.portmapper.helpers.NetworkUtils.ZERO_IPV4;
+import static com.offbynull.portmapper.helpers.NetworkUtils.ZERO_IPV6;
+import com.offbynull.portmapper.mapper.MapperIoUtils.BytesToResponseTransformer;
+import com.offbynull.portmapper.mapper.MapperIoUtils.RequestToBytesTransformer;
+import com.offbynull.portmapper.mapper.MapperIoUtils.UdpRequest;
+import static com.offbynull.portmapper.mapper.MapperIoUtils.findPotentialGatewayAddresses;
+import static com.offbynull.portmapper.mapper.MapperIoUtils.getLocalIpAddresses;
+import static com.offbynull.portmapper.mapper.MapperIoUtils.performUdpRequests;
+import com.offbynull.portmapper.mapper.PortMapper;
+import com.offbynull.portmapper.mapper.PortMapperMetrics;
+import com.offbynull.portmapper.mappers.natpmp.NatPmpPortMapper;
+import com.offbynull.portmapper.mappers.pcp.PcpPortMapper;
+import com.offbynull.portmapper.mappers.pcp.externalmessages.MapPcpRequest;
+import com.offbynull.portmapper.mappers.pcp.externalmessages.MapPcpResponse;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Identifies NAT-PMP and PCP devices in a single pass.
+ * <p>
+ * NAT-PMP and PCP are served on the same port (5351), and the first byte of every message on that port is the protocol version (0 for
+ * NAT-PMP, 2 for PCP). Rather than gathering potential gateways and probing all of them separately for each protocol (as
+ * {@link NatPmpPortMapper#identify(com.offbynull.portmapper.gateway.Bus, com.offbynull.portmapper.gateway.Bus, java.net.InetAddress...) }
+ * and {@link PcpPortMapper#identify(com.offbynull.portmapper.gateway.Bus, com.offbynull.portmapper.gateway.Bus, java.net.InetAddress...) }
+ * do), this class gathers them once and sends each a single PCP MAP probe per round. Responders are classified by the version byte of
+ * their response:
+ * <ul>
+ * <li>2 -- a PCP server.</li>
+ * <li>0 -- a NAT-PMP server that doesn't speak PCP (it responds with NAT-PMP's unsupported version error).</li>
+ * <li>anything else -- a PCP server that only speaks some other version of PCP (it responds with PCP's version negotiation error).</li>
+ * </ul>
+ * Since PCP servers are encouraged to also support NAT-PMP, every responder is then sent a single NAT-PMP external address request to
+ * confirm NAT-PMP support. That follow-up only goes out to the gateways that responded, not every potential gateway.
+ * @author Kasra Faghihi
+ */
+public final class NatPmpPcpIdentifier {
+    private static final Logger LOG = LoggerFactory.getLogger(NatPmpPcpIdentifier.class);
+
+    private static final int PORT = 5351;
+
+    private static final int NAT_PMP_VERSION = 0;
+    private static final int PCP_VERSION = 2;
+    private static final int UNSUPP_VERSION = 1; // same result code for both NAT-PMP and PCP
+
+    private static final RequestToBytesTransformer REQUEST_TRANSFORMER = new RequestToBytesTransformer() {
+        @Override
+        public byte[] create(Object request) {
+            return ((MapPcpRequest) request).dump();
+        }
+    };
+    private static final BytesToResponseTransformer RESPONSE_TRANSFORMER = new BytesToResponseTransformer() {
+        @Override
+        public Object create(byte[] buffer) {
+            Validate.isTrue(buffer.length >= 4);
+            Validate.isTrue((buffer[1] & 0x80) != 0); // must be a response
+
+            int version = buffer[0] & 0xFF;
+            switch (version) {
+                case PCP_VERSION:
+                    return new ProbeResponse(version, new MapPcpResponse(buffer).getEpochTime());
+                case NAT_PMP_VERSION:
+                    return new ProbeResponse(version, 0L);
+                default:
+                    Validate.isTrue((buffer[3] & 0xFF) == UNSUPP_VERSION);
+                    return new ProbeResponse(version, 0L);
+            }
+        }
+    };
+
+    private NatPmpPcpIdentifier() {
+        // do nothing
+    }
+
+    /**
+     * Identify NAT-PMP and PCP devices on all interfaces.
+     * @param networkBus network bus
+     * @param processBus process bus
+     * @param additionalIps additional IPs to check
+     * @return found NAT-PMP devices followed by found PCP devices
+     * @throws NullPointerException if any argument is {@code null} or contains {@code null}
+     * @throws InterruptedException if interrupted
+     */
+    public static List<PortMapper> identify(Bus networkBus, Bus processBus, InetAddress ... additionalIps) throws InterruptedException {
+        LOG.info("Attempting to identify devices");
+
+        Validate.notNull(networkBus);
+        Validate.notNull(processBus);
+        Validate.notNull(additionalIps);
+        Validate.noNullElements(additionalIps);
+
+        Set<InetAddress> potentialGatewayAddresses = findPotentialGatewayAddresses(processBus, additionalIps);
+        Set<InetAddress> sourceAddresses = getLocalIpAddresses(networkBus);
+
+        return identify(networkBus, sourceAddresses, potentialGatewayAddresses);
+    }
+
+    /**
+     * Identify NAT-PMP and PCP devices from specific local addresses to specific potential gateways. Every gateway address is probed from
+     * every source address of the same IP version. Unlike
+     * {@link #identify(com.offbynull.portmapper.gateway.Bus, com.offbynull.portmapper.gateway.Bus, java.net.InetAddress...) }, no OS
+     * commands are run to find potential gateways -- this is useful when the source/gateway addresses that have changed are already known
+     * and only those need to be probed.
+     * @param networkBus network bus
+     * @param sourceAddresses local addresses to probe from
+     * @param gatewayAddresses potential gateway addresses to probe
+     * @return found NAT-PMP devices followed by found PCP devices
+     * @throws NullPointerException if any argument is {@code null} or contains {@code null}
+     * @throws InterruptedException if interrupted
+     */
+    public static List<PortMapper> identify(Bus networkBus, Collection<InetAddress> sourceAddresses,
+            Collection<InetAddress> gatewayAddresses) throws InterruptedException {
+        Validate.notNull(networkBus);
+        Validate.notNull(sourceAddresses);
+        Validate.noNullElements(sourceAddresses);
+        Validate.notNull(gatewayAddresses);
+        Validate.noNullElements(gatewayAddresses);
+
+        // Query -- send the probe to every potential gateway on every interface
+        List<UdpRequest> udpReqs = new LinkedList<>();
+
+        for (InetAddress sourceAddress : sourceAddresses) {
+            for (InetAddress gatewayAddress : gatewayAddresses) {
+                // both addresses must be ipv4 or both address must be ipv6
+                if (!sourceAddress.getClass().equals(gatewayAddress.getClass())) {
+                    continue;
+                }
+
+                // see comment in NatPmpPortMapper.identify() as to why loopback addresses are skipped
+                if (gatewayAddress.isLoopbackAddress()) {
+                    continue;
+                }
+
+                udpReqs.add(createProbeUdpRequest(sourceAddress, gatewayAddress));
+            }
+        }
+
+        long probeStartTime = System.nanoTime();
+        performUdpRequests(networkBus, udpReqs, false, 1000L, 1000L, 1000L, 1000L, 1000L); // don't do standard natpmp/pcp retries -- just
+                                                                                           // attempting to discover
+        PortMapperMetrics.recordUdpIdentify(PcpPortMapper.class, probeStartTime, udpReqs);
+
+
+
+        // Classify responders
+        List<PcpPortMapper> pcpMappers = new LinkedList<>();
+        List<NatPmpPortMapper> natPmpCandidates = new LinkedList<>();
+        for (UdpRequest udpReq : udpReqs) {
+            ProbeResponse resp = (ProbeResponse) udpReq.getResponse();
+            if (resp == null) {
+                continue;
+            }
+
+            InetAddress sourceAddress = udpReq.getSourceAddress();
+            InetAddress gatewayAddress = udpReq.getDestinationSocketAddress().getAddress();
+            switch (resp.version) {
+                case PCP_VERSION: {
+                    PcpPortMapper portMapper = new PcpPortMapper(networkBus, sourceAddress, gatewayAddress);
+                    portMapper.getEpochTracker().updateEpoch(resp.epochTime); // seed epoch bookkeeping
+                    pcpMappers.add(portMapper);
+                    break;
+                }
+                case NAT_PMP_VERSION:
+                    break;
+                default:
+                    LOG.debug("{} responded with unsupported PCP version {}", gatewayAddress, resp.version);
+                    break;
+            }
+
+            natPmpCandidates.add(new NatPmpPortMapper(networkBus, sourceAddress, gatewayAddress));
+        }
+
+
+
+        // Confirm NAT-PMP on responders only -- this also seeds the epoch/external address of each NAT-PMP mapper
+        List<PortMapper> ret = new LinkedList<>();
+        if (!natPmpCandidates.isEmpty()) {
+            ret.addAll(NatPmpPortMapper.revalidate(networkBus, natPmpCandidates));
+        }
+        ret.addAll(pcpMappers);
+
+        return ret;
+    }
+
+    private static UdpRequest createProbeUdpRequest(InetAddress sourceAddress, InetAddress gatewayAddress) {
+        // Same MAP probe that PcpPortMapper.identify() sends -- see the comment there as to why MAP is used rather than ANNOUNCE.
+        return new UdpRequest(
+                sourceAddress,
+                new InetSocketAddress(gatewayAddress, PORT),
+                new MapPcpRequest(new byte[12], 0, 0, 0, ZERO_IPV6, 0L, ZERO_IPV4),
+                REQUEST_TRANSFORMER,
+                RESPONSE_TRANSFORMER);
+    }
+
+    private static final class ProbeResponse {
+        private final int version;
+        private final long epochTime;
+
+        ProbeResponse(int version, long epochTime) {
+            this.version = version;
+            this.epochTime = epochTime;
+        }
+    }
+}
@@ -0,0 +1,285 @@
+/*
+ * Copyright 2013-2016, Kasra Faghihi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.offbynull.portmapper;
+
+import com.offbynull.portmapper.gateway.Bus;
+import com.offbynull.portmapper.mapper.PortMapper;
+import com.offbynull.portmapper.mappers.natpmp.NatPmpPortMapper;
+import com.offbynull.portmapper.mappers.pcp.PcpPortMapper;
+import com.offbynull.portmapper.mappers.upnpigd.FirewallUpnpIgdPortMapper;
+import com.offbynull.portmapper.mappers.upnpigd.PortMapperUpnpIgdPortMapper;
+import com.offbynull.portmapper.mappers.upnpigd.UpnpIgdPortMapper;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import org.apache.commons.lang3.Range;
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Persists discovered port mappers to a compact local file so that they can be restored on the next start without going through full
+ * discovery again. For each port mapper, only what's needed to reconstruct it is stored: the protocol, the source address, the gateway
+ * address (NAT-PMP/PCP) or the control URL, service type, server name, and external port / lease duration ranges (UPnP-IGD).
+ * <p>
+ * Restored port mappers haven't been checked against the network -- the devices they point to may have gone away since they were saved.
+ * {@link PortMapperFactory#discover(com.offbynull.portmapper.gateway.Bus, com.offbynull.portmapper.gateway.Bus, java.nio.file.Path,
+ * java.net.InetAddress...) } takes care of revalidating them before handing them back.
+ * @author Kasra Faghihi
+ */
+public final class PortMapperCache {
+    private static final Logger LOG = LoggerFactory.getLogger(PortMapperCache.class);
+
+    private static final int MAGIC = 0x504D4341; // "PMCA"
+    private static final int VERSION = 1;
+    private static final int MAX_ENTRIES = 1024; // sanity check against corrupt files
+
+    private static final int TYPE_NAT_PMP = 1;
+    private static final int TYPE_PCP = 2;
+    private static final int TYPE_UPNP_IGD_PORT_MAPPER = 3;
+    private static final int TYPE_UPNP_IGD_FIREWALL = 4;
+
+    private PortMapperCache() {
+        // do nothing
+    }
+
+    /**
+     * Writes port mappers to a file. The file is written to a temporary file beside {@code file} and then moved in to place, so readers
+     * never see a partially written file. Port mapper implementations that this class doesn't know how to persist are skipped.
+     * @param file file to write to
+     * @param mappers port mappers to write
+     * @throws NullPointerException if any argument is {@code null} or contains {@code null}
+     * @throws IOException if an IO error occurs
+     */
+    public static void save(Path file, Collection<? extends PortMapper> mappers) throws IOException {
+        Validate.notNull(file);
+        Validate.notNull(mappers);
+        Validate.noNullElements(mappers);
+
+        List<PortMapper> persistable = new ArrayList<>(mappers.size());
+        for (PortMapper mapper : mappers) {
+            if (getType(mapper) == -1) {
+                LOG.debug("Unable to persist {} -- skipping", mapper);
+                continue;
+            }
+            persistable.add(mapper);
+        }
+
+        Path absFile = file.toAbsolutePath();
+        Path tempFile = Files.createTempFile(absFile.getParent(), absFile.getFileName().toString(), ".tmp");
+        try {
+            try (OutputStream os = Files.newOutputStream(tempFile);
+                    DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(os))) {
+                dos.writeInt(MAGIC);
+                dos.writeByte(VERSION);
+                dos.writeShort(persistable.size());
+                for (PortMapper mapper : persistable) {
+                    writeMapper(dos, mapper);
+                }
+            }
+
+            try {
+                Files.move(tempFile, absFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException amnse) {
+                Files.move(tempFile, absFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    /**
+     * Reads port mappers from a file written by {@link #save(java.nio.file.Path, java.util.Collection) }. Note that the port mappers
+     * returned haven't been revalidated.
+     * @param networkBus network bus to hand to the restored port mappers
+     * @param file file to read from
+     * @return restored port mappers (in the order they were saved)
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IOException if an IO error occurs, or if the file is corrupt or was written by an incompatible version
+     */
+    public static List<PortMapper> load(Bus networkBus, Path file) throws IOException {
+        Validate.notNull(networkBus);
+        Validate.notNull(file);
+
+        try (InputStream is = Files.newInputStream(file);
+                DataInputStream dis = new DataInputStream(new BufferedInputStream(is))) {
+            if (dis.readInt() != MAGIC) {
+                throw new IOException("Not a port mapper cache file");
+            }
+            int version = dis.readUnsignedByte();
+            if (version != VERSION) {
+                throw new IOException("Unsupported port mapper cache version: " + version);
+            }
+
+            int count = dis.readUnsignedShort();
+            if (count > MAX_ENTRIES) {
+                throw new IOException("Too many entries: " + count);
+            }
+
+            List<PortMapper> ret = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                ret.add(readMapper(dis, networkBus));
+            }
+
+            if (dis.read() != -1) {
+                throw new IOException("Trailing data");
+            }
+
+            return ret;
+        } catch (EOFException eofe) {
+            throw new IOException("Truncated port mapper cache file", eofe);
+        }
+    }
+
+    private static int getType(PortMapper mapper) {
+        if (mapper instanceof NatPmpPortMapper) {
+            return TYPE_NAT_PMP;
+        } else if (mapper instanceof PcpPortMapper) {
+            return TYPE_PCP;
+        } else if (mapper instanceof PortMapperUpnpIgdPortMapper) {
+            return TYPE_UPNP_IGD_PORT_MAPPER;
+        } else if (mapper instanceof FirewallUpnpIgdPortMapper) {
+            return TYPE_UPNP_IGD_FIREWALL;
+        } else {
+            return -1;
+        }
+    }
+
+    private static void writeMapper(DataOutputStream dos, PortMapper mapper) throws IOException {
+        int type = getType(mapper);
+        dos.writeByte(type);
+        writeAddress(dos, mapper.getSourceAddress());
+        switch (type) {
+            case TYPE_NAT_PMP:
+                writeAddress(dos, ((NatPmpPortMapper) mapper).getGatewayAddress());
+                break;
+            case TYPE_PCP:
+                writeAddress(dos, ((PcpPortMapper) mapper).getGatewayAddress());
+                break;
+            case TYPE_UPNP_IGD_PORT_MAPPER:
+            case TYPE_UPNP_IGD_FIREWALL: {
+                UpnpIgdPortMapper upnpIgdMapper = (UpnpIgdPortMapper) mapper;
+                dos.writeUTF(upnpIgdMapper.getControlUrl().toString());
+                dos.writeUTF(upnpIgdMapper.getServiceType());
+                writeNullableString(dos, upnpIgdMapper.getServerName());
+                writeRange(dos, upnpIgdMapper.getExternalPortRange());
+                writeRange(dos, upnpIgdMapper.getLeaseDurationRange());
+                if (type == TYPE_UPNP_IGD_PORT_MAPPER) {
+                    dos.writeBoolean(((PortMapperUpnpIgdPortMapper) mapper).hasAddAnyPortMappingMethod());
+                }
+                break;
+            }
+            default:
+                throw new IllegalStateException(); // should never happen
+        }
+    }
+
+    private static PortMapper readMapper(DataInputStream dis, Bus networkBus) throws IOException {
+        int type = dis.readUnsignedByte();
+        InetAddress sourceAddress = readAddress(dis);
+        try {
+            switch (type) {
+                case TYPE_NAT_PMP:
+                    return new NatPmpPortMapper(networkBus, sourceAddress, readAddress(dis));
+                case TYPE_PCP:
+                    return new PcpPortMapper(networkBus, sourceAddress, readAddress(dis));
+                case TYPE_UPNP_IGD_PORT_MAPPER:
+                case TYPE_UPNP_IGD_FIREWALL: {
+                    URL controlUrl = new URL(dis.readUTF());
+                    String serviceType = dis.readUTF();
+                    String serverName = readNullableString(dis);
+                    Range<Long> externalPortRange = readRange(dis);
+                    Range<Long> leaseDurationRange = readRange(dis);
+                    if (type == TYPE_UPNP_IGD_PORT_MAPPER) {
+                        boolean hasAddAnyPortMappingMethod = dis.readBoolean();
+                        return new PortMapperUpnpIgdPortMapper(networkBus, sourceAddress, controlUrl, serverName, serviceType,
+                                externalPortRange, leaseDurationRange, hasAddAnyPortMappingMethod);
+                    } else {
+                        return new FirewallUpnpIgdPortMapper(networkBus, sourceAddress, controlUrl, serverName, serviceType,
+                                externalPortRange, leaseDurationRange);
+                    }
+                }
+                default:
+                    throw new IOException("Unrecognized entry type: " + type);
+            }
+        } catch (MalformedURLException | IllegalArgumentException e) { // IAE thrown by mapper constructors on bad values
+            throw new IOException("Invalid entry", e);
+        }
+    }
+
+    private static void writeAddress(DataOutputStream dos, InetAddress address) throws IOException {
+        byte[] addressBytes = address.getAddress();
+        dos.writeByte(addressBytes.length);
+        dos.write(addressBytes);
+        if (address instanceof Inet6Address) {
+            dos.writeInt(((Inet6Address) address).getScopeId()); // link-local addresses are useless without their scope
+        }
+    }
+
+    private static InetAddress readAddress(DataInputStream dis) throws IOException {
+        int len = dis.readUnsignedByte();
+        if (len != 4 && len != 16) {
+            throw new IOException("Bad address length: " + len);
+        }
+        byte[] addressBytes = new byte[len];
+        dis.readFully(addressBytes);
+        if (len == 16) {
+            int scopeId = dis.readInt();
+            if (scopeId != 0) {
+                return Inet6Address.getByAddress(null, addressBytes, scopeId);
+            }
+        }
+        return InetAddress.getByAddress(addressBytes);
+    }
+
+    private static void writeNullableString(DataOutputStream dos, String str) throws IOException {
+        dos.writeBoolean(str != null);
+        if (str != null) {
+            dos.writeUTF(str);
+        }
+    }
+
+    private static String readNullableString(DataInputStream dis) throws IOException {
+        return dis.readBoolean() ? dis.readUTF() : null;
+    }
+
+    private static void writeRange(DataOutputStream dos, Range<Long> range) throws IOException {
+        dos.writeLong(range.getMinimum());
+        dos.writeLong(range.getMaximum());
+    }
+
+    private static Range<Long> readRange(DataInputStream dis) throws IOException {
+        long min = dis.readLong();
+        long max = dis.readLong();
+        return Range.between(min, max);
+    }
+}
@@ -20,7 +20,11 @@ import com.offbynull.portmapper.mapper.PortMapper;
 import com.offbynull.portmapper.mappers.natpmp.NatPmpPortMapper;
 import com.offbynull.portmapper.mappers.pcp.PcpPortMapper;
 import com.offbynull.portmapper.mappers.upnpigd.UpnpIgdPortMapper;
+import java.io.IOException;
 import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
 import org.apache.commons.lang3.Validate;
@@ -58,18 +62,96 @@ public final class PortMapperFactory {
         List<UpnpIgdPortMapper> upnpIgdMappers = UpnpIgdPortMapper.identify(networkBus);
         LOG.debug("Found UPnP-IGD mappers: {}", upnpIgdMappers);
         
-        List<NatPmpPortMapper> natPmpMappers = NatPmpPortMapper.identify(networkBus, processBus, additionalIps);
-        LOG.debug("Found NAT-PMP mappers: {}", natPmpMappers);
-        
-        List<PcpPortMapper> pcpMappers = PcpPortMapper.identify(networkBus, processBus, additionalIps);
-        LOG.debug("Found PCP mappers: {}", pcpMappers);
+        List<PortMapper> natPmpPcpMappers = NatPmpPcpIdentifier.identify(networkBus, processBus, additionalIps);
+        LOG.debug("Found NAT-PMP/PCP mappers: {}", natPmpPcpMappers);
         
         ret.addAll(upnpIgdMappers);
-        ret.addAll(natPmpMappers);
-        ret.addAll(pcpMappers);
+        ret.addAll(natPmpPcpMappers);
         
         LOG.debug("Total found mappers: {}", ret);
         
         return ret;
     }
+
+    /**
+     * Searches for all PCP, NAT-PMP, or UPNP-IGD enabled routers on all available interfaces, using a cache file to skip full discovery
+     * where possible.
+     * <p>
+     * If {@code cacheFile} exists, the port mappers stored in it are revalidated with a single cheap request per device (a NAT-PMP external
+     * address request, a PCP MAP probe, or a UPnP-IGD GetExternalIPAddress action). If every one of them responds, they're returned as-is.
+     * Otherwise (or if the cache file is missing, empty, or unreadable), full discovery is performed via
+     * {@link #discover(com.offbynull.portmapper.gateway.Bus, com.offbynull.portmapper.gateway.Bus, java.net.InetAddress...) } and the
+     * results are written back to {@code cacheFile} for next time. Errors reading or writing {@code cacheFile} are logged, not thrown.
+     * @param networkBus network bus
+     * @param processBus process bus
+     * @param cacheFile file to load cached port mappers from / save discovered port mappers to
+     * @param additionalIps additional IPs to check (only relevant for PCP and NAT-PMP)
+     * @return port mapper
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws InterruptedException if interrupted
+     */
+    public static List<PortMapper> discover(Bus networkBus, Bus processBus, Path cacheFile, InetAddress ... additionalIps)
+            throws InterruptedException {
+        Validate.notNull(networkBus);
+        Validate.notNull(processBus);
+        Validate.notNull(cacheFile);
+        Validate.notNull(additionalIps);
+        Validate.noNullElements(additionalIps);
+        
+        if (Files.exists(cacheFile)) {
+            List<PortMapper> cached = null;
+            try {
+                cached = PortMapperCache.load(networkBus, cacheFile);
+                LOG.debug("Loaded cached mappers: {}", cached);
+            } catch (IOException ioe) {
+                LOG.warn("Unable to load cached mappers", ioe);
+            }
+            
+            if (cached != null && !cached.isEmpty()) {
+                List<PortMapper> revalidated = revalidate(networkBus, cached);
+                if (revalidated.size() == cached.size()) {
+                    LOG.debug("All cached mappers revalidated");
+                    return revalidated;
+                }
+                LOG.debug("Only revalidated {} of {} cached mappers -- falling back to full discovery", revalidated.size(), cached.size());
+            }
+        }
+        
+        List<PortMapper> ret = discover(networkBus, processBus, additionalIps);
+        
+        try {
+            PortMapperCache.save(cacheFile, ret);
+        } catch (IOException ioe) {
+            LOG.warn("Unable to save discovered mappers", ioe);
+        }
+        
+        return ret;
+    }
+    
+    private static List<PortMapper> revalidate(Bus networkBus, List<PortMapper> mappers) throws InterruptedException {
+        List<UpnpIgdPortMapper> upnpIgdMappers = new ArrayList<>();
+        List<NatPmpPortMapper> natPmpMappers = new ArrayList<>();
+        List<PcpPortMapper> pcpMappers = new ArrayList<>();
+        for (PortMapper mapper : mappers) {
+            if (mapper instanceof UpnpIgdPortMapper) {
+                upnpIgdMappers.add((UpnpIgdPortMapper) mapper);
+            } else if (mapper instanceof NatPmpPortMapper) {
+                natPmpMappers.add((NatPmpPortMapper) mapper);
+            } else if (mapper instanceof PcpPortMapper) {
+                pcpMappers.add((PcpPortMapper) mapper);
+            }
+        }
+        
+        List<PortMapper> ret = new LinkedList<>();
+        if (!upnpIgdMappers.isEmpty()) {
+            ret.addAll(UpnpIgdPortMapper.revalidate(networkBus, upnpIgdMappers));
+        }
+        if (!natPmpMappers.isEmpty()) {
+            ret.addAll(NatPmpPortMapper.revalidate(networkBus, natPmpMappers));
+        }
+        if (!pcpMappers.isEmpty()) {
+            ret.addAll(PcpPortMapper.revalidate(networkBus, pcpMappers));
+        }
+        return ret;
+    }
 }
@@ -0,0 +1,388 @@
+/*
+ * Copyright 2013-2016, Kasra Faghihi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.offbynull.portmapper;
+
+import com.offbynull.portmapper.gateway.Bus;
+import com.offbynull.portmapper.gateways.network.LocalAddressListener;
+import static com.offbynull.portmapper.mapper.MapperIoUtils.findPotentialGatewayAddresses;
+import static com.offbynull.portmapper.mapper.MapperIoUtils.getLocalIpAddresses;
+import com.offbynull.portmapper.leases.LeaseManager;
+import com.offbynull.portmapper.mapper.PortMapper;
+import com.offbynull.portmapper.mappers.natpmp.NatPmpPortMapper;
+import com.offbynull.portmapper.mappers.pcp.PcpPortMapper;
+import com.offbynull.portmapper.mappers.upnpigd.UpnpIgdPortMapper;
+import java.io.Closeable;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps a set of port mappers up-to-date as the host moves between networks.
+ * <p>
+ * Rather than calling {@link PortMapperFactory#discover(Bus, Bus, InetAddress...) } again whenever something changes (which re-probes
+ * every interface for every protocol), this class keeps snapshots of the local addresses and potential gateway addresses that the current
+ * port mappers were found with. On {@link #rediscover() }, new snapshots are taken and diffed against the old ones:
+ * <ul>
+ * <li>Port mappers whose source address has gone away are retired.</li>
+ * <li>NAT-PMP/PCP port mappers whose gateway address has gone away are retired.</li>
+ * <li>Local addresses that are new are searched/probed against every potential gateway.</li>
+ * <li>Potential gateway addresses that are new are probed from the local addresses that haven't changed.</li>
+ * <li>If the potential gateway addresses changed at all, UPnP-IGD devices are searched for again on the local addresses that haven't
+ * changed (a different route usually means a different network) -- UPnP-IGD port mappers on those local addresses that aren't found
+ * again are retired.</li>
+ * </ul>
+ * If nothing changed, nothing is sent out. If a {@link LeaseManager} was supplied, the leases held against a retired port mapper are
+ * migrated to a replacement (see {@link LeaseManager#migrate(PortMapper, PortMapper) }) -- a newly found port mapper of the same type
+ * and IP version is preferred, then any port mapper of the same IP version. If there's no replacement, the leases are left where they are
+ * (they'll be reported as failed once they can't be refreshed, or recover if the address comes back).
+ * <p>
+ * To drive rediscovery off of network changes, add this object as a listener via
+ * {@link com.offbynull.portmapper.gateways.network.NetworkGateway#addLocalAddressListener(LocalAddressListener) } -- each change queues
+ * a rediscovery that runs on this object's own thread (changes that come in while a rediscovery is running are coalesced in to a single
+ * follow-up rediscovery).
+ * @author Kasra Faghihi
+ */
+public final class PortMapperTracker implements LocalAddressListener, Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(PortMapperTracker.class);
+
+    private static final Object REDISCOVER_MARKER = new Object();
+    private static final Object STOP_MARKER = new Object();
+
+    private final Bus networkBus;
+    private final Bus processBus;
+    private final LeaseManager leaseManager;
+    private final InetAddress[] additionalIps;
+    private final List<PortMapperTrackerListener> listeners;
+    private final LinkedBlockingQueue<Object> queue;
+    private final Thread thread;
+
+    private volatile List<PortMapper> portMappers;
+    private Set<InetAddress> sourceAddresses; // guarded by this
+    private Set<InetAddress> gatewayAddresses; // guarded by this
+
+    /**
+     * Creates a {@link PortMapperTracker} object. Full discovery is performed before this method returns.
+     * @param networkBus network bus
+     * @param processBus process bus
+     * @param leaseManager lease manager to migrate leases of retired port mappers on (may be {@code null})
+     * @param additionalIps additional IPs to check (only relevant for PCP and NAT-PMP)
+     * @return new {@link PortMapperTracker}
+     * @throws NullPointerException if any argument other than {@code leaseManager} is {@code null} or contains {@code null}
+     * @throws InterruptedException if interrupted
+     */
+    public static PortMapperTracker create(Bus networkBus, Bus processBus, LeaseManager leaseManager, InetAddress ... additionalIps)
+            throws InterruptedException {
+        Validate.notNull(networkBus);
+        Validate.notNull(processBus);
+        Validate.notNull(additionalIps);
+        Validate.noNullElements(additionalIps);
+
+        PortMapperTracker tracker = new PortMapperTracker(networkBus, processBus, leaseManager, additionalIps);
+        tracker.discover();
+        tracker.thread.start();
+        return tracker;
+    }
+
+    private PortMapperTracker(Bus networkBus, Bus processBus, LeaseManager leaseManager, InetAddress[] additionalIps) {
+        this.networkBus = networkBus;
+        this.processBus = processBus;
+        this.leaseManager = leaseManager;
+        this.additionalIps = Arrays.copyOf(additionalIps, additionalIps.length);
+        this.listeners = new CopyOnWriteArrayList<>();
+        this.queue = new LinkedBlockingQueue<>();
+        this.thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                PortMapperTracker.this.run();
+            }
+        });
+        this.thread.setDaemon(true);
+        this.thread.setName("Port Mapper Tracker");
+    }
+
+    /**
+     * Get the current port mappers.
+     * @return current port mappers (unmodifiable)
+     */
+    public List<PortMapper> getPortMappers() {
+        return portMappers;
+    }
+
+    /**
+     * Add a listener.
+     * @param listener listener to add
+     * @throws NullPointerException if any argument is {@code null}
+     */
+    public void addListener(PortMapperTrackerListener listener) {
+        Validate.notNull(listener);
+        listeners.add(listener);
+    }
+
+    /**
+     * Remove a listener.
+     * @param listener listener to remove
+     * @throws NullPointerException if any argument is {@code null}
+     */
+    public void removeListener(PortMapperTrackerListener listener) {
+        Validate.notNull(listener);
+        listeners.remove(listener);
+    }
+
+    /**
+     * Queues a rediscovery to run on this object's thread. This method returns immediately.
+     * @param added ignored -- new snapshots are taken when the rediscovery runs
+     * @param removed ignored -- new snapshots are taken when the rediscovery runs
+     * @param current ignored -- new snapshots are taken when the rediscovery runs
+     */
+    @Override
+    public void localAddressesChanged(Set<InetAddress> added, Set<InetAddress> removed, Set<InetAddress> current) {
+        queue.add(REDISCOVER_MARKER);
+    }
+
+    /**
+     * Take new snapshots of the local addresses and potential gateway addresses, and only identify/retire port mappers for what's
+     * changed since the last snapshots were taken. Listeners are notified if any port mappers were added or retired.
+     * @throws InterruptedException if interrupted
+     */
+    public synchronized void rediscover() throws InterruptedException {
+        Set<InetAddress> newSourceAddresses = getLocalIpAddresses(networkBus);
+        Set<InetAddress> newGatewayAddresses = findPotentialGatewayAddresses(processBus, additionalIps);
+
+        Set<InetAddress> addedSourceAddresses = difference(newSourceAddresses, sourceAddresses);
+        Set<InetAddress> removedSourceAddresses = difference(sourceAddresses, newSourceAddresses);
+        Set<InetAddress> keptSourceAddresses = difference(newSourceAddresses, addedSourceAddresses);
+        Set<InetAddress> addedGatewayAddresses = difference(newGatewayAddresses, gatewayAddresses);
+        Set<InetAddress> removedGatewayAddresses = difference(gatewayAddresses, newGatewayAddresses);
+        boolean gatewaysChanged = !addedGatewayAddresses.isEmpty() || !removedGatewayAddresses.isEmpty();
+
+        if (addedSourceAddresses.isEmpty() && removedSourceAddresses.isEmpty() && !gatewaysChanged) {
+            LOG.debug("No changes found");
+            return;
+        }
+
+        LOG.debug("Rediscovering -- added sources {} removed sources {} added gateways {} removed gateways {}", addedSourceAddresses,
+                removedSourceAddresses, addedGatewayAddresses, removedGatewayAddresses);
+
+
+
+        // Identify only what's changed
+        List<PortMapper> foundMappers = new LinkedList<>();
+        if (!addedSourceAddresses.isEmpty()) {
+            foundMappers.addAll(UpnpIgdPortMapper.identify(networkBus, addedSourceAddresses));
+            foundMappers.addAll(NatPmpPcpIdentifier.identify(networkBus, addedSourceAddresses, newGatewayAddresses));
+        }
+        Set<List<Object>> reidentifiedUpnpIgdIdentities = new HashSet<>();
+        if (gatewaysChanged && !keptSourceAddresses.isEmpty()) {
+            for (UpnpIgdPortMapper portMapper : UpnpIgdPortMapper.identify(networkBus, keptSourceAddresses)) {
+                reidentifiedUpnpIgdIdentities.add(identityOf(portMapper));
+                foundMappers.add(portMapper);
+            }
+            if (!addedGatewayAddresses.isEmpty()) {
+                foundMappers.addAll(NatPmpPcpIdentifier.identify(networkBus, keptSourceAddresses, addedGatewayAddresses));
+            }
+        }
+
+
+
+        // Retire port mappers on addresses that have gone away
+        List<PortMapper> keptMappers = new ArrayList<>();
+        List<PortMapper> retiredMappers = new ArrayList<>();
+        for (PortMapper portMapper : portMappers) {
+            InetAddress sourceAddress = portMapper.getSourceAddress();
+            InetAddress gatewayAddress = gatewayAddressOf(portMapper);
+            boolean retire;
+            if (removedSourceAddresses.contains(sourceAddress)) {
+                retire = true;
+            } else if (gatewayAddress != null) {
+                retire = removedGatewayAddresses.contains(gatewayAddress);
+            } else if (portMapper instanceof UpnpIgdPortMapper) {
+                retire = gatewaysChanged && keptSourceAddresses.contains(sourceAddress)
+                        && !reidentifiedUpnpIgdIdentities.contains(identityOf(portMapper));
+            } else {
+                retire = false;
+            }
+
+            if (retire) {
+                retiredMappers.add(portMapper);
+            } else {
+                keptMappers.add(portMapper);
+            }
+        }
+
+        Set<List<Object>> keptIdentities = new HashSet<>();
+        for (PortMapper portMapper : keptMappers) {
+            keptIdentities.add(identityOf(portMapper));
+        }
+
+        List<PortMapper> addedMappers = new ArrayList<>();
+        for (PortMapper portMapper : foundMappers) {
+            if (keptIdentities.add(identityOf(portMapper))) { // skip ones we already have (e.g. UPnP-IGD devices found again)
+                addedMappers.add(portMapper);
+            }
+        }
+
+
+
+        // Migrate leases off of retired port mappers
+        List<PortMapper> newMappers = new ArrayList<>(keptMappers);
+        newMappers.addAll(addedMappers);
+        if (leaseManager != null) {
+            List<PortMapper> replacementCandidates = new ArrayList<>(addedMappers);
+            replacementCandidates.addAll(keptMappers);
+            for (PortMapper retiredMapper : retiredMappers) {
+                PortMapper replacementMapper = findReplacement(retiredMapper, replacementCandidates);
+                if (replacementMapper != null) {
+                    LOG.debug("Migrating leases from {} to {}", retiredMapper, replacementMapper);
+                    leaseManager.migrate(retiredMapper, replacementMapper);
+                } else {
+                    LOG.debug("No replacement found for {} -- leases not migrated", retiredMapper);
+                }
+            }
+        }
+
+        // Snapshots only move forward once the port mappers have been swapped -- if identification threw above, the next rediscovery
+        // diffs against the old snapshots again and retries the same changes rather than thinking there's nothing to do
+        portMappers = Collections.unmodifiableList(newMappers);
+        sourceAddresses = newSourceAddresses;
+        gatewayAddresses = newGatewayAddresses;
+
+
+
+        // Notify
+        if (addedMappers.isEmpty() && retiredMappers.isEmpty()) {
+            return;
+        }
+
+        List<PortMapper> added = Collections.unmodifiableList(addedMappers);
+        List<PortMapper> retired = Collections.unmodifiableList(retiredMappers);
+        for (PortMapperTrackerListener listener : listeners) {
+            try {
+                listener.portMappersChanged(added, retired);
+            } catch (RuntimeException re) {
+                LOG.warn("Listener threw exception", re);
+            }
+        }
+    }
+
+    /**
+     * Stop rediscovering. A rediscovery that's in progress on this object's thread is interrupted. Port mappers and leases are left as-is.
+     */
+    @Override
+    public void close() {
+        queue.add(STOP_MARKER);
+        thread.interrupt();
+    }
+
+    private synchronized void discover() throws InterruptedException {
+        sourceAddresses = getLocalIpAddresses(networkBus);
+        gatewayAddresses = findPotentialGatewayAddresses(processBus, additionalIps);
+
+        List<PortMapper> found = new ArrayList<>();
+        found.addAll(UpnpIgdPortMapper.identify(networkBus, sourceAddresses));
+        found.addAll(NatPmpPcpIdentifier.identify(networkBus, sourceAddresses, gatewayAddresses));
+        LOG.debug("Found mappers: {}", found);
+
+        portMappers = Collections.unmodifiableList(found);
+    }
+
+    private void run() {
+        LOG.debug("Starting tracker");
+        try {
+            while (true) {
+                Object msg = queue.take();
+                if (msg == STOP_MARKER) {
+                    break;
+                }
+
+                // coalesce changes that came in while the last rediscovery was running
+                Object next;
+                while ((next = queue.poll()) != null) {
+                    if (next == STOP_MARKER) {
+                        return;
+                    }
+                }
+
+                try {
+                    rediscover();
+                } catch (RuntimeException re) {
+                    LOG.error("Unable to rediscover", re);
+                }
+            }
+        } catch (InterruptedException ie) {
+            LOG.debug("Tracker interrupted");
+        } finally {
+            LOG.debug("Stopping tracker");
+        }
+    }
+
+    private static PortMapper findReplacement(PortMapper retiredMapper, List<PortMapper> candidates) {
+        Class<?> retiredAddressType = retiredMapper.getSourceAddress().getClass();
+
+        for (PortMapper candidate : candidates) {
+            if (candidate.getClass() == retiredMapper.getClass()
+                    && candidate.getSourceAddress().getClass() == retiredAddressType) {
+                return candidate;
+            }
+        }
+
+        for (PortMapper candidate : candidates) {
+            if (candidate.getSourceAddress().getClass() == retiredAddressType) {
+                return candidate;
+            }
+        }
+
+        return null;
+    }
+
+    private static InetAddress gatewayAddressOf(PortMapper portMapper) {
+        if (portMapper instanceof NatPmpPortMapper) {
+            return ((NatPmpPortMapper) portMapper).getGatewayAddress();
+        } else if (portMapper instanceof PcpPortMapper) {
+            return ((PcpPortMapper) portMapper).getGatewayAddress();
+        }
+        return null;
+    }
+
+    private static List<Object> identityOf(PortMapper portMapper) {
+        Object target;
+        if (portMapper instanceof UpnpIgdPortMapper) {
+            target = ((UpnpIgdPortMapper) portMapper).getControlUrl().toExternalForm();
+        } else if (portMapper instanceof NatPmpPortMapper) {
+            target = ((NatPmpPortMapper) portMapper).getGatewayAddress();
+        } else if (portMapper instanceof PcpPortMapper) {
+            target = ((PcpPortMapper) portMapper).getGatewayAddress();
+        } else {
+            target = portMapper; // unknown type -- treat as unique
+        }
+        return Arrays.<Object>asList(portMapper.getClass(), portMapper.getSourceAddress(), target);
+    }
+
+    private static Set<InetAddress> difference(Set<InetAddress> a, Set<InetAddress> b) {
+        Set<InetAddress> ret = new HashSet<>(a);
+        ret.removeAll(b);
+        return ret;
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2013-2016, Kasra Faghihi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.offbynull.portmapper;
+
+import com.offbynull.portmapper.mapper.PortMapper;
+import java.util.List;
+
+/**
+ * Listens for changes to the port mappers held by a {@link PortMapperTracker}. Listeners are invoked from the tracker's rediscovery
+ * thread (or the thread that called {@link PortMapperTracker#rediscover() }), so implementations must be thread-safe and should return
+ * quickly.
+ * @author Kasra Faghihi
+ */
+public interface PortMapperTrackerListener {
+
+    /**
+     * Called when rediscovery has found new port mappers and/or retired existing ones.
+     * @param added port mappers that were found (unmodifiable)
+     * @param retired port mappers that were retired (unmodifiable) -- a port mapper gets retired when the local address it uses has gone
+     * away, when the gateway it talks to is no longer one of the potential gateways (NAT-PMP/PCP), or when its device wasn't found again
+     * after the gateways changed (UPnP-IGD)
+     */
+    void portMappersChanged(List<PortMapper> added, List<PortMapper> retired);
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2013-2016, Kasra Faghihi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.offbynull.portmapper.gateway;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Registers gateway statistics with the platform MBean server. Kept apart from the gateways themselves so that platforms without JMX
+ * (e.g. Android) never load JMX classes unless this class is used.
+ * @author Kasra Faghihi
+ */
+public final class GatewayMBeans {
+    private static final String DOMAIN = "com.offbynull.portmapper";
+    private static final AtomicInteger NEXT_ID = new AtomicInteger();
+
+    private GatewayMBeans() {
+        // do nothing
+    }
+
+    /**
+     * Register an MBean/MXBean under {@code com.offbynull.portmapper:type=<type>,id=<n>}, where {@code n} is unique to each call.
+     * @param type type to register under (e.g. {@code "NetworkGateway"})
+     * @param mbean MBean/MXBean to register (e.g. {@link com.offbynull.portmapper.gateways.network.NetworkGateway#getStats() })
+     * @return name that {@code mbean} was registered under
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalStateException if registration failed
+     */
+    public static ObjectName register(String type, Object mbean) {
+        Validate.notNull(type);
+        Validate.notNull(mbean);
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            ObjectName name = new ObjectName(DOMAIN + ":type=" + type + ",id=" + NEXT_ID.getAndIncrement());
+            server.registerMBean(mbean, name);
+            return name;
+        } catch (JMException jme) {
+            throw new IllegalStateException(jme);
+        }
+    }
+
+    /**
+     * Unregister an MBean/MXBean previously registered through {@link #register(java.lang.String, java.lang.Object) }. Does nothing if it
+     * isn't registered.
+     * @param name name returned by {@link #register(java.lang.String, java.lang.Object) }
+     * @throws NullPointerException if any argument is {@code null}
+     */
+    public static void unregister(ObjectName name) {
+        Validate.notNull(name);
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (JMException jme) {
+            // do nothing -- unregistered between the check and the call
+        }
+    }
+}
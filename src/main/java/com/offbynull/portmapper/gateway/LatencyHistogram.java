@@ -0,0 +1,198 @@
+/*
+ * Copyright 2013-2016, Kasra Faghihi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.offbynull.portmapper.gateway;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Lock-free histogram of non-negative values (typically durations in nanoseconds). Values are counted in to buckets that are 1/8th of a
+ * power of two wide, so percentiles are accurate to within 12.5% regardless of magnitude. Recording is a handful of atomic operations and
+ * never allocates, so this is cheap enough to leave on. Safe to use from multiple threads.
+ * @author Kasra Faghihi
+ */
+public final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKET_COUNT = (63 - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT;
+
+    private final AtomicLongArray buckets;
+    private final AtomicLong count;
+    private final AtomicLong sum;
+    private final AtomicLong max;
+
+    /**
+     * Constructs a {@link LatencyHistogram} object.
+     */
+    public LatencyHistogram() {
+        buckets = new AtomicLongArray(BUCKET_COUNT);
+        count = new AtomicLong();
+        sum = new AtomicLong();
+        max = new AtomicLong();
+    }
+
+    /**
+     * Record a value.
+     * @param value value to record
+     * @throws IllegalArgumentException if {@code value} is negative
+     */
+    public void record(long value) {
+        Validate.isTrue(value >= 0L);
+
+        buckets.incrementAndGet(bucketIndex(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+
+        long currentMax = max.get();
+        while (value > currentMax && !max.compareAndSet(currentMax, value)) {
+            currentMax = max.get();
+        }
+    }
+
+    /**
+     * Take a snapshot of this histogram. Recording may be happening at the same time, so the counts in the snapshot may be very slightly
+     * out of step with each other.
+     * @return snapshot of this histogram
+     */
+    public Snapshot snapshot() {
+        long[] bucketCopy = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            bucketCopy[i] = buckets.get(i);
+        }
+        return new Snapshot(bucketCopy, count.get(), sum.get(), max.get());
+    }
+
+    private static int bucketIndex(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        int msb = 63 - Long.numberOfLeadingZeros(value);
+        int shift = msb - SUB_BUCKET_BITS;
+        return (msb - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT + (int) ((value >>> shift) & (SUB_BUCKET_COUNT - 1));
+    }
+
+    private static long bucketUpperBound(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int group = index / SUB_BUCKET_COUNT;
+        int sub = index % SUB_BUCKET_COUNT;
+        int shift = group - 1;
+        long lower = ((long) (SUB_BUCKET_COUNT + sub)) << shift;
+        return lower + (1L << shift) - 1L;
+    }
+
+    /**
+     * Point-in-time view of a {@link LatencyHistogram}. Exposed as composite data when returned from an MXBean.
+     */
+    public static final class Snapshot {
+        private final long[] buckets;
+        private final long count;
+        private final long sum;
+        private final long max;
+
+        private Snapshot(long[] buckets, long count, long sum, long max) {
+            this.buckets = buckets;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        /**
+         * Get the number of recorded values.
+         * @return number of recorded values
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * Get the mean of recorded values.
+         * @return mean of recorded values, or {@code 0} if nothing has been recorded
+         */
+        public double getMean() {
+            return count == 0L ? 0.0 : (double) sum / count;
+        }
+
+        /**
+         * Get the largest recorded value.
+         * @return largest recorded value, or {@code 0} if nothing has been recorded
+         */
+        public long getMax() {
+            return max;
+        }
+
+        /**
+         * Get the median.
+         * @return median
+         */
+        public long getP50() {
+            return percentile(50.0);
+        }
+
+        /**
+         * Get the 90th percentile.
+         * @return 90th percentile
+         */
+        public long getP90() {
+            return percentile(90.0);
+        }
+
+        /**
+         * Get the 99th percentile.
+         * @return 99th percentile
+         */
+        public long getP99() {
+            return percentile(99.0);
+        }
+
+        /**
+         * Get a percentile. The value returned is the upper bound of the bucket the percentile falls in to (capped at the largest
+         * recorded value).
+         * @param percentile percentile to get (e.g. {@code 99.9})
+         * @return value at {@code percentile}, or {@code 0} if nothing has been recorded
+         * @throws IllegalArgumentException if {@code percentile} isn't between {@code 0} and {@code 100}
+         */
+        public long percentile(double percentile) {
+            Validate.inclusiveBetween(0.0, 100.0, percentile);
+
+            long total = 0L;
+            for (long bucket : buckets) {
+                total += bucket;
+            }
+            if (total == 0L) {
+                return 0L;
+            }
+
+            long rank = Math.max(1L, (long) Math.ceil(total * percentile / 100.0));
+            long seen = 0L;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if (seen >= rank) {
+                    return Math.min(bucketUpperBound(i), max);
+                }
+            }
+            return max; // should never happen
+        }
+
+        @Override
+        public String toString() {
+            return "Snapshot{" + "count=" + count + ", mean=" + getMean() + ", p50=" + getP50() + ", p90=" + getP90() + ", p99="
+                    + getP99() + ", max=" + max + '}';
+        }
+    }
+}
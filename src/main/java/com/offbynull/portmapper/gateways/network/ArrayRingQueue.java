@@ -0,0 +1,77 @@
+/*
+ * Copyright 2013-2016, Kasra Faghihi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.offbynull.portmapper.gateways.network;
+
+import java.util.NoSuchElementException;
+
+// FIFO queue backed by a circular array. Used for each socket's outgoing writes instead of LinkedList, which allocates a node per element.
+// The array only grows (doubling), so a socket that's past its largest backlog enqueues and dequeues without allocating. Not thread-safe.
+final class ArrayRingQueue<E> {
+    private static final int MIN_CAPACITY = 4;
+
+    private Object[] elements;
+    private int head;
+    private int size;
+
+    ArrayRingQueue() {
+        elements = new Object[MIN_CAPACITY];
+    }
+
+    void addLast(E element) {
+        if (element == null) {
+            throw new NullPointerException();
+        }
+        if (size == elements.length) {
+            grow();
+        }
+        elements[(head + size) & (elements.length - 1)] = element;
+        size++;
+    }
+
+    @SuppressWarnings("unchecked")
+    E peekFirst() {
+        return (E) elements[head]; // null if empty
+    }
+
+    @SuppressWarnings("unchecked")
+    E removeFirst() {
+        if (size == 0) {
+            throw new NoSuchElementException();
+        }
+        E element = (E) elements[head];
+        elements[head] = null;
+        head = (head + 1) & (elements.length - 1);
+        size--;
+        return element;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    private void grow() {
+        Object[] newElements = new Object[elements.length * 2];
+        for (int i = 0; i < size; i++) {
+            newElements[i] = elements[(head + i) & (elements.length - 1)];
+        }
+        elements = newElements;
+        head = 0;
+    }
+}
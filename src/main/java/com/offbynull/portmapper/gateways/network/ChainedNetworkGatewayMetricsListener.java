@@ -0,0 +1,96 @@
+/*
+ * Copyright 2013-2016, Kasra Faghihi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.offbynull.portmapper.gateways.network;
+
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// Forwards events to the gateway's own stats and then to a user-supplied listener. Exceptions from the user-supplied listener are logged so
+// that they can't take down the IO thread.
+final class ChainedNetworkGatewayMetricsListener implements NetworkGatewayMetricsListener {
+    private static final Logger LOG = LoggerFactory.getLogger(ChainedNetworkGatewayMetricsListener.class);
+
+    private final NetworkGatewayMetricsListener stats;
+    private final NetworkGatewayMetricsListener listener;
+
+    ChainedNetworkGatewayMetricsListener(NetworkGatewayMetricsListener stats, NetworkGatewayMetricsListener listener) {
+        Validate.notNull(stats);
+        Validate.notNull(listener);
+        this.stats = stats;
+        this.listener = listener;
+    }
+
+    @Override
+    public void socketOpened(SocketType type) {
+        stats.socketOpened(type);
+        try {
+            listener.socketOpened(type);
+        } catch (RuntimeException re) {
+            LOG.warn("Listener threw exception", re);
+        }
+    }
+
+    @Override
+    public void socketClosed(SocketType type, long lifetimeNanos) {
+        stats.socketClosed(type, lifetimeNanos);
+        try {
+            listener.socketClosed(type, lifetimeNanos);
+        } catch (RuntimeException re) {
+            LOG.warn("Listener threw exception", re);
+        }
+    }
+
+    @Override
+    public void read(SocketType type, int byteCount) {
+        stats.read(type, byteCount);
+        try {
+            listener.read(type, byteCount);
+        } catch (RuntimeException re) {
+            LOG.warn("Listener threw exception", re);
+        }
+    }
+
+    @Override
+    public void written(SocketType type, int byteCount) {
+        stats.written(type, byteCount);
+        try {
+            listener.written(type, byteCount);
+        } catch (RuntimeException re) {
+            LOG.warn("Listener threw exception", re);
+        }
+    }
+
+    @Override
+    public void selected(int readyKeyCount, int inboxQueueDepth) {
+        stats.selected(readyKeyCount, inboxQueueDepth);
+        try {
+            listener.selected(readyKeyCount, inboxQueueDepth);
+        } catch (RuntimeException re) {
+            LOG.warn("Listener threw exception", re);
+        }
+    }
+
+    @Override
+    public void messageProcessed(Object msg, long durationNanos) {
+        stats.messageProcessed(msg, durationNanos);
+        try {
+            listener.messageProcessed(msg, durationNanos);
+        } catch (RuntimeException re) {
+            LOG.warn("Listener threw exception", re);
+        }
+    }
+}
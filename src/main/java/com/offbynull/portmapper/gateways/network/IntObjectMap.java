@@ -0,0 +1,163 @@
+/*
+ * Copyright 2013-2016, Kasra Faghihi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.offbynull.portmapper.gateways.network;
+
+import java.util.Arrays;
+import org.apache.commons.lang3.Validate;
+
+// Hash map with primitive int keys (open addressing, linear probing). Used instead of HashMap<Integer, V> so that lookups from the selector
+// loop don't box ids. Null values aren't allowed -- a null value slot marks an empty slot. Not thread-safe.
+final class IntObjectMap<V> {
+    private static final int MIN_CAPACITY = 16;
+
+    private int[] keys;
+    private Object[] values;
+    private int size;
+
+    IntObjectMap() {
+        keys = new int[MIN_CAPACITY];
+        values = new Object[MIN_CAPACITY];
+    }
+
+    @SuppressWarnings("unchecked")
+    V get(int key) {
+        int mask = values.length - 1;
+        int idx = hash(key) & mask;
+        while (true) {
+            Object value = values[idx];
+            if (value == null) {
+                return null;
+            }
+            if (keys[idx] == key) {
+                return (V) value;
+            }
+            idx = (idx + 1) & mask;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    V put(int key, V value) {
+        Validate.notNull(value);
+
+        int mask = values.length - 1;
+        int idx = hash(key) & mask;
+        while (true) {
+            Object existing = values[idx];
+            if (existing == null) {
+                keys[idx] = key;
+                values[idx] = value;
+                size++;
+                if (size * 2 > values.length) { // keep load factor <= 0.5 so that probe sequences stay short
+                    resize(values.length * 2);
+                }
+                return null;
+            }
+            if (keys[idx] == key) {
+                values[idx] = value;
+                return (V) existing;
+            }
+            idx = (idx + 1) & mask;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    V remove(int key) {
+        int mask = values.length - 1;
+        int idx = hash(key) & mask;
+        while (true) {
+            Object value = values[idx];
+            if (value == null) {
+                return null;
+            }
+            if (keys[idx] == key) {
+                values[idx] = null;
+                size--;
+                closeGap(idx);
+                return (V) value;
+            }
+            idx = (idx + 1) & mask;
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    // copy of the keys, so callers can remove while iterating
+    int[] keys() {
+        int[] ret = new int[size];
+        int retIdx = 0;
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != null) {
+                ret[retIdx++] = keys[i];
+            }
+        }
+        return ret;
+    }
+
+    void clear() {
+        Arrays.fill(values, null);
+        size = 0;
+    }
+
+    // backward-shift deletion: move entries that probed past the removed slot back in to it, so lookups never stop early at a hole
+    private void closeGap(int gapIdx) {
+        int mask = values.length - 1;
+        int idx = (gapIdx + 1) & mask;
+        while (values[idx] != null) {
+            int homeIdx = hash(keys[idx]) & mask;
+            // entry can fill the gap if its home slot is not cyclically within (gapIdx, idx]
+            boolean canMove = gapIdx <= idx
+                    ? homeIdx <= gapIdx || homeIdx > idx
+                    : homeIdx <= gapIdx && homeIdx > idx;
+            if (canMove) {
+                keys[gapIdx] = keys[idx];
+                values[gapIdx] = values[idx];
+                values[idx] = null;
+                gapIdx = idx;
+            }
+            idx = (idx + 1) & mask;
+        }
+    }
+
+    private void resize(int newCapacity) {
+        int[] oldKeys = keys;
+        Object[] oldValues = values;
+        keys = new int[newCapacity];
+        values = new Object[newCapacity];
+        int mask = newCapacity - 1;
+        for (int i = 0; i < oldValues.length; i++) {
+            if (oldValues[i] == null) {
+                continue;
+            }
+            int idx = hash(oldKeys[i]) & mask;
+            while (values[idx] != null) {
+                idx = (idx + 1) & mask;
+            }
+            keys[idx] = oldKeys[i];
+            values[idx] = oldValues[i];
+        }
+    }
+
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9; // ids are sequential, so spread them out
+        return h ^ (h >>> 16);
+    }
+}
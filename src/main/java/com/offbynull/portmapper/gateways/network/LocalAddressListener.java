@@ -0,0 +1,36 @@
+/*
+ * Copyright 2013-2016, Kasra Faghihi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.offbynull.portmapper.gateways.network;
+
+import java.net.InetAddress;
+import java.util.Set;
+
+/**
+ * Receives changes to the local IP addresses tracked by a {@link NetworkGateway}. Methods are invoked from the gateway's interface monitor
+ * thread (not its IO thread), so implementations must be thread-safe and should return quickly -- the next poll doesn't happen until the
+ * listener returns. An exception thrown from a method is logged and otherwise ignored.
+ * @author Kasra Faghihi
+ */
+public interface LocalAddressListener {
+
+    /**
+     * Called when the set of local IP addresses has changed.
+     * @param added addresses that are now available (unmodifiable)
+     * @param removed addresses that are no longer available (unmodifiable)
+     * @param current all addresses that are now available (unmodifiable)
+     */
+    void localAddressesChanged(Set<InetAddress> added, Set<InetAddress> removed, Set<InetAddress> current);
+}
@@ -0,0 +1,238 @@
+/*
+ * Copyright 2013-2016, Kasra Faghihi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.offbynull.portmapper.gateways.network;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.NetworkInterface;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// Keeps an in-memory snapshot of the local IP addresses (addresses on interfaces that are up, excluding loopback addresses) so that the
+// network gateway can answer GetLocalIpAddressesNetworkRequest without walking NetworkInterface.getNetworkInterfaces() on its IO thread --
+// that walk is slow on hosts with many interfaces and stalls every socket while it runs.
+//
+// The snapshot is refreshed on a separate daemon thread. Walking the interfaces is the expensive part, so each poll first reads a cheap
+// fingerprint of the OS's address/route state (on Linux, the contents of /proc/net/if_inet6, /proc/net/fib_trie, and /proc/net/route) and
+// only walks the interfaces if that fingerprint changed. The interfaces are also walked every FULL_SCAN_POLLS polls regardless, both as a
+// safety net (e.g. an interface going down doesn't always show up in those files) and as the only means of detecting changes on platforms
+// that don't have those files. Listeners are told about additions/removals whenever a walk produces a different snapshot.
+final class LocalAddressMonitor implements Runnable {
+    private static final Logger LOG = LoggerFactory.getLogger(LocalAddressMonitor.class);
+
+    static final long POLL_INTERVAL = 1000L;
+    static final int FULL_SCAN_POLLS = 10;
+
+    static final Source DEFAULT_SOURCE = new Source() {
+        private final List<Path> fingerprintPaths = Arrays.asList(
+                Paths.get("/proc/net/if_inet6"),
+                Paths.get("/proc/net/fib_trie"),
+                Paths.get("/proc/net/route"));
+
+        @Override
+        public Set<InetAddress> readAddresses() throws IOException {
+            Set<InetAddress> ret = new HashSet<>();
+            Enumeration<NetworkInterface> interfaces = NetworkInterface.getNetworkInterfaces();
+            if (interfaces == null) { // no interfaces at all
+                return ret;
+            }
+
+            while (interfaces.hasMoreElements()) {
+                NetworkInterface networkInterface = interfaces.nextElement();
+                try {
+                    if (!networkInterface.isUp()) {
+                        LOG.debug("Interface {} not up -- skipping", networkInterface);
+                        continue;
+                    }
+
+                    Enumeration<InetAddress> addrs = networkInterface.getInetAddresses();
+                    while (addrs.hasMoreElements()) {
+                        InetAddress addr = addrs.nextElement();
+                        if (!addr.isLoopbackAddress()) {
+                            ret.add(addr);
+                        }
+                    }
+                } catch (IOException | RuntimeException niException) {
+                    LOG.warn("Unable to access interface {}", networkInterface, niException);
+                }
+            }
+            return ret;
+        }
+
+        @Override
+        public byte[] readFingerprint() {
+            byte[][] contents = new byte[fingerprintPaths.size()][];
+            int length = 0;
+            for (int i = 0; i < contents.length; i++) {
+                try {
+                    contents[i] = Files.readAllBytes(fingerprintPaths.get(i));
+                } catch (IOException | RuntimeException e) {
+                    return null; // not linux (or not accessible) -- fall back to periodic walks
+                }
+                length += contents[i].length;
+            }
+
+            byte[] ret = new byte[length];
+            int offset = 0;
+            for (byte[] content : contents) {
+                System.arraycopy(content, 0, ret, offset, content.length);
+                offset += content.length;
+            }
+            return ret;
+        }
+    };
+
+    private final Source source;
+    private final long pollInterval;
+    private final int fullScanPolls;
+    private final List<LocalAddressListener> listeners;
+    private volatile Set<InetAddress> addresses;
+    private byte[] fingerprint;
+    private int pollsSinceFullScan;
+    private int fullScanCount;
+    private Thread thread;
+
+    LocalAddressMonitor(Source source, long pollInterval, int fullScanPolls) {
+        Validate.notNull(source);
+        Validate.isTrue(pollInterval > 0L);
+        Validate.isTrue(fullScanPolls > 0);
+        this.source = source;
+        this.pollInterval = pollInterval;
+        this.fullScanPolls = fullScanPolls;
+        this.listeners = new CopyOnWriteArrayList<>();
+        this.addresses = Collections.emptySet();
+    }
+
+    // Takes the initial snapshot on the calling thread (so it's available before the first GetLocalIpAddressesNetworkRequest comes in)
+    // and then starts the polling thread
+    synchronized void start() {
+        Validate.validState(thread == null);
+
+        fingerprint = source.readFingerprint();
+        scan();
+
+        thread = new Thread(this);
+        thread.setDaemon(true);
+        thread.setName("Network Interface Monitor");
+        thread.start();
+    }
+
+    synchronized void stop() {
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    void addListener(LocalAddressListener listener) {
+        Validate.notNull(listener);
+        listeners.add(listener);
+    }
+
+    void removeListener(LocalAddressListener listener) {
+        Validate.notNull(listener);
+        listeners.remove(listener);
+    }
+
+    Set<InetAddress> getAddresses() {
+        return addresses;
+    }
+
+    // Number of times the interfaces have been walked (including the initial walk in start())
+    synchronized int getFullScanCount() {
+        return fullScanCount;
+    }
+
+    @Override
+    public void run() {
+        LOG.debug("Starting interface monitor");
+        try {
+            while (true) {
+                Thread.sleep(pollInterval);
+                poll();
+            }
+        } catch (InterruptedException ie) {
+            // do nothing -- stop was called
+        } finally {
+            LOG.debug("Stopping interface monitor");
+        }
+    }
+
+    synchronized void poll() {
+        pollsSinceFullScan++;
+
+        byte[] newFingerprint = source.readFingerprint();
+        boolean fingerprintChanged = newFingerprint != null && !Arrays.equals(fingerprint, newFingerprint);
+        fingerprint = newFingerprint;
+
+        if (fingerprintChanged || pollsSinceFullScan >= fullScanPolls) {
+            scan();
+        }
+    }
+
+    private void scan() {
+        pollsSinceFullScan = 0;
+        fullScanCount++;
+
+        Set<InetAddress> newAddresses;
+        try {
+            newAddresses = Collections.unmodifiableSet(source.readAddresses());
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("Unable to read local addresses", e);
+            return;
+        }
+
+        Set<InetAddress> oldAddresses = addresses;
+        if (oldAddresses.equals(newAddresses)) {
+            return;
+        }
+        addresses = newAddresses;
+
+        Set<InetAddress> added = new HashSet<>(newAddresses);
+        added.removeAll(oldAddresses);
+        Set<InetAddress> removed = new HashSet<>(oldAddresses);
+        removed.removeAll(newAddresses);
+        LOG.debug("Local addresses changed -- added {} removed {}", added, removed);
+
+        added = Collections.unmodifiableSet(added);
+        removed = Collections.unmodifiableSet(removed);
+        for (LocalAddressListener listener : listeners) {
+            try {
+                listener.localAddressesChanged(added, removed, newAddresses);
+            } catch (RuntimeException re) {
+                LOG.warn("Listener threw exception", re);
+            }
+        }
+    }
+
+    interface Source {
+        // Walk interfaces for local addresses (expensive)
+        Set<InetAddress> readAddresses() throws IOException;
+
+        // Cheap fingerprint of OS address/route state, or null if not available on this platform
+        byte[] readFingerprint();
+    }
+}
@@ -16,25 +16,33 @@
 package com.offbynull.portmapper.gateways.network;
 
 import com.offbynull.portmapper.gateway.Bus;
+import com.offbynull.portmapper.gateways.network.NetworkGatewayMetricsListener.SocketType;
 import java.nio.channels.Channel;
-import java.util.LinkedList;
+import java.nio.channels.SelectionKey;
 import org.apache.commons.lang3.Validate;
 
 abstract class NetworkEntry<B> {
     private final int id;
+    private final SocketType type;
+    private final long openTime;
     private final Bus responseBus;
     private final Channel channel;
-    private int selectionKey;
+    private SelectionKey selectionKey;
+    private int interestOps;
     private boolean notifiedOfWritable;
     
-    NetworkEntry(int id, Channel channel, Bus responseBus) {
+    NetworkEntry(int id, SocketType type, Channel channel, Bus responseBus) {
+        Validate.notNull(type);
         Validate.notNull(channel);
         Validate.notNull(responseBus);
         
         this.id = id;
+        this.type = type;
+        this.openTime = System.nanoTime();
         this.responseBus = responseBus;
         this.channel = channel;
-        this.selectionKey = 0;
+        this.selectionKey = null;
+        this.interestOps = 0;
         this.notifiedOfWritable = false;
     }
 
@@ -42,6 +50,14 @@ abstract class NetworkEntry<B> {
         return id;
     }
 
+    SocketType getType() {
+        return type;
+    }
+
+    long getOpenTime() {
+        return openTime;
+    }
+
     Bus getResponseBus() {
         return responseBus;
     }
@@ -50,14 +66,22 @@ abstract class NetworkEntry<B> {
         return channel;
     }
 
-    int getSelectionKey() {
+    SelectionKey getSelectionKey() {
         return selectionKey;
     }
 
-    void setSelectionKey(int selectionKey) {
+    void setSelectionKey(SelectionKey selectionKey) {
         this.selectionKey = selectionKey;
     }
 
+    int getInterestOps() {
+        return interestOps;
+    }
+
+    void setInterestOps(int interestOps) {
+        this.interestOps = interestOps;
+    }
+
     boolean isNotifiedOfWritable() {
         return notifiedOfWritable;
     }
@@ -66,5 +90,5 @@ abstract class NetworkEntry<B> {
         this.notifiedOfWritable = notifiedOfWritable;
     }
     
-    abstract LinkedList<B> getOutgoingBuffers();
+    abstract ArrayRingQueue<B> getOutgoingBuffers();
 }
@@ -17,6 +17,9 @@ package com.offbynull.portmapper.gateways.network;
 
 import com.offbynull.portmapper.gateway.Gateway;
 import com.offbynull.portmapper.gateway.Bus;
+import java.net.InetAddress;
+import java.util.Set;
+import org.apache.commons.lang3.Validate;
 
 /**
  * Network communication gateway.
@@ -25,6 +28,7 @@ import com.offbynull.portmapper.gateway.Bus;
 public final class NetworkGateway implements Gateway {
 
     private NetworkRunnable runnable;
+    private LocalAddressMonitor localAddressMonitor;
     private Thread thread;
 
     /**
@@ -32,9 +36,31 @@ public final class NetworkGateway implements Gateway {
      * @return new {@link NetworkGateway}
      */
     public static NetworkGateway create() {
+        return createInternal(null);
+    }
+
+    /**
+     * Creates a {@link NetworkGateway} object that reports instrumentation events to a listener (in addition to collecting them in to
+     * {@link #getStats() }).
+     * @param listener listener to report instrumentation events to
+     * @return new {@link NetworkGateway}
+     * @throws NullPointerException if any argument is {@code null}
+     */
+    public static NetworkGateway create(NetworkGatewayMetricsListener listener) {
+        Validate.notNull(listener);
+        return createInternal(listener);
+    }
+
+    private static NetworkGateway createInternal(NetworkGatewayMetricsListener listener) {
         NetworkGateway ng = new NetworkGateway();
         
-        ng.runnable = new NetworkRunnable();
+        ng.localAddressMonitor = new LocalAddressMonitor(
+                LocalAddressMonitor.DEFAULT_SOURCE,
+                LocalAddressMonitor.POLL_INTERVAL,
+                LocalAddressMonitor.FULL_SCAN_POLLS);
+        ng.localAddressMonitor.start();
+        
+        ng.runnable = new NetworkRunnable(listener, ng.localAddressMonitor);
         ng.thread = new Thread(ng.runnable);
         ng.thread.setDaemon(true);
         ng.thread.setName("Network IO");
@@ -53,6 +79,45 @@ public final class NetworkGateway implements Gateway {
         return runnable.getBus();
     }
     
+    /**
+     * Get statistics for this gateway. To expose these over JMX, pass them to
+     * {@link com.offbynull.portmapper.gateway.GatewayMBeans#register(java.lang.String, java.lang.Object) }.
+     * @return statistics for this gateway
+     */
+    public NetworkGatewayStats getStats() {
+        return runnable.getStats();
+    }
+
+    /**
+     * Get the local IP addresses (addresses on interfaces that are up, excluding loopback addresses). These come from an in-memory
+     * snapshot that's refreshed in the background, and are the same addresses returned for a
+     * {@link com.offbynull.portmapper.gateways.network.internalmessages.GetLocalIpAddressesNetworkRequest}.
+     * @return local IP addresses (unmodifiable)
+     */
+    public Set<InetAddress> getLocalAddresses() {
+        return localAddressMonitor.getAddresses();
+    }
+
+    /**
+     * Add a listener that gets notified when the local IP addresses change. Changes are picked up by polling: on Linux, a cheap check runs
+     * every second and interfaces are only re-read if it indicates that something changed; elsewhere interfaces are re-read every 10
+     * seconds.
+     * @param listener listener to add
+     * @throws NullPointerException if any argument is {@code null}
+     */
+    public void addLocalAddressListener(LocalAddressListener listener) {
+        localAddressMonitor.addListener(listener);
+    }
+
+    /**
+     * Remove a listener that was added with {@link #addLocalAddressListener(LocalAddressListener) }.
+     * @param listener listener to remove
+     * @throws NullPointerException if any argument is {@code null}
+     */
+    public void removeLocalAddressListener(LocalAddressListener listener) {
+        localAddressMonitor.removeListener(listener);
+    }
+
     @Override
     public void join() throws InterruptedException {
         thread.join();
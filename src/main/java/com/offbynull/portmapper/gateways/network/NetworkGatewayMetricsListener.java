@@ -0,0 +1,84 @@
+/*
+ * Copyright 2013-2016, Kasra Faghihi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.offbynull.portmapper.gateways.network;
+
+/**
+ * Receives instrumentation events from a {@link NetworkGateway}. Methods are invoked directly from the gateway's IO thread, so
+ * implementations must be thread-safe, must not block, and should return quickly -- anything slow here slows down all network IO. An
+ * exception thrown from a method is logged and otherwise ignored.
+ * @author Kasra Faghihi
+ */
+public interface NetworkGatewayMetricsListener {
+
+    /**
+     * Called when a socket has been opened.
+     * @param type socket type
+     */
+    void socketOpened(SocketType type);
+
+    /**
+     * Called when a socket has been closed (including sockets forcefully closed when the gateway shuts down).
+     * @param type socket type
+     * @param lifetimeNanos nanoseconds between the socket being opened and being closed
+     */
+    void socketClosed(SocketType type, long lifetimeNanos);
+
+    /**
+     * Called when data has been read from a socket. For UDP sockets, each call is a single datagram.
+     * @param type socket type
+     * @param byteCount number of bytes read
+     */
+    void read(SocketType type, int byteCount);
+
+    /**
+     * Called when data has been written to a socket. For UDP sockets, each call is a single datagram.
+     * @param type socket type
+     * @param byteCount number of bytes written
+     */
+    void written(SocketType type, int byteCount);
+
+    /**
+     * Called each time the gateway's select loop wakes up.
+     * @param readyKeyCount number of sockets ready for IO ({@code 0} means the gateway was woken up to process incoming messages)
+     * @param inboxQueueDepth number of messages waiting to be processed
+     */
+    void selected(int readyKeyCount, int inboxQueueDepth);
+
+    /**
+     * Called after the gateway has processed a message sent to its bus.
+     * @param msg message processed
+     * @param durationNanos nanoseconds it took to process {@code msg}
+     */
+    void messageProcessed(Object msg, long durationNanos);
+
+    /**
+     * Socket type.
+     */
+    enum SocketType {
+        /**
+         * UDP socket.
+         */
+        UDP,
+        /**
+         * UDP socket joined to a multicast group.
+         */
+        MULTICAST_UDP,
+        /**
+         * TCP socket.
+         */
+        TCP
+    }
+}
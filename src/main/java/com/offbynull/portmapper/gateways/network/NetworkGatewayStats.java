@@ -0,0 +1,205 @@
+/*
+ * Copyright 2013-2016, Kasra Faghihi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.offbynull.portmapper.gateways.network;
+
+import com.offbynull.portmapper.gateway.LatencyHistogram;
+import com.offbynull.portmapper.gateways.network.NetworkGatewayMetricsListener.SocketType;
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Statistics collected by a {@link NetworkGateway}. Always on -- every update is a lock-free atomic operation made from the gateway's IO
+ * thread, and reads can be made from any thread.
+ * @author Kasra Faghihi
+ */
+public final class NetworkGatewayStats implements NetworkGatewayStatsMXBean {
+    private final Collection<?> inbox;
+    private final Recorder recorder;
+
+    private final AtomicLong openUdpSockets = new AtomicLong();
+    private final AtomicLong openMulticastUdpSockets = new AtomicLong();
+    private final AtomicLong openTcpSockets = new AtomicLong();
+    private final AtomicLong datagramsIn = new AtomicLong();
+    private final AtomicLong datagramsOut = new AtomicLong();
+    private final AtomicLong udpBytesIn = new AtomicLong();
+    private final AtomicLong udpBytesOut = new AtomicLong();
+    private final AtomicLong tcpBytesIn = new AtomicLong();
+    private final AtomicLong tcpBytesOut = new AtomicLong();
+    private final AtomicInteger maxInboxQueueDepth = new AtomicInteger();
+    private final AtomicLong selectLoopIterations = new AtomicLong();
+    private final AtomicLong selectWakeups = new AtomicLong();
+    private final LatencyHistogram messageProcessingNanos = new LatencyHistogram();
+    private final LatencyHistogram socketLifetimeNanos = new LatencyHistogram();
+
+    NetworkGatewayStats(Collection<?> inbox) {
+        Validate.notNull(inbox);
+        this.inbox = inbox;
+        this.recorder = new Recorder();
+    }
+
+    // Only the gateway feeds events in, through this -- the stats object itself only exposes the read-only MXBean view
+    NetworkGatewayMetricsListener getRecorder() {
+        return recorder;
+    }
+
+    @Override
+    public long getOpenUdpSockets() {
+        return openUdpSockets.get();
+    }
+
+    @Override
+    public long getOpenMulticastUdpSockets() {
+        return openMulticastUdpSockets.get();
+    }
+
+    @Override
+    public long getOpenTcpSockets() {
+        return openTcpSockets.get();
+    }
+
+    @Override
+    public long getDatagramsIn() {
+        return datagramsIn.get();
+    }
+
+    @Override
+    public long getDatagramsOut() {
+        return datagramsOut.get();
+    }
+
+    @Override
+    public long getUdpBytesIn() {
+        return udpBytesIn.get();
+    }
+
+    @Override
+    public long getUdpBytesOut() {
+        return udpBytesOut.get();
+    }
+
+    @Override
+    public long getTcpBytesIn() {
+        return tcpBytesIn.get();
+    }
+
+    @Override
+    public long getTcpBytesOut() {
+        return tcpBytesOut.get();
+    }
+
+    @Override
+    public int getInboxQueueDepth() {
+        return inbox.size();
+    }
+
+    @Override
+    public int getMaxInboxQueueDepth() {
+        return maxInboxQueueDepth.get();
+    }
+
+    @Override
+    public long getSelectLoopIterations() {
+        return selectLoopIterations.get();
+    }
+
+    @Override
+    public long getSelectWakeups() {
+        return selectWakeups.get();
+    }
+
+    @Override
+    public LatencyHistogram.Snapshot getMessageProcessingNanos() {
+        return messageProcessingNanos.snapshot();
+    }
+
+    @Override
+    public LatencyHistogram.Snapshot getSocketLifetimeNanos() {
+        return socketLifetimeNanos.snapshot();
+    }
+
+    private AtomicLong openSocketCounter(SocketType type) {
+        switch (type) {
+            case UDP:
+                return openUdpSockets;
+            case MULTICAST_UDP:
+                return openMulticastUdpSockets;
+            case TCP:
+                return openTcpSockets;
+            default:
+                throw new IllegalStateException(); // should never happen
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "NetworkGatewayStats{" + "openUdpSockets=" + openUdpSockets + ", openMulticastUdpSockets=" + openMulticastUdpSockets
+                + ", openTcpSockets=" + openTcpSockets + ", datagramsIn=" + datagramsIn + ", datagramsOut=" + datagramsOut
+                + ", udpBytesIn=" + udpBytesIn + ", udpBytesOut=" + udpBytesOut + ", tcpBytesIn=" + tcpBytesIn + ", tcpBytesOut="
+                + tcpBytesOut + ", maxInboxQueueDepth=" + maxInboxQueueDepth + ", selectLoopIterations=" + selectLoopIterations
+                + ", selectWakeups=" + selectWakeups + '}';
+    }
+
+    private final class Recorder implements NetworkGatewayMetricsListener {
+        @Override
+        public void socketOpened(SocketType type) {
+            openSocketCounter(type).incrementAndGet();
+        }
+
+        @Override
+        public void socketClosed(SocketType type, long lifetimeNanos) {
+            openSocketCounter(type).decrementAndGet();
+            socketLifetimeNanos.record(Math.max(0L, lifetimeNanos));
+        }
+
+        @Override
+        public void read(SocketType type, int byteCount) {
+            if (type == SocketType.TCP) {
+                tcpBytesIn.addAndGet(byteCount);
+            } else {
+                datagramsIn.incrementAndGet();
+                udpBytesIn.addAndGet(byteCount);
+            }
+        }
+
+        @Override
+        public void written(SocketType type, int byteCount) {
+            if (type == SocketType.TCP) {
+                tcpBytesOut.addAndGet(byteCount);
+            } else {
+                datagramsOut.incrementAndGet();
+                udpBytesOut.addAndGet(byteCount);
+            }
+        }
+
+        @Override
+        public void selected(int readyKeyCount, int inboxQueueDepth) {
+            selectLoopIterations.incrementAndGet();
+            if (readyKeyCount == 0) {
+                selectWakeups.incrementAndGet();
+            }
+            if (inboxQueueDepth > maxInboxQueueDepth.get()) {
+                maxInboxQueueDepth.set(inboxQueueDepth); // only ever written by the IO thread, so no need for compare-and-set
+            }
+        }
+
+        @Override
+        public void messageProcessed(Object msg, long durationNanos) {
+            messageProcessingNanos.record(Math.max(0L, durationNanos));
+        }
+    }
+}
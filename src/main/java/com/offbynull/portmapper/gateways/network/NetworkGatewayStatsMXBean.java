@@ -0,0 +1,116 @@
+/*
+ * Copyright 2013-2016, Kasra Faghihi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.offbynull.portmapper.gateways.network;
+
+import com.offbynull.portmapper.gateway.LatencyHistogram;
+
+/**
+ * Management interface for {@link NetworkGatewayStats}. Register through
+ * {@link com.offbynull.portmapper.gateway.GatewayMBeans#register(java.lang.String, java.lang.Object) }.
+ * @author Kasra Faghihi
+ */
+public interface NetworkGatewayStatsMXBean {
+
+    /**
+     * Get the number of open UDP sockets (not including multicast sockets).
+     * @return number of open UDP sockets
+     */
+    long getOpenUdpSockets();
+
+    /**
+     * Get the number of open multicast UDP sockets.
+     * @return number of open multicast UDP sockets
+     */
+    long getOpenMulticastUdpSockets();
+
+    /**
+     * Get the number of open TCP sockets.
+     * @return number of open TCP sockets
+     */
+    long getOpenTcpSockets();
+
+    /**
+     * Get the number of datagrams received (unicast and multicast).
+     * @return number of datagrams received
+     */
+    long getDatagramsIn();
+
+    /**
+     * Get the number of datagrams sent (unicast and multicast).
+     * @return number of datagrams sent
+     */
+    long getDatagramsOut();
+
+    /**
+     * Get the number of UDP bytes received (unicast and multicast).
+     * @return number of UDP bytes received
+     */
+    long getUdpBytesIn();
+
+    /**
+     * Get the number of UDP bytes sent (unicast and multicast).
+     * @return number of UDP bytes sent
+     */
+    long getUdpBytesOut();
+
+    /**
+     * Get the number of TCP bytes received.
+     * @return number of TCP bytes received
+     */
+    long getTcpBytesIn();
+
+    /**
+     * Get the number of TCP bytes sent.
+     * @return number of TCP bytes sent
+     */
+    long getTcpBytesOut();
+
+    /**
+     * Get the number of messages currently waiting to be processed by the gateway.
+     * @return inbox queue depth
+     */
+    int getInboxQueueDepth();
+
+    /**
+     * Get the largest number of messages seen waiting to be processed by the gateway.
+     * @return maximum inbox queue depth
+     */
+    int getMaxInboxQueueDepth();
+
+    /**
+     * Get the number of times the select loop has run.
+     * @return number of select loop iterations
+     */
+    long getSelectLoopIterations();
+
+    /**
+     * Get the number of times the select loop ran without any socket being ready (woken up to process messages, or spuriously).
+     * @return number of wakeups
+     */
+    long getSelectWakeups();
+
+    /**
+     * Get the time taken to process each message sent to the gateway, in nanoseconds.
+     * @return message processing time histogram
+     */
+    LatencyHistogram.Snapshot getMessageProcessingNanos();
+
+    /**
+     * Get the lifetime of closed sockets, in nanoseconds.
+     * @return socket lifetime histogram
+     */
+    LatencyHistogram.Snapshot getSocketLifetimeNanos();
+}
@@ -16,11 +16,11 @@
 package com.offbynull.portmapper.gateways.network;
 
 import com.offbynull.portmapper.gateway.Bus;
-import com.offbynull.portmapper.helpers.ByteBufferUtils;
-import com.offbynull.portmapper.gateways.network.UdpNetworkEntry.AddressedByteBuffer;
+import com.offbynull.portmapper.gateways.network.NetworkGatewayMetricsListener.SocketType;
 import com.offbynull.portmapper.gateways.network.internalmessages.ConnectedTcpNetworkNotification;
 import com.offbynull.portmapper.gateways.network.internalmessages.CreateTcpNetworkRequest;
 import com.offbynull.portmapper.gateways.network.internalmessages.CreateTcpNetworkResponse;
+import com.offbynull.portmapper.gateways.network.internalmessages.CreateMulticastUdpNetworkRequest;
 import com.offbynull.portmapper.gateways.network.internalmessages.CreateUdpNetworkRequest;
 import com.offbynull.portmapper.gateways.network.internalmessages.CreateUdpNetworkResponse;
 import com.offbynull.portmapper.gateways.network.internalmessages.CloseNetworkRequest;
@@ -43,9 +43,11 @@ import com.offbynull.portmapper.gateways.network.internalmessages.WriteTcpNetwor
 import com.offbynull.portmapper.gateways.network.internalmessages.WriteUdpNetworkRequest;
 import com.offbynull.portmapper.gateways.network.internalmessages.WriteUdpNetworkResponse;
 import java.io.IOException;
-import java.net.InetAddress;
+import java.net.Inet4Address;
 import java.net.InetSocketAddress;
 import java.net.NetworkInterface;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
 import java.nio.ByteBuffer;
 import java.nio.channels.Channel;
 import java.nio.channels.ClosedChannelException;
@@ -54,14 +56,11 @@ import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
 import java.nio.channels.spi.AbstractSelectableChannel;
-import java.util.Enumeration;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.LinkedList;
-import java.util.Map;
-import java.util.Set;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.concurrent.LinkedBlockingQueue;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.Validate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -71,9 +70,13 @@ final class NetworkRunnable implements Runnable {
     private final Bus bus;
     private final LinkedBlockingQueue<Object> queue;
     private final Selector selector;
+    private final NetworkGatewayStats stats;
+    private final NetworkGatewayMetricsListener listener;
+    private final LocalAddressMonitor localAddressMonitor;
     private int nextId = 0;
 
-    NetworkRunnable() {
+    NetworkRunnable(NetworkGatewayMetricsListener listener, LocalAddressMonitor localAddressMonitor) {
+        Validate.notNull(localAddressMonitor);
         try {
             selector = Selector.open();
         } catch (IOException ioe) {
@@ -81,28 +84,43 @@ final class NetworkRunnable implements Runnable {
         }
         queue = new LinkedBlockingQueue<>();
         bus = new NetworkBus(selector, queue);
+        stats = new NetworkGatewayStats(queue);
+        this.listener = listener == null ? stats.getRecorder() : new ChainedNetworkGatewayMetricsListener(stats.getRecorder(), listener);
+        this.localAddressMonitor = localAddressMonitor;
     }
-    private Map<Integer, NetworkEntry<?>> idMap = new HashMap<>();
-    private Map<Channel, NetworkEntry<?>> channelMap = new HashMap<>();
-    private ByteBuffer buffer = ByteBuffer.allocate(65535);
+    // Everything the selector loop touches per-message is reused, so that once the gateway is warmed up the only allocations in the loop
+    // are the messages that go out over the bus: entries are found by a primitive id map / the selection key's attachment, outgoing
+    // requests are queued as-is in array-backed queues, and data is moved through a single direct buffer (the JDK copies heap buffers in
+    // to a temporary direct buffer on every read/write otherwise).
+    private IntObjectMap<NetworkEntry<?>> idMap = new IntObjectMap<>();
+    private ArrayList<Object> pendingMsgs = new ArrayList<>();
+    private ByteBuffer buffer = ByteBuffer.allocateDirect(65535);
 
     public Bus getBus() {
         return bus;
     }
 
+    NetworkGatewayStats getStats() {
+        return stats;
+    }
+
     @Override
     public void run() {
         LOG.debug("Starting gateway");
         try {
             while (true) {
-                selector.select();
-                for (SelectionKey key : selector.selectedKeys()) {
+                int readyKeyCount = selector.select();
+                listener.selected(readyKeyCount, queue.size());
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
                     if (!key.isValid()) {
                         continue;
                     }
-                    Channel channel = (Channel) key.channel();
-                    NetworkEntry<?> entry = channelMap.get(channel);
-                    if (entry == null) {
+                    Channel channel = key.channel();
+                    NetworkEntry<?> entry = (NetworkEntry<?>) key.attachment();
+                    if (idMap.get(entry.getId()) != entry) {
                         channel.close();
                         continue;
                     }
@@ -114,17 +132,23 @@ final class NetworkRunnable implements Runnable {
                         } else {
                             throw new IllegalStateException(); // should never happen
                         }
-                        updateSelectionKey(entry, (AbstractSelectableChannel) channel);
+                        updateSelectionKey(entry);
                     } catch (RuntimeException e) {
                         int id = entry.getId();
                         LOG.error(id + " Exception encountered", e);
                         entry.getResponseBus().send(new IdentifiableErrorNetworkNotification(id));
                     }
                 }
-                LinkedList<Object> msgs = new LinkedList<>();
-                queue.drainTo(msgs);
-                for (Object msg : msgs) {
-                    processMessage(msg);
+                queue.drainTo(pendingMsgs);
+                try {
+                    for (int i = 0; i < pendingMsgs.size(); i++) {
+                        Object msg = pendingMsgs.get(i);
+                        long startTime = System.nanoTime();
+                        processMessage(msg);
+                        listener.messageProcessed(msg, System.nanoTime() - startTime);
+                    }
+                } finally {
+                    pendingMsgs.clear();
                 }
             }
         } catch (KillRequestException kre) {
@@ -144,7 +168,9 @@ final class NetworkRunnable implements Runnable {
         Bus responseBus = entry.getResponseBus();
         int id = entry.getId();
         if (selectionKey.isConnectable()) {
-            LOG.debug("{} TCP connection", id);
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("{} TCP connection", id);
+            }
             try {
                 // This block is sometimes called more than once for each connection -- we still call finishConnect but we also check to
                 // see if we're already connected before sending the CreateTcpSocketNetworkResponse msg
@@ -165,15 +191,20 @@ final class NetworkRunnable implements Runnable {
                 int readCount = channel.read(buffer);
                 buffer.flip();
 
-                LOG.debug("{} TCP read {} bytes", id, readCount);
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("{} TCP read {} bytes", id, readCount);
+                }
+
+                if (readCount > 0) {
+                    listener.read(SocketType.TCP, readCount);
+                }
 
                 if (readCount == -1) {
                     // read finished, set flag to stop requesting read notifications
                     entry.setReadFinished(true);
                     responseBus.send(new ReadClosedTcpNetworkNotification(id));
                 } else if (buffer.remaining() > 0) {
-                    byte[] bufferAsArray = ByteBufferUtils.copyContentsToArray(buffer);
-                    responseBus.send(new ReadTcpNetworkNotification(id, bufferAsArray));
+                    responseBus.send(new ReadTcpNetworkNotification(id, buffer));
                 }
             } catch (IOException ioe) {
                 LOG.debug(id + " Exception encountered", ioe);
@@ -182,27 +213,40 @@ final class NetworkRunnable implements Runnable {
         }
         if (selectionKey.isWritable()) {
             try {
-                LinkedList<ByteBuffer> outBuffers = entry.getOutgoingBuffers();
+                ArrayRingQueue<WriteTcpNetworkRequest> outBuffers = entry.getOutgoingBuffers();
                 // if OP_WRITE was set, WriteTcpBlockNetworkRequest is pending (we should have at least 1 outgoing buffer)
                 int writeCount = 0;
                 if (outBuffers.isEmpty() && !entry.isNotifiedOfWritable()) {
-                    LOG.debug("{} TCP write empty", id);
+                    if (LOG.isDebugEnabled()) {
+                        LOG.debug("{} TCP write empty", id);
+                    }
 
                     // if empty but not notified yet
                     entry.setNotifiedOfWritable(true);
                     entry.getResponseBus().send(new WriteEmptyTcpNetworkNotification(id));
                 } else {
                     while (!outBuffers.isEmpty()) {
-                        ByteBuffer outBuffer = outBuffers.getFirst();
-                        writeCount += channel.write(outBuffer);
+                        WriteTcpNetworkRequest outBuffer = outBuffers.peekFirst();
+                        int offset = entry.getOutgoingOffset();
+                        buffer.clear();
+                        outBuffer.copyDataTo(offset, buffer);
+                        buffer.flip();
+                        int amountWritten = channel.write(buffer);
+                        listener.written(SocketType.TCP, amountWritten);
+                        writeCount += amountWritten;
+                        offset += amountWritten;
 
-                        LOG.debug("{} TCP wrote {} bytes", id, writeCount);
+                        if (LOG.isDebugEnabled()) {
+                            LOG.debug("{} TCP wrote {} bytes", id, writeCount);
+                        }
 
-                        if (outBuffer.remaining() > 0) {
+                        if (offset < outBuffer.getDataLength()) {
                             // not everything was written, which means we can't send anymore data until we get another OP_WRITE, so leave
+                            entry.setOutgoingOffset(offset);
                             break;
                         }
                         outBuffers.removeFirst();
+                        entry.setOutgoingOffset(0);
                         responseBus.send(new WriteTcpNetworkResponse(id, writeCount));
                     }
                 }
@@ -221,17 +265,17 @@ final class NetworkRunnable implements Runnable {
             try {
                 buffer.clear();
 
-                // Would directly call DatagramChannel.getLocalAddress(), but this doesn't look to be available on android. Doing this
-                // on Java 7/8 performs the same function -- it probably does the same on Android as well?
-                InetSocketAddress localAddress = (InetSocketAddress) channel.socket().getLocalSocketAddress();
+                InetSocketAddress localAddress = entry.getLocalAddress();
                 InetSocketAddress remoteAddress = (InetSocketAddress) channel.receive(buffer);
 
-                LOG.debug("{} UDP read {} bytes from {} to {}", id, buffer.position(), remoteAddress, localAddress);
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("{} UDP read {} bytes from {} to {}", id, buffer.position(), remoteAddress, localAddress);
+                }
 
                 if (remoteAddress != null) {
                     buffer.flip();
-                    byte[] bufferAsArray = ByteBufferUtils.copyContentsToArray(buffer);
-                    responseBus.send(new ReadUdpNetworkNotification(id, localAddress, remoteAddress, bufferAsArray));
+                    listener.read(entry.getType(), buffer.remaining());
+                    responseBus.send(new ReadUdpNetworkNotification(id, localAddress, remoteAddress, buffer));
                 }
             } catch (IOException ioe) {
                 LOG.debug(id + " Exception encountered", ioe);
@@ -240,26 +284,38 @@ final class NetworkRunnable implements Runnable {
         }
         if (selectionKey.isWritable()) {
             try {
-                LinkedList<AddressedByteBuffer> outBuffers = entry.getOutgoingBuffers();
+                ArrayRingQueue<WriteUdpNetworkRequest> outBuffers = entry.getOutgoingBuffers();
                 if (!outBuffers.isEmpty()) {
                     // if not empty
-                    AddressedByteBuffer outBuffer = outBuffers.removeFirst();
+                    WriteUdpNetworkRequest outBuffer = outBuffers.removeFirst();
+
+                    ByteBuffer outgoingBuffer;
+                    int totalCount = outBuffer.getDataLength();
+                    if (totalCount <= buffer.capacity()) {
+                        buffer.clear();
+                        outBuffer.copyDataTo(0, buffer);
+                        buffer.flip();
+                        outgoingBuffer = buffer;
+                    } else {
+                        // too big to ever fit in a datagram, but hand it to the channel anyways so it fails the same way it always has
+                        outgoingBuffer = ByteBuffer.wrap(outBuffer.getData());
+                    }
 
-                    ByteBuffer outgoingBuffer = outBuffer.getBuffer();
-                    
-                    // Would directly call DatagramChannel.getLocalAddress(), but this doesn't look to be available on android. Doing this
-                    // on Java 7/8 performs the same function -- it probably does the same on Android as well?
-                    InetSocketAddress localAddress = (InetSocketAddress) channel.socket().getLocalSocketAddress();
-                    InetSocketAddress remoteAddress = outBuffer.getSocketAddress();
-                    int totalCount = outgoingBuffer.remaining();
+                    InetSocketAddress localAddress = entry.getLocalAddress();
+                    InetSocketAddress remoteAddress = outBuffer.getRemoteAddress();
 
                     int writeCount = channel.send(outgoingBuffer, remoteAddress);
+                    listener.written(entry.getType(), writeCount);
 
-                    LOG.debug("{} UDP wrote {} bytes of {} from {} to {}", id, writeCount, totalCount, localAddress, remoteAddress);
+                    if (LOG.isDebugEnabled()) {
+                        LOG.debug("{} UDP wrote {} bytes of {} from {} to {}", id, writeCount, totalCount, localAddress, remoteAddress);
+                    }
 
                     responseBus.send(new WriteUdpNetworkResponse(id, writeCount));
                 } else if (!entry.isNotifiedOfWritable()) {
-                    LOG.debug("{} UDP write empty", id);
+                    if (LOG.isDebugEnabled()) {
+                        LOG.debug("{} UDP write empty", id);
+                    }
 
                     // if empty but not notified yet
                     entry.setNotifiedOfWritable(true);
@@ -272,7 +328,7 @@ final class NetworkRunnable implements Runnable {
         }
     }
 
-    private void updateSelectionKey(NetworkEntry<?> entry, AbstractSelectableChannel channel) throws ClosedChannelException {
+    private void updateSelectionKey(NetworkEntry<?> entry) throws ClosedChannelException {
         int newKey = 0;
         if (entry instanceof TcpNetworkEntry) {
             TcpNetworkEntry tcpNetworkEntry = (TcpNetworkEntry) entry;
@@ -296,16 +352,25 @@ final class NetworkRunnable implements Runnable {
             // if is empty but not notified yet
             newKey |= SelectionKey.OP_WRITE;
         }
-        if (newKey != entry.getSelectionKey()) {
-            entry.setSelectionKey(newKey);
-            int id = entry.getId();
-            LOG.debug("{} Key updated to {}", id, newKey);
-            channel.register(selector, newKey); // register new key if different -- calling register may have performance issues?
+        SelectionKey selectionKey = entry.getSelectionKey();
+        if (selectionKey == null) {
+            // first time through, register with the entry attached so the selector loop can get back to it without a lookup
+            AbstractSelectableChannel channel = (AbstractSelectableChannel) entry.getChannel();
+            entry.setSelectionKey(channel.register(selector, newKey, entry));
+            entry.setInterestOps(newKey);
+        } else if (newKey != entry.getInterestOps()) {
+            entry.setInterestOps(newKey);
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("{} Key updated to {}", entry.getId(), newKey);
+            }
+            selectionKey.interestOps(newKey);
         }
     }
 
     private void processMessage(Object msg) throws IOException {
-        LOG.debug("Processing message: {}", msg);
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Processing message: {}", msg);
+        }
 
         if (msg instanceof GetNextIdNetworkRequest) {
             int id = nextId++;
@@ -328,11 +393,14 @@ final class NetworkRunnable implements Runnable {
                 // performs the same function -- it probably does the same on Android as well?
                 channel.socket().bind(new InetSocketAddress(req.getSourceAddress(), 0));
                 
-                entry = new UdpNetworkEntry(id, channel, responseBus);
-                updateSelectionKey(entry, channel);
+                entry = new UdpNetworkEntry(id, SocketType.UDP, channel, responseBus);
+                // Would directly call DatagramChannel.getLocalAddress(), but this doesn't look to be available on android. Doing this
+                // on Java 7/8 performs the same function -- it probably does the same on Android as well?
+                entry.setLocalAddress((InetSocketAddress) channel.socket().getLocalSocketAddress());
+                updateSelectionKey(entry);
                 
                 idMap.put(id, entry);
-                channelMap.put(channel, entry);
+                listener.socketOpened(entry.getType());
                 
                 responseBus.send(new CreateUdpNetworkResponse(id));
             } catch (RuntimeException re) {
@@ -340,13 +408,56 @@ final class NetworkRunnable implements Runnable {
                     IOUtils.closeQuietly(channel);
                 }
 
-                if (entry != null) {
-                    idMap.remove(entry.getId());
-                    channelMap.remove(entry.getChannel());
+                if (entry != null && idMap.remove(entry.getId()) != null) {
+                    listener.socketClosed(entry.getType(), System.nanoTime() - entry.getOpenTime());
                 }
                 
                 LOG.debug("Unable to create socket", re);
 
+                responseBus.send(new IdentifiableErrorNetworkResponse(id));
+            }
+        } else if (msg instanceof CreateMulticastUdpNetworkRequest) {
+            CreateMulticastUdpNetworkRequest req = (CreateMulticastUdpNetworkRequest) msg;
+            int id = req.getId();
+            Bus responseBus = req.getResponseBus();
+            InetSocketAddress groupAddress = req.getGroupAddress();
+            
+            DatagramChannel channel = null;
+            UdpNetworkEntry entry = null;
+            try {
+                StandardProtocolFamily family = groupAddress.getAddress() instanceof Inet4Address
+                        ? StandardProtocolFamily.INET
+                        : StandardProtocolFamily.INET6;
+                channel = DatagramChannel.open(family);
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+                
+                // Multicast packets are only delivered to sockets bound to the wildcard address (or to the group address itself on some
+                // platforms), so bind to the wildcard address on the group's port and join the group on the requested interface
+                channel.socket().bind(new InetSocketAddress(groupAddress.getPort()));
+                NetworkInterface networkInterface = NetworkInterface.getByInetAddress(req.getSourceAddress());
+                Validate.validState(networkInterface != null);
+                channel.join(groupAddress.getAddress(), networkInterface);
+                
+                entry = new UdpNetworkEntry(id, SocketType.MULTICAST_UDP, channel, responseBus);
+                entry.setLocalAddress((InetSocketAddress) channel.socket().getLocalSocketAddress());
+                updateSelectionKey(entry);
+                
+                idMap.put(id, entry);
+                listener.socketOpened(entry.getType());
+                
+                responseBus.send(new CreateUdpNetworkResponse(id));
+            } catch (IOException | RuntimeException e) {
+                if (channel != null) {
+                    IOUtils.closeQuietly(channel);
+                }
+
+                if (entry != null && idMap.remove(entry.getId()) != null) {
+                    listener.socketClosed(entry.getType(), System.nanoTime() - entry.getOpenTime());
+                }
+                
+                LOG.debug("Unable to create multicast socket", e);
+
                 responseBus.send(new IdentifiableErrorNetworkResponse(id));
             }
         } else if (msg instanceof CreateTcpNetworkRequest) {
@@ -367,10 +478,10 @@ final class NetworkRunnable implements Runnable {
                 
                 entry = new TcpNetworkEntry(id, channel, responseBus);
                 entry.setConnecting(true);
-                updateSelectionKey(entry, channel);
+                updateSelectionKey(entry);
                 
                 idMap.put(id, entry);
-                channelMap.put(channel, entry);
+                listener.socketOpened(entry.getType());
 
                 responseBus.send(new CreateTcpNetworkResponse(id));
             } catch (RuntimeException re) {
@@ -378,9 +489,8 @@ final class NetworkRunnable implements Runnable {
                     IOUtils.closeQuietly(channel);
                 }
 
-                if (entry != null) {
-                    idMap.remove(entry.getId());
-                    channelMap.remove(entry.getChannel());
+                if (entry != null && idMap.remove(entry.getId()) != null) {
+                    listener.socketClosed(entry.getType(), System.nanoTime() - entry.getOpenTime());
                 }
                 
                 LOG.debug("Unable to create socket", re);
@@ -397,9 +507,9 @@ final class NetworkRunnable implements Runnable {
                 Channel channel = entry.getChannel();
                 
                 idMap.remove(id);
-                channelMap.remove(channel);
                 
                 IOUtils.closeQuietly(channel);
+                listener.socketClosed(entry.getType(), System.nanoTime() - entry.getOpenTime());
                 responseBus.send(new CloseNetworkResponse(id));
             }
         } else if (msg instanceof WriteTcpNetworkRequest) {
@@ -410,14 +520,12 @@ final class NetworkRunnable implements Runnable {
                 TcpNetworkEntry entry = (TcpNetworkEntry) idMap.get(id);
                 if (entry != null) {
                     responseBus = entry.getResponseBus();
-                    LinkedList<ByteBuffer> outBuffers = entry.getOutgoingBuffers();
-                    ByteBuffer writeBuffer = ByteBuffer.wrap(req.getData());
-                    if (writeBuffer.hasRemaining()) {
+                    ArrayRingQueue<WriteTcpNetworkRequest> outBuffers = entry.getOutgoingBuffers();
+                    if (req.getDataLength() > 0) {
                         // only add if it has content -- adding empty is worthless because this is a stream
-                        outBuffers.add(writeBuffer);
+                        outBuffers.addLast(req);
                     }
-                    AbstractSelectableChannel channel = (AbstractSelectableChannel) entry.getChannel();
-                    updateSelectionKey(entry, channel);
+                    updateSelectionKey(entry);
                 }
             } catch (RuntimeException re) {
                 LOG.debug("Unable to process message", re);
@@ -433,12 +541,8 @@ final class NetworkRunnable implements Runnable {
                 UdpNetworkEntry entry = (UdpNetworkEntry) idMap.get(id);
                 if (entry != null) {
                     responseBus = entry.getResponseBus();
-                    LinkedList<AddressedByteBuffer> outBuffers = entry.getOutgoingBuffers();
-                    ByteBuffer writeBuffer = ByteBuffer.wrap(req.getData());
-                    InetSocketAddress writeAddress = req.getRemoteAddress();
-                    outBuffers.add(new AddressedByteBuffer(writeBuffer, writeAddress));
-                    AbstractSelectableChannel channel = (AbstractSelectableChannel) entry.getChannel();
-                    updateSelectionKey(entry, channel);
+                    entry.getOutgoingBuffers().addLast(req); // requests are immutable, so they can be queued as-is
+                    updateSelectionKey(entry);
                 }
             } catch (RuntimeException re) {
                 LOG.debug("Unable to process message", re);
@@ -448,30 +552,10 @@ final class NetworkRunnable implements Runnable {
             }
         } else if (msg instanceof GetLocalIpAddressesNetworkRequest) {
             GetLocalIpAddressesNetworkRequest req = (GetLocalIpAddressesNetworkRequest) msg;
-            Set<InetAddress> ret = new HashSet<>();
             Bus responseBus = req.getResponseBus();
             try {
-                Enumeration<NetworkInterface> interfaces = NetworkInterface.getNetworkInterfaces();
-                while (interfaces.hasMoreElements()) {
-                    NetworkInterface networkInterface = interfaces.nextElement();
-                    if (!networkInterface.isUp()) {
-                        LOG.debug("Interface {} not up -- skipping", networkInterface);
-                        continue;
-                    }
-                    
-                    try {
-                        Enumeration<InetAddress> addrs = networkInterface.getInetAddresses();
-                        while (addrs.hasMoreElements()) {
-                            InetAddress addr = addrs.nextElement();
-                            if (!addr.isLoopbackAddress()) {
-                                ret.add(addr);
-                            }
-                        }
-                    } catch (RuntimeException niException) {
-                        LOG.warn("Unable to access interface {}", networkInterface, niException);
-                    }
-                }
-                responseBus.send(new GetLocalIpAddressesNetworkResponse(ret));
+                // answered from the monitor's snapshot -- walking the interfaces here would stall all socket IO
+                responseBus.send(new GetLocalIpAddressesNetworkResponse(localAddressMonitor.getAddresses()));
             } catch (RuntimeException re) {
                 LOG.debug("Unable to process message", re);
                 if (responseBus != null) {
@@ -486,8 +570,9 @@ final class NetworkRunnable implements Runnable {
     private void shutdownResources() {
         LOG.debug("Shutting down all resources");
         
-        for (int id : new HashSet<>(idMap.keySet())) { // shutdownResource removes items from idMap, so create a dupe of set such that you
-                                                       // don't encounter issues with making changes to the set while you're iterating
+        localAddressMonitor.stop();
+        
+        for (int id : idMap.keys()) { // shutdownResource removes items from idMap, but keys() returns a copy so this is safe to do
             forcefullyShutdownResource(id);
         }
         
@@ -496,7 +581,6 @@ final class NetworkRunnable implements Runnable {
         } catch (Exception e) {
             LOG.error("Error shutting down selector", e);
         }
-        channelMap.clear();
         idMap.clear();
     }
 
@@ -508,13 +592,15 @@ final class NetworkRunnable implements Runnable {
         Channel channel = null;
         try {
             channel = ne.getChannel();
-            channelMap.remove(channel);
             
             ne.getResponseBus().send(new IdentifiableErrorNetworkNotification(id));
         } catch (RuntimeException e) {
             LOG.error(id + " Error shutting down resource", e);
         } finally {
             IOUtils.closeQuietly(channel);
+            if (ne != null) {
+                listener.socketClosed(ne.getType(), System.nanoTime() - ne.getOpenTime());
+            }
         }
     }
     
@@ -16,25 +16,34 @@
 package com.offbynull.portmapper.gateways.network;
 
 import com.offbynull.portmapper.gateway.Bus;
-import java.nio.ByteBuffer;
+import com.offbynull.portmapper.gateways.network.NetworkGatewayMetricsListener.SocketType;
+import com.offbynull.portmapper.gateways.network.internalmessages.WriteTcpNetworkRequest;
 import java.nio.channels.Channel;
-import java.util.LinkedList;
 
-final class TcpNetworkEntry extends NetworkEntry<ByteBuffer> {
+final class TcpNetworkEntry extends NetworkEntry<WriteTcpNetworkRequest> {
     private boolean connecting = true;
     private boolean readFinished;
-    private LinkedList<ByteBuffer> outgoingBuffers;
+    private ArrayRingQueue<WriteTcpNetworkRequest> outgoingBuffers;
+    private int outgoingOffset; // how much of the first outgoing buffer has already been written
 
     TcpNetworkEntry(int id, Channel channel, Bus responseBus) {
-        super(id, channel, responseBus);
-        outgoingBuffers = new LinkedList<>();
+        super(id, SocketType.TCP, channel, responseBus);
+        outgoingBuffers = new ArrayRingQueue<>();
     }
 
     @Override
-    public LinkedList<ByteBuffer> getOutgoingBuffers() {
+    ArrayRingQueue<WriteTcpNetworkRequest> getOutgoingBuffers() {
         return outgoingBuffers;
     }
 
+    int getOutgoingOffset() {
+        return outgoingOffset;
+    }
+
+    void setOutgoingOffset(int outgoingOffset) {
+        this.outgoingOffset = outgoingOffset;
+    }
+
     boolean isConnecting() {
         return connecting;
     }
@@ -16,41 +16,31 @@
 package com.offbynull.portmapper.gateways.network;
 
 import com.offbynull.portmapper.gateway.Bus;
-import com.offbynull.portmapper.gateways.network.UdpNetworkEntry.AddressedByteBuffer;
+import com.offbynull.portmapper.gateways.network.NetworkGatewayMetricsListener.SocketType;
+import com.offbynull.portmapper.gateways.network.internalmessages.WriteUdpNetworkRequest;
 import java.net.InetSocketAddress;
-import java.nio.ByteBuffer;
 import java.nio.channels.Channel;
-import java.util.LinkedList;
 
-final class UdpNetworkEntry extends NetworkEntry<AddressedByteBuffer> {
-    private LinkedList<AddressedByteBuffer> outgoingBuffers;
+final class UdpNetworkEntry extends NetworkEntry<WriteUdpNetworkRequest> {
+    private ArrayRingQueue<WriteUdpNetworkRequest> outgoingBuffers;
+    private InetSocketAddress localAddress;
 
-    UdpNetworkEntry(int id, Channel channel, Bus responseBus) {
-        super(id, channel, responseBus);
-        outgoingBuffers = new LinkedList<>();
+    UdpNetworkEntry(int id, SocketType type, Channel channel, Bus responseBus) {
+        super(id, type, channel, responseBus);
+        outgoingBuffers = new ArrayRingQueue<>();
     }
 
     @Override
-    LinkedList<AddressedByteBuffer> getOutgoingBuffers() {
+    ArrayRingQueue<WriteUdpNetworkRequest> getOutgoingBuffers() {
         return outgoingBuffers;
     }
-    
-    static final class AddressedByteBuffer  {
-        private ByteBuffer buffer;
-        private InetSocketAddress socketAddres;
 
-        AddressedByteBuffer(ByteBuffer buffer, InetSocketAddress socketAddres) {
-            this.buffer = buffer;
-            this.socketAddres = socketAddres;
-        }
-
-        ByteBuffer getBuffer() {
-            return buffer;
-        }
+    // cached because the address a socket is bound to never changes, and asking the socket for it creates a new object every time
+    InetSocketAddress getLocalAddress() {
+        return localAddress;
+    }
 
-        InetSocketAddress getSocketAddress() {
-            return socketAddres;
-        }
-        
+    void setLocalAddress(InetSocketAddress localAddress) {
+        this.localAddress = localAddress;
     }
 }
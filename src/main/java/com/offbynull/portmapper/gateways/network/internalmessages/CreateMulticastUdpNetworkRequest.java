@@ -0,0 +1,85 @@
+/*
+ * Copyright 2013-2016, Kasra Faghihi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.offbynull.portmapper.gateways.network.internalmessages;
+
+import com.offbynull.portmapper.gateway.Bus;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Create a UDP socket that listens for packets sent to a multicast group. The socket is bound to the port of the multicast group and
+ * joins the group on the interface that has the source address. Possible responses are {@link CreateUdpNetworkResponse} and
+ * {@link IdentifiableErrorNetworkResponse}).
+ * @author Kasra Faghihi
+ */
+public final class CreateMulticastUdpNetworkRequest extends IdentifiableNetworkRequest {
+    private Bus responseBus;
+    private InetAddress sourceAddress;
+    private InetSocketAddress groupAddress;
+
+    /**
+     * Constructs a {@link CreateMulticastUdpNetworkRequest} object.
+     * @param id id of socket
+     * @param responseBus bus to send responses/notifications to for the created socket 
+     * @param sourceAddress address of the interface to join the multicast group on
+     * @param groupAddress multicast group address and port to listen on
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalArgumentException if {@code groupAddress} isn't a multicast address, or if {@code groupAddress} and
+     * {@code sourceAddress} are of different address families
+     */
+    public CreateMulticastUdpNetworkRequest(int id, Bus responseBus, InetAddress sourceAddress, InetSocketAddress groupAddress) {
+        super(id);
+        Validate.notNull(responseBus);
+        Validate.notNull(sourceAddress);
+        Validate.notNull(groupAddress);
+        Validate.isTrue(groupAddress.getAddress().isMulticastAddress());
+        Validate.isTrue(groupAddress.getAddress().getClass() == sourceAddress.getClass());
+        this.responseBus = responseBus;
+        this.sourceAddress = sourceAddress;
+        this.groupAddress = groupAddress;
+    }
+
+    /**
+     * Bus to send responses/notifications to for the created socket.
+     * @return response bus
+     */
+    public Bus getResponseBus() {
+        return responseBus;
+    }
+
+    /**
+     * Address of the interface to join the multicast group on.
+     * @return source address
+     */
+    public InetAddress getSourceAddress() {
+        return sourceAddress;
+    }
+
+    /**
+     * Multicast group address and port to listen on.
+     * @return group address
+     */
+    public InetSocketAddress getGroupAddress() {
+        return groupAddress;
+    }
+
+    @Override
+    public String toString() {
+        return "CreateMulticastUdpNetworkRequest{" + "responseBus=" + responseBus + ", sourceAddress=" + sourceAddress
+                + ", groupAddress=" + groupAddress + '}';
+    }
+}
@@ -15,7 +15,9 @@
  */
 package com.offbynull.portmapper.gateways.network.internalmessages;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
+import org.apache.commons.lang3.Validate;
 
 /**
  * TCP socket has received data.
@@ -35,6 +37,21 @@ public final class ReadTcpNetworkNotification extends IdentifiableNetworkNotific
         this.data = Arrays.copyOf(data, data.length);
     }
 
+    /**
+     * Constructs a {@link ReadTcpNetworkNotification} object from the remaining content of a buffer. Equivalent to
+     * {@link #ReadTcpNetworkNotification(int, byte[]) }, but copies straight out of {@code data} rather than requiring the caller to copy
+     * it to an array first.
+     * @param id id of socket
+     * @param data received data (position is moved to limit)
+     * @throws NullPointerException if any argument is {@code null}
+     */
+    public ReadTcpNetworkNotification(int id, ByteBuffer data) {
+        super(id);
+        Validate.notNull(data);
+        this.data = new byte[data.remaining()];
+        data.get(this.data);
+    }
+
     /**
      * Get data.
      * @return data
@@ -16,6 +16,7 @@
 package com.offbynull.portmapper.gateways.network.internalmessages;
 
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import org.apache.commons.lang3.Validate;
 
@@ -46,6 +47,27 @@ public final class ReadUdpNetworkNotification extends IdentifiableNetworkNotific
         this.data = Arrays.copyOf(data, data.length);
     }
 
+    /**
+     * Constructs a {@link ReadUdpNetworkNotification} object from the remaining content of a buffer. Equivalent to
+     * {@link #ReadUdpNetworkNotification(int, java.net.InetSocketAddress, java.net.InetSocketAddress, byte[]) }, but copies straight out of
+     * {@code data} rather than requiring the caller to copy it to an array first.
+     * @param id id of socket
+     * @param localAddress address sent to
+     * @param remoteAddress address sent from
+     * @param data received data (position is moved to limit)
+     * @throws NullPointerException if any argument is {@code null}
+     */
+    public ReadUdpNetworkNotification(int id, InetSocketAddress localAddress, InetSocketAddress remoteAddress, ByteBuffer data) {
+        super(id);
+        Validate.notNull(localAddress);
+        Validate.notNull(remoteAddress);
+        Validate.notNull(data);
+        this.localAddress = localAddress;
+        this.remoteAddress = remoteAddress;
+        this.data = new byte[data.remaining()];
+        data.get(this.data);
+    }
+
     /**
      * Get local address.
      * @return local address
@@ -15,6 +15,7 @@
  */
 package com.offbynull.portmapper.gateways.network.internalmessages;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import org.apache.commons.lang3.Validate;
 
@@ -45,6 +46,30 @@ public final class WriteTcpNetworkRequest extends IdentifiableNetworkRequest {
         return Arrays.copyOf(data, data.length);
     }
 
+    /**
+     * Get the length of the send data.
+     * @return send data length
+     */
+    public int getDataLength() {
+        return data.length;
+    }
+
+    /**
+     * Copy send data in to a buffer, without the defensive copy that {@link #getData() } makes.
+     * @param offset offset in to the send data to start copying from
+     * @param dst buffer to copy in to
+     * @return number of bytes copied (limited by the space remaining in {@code dst})
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalArgumentException if {@code offset} is negative or greater than the send data length
+     */
+    public int copyDataTo(int offset, ByteBuffer dst) {
+        Validate.notNull(dst);
+        Validate.inclusiveBetween(0, data.length, offset);
+        int len = Math.min(data.length - offset, dst.remaining());
+        dst.put(data, offset, len);
+        return len;
+    }
+
     @Override
     public String toString() {
         return "WriteTcpNetworkRequest{super=" + super.toString() + "data=" + Arrays.toString(data) + '}';
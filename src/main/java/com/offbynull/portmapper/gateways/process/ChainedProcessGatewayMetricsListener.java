@@ -0,0 +1,107 @@
+/*
+ * Copyright 2013-2016, Kasra Faghihi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.offbynull.portmapper.gateways.process;
+
+import com.offbynull.portmapper.gateways.process.internalmessages.ReadType;
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// Forwards events to the gateway's own stats and then to a user-supplied listener. Exceptions from the user-supplied listener are logged so
+// that they can't take down the gateway thread.
+final class ChainedProcessGatewayMetricsListener implements ProcessGatewayMetricsListener {
+    private static final Logger LOG = LoggerFactory.getLogger(ChainedProcessGatewayMetricsListener.class);
+
+    private final ProcessGatewayMetricsListener stats;
+    private final ProcessGatewayMetricsListener listener;
+
+    ChainedProcessGatewayMetricsListener(ProcessGatewayMetricsListener stats, ProcessGatewayMetricsListener listener) {
+        Validate.notNull(stats);
+        Validate.notNull(listener);
+        this.stats = stats;
+        this.listener = listener;
+    }
+
+    @Override
+    public void processStarted() {
+        stats.processStarted();
+        try {
+            listener.processStarted();
+        } catch (RuntimeException re) {
+            LOG.warn("Listener threw exception", re);
+        }
+    }
+
+    @Override
+    public void processFailed() {
+        stats.processFailed();
+        try {
+            listener.processFailed();
+        } catch (RuntimeException re) {
+            LOG.warn("Listener threw exception", re);
+        }
+    }
+
+    @Override
+    public void processExited(Integer exitCode, long lifetimeNanos) {
+        stats.processExited(exitCode, lifetimeNanos);
+        try {
+            listener.processExited(exitCode, lifetimeNanos);
+        } catch (RuntimeException re) {
+            LOG.warn("Listener threw exception", re);
+        }
+    }
+
+    @Override
+    public void read(ReadType type, int byteCount) {
+        stats.read(type, byteCount);
+        try {
+            listener.read(type, byteCount);
+        } catch (RuntimeException re) {
+            LOG.warn("Listener threw exception", re);
+        }
+    }
+
+    @Override
+    public void written(int byteCount) {
+        stats.written(byteCount);
+        try {
+            listener.written(byteCount);
+        } catch (RuntimeException re) {
+            LOG.warn("Listener threw exception", re);
+        }
+    }
+
+    @Override
+    public void messageTaken(int inboxQueueDepth) {
+        stats.messageTaken(inboxQueueDepth);
+        try {
+            listener.messageTaken(inboxQueueDepth);
+        } catch (RuntimeException re) {
+            LOG.warn("Listener threw exception", re);
+        }
+    }
+
+    @Override
+    public void messageProcessed(Object msg, long durationNanos) {
+        stats.messageProcessed(msg, durationNanos);
+        try {
+            listener.messageProcessed(msg, durationNanos);
+        } catch (RuntimeException re) {
+            LOG.warn("Listener threw exception", re);
+        }
+    }
+}
@@ -23,29 +23,18 @@ final class ProcessEntry {
     private final int id;
     private final Bus responseBus;
     private final Process process;
-    private final Thread exitThread;
-    private final Thread stdinThread;
-    private final Thread stdoutThread;
-    private final Thread stderrThread;
-    private final Bus stdinBus;
+    private final ProcessPump pump;
+    private final long startTime;
 
-    ProcessEntry(Process process, Thread exitThread, Thread stdinThread, Thread stdoutThread, Thread stderrThread, Bus stdinBus,
-            int id, Bus responseBus) {
+    ProcessEntry(Process process, ProcessPump pump, int id, Bus responseBus) {
         Validate.notNull(responseBus);
         Validate.notNull(process);
-        Validate.notNull(exitThread);
-        Validate.notNull(stdinThread);
-        Validate.notNull(stdoutThread);
-        Validate.notNull(stderrThread);
-        Validate.notNull(stdinBus);
+        Validate.notNull(pump);
         this.id = id;
         this.responseBus = responseBus;
         this.process = process;
-        this.exitThread = exitThread;
-        this.stdinThread = stdinThread;
-        this.stdoutThread = stdoutThread;
-        this.stderrThread = stderrThread;
-        this.stdinBus = stdinBus;
+        this.pump = pump;
+        this.startTime = System.nanoTime();
     }
 
     int getId() {
@@ -60,23 +49,11 @@ final class ProcessEntry {
         return process;
     }
 
-    Thread getExitThread() {
-        return exitThread;
+    ProcessPump getPump() {
+        return pump;
     }
 
-    Thread getStdinThread() {
-        return stdinThread;
-    }
-
-    Thread getStdoutThread() {
-        return stdoutThread;
-    }
-
-    Thread getStderrThread() {
-        return stderrThread;
-    }
-
-    Bus getStdinBus() {
-        return stdinBus;
+    long getStartTime() {
+        return startTime;
     }
 }
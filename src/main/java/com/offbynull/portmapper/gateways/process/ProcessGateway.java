@@ -17,6 +17,7 @@ package com.offbynull.portmapper.gateways.process;
 
 import com.offbynull.portmapper.gateway.Bus;
 import com.offbynull.portmapper.gateway.Gateway;
+import org.apache.commons.lang3.Validate;
 
 /**
  * Process gateway.
@@ -24,17 +25,67 @@ import com.offbynull.portmapper.gateway.Gateway;
  */
 public final class ProcessGateway implements Gateway {
 
+    private static final int DEFAULT_WORKER_COUNT = 2;
+
     private ProcessRunnable runnable;
     private Thread thread;
     
     /**
-     * Creates a {@link ProcessGateway} object.
+     * Creates a {@link ProcessGateway} object. Equivalent to calling {@link #create(int) } with a worker count of
+     * {@code 2}.
      * @return new {@link ProcessGateway}
      */
     public static ProcessGateway create() {
+        return createInternal(DEFAULT_WORKER_COUNT, null);
+    }
+
+    /**
+     * Creates a {@link ProcessGateway} object that reports instrumentation events to a listener (in addition to collecting them in to
+     * {@link #getStats() }). Equivalent to calling {@link #create(int, ProcessGatewayMetricsListener) } with a worker count of
+     * {@code 2}.
+     * @param listener listener to report instrumentation events to
+     * @return new {@link ProcessGateway}
+     * @throws NullPointerException if any argument is {@code null}
+     */
+    public static ProcessGateway create(ProcessGatewayMetricsListener listener) {
+        Validate.notNull(listener);
+        return createInternal(DEFAULT_WORKER_COUNT, listener);
+    }
+
+    /**
+     * Creates a {@link ProcessGateway} object that uses a fixed number of worker threads. Reading output and exit monitoring for all
+     * processes launched through the gateway are multiplexed on to these workers, so the number of threads stays the same regardless of
+     * how many processes are running. Writes to a process's stdin may block, so they're done on a separate thread per process (only
+     * started if the process is written to).
+     * @param workerCount number of worker threads
+     * @return new {@link ProcessGateway}
+     * @throws IllegalArgumentException if {@code workerCount < 1}
+     */
+    public static ProcessGateway create(int workerCount) {
+        Validate.isTrue(workerCount >= 1);
+        return createInternal(workerCount, null);
+    }
+
+    /**
+     * Creates a {@link ProcessGateway} object that uses a fixed number of worker threads and reports instrumentation events to a listener
+     * (in addition to collecting them in to {@link #getStats() }).
+     * @param workerCount number of worker threads
+     * @param listener listener to report instrumentation events to
+     * @return new {@link ProcessGateway}
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalArgumentException if {@code workerCount < 1}
+     * @see #create(int)
+     */
+    public static ProcessGateway create(int workerCount, ProcessGatewayMetricsListener listener) {
+        Validate.isTrue(workerCount >= 1);
+        Validate.notNull(listener);
+        return createInternal(workerCount, listener);
+    }
+
+    private static ProcessGateway createInternal(int workerCount, ProcessGatewayMetricsListener listener) {
         ProcessGateway pg = new ProcessGateway();
         
-        pg.runnable = new ProcessRunnable();
+        pg.runnable = new ProcessRunnable(workerCount, listener);
         pg.thread = new Thread(pg.runnable);
         pg.thread.setDaemon(true);
         pg.thread.setName("Process IO");
@@ -53,6 +104,15 @@ public final class ProcessGateway implements Gateway {
         return runnable.getBus();
     }
     
+    /**
+     * Get statistics for this gateway. To expose these over JMX, pass them to
+     * {@link com.offbynull.portmapper.gateway.GatewayMBeans#register(java.lang.String, java.lang.Object) }.
+     * @return statistics for this gateway
+     */
+    public ProcessGatewayStats getStats() {
+        return runnable.getStats();
+    }
+
     @Override
     public void join() throws InterruptedException {
         thread.join();
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2013-2016, Kasra Faghihi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.offbynull.portmapper.gateways.process;
+
+import com.offbynull.portmapper.gateways.process.internalmessages.ReadType;
+
+/**
+ * Receives instrumentation events from a {@link ProcessGateway}. Methods are invoked directly from the gateway's thread, so implementations
+ * must be thread-safe, must not block, and should return quickly. An exception thrown from a method is logged and otherwise ignored.
+ * @author Kasra Faghihi
+ */
+public interface ProcessGatewayMetricsListener {
+
+    /**
+     * Called when a process has been started.
+     */
+    void processStarted();
+
+    /**
+     * Called when a process could not be started (e.g. the executable doesn't exist).
+     */
+    void processFailed();
+
+    /**
+     * Called when a process has exited (including processes forcefully killed when the gateway shuts down).
+     * @param exitCode exit code, or {@code null} if it couldn't be determined
+     * @param lifetimeNanos nanoseconds between the process being started and exiting
+     */
+    void processExited(Integer exitCode, long lifetimeNanos);
+
+    /**
+     * Called when data has been read from a process's stdout or stderr.
+     * @param type stream read from
+     * @param byteCount number of bytes read
+     */
+    void read(ReadType type, int byteCount);
+
+    /**
+     * Called when data has been queued for writing to a process's stdin.
+     * @param byteCount number of bytes queued
+     */
+    void written(int byteCount);
+
+    /**
+     * Called each time the gateway takes a message off of its inbox.
+     * @param inboxQueueDepth number of messages still waiting to be processed
+     */
+    void messageTaken(int inboxQueueDepth);
+
+    /**
+     * Called after the gateway has processed a message (either sent to its bus or generated internally, e.g. process output).
+     * @param msg message processed
+     * @param durationNanos nanoseconds it took to process {@code msg}
+     */
+    void messageProcessed(Object msg, long durationNanos);
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2013-2016, Kasra Faghihi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.offbynull.portmapper.gateways.process;
+
+import com.offbynull.portmapper.gateway.LatencyHistogram;
+import com.offbynull.portmapper.gateways.process.internalmessages.ReadType;
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Statistics collected by a {@link ProcessGateway}. Always on -- every update is a lock-free atomic operation made from the gateway's
+ * thread, and reads can be made from any thread.
+ * @author Kasra Faghihi
+ */
+public final class ProcessGatewayStats implements ProcessGatewayStatsMXBean {
+    private final Collection<?> inbox;
+    private final Recorder recorder;
+
+    private final AtomicLong openProcesses = new AtomicLong();
+    private final AtomicLong processesStarted = new AtomicLong();
+    private final AtomicLong processesFailed = new AtomicLong();
+    private final AtomicLong stdoutBytes = new AtomicLong();
+    private final AtomicLong stderrBytes = new AtomicLong();
+    private final AtomicLong stdinBytes = new AtomicLong();
+    private final AtomicInteger maxInboxQueueDepth = new AtomicInteger();
+    private final LatencyHistogram messageProcessingNanos = new LatencyHistogram();
+    private final LatencyHistogram processLifetimeNanos = new LatencyHistogram();
+
+    ProcessGatewayStats(Collection<?> inbox) {
+        Validate.notNull(inbox);
+        this.inbox = inbox;
+        this.recorder = new Recorder();
+    }
+
+    // Only the gateway feeds events in, through this -- the stats object itself only exposes the read-only MXBean view
+    ProcessGatewayMetricsListener getRecorder() {
+        return recorder;
+    }
+
+    @Override
+    public long getOpenProcesses() {
+        return openProcesses.get();
+    }
+
+    @Override
+    public long getProcessesStarted() {
+        return processesStarted.get();
+    }
+
+    @Override
+    public long getProcessesFailed() {
+        return processesFailed.get();
+    }
+
+    @Override
+    public long getStdoutBytes() {
+        return stdoutBytes.get();
+    }
+
+    @Override
+    public long getStderrBytes() {
+        return stderrBytes.get();
+    }
+
+    @Override
+    public long getStdinBytes() {
+        return stdinBytes.get();
+    }
+
+    @Override
+    public int getInboxQueueDepth() {
+        return inbox.size();
+    }
+
+    @Override
+    public int getMaxInboxQueueDepth() {
+        return maxInboxQueueDepth.get();
+    }
+
+    @Override
+    public LatencyHistogram.Snapshot getMessageProcessingNanos() {
+        return messageProcessingNanos.snapshot();
+    }
+
+    @Override
+    public LatencyHistogram.Snapshot getProcessLifetimeNanos() {
+        return processLifetimeNanos.snapshot();
+    }
+
+    @Override
+    public String toString() {
+        return "ProcessGatewayStats{" + "openProcesses=" + openProcesses + ", processesStarted=" + processesStarted + ", processesFailed="
+                + processesFailed + ", stdoutBytes=" + stdoutBytes + ", stderrBytes=" + stderrBytes + ", stdinBytes=" + stdinBytes
+                + ", maxInboxQueueDepth=" + maxInboxQueueDepth + '}';
+    }
+
+    private final class Recorder implements ProcessGatewayMetricsListener {
+        @Override
+        public void processStarted() {
+            processesStarted.incrementAndGet();
+            openProcesses.incrementAndGet();
+        }
+
+        @Override
+        public void processFailed() {
+            processesFailed.incrementAndGet();
+        }
+
+        @Override
+        public void processExited(Integer exitCode, long lifetimeNanos) {
+            openProcesses.decrementAndGet();
+            processLifetimeNanos.record(Math.max(0L, lifetimeNanos));
+        }
+
+        @Override
+        public void read(ReadType type, int byteCount) {
+            if (type == ReadType.STDERR) {
+                stderrBytes.addAndGet(byteCount);
+            } else {
+                stdoutBytes.addAndGet(byteCount);
+            }
+        }
+
+        @Override
+        public void written(int byteCount) {
+            stdinBytes.addAndGet(byteCount);
+        }
+
+        @Override
+        public void messageTaken(int inboxQueueDepth) {
+            if (inboxQueueDepth > maxInboxQueueDepth.get()) {
+                maxInboxQueueDepth.set(inboxQueueDepth); // only ever written by the gateway thread, so no need for compare-and-set
+            }
+        }
+
+        @Override
+        public void messageProcessed(Object msg, long durationNanos) {
+            messageProcessingNanos.record(Math.max(0L, durationNanos));
+        }
+    }
+}
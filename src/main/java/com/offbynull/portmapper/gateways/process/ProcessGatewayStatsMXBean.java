@@ -0,0 +1,86 @@
+/*
+ * Copyright 2013-2016, Kasra Faghihi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.offbynull.portmapper.gateways.process;
+
+import com.offbynull.portmapper.gateway.LatencyHistogram;
+
+/**
+ * Management interface for {@link ProcessGatewayStats}. Register through
+ * {@link com.offbynull.portmapper.gateway.GatewayMBeans#register(java.lang.String, java.lang.Object) }.
+ * @author Kasra Faghihi
+ */
+public interface ProcessGatewayStatsMXBean {
+
+    /**
+     * Get the number of processes that are currently running.
+     * @return number of running processes
+     */
+    long getOpenProcesses();
+
+    /**
+     * Get the number of processes that have been started.
+     * @return number of processes started
+     */
+    long getProcessesStarted();
+
+    /**
+     * Get the number of processes that could not be started.
+     * @return number of processes that failed to start
+     */
+    long getProcessesFailed();
+
+    /**
+     * Get the number of bytes read from the stdout of processes.
+     * @return number of stdout bytes
+     */
+    long getStdoutBytes();
+
+    /**
+     * Get the number of bytes read from the stderr of processes.
+     * @return number of stderr bytes
+     */
+    long getStderrBytes();
+
+    /**
+     * Get the number of bytes queued for writing to the stdin of processes.
+     * @return number of stdin bytes
+     */
+    long getStdinBytes();
+
+    /**
+     * Get the number of messages currently waiting to be processed by the gateway.
+     * @return inbox queue depth
+     */
+    int getInboxQueueDepth();
+
+    /**
+     * Get the largest number of messages seen waiting to be processed by the gateway.
+     * @return maximum inbox queue depth
+     */
+    int getMaxInboxQueueDepth();
+
+    /**
+     * Get the time taken to process each message, in nanoseconds.
+     * @return message processing time histogram
+     */
+    LatencyHistogram.Snapshot getMessageProcessingNanos();
+
+    /**
+     * Get the lifetime of exited processes, in nanoseconds.
+     * @return process lifetime histogram
+     */
+    LatencyHistogram.Snapshot getProcessLifetimeNanos();
+}
@@ -0,0 +1,295 @@
+/*
+ * Copyright 2013-2016, Kasra Faghihi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.offbynull.portmapper.gateways.process;
+
+import com.offbynull.portmapper.gateway.Bus;
+import com.offbynull.portmapper.gateways.process.internalmessages.ReadType;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// Pumps stdout/stderr and watches for exit of a single process. Rather than blocking on streams, each run does one non-blocking pass
+// (reads only what's available, polls the exit value) and then reschedules itself on the shared worker pool. If a pass did nothing, the
+// delay before the next pass is doubled (up to a cap) so that idle processes don't keep the pool busy.
+//
+// Writes to stdin can't be done without blocking (Java has no non-blocking pipe writes, and a process that isn't reading its stdin will
+// block the writer once the pipe fills up), so they're handed off to a dedicated writer thread. That thread is only started on the first
+// write -- most processes run by this library are never written to. Passes only check on the writer's progress to send out
+// WriteEmptyMessages.
+//
+// Only one pass for a process is ever scheduled at a time, so passes for the same process never overlap.
+final class ProcessPump implements Runnable {
+    private static final Logger LOG = LoggerFactory.getLogger(ProcessPump.class);
+    
+    private static final long MIN_IDLE_DELAY = TimeUnit.MILLISECONDS.toNanos(1L);
+    private static final long MAX_IDLE_DELAY = TimeUnit.MILLISECONDS.toNanos(16L);
+    private static final ThreadLocal<byte[]> BUFFER = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[8192];
+        }
+    };
+
+    private final int id;
+    private final Process process;
+    private final InputStream stdoutStream;
+    private final InputStream stderrStream;
+    private final OutputStream stdinStream;
+    private final BlockingQueue<byte[]> stdinQueue;
+    private final AtomicLong stdinQueuedCount;
+    private final AtomicLong stdinWrittenCount;
+    private final AtomicBoolean stdinWriterStarted;
+    private final Thread stdinWriter;
+    private final Bus processBus;
+    private final ScheduledExecutorService executor;
+    
+    private boolean stdoutOpen;
+    private boolean stderrOpen;
+    private volatile boolean stdinOpen;
+    private long writeEmptySentCount;
+    private long lastStdinWrittenCount;
+    private long idleDelay;
+
+    ProcessPump(int id, Process process, Bus processBus, ScheduledExecutorService executor) {
+        Validate.notNull(process);
+        Validate.notNull(processBus);
+        Validate.notNull(executor);
+        
+        this.id = id;
+        this.process = process;
+        this.stdoutStream = process.getInputStream();
+        this.stderrStream = process.getErrorStream();
+        this.stdinStream = process.getOutputStream();
+        this.stdinQueue = new LinkedBlockingQueue<>();
+        this.stdinQueuedCount = new AtomicLong();
+        this.stdinWrittenCount = new AtomicLong();
+        this.stdinWriterStarted = new AtomicBoolean();
+        this.stdinWriter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeStdin();
+            }
+        });
+        this.stdinWriter.setDaemon(true);
+        this.stdinWriter.setName("Process stdin writer " + id);
+        this.processBus = processBus;
+        this.executor = executor;
+        
+        this.stdoutOpen = true;
+        this.stderrOpen = true;
+        this.stdinOpen = true;
+        this.writeEmptySentCount = -1L;
+        this.idleDelay = MIN_IDLE_DELAY;
+    }
+
+    void start() {
+        executor.execute(this);
+    }
+
+    void write(byte[] data) {
+        Validate.notNull(data);
+        if (!stdinOpen) {
+            return;
+        }
+        stdinQueuedCount.incrementAndGet();
+        stdinQueue.add(data);
+        if (stdinWriterStarted.compareAndSet(false, true)) {
+            stdinWriter.start();
+        }
+    }
+
+    // Only safe to call when no pass is running or will run (e.g. once the worker pool has been shut down and terminated).
+    void close() {
+        stdinOpen = false;
+        stdinWriter.interrupt();
+        IOUtils.closeQuietly(stdinStream); // unblocks the writer thread if it's stuck in a write
+        IOUtils.closeQuietly(stdoutStream);
+        IOUtils.closeQuietly(stderrStream);
+    }
+
+    @Override
+    public void run() {
+        boolean active = false;
+        try {
+            active |= pumpStdin();
+            active |= pumpOutput(ReadType.STDOUT);
+            active |= pumpOutput(ReadType.STDERR);
+
+            Integer exitCode = pollExitCode();
+            if (exitCode != null) {
+                LOG.debug("{} Process closed with exit code {}", id, exitCode);
+                
+                // before sending terminated message, make sure that whatever's left in stdout/stderr has been sent out... we don't want
+                // the term message to come before stdout/stderr content messages
+                while (pumpOutput(ReadType.STDOUT) | pumpOutput(ReadType.STDERR)) {
+                    // keep going until nothing is left
+                }
+                terminate(exitCode);
+                return;
+            }
+        } catch (RuntimeException re) {
+            LOG.error(id + " Encountered exception", re);
+            terminate(null);
+            return;
+        }
+
+        idleDelay = active ? MIN_IDLE_DELAY : Math.min(idleDelay * 2L, MAX_IDLE_DELAY);
+        try {
+            executor.schedule(this, idleDelay, TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException ree) {
+            // worker pool is shutting down -- the gateway is responsible for cleaning up at this point
+            LOG.debug("{} Worker pool shut down", id);
+        }
+    }
+
+    private boolean pumpStdin() {
+        if (!stdinOpen) {
+            return false;
+        }
+
+        long writtenCount = stdinWrittenCount.get();
+        boolean active = writtenCount != lastStdinWrittenCount;
+        lastStdinWrittenCount = writtenCount;
+
+        if (writtenCount == stdinQueuedCount.get() && writeEmptySentCount != writtenCount) {
+            LOG.debug("{} Write empty", id);
+            processBus.send(new WriteEmptyMessage(id));
+            writeEmptySentCount = writtenCount;
+        }
+
+        return active;
+    }
+
+    private void writeStdin() {
+        LOG.debug("{} Starting stdin writer", id);
+        try {
+            while (stdinOpen) {
+                byte[] data = stdinQueue.take();
+                stdinStream.write(data);
+                stdinStream.flush();
+                LOG.debug("{} Write {} bytes", id, data.length);
+                stdinWrittenCount.incrementAndGet();
+            }
+        } catch (InterruptedException ie) {
+            LOG.debug("{} Stdin writer interrupted", id);
+        } catch (IOException | RuntimeException e) {
+            if (stdinOpen) {
+                LOG.error(id + " Encountered exception on stdin", e);
+            }
+            stdinOpen = false;
+            IOUtils.closeQuietly(stdinStream);
+        }
+        stdinQueue.clear();
+        LOG.debug("{} Stopped stdin writer", id);
+    }
+
+    private boolean pumpOutput(ReadType readType) {
+        InputStream inputStream;
+        switch (readType) {
+            case STDOUT:
+                if (!stdoutOpen) {
+                    return false;
+                }
+                inputStream = stdoutStream;
+                break;
+            case STDERR:
+                if (!stderrOpen) {
+                    return false;
+                }
+                inputStream = stderrStream;
+                break;
+            default:
+                throw new IllegalStateException(); // should never happen
+        }
+
+        byte[] buffer = BUFFER.get();
+        try {
+            int available = inputStream.available();
+            if (available <= 0) {
+                return false;
+            }
+
+            int count = inputStream.read(buffer, 0, Math.min(available, buffer.length));
+            if (count == -1) {
+                LOG.debug("{} {} ended", id, readType);
+                closeOutput(readType);
+                return false;
+            }
+
+            LOG.debug("{} Read {} bytes from {}", id, count, readType);
+            processBus.send(new ReadMessage(id, Arrays.copyOf(buffer, count), readType));
+            return true;
+        } catch (IOException | RuntimeException e) {
+            LOG.error(id + " " + readType + " encountered exception", e);
+            closeOutput(readType);
+            return false;
+        }
+    }
+
+    private void closeOutput(ReadType readType) {
+        switch (readType) {
+            case STDOUT:
+                stdoutOpen = false;
+                IOUtils.closeQuietly(stdoutStream);
+                break;
+            case STDERR:
+                stderrOpen = false;
+                IOUtils.closeQuietly(stderrStream);
+                break;
+            default:
+                throw new IllegalStateException(); // should never happen
+        }
+    }
+
+    private Integer pollExitCode() {
+        try {
+            return process.exitValue();
+        } catch (IllegalThreadStateException itse) {
+            return null; // still running
+        }
+    }
+
+    private void terminate(Integer exitCode) {
+        // make sure it's destroyed
+        try {
+            process.destroy();
+        } catch (RuntimeException re) {
+            // do nothing
+        }
+        close();
+
+        // make sure a message goes out saying that it's destroyed
+        try {
+            processBus.send(new TerminatedMessage(id, exitCode));
+        } catch (RuntimeException re) {
+            // do nothing
+        }
+
+        LOG.debug("{} Shutting down pump", id);
+    }
+}
@@ -26,18 +26,22 @@ import com.offbynull.portmapper.gateways.process.internalmessages.GetNextIdProce
 import com.offbynull.portmapper.gateways.process.internalmessages.IdentifiableErrorProcessResponse;
 import com.offbynull.portmapper.gateways.process.internalmessages.KillProcessRequest;
 import com.offbynull.portmapper.gateways.process.internalmessages.ReadProcessNotification;
-import com.offbynull.portmapper.gateways.process.internalmessages.ReadType;
 import com.offbynull.portmapper.gateways.process.internalmessages.WriteEmptyProcessNotification;
 import com.offbynull.portmapper.gateways.process.internalmessages.WriteProcessRequest;
 import java.io.IOException;
-import java.nio.ByteBuffer;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.apache.commons.collections4.list.UnmodifiableList;
+import org.apache.commons.lang3.Validate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -46,11 +50,18 @@ final class ProcessRunnable implements Runnable {
     
     private final Bus bus;
     private final LinkedBlockingQueue<Object> queue;
+    private final ProcessGatewayStats stats;
+    private final ProcessGatewayMetricsListener listener;
+    private final ScheduledExecutorService workers;
     private int nextId = 0;
 
-    ProcessRunnable() {
+    ProcessRunnable(int workerCount, ProcessGatewayMetricsListener listener) {
+        Validate.isTrue(workerCount >= 1);
+        workers = new ScheduledThreadPoolExecutor(workerCount, new WorkerThreadFactory());
         queue = new LinkedBlockingQueue<>();
         bus = new BasicBus(queue);
+        stats = new ProcessGatewayStats(queue);
+        this.listener = listener == null ? stats.getRecorder() : new ChainedProcessGatewayMetricsListener(stats.getRecorder(), listener);
     }
     private Map<Integer, ProcessEntry> idMap = new HashMap<>();
 
@@ -58,13 +69,20 @@ final class ProcessRunnable implements Runnable {
         return bus;
     }
 
+    ProcessGatewayStats getStats() {
+        return stats;
+    }
+
     @Override
     public void run() {
         LOG.debug("Starting gateway");
         try {
             while (true) {
                 Object msg = queue.take();
+                listener.messageTaken(queue.size());
+                long startTime = System.nanoTime();
                 processMessage(msg);
+                listener.messageProcessed(msg, System.nanoTime() - startTime);
             }
         } catch (KillRequestException kre) {
             // do nothing
@@ -92,10 +110,6 @@ final class ProcessRunnable implements Runnable {
             int id = req.getId();
             Bus responseBus = req.getResponseBus();
             Process process = null;
-            Thread monitorThread = null;
-            Thread stdoutThread = null;
-            Thread stderrThread = null;
-            Thread stdinThread = null;
             try {
                 String executable = req.getExecutable();
                 UnmodifiableList<String> parameters = req.getParameters();
@@ -105,58 +119,24 @@ final class ProcessRunnable implements Runnable {
                 ProcessBuilder pb = new ProcessBuilder(command);
                 process = pb.start();
                 
-                ProcessReaderRunnable stdoutRunnable = new ProcessReaderRunnable(id, process.getInputStream(), bus,
-                        ReadType.STDOUT);
-                stdoutThread = new Thread(stdoutRunnable);
-                stdoutThread.setDaemon(true);
-                stdoutThread.setName("Stdout Monitor");
-                
-                ProcessReaderRunnable stderrRunnable = new ProcessReaderRunnable(id, process.getErrorStream(), bus,
-                        ReadType.STDERR);
-                stderrThread = new Thread(stderrRunnable);
-                stderrThread.setDaemon(true);
-                stderrThread.setName("Stderr Monitor");
-                
-                ProcessWriterRunnable stdinRunnable = new ProcessWriterRunnable(id, process.getOutputStream(), bus);
-                stdinThread = new Thread(stdinRunnable);
-                stdinThread.setDaemon(true);
-                stdinThread.setName("Stdin Monitor");
+                // stdin/stdout/stderr and exit monitoring for all processes are multiplexed on to the shared worker pool rather than
+                // having dedicated threads per process
+                ProcessPump pump = new ProcessPump(id, process, bus, workers);
                 
-                ProcessMonitorRunnable monitorRunnable = new ProcessMonitorRunnable(id, process, bus, stdoutThread, stderrThread);
-                monitorThread = new Thread(monitorRunnable);
-                monitorThread.setDaemon(true);
-                monitorThread.setName("Process Monitor");
-                
-                ProcessEntry entry = new ProcessEntry(process, monitorThread, stdinThread, stdoutThread, stderrThread,
-                        stdinRunnable.getLocalInputBus(), id, responseBus);
+                ProcessEntry entry = new ProcessEntry(process, pump, id, responseBus);
                 responseBus.send(new CreateProcessResponse(id));
                 idMap.put(id, entry);
                 
-                // just assume at this point it'll never fuck up -- if we get to the point where we're starting threads and one of the
-                // threads fails to start, something happened that we didn't expect / couldn't predict
-                stdoutThread.start();
-                stderrThread.start();
-                stdinThread.start();
-                monitorThread.start();
+                pump.start();
+                listener.processStarted();
             } catch (IOException | RuntimeException re) {
                 idMap.remove(id);
                 LOG.error("Unable to create process", re);
-                if (stdoutThread != null) {
-                    stdoutThread.interrupt();
-                }
-                if (stderrThread != null) {
-                    stderrThread.interrupt();
-                }
-                if (stdinThread != null) {
-                    stdinThread.interrupt();
-                }
-                if (monitorThread != null) {
-                    monitorThread.interrupt();
-                }
                 if (process != null) {
                     process.destroy();
                 }
 
+                listener.processFailed();
                 responseBus.send(new IdentifiableErrorProcessResponse(id));
             }
         } else if (msg instanceof CloseProcessRequest) {
@@ -165,7 +145,7 @@ final class ProcessRunnable implements Runnable {
             ProcessEntry entry = idMap.get(id);
             if (entry != null) {
                 entry.getProcess().destroy();
-                // what happens next is that the thread responsible for checking the process state will find out that it died, then send a
+                // what happens next is that the pump responsible for checking the process state will find out that it died, then send a
                 // "TerminatedMessage" back to this gateway to initiate cleanup
             }
         } else if (msg instanceof TerminatedMessage) {
@@ -177,13 +157,10 @@ final class ProcessRunnable implements Runnable {
             if (entry != null) {
                 try {
                     entry.getProcess().destroy();
-                    entry.getStdoutThread().interrupt();
-                    entry.getStderrThread().interrupt();
-                    entry.getStdinThread().interrupt();
-                    entry.getExitThread().interrupt();
                 } catch (RuntimeException re) {
                     LOG.error("Unable to process terminate message", re);
                 } finally {
+                    listener.processExited(exitCode, System.nanoTime() - entry.getStartTime());
                     Bus responseBus = entry.getResponseBus();
                     responseBus.send(new ExitProcessNotification(id, exitCode));
                 }
@@ -203,8 +180,10 @@ final class ProcessRunnable implements Runnable {
             int id = req.getId();
             ProcessEntry entry = idMap.get(id);
             if (entry != null) {
+                byte[] data = req.getData();
+                listener.read(req.getReadType(), data.length);
                 Bus responseBus = entry.getResponseBus();
-                responseBus.send(new ReadProcessNotification(id, req.getData(), req.getReadType()));
+                responseBus.send(new ReadProcessNotification(id, data, req.getReadType()));
             }
         } else if (msg instanceof WriteProcessRequest) {
             WriteProcessRequest req = (WriteProcessRequest) msg;
@@ -212,7 +191,9 @@ final class ProcessRunnable implements Runnable {
 
             ProcessEntry entry = idMap.get(id);
             if (entry != null) {
-                entry.getStdinBus().send(ByteBuffer.wrap(req.getData()));
+                byte[] data = req.getData();
+                listener.written(data.length);
+                entry.getPump().write(data);
             }
         } else if (msg instanceof KillProcessRequest) {
             throw new KillRequestException();
@@ -224,34 +205,47 @@ final class ProcessRunnable implements Runnable {
         
         for (Entry<Integer, ProcessEntry> entry : idMap.entrySet()) {
             int id = entry.getKey();
-            
             LOG.debug("{} Attempting to shutdown", id);
-            
-            ProcessEntry pe = entry.getValue();
-
             try {
-                pe.getProcess().destroy();
-                pe.getStdoutThread().interrupt();
-                pe.getStderrThread().interrupt();
-                pe.getStdinThread().interrupt();
-                pe.getStdoutThread().join();
-                pe.getStderrThread().join();
-                pe.getStdinThread().join();
-                pe.getExitThread().join();
-            } catch (InterruptedException ie) {
-                throw new RuntimeException(ie);
+                entry.getValue().getProcess().destroy();
             } catch (RuntimeException e) {
                 LOG.error(id + " Error shutting down resource", e);
             }
+        }
+        
+        try {
+            workers.shutdownNow();
+            workers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException ie) {
+            throw new RuntimeException(ie);
+        }
+        
+        for (Entry<Integer, ProcessEntry> entry : idMap.entrySet()) {
+            int id = entry.getKey();
+            ProcessEntry pe = entry.getValue();
+            
+            pe.getPump().close();
 
             // shutdownResources() is the last thing that gets called before the ProcessRunnable thread gets shut down. Any messages put on
-            // the ProcessRunnable bus by the threads that were interrupted will never be processed, including notifications of the process
+            // the ProcessRunnable bus by the pumps that were stopped will never be processed, including notifications of the process
             // stopping. As such, we send the notification here that the process is being forcefully stopped.
+            listener.processExited(null, System.nanoTime() - pe.getStartTime());
             pe.getResponseBus().send(new ExitProcessNotification(id, null));
         }
         idMap.clear();
     }
     
+    private static final class WorkerThreadFactory implements ThreadFactory {
+        private final AtomicInteger nextNumber = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r);
+            thread.setDaemon(true);
+            thread.setName("Process Worker " + nextNumber.getAndIncrement());
+            return thread;
+        }
+    }
     
     private static final class KillRequestException extends RuntimeException {
         private static final long serialVersionUID = 1L;
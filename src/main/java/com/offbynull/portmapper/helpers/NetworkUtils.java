@@ -19,6 +19,9 @@ import java.net.Inet4Address;
 import java.net.Inet6Address;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.net.InterfaceAddress;
+import java.net.NetworkInterface;
+import java.net.SocketException;
 import java.net.UnknownHostException;
 import java.util.Arrays;
 import org.apache.commons.lang3.Validate;
@@ -176,4 +179,56 @@ public final class NetworkUtils {
             throw new IllegalArgumentException(uhe); // should never happen
         }
     }
+
+    /**
+     * Get the number of leading bits two IP addresses have in common.
+     * @param address1 first address
+     * @param address2 second address
+     * @return number of leading bits that match, or {@code -1} if {@code address1} and {@code address2} aren't the same IP version
+     * @throws NullPointerException if any argument is {@code null}
+     */
+    public static int getCommonPrefixLength(InetAddress address1, InetAddress address2) {
+        Validate.notNull(address1);
+        Validate.notNull(address2);
+
+        byte[] bytes1 = address1.getAddress();
+        byte[] bytes2 = address2.getAddress();
+        if (bytes1.length != bytes2.length) {
+            return -1;
+        }
+
+        for (int i = 0; i < bytes1.length; i++) {
+            int diff = (bytes1[i] ^ bytes2[i]) & 0xFF;
+            if (diff != 0) {
+                return i * 8 + Integer.numberOfLeadingZeros(diff) - 24;
+            }
+        }
+        return bytes1.length * 8;
+    }
+
+    /**
+     * Get the network prefix length (subnet mask) of a local address, as reported by the interface it's assigned to.
+     * @param address local address
+     * @return network prefix length, or {@code -1} if {@code address} isn't assigned to a local interface or the interface couldn't be
+     * queried
+     * @throws NullPointerException if any argument is {@code null}
+     */
+    public static int getNetworkPrefixLength(InetAddress address) {
+        Validate.notNull(address);
+
+        try {
+            NetworkInterface networkInterface = NetworkInterface.getByInetAddress(address);
+            if (networkInterface == null) {
+                return -1;
+            }
+            for (InterfaceAddress interfaceAddress : networkInterface.getInterfaceAddresses()) {
+                if (address.equals(interfaceAddress.getAddress())) {
+                    return interfaceAddress.getNetworkPrefixLength();
+                }
+            }
+        } catch (SocketException se) {
+            // do nothing -- treat as unknown
+        }
+        return -1;
+    }
 }
@@ -0,0 +1,189 @@
+/*
+ * Copyright 2013-2016, Kasra Faghihi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.offbynull.portmapper.helpers;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Extracts IP addresses from text that arrives in chunks (e.g. the output of a process as it's being read in). Text is scanned line by
+ * line as soon as each line is complete, so addresses are available before the entire text has arrived.
+ * <p>
+ * Addresses that appear on a line that looks like it describes a default route are also tracked separately. A line is treated as a
+ * default route line if its first token is {@code default}, {@code 0.0.0.0}, or {@code ::/0} (route tables from netstat/route), or if it
+ * contains the word {@code gateway} (e.g. {@code route get default} on Mac and {@code ipconfig} on Windows). Lines that contain nothing but
+ * addresses and directly follow a {@code gateway} line are treated as part of it -- Windows {@code ipconfig} lists each additional gateway
+ * of an adapter on its own line underneath the first (e.g. an IPv6 link-local gateway followed by the IPv4 gateway). Since more of these
+ * lines may follow, addresses from a {@code gateway} line are only made available through {@link #getDefaultGatewayAddresses() } once a
+ * line that isn't part of it is scanned (or {@link #finish() } is called).
+ * <p>
+ * Text is decoded as US-ASCII.
+ * @author Kasra Faghihi
+ */
+public final class StreamingAddressExtractor {
+
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
+    
+    private final StringBuilder pendingLine;
+    private final Set<String> ipv4Addresses;
+    private final Set<String> ipv6Addresses;
+    private final Set<String> defaultGatewayAddresses;
+    private final Set<String> pendingGatewayAddresses; // from a "gateway" line that may still have continuation lines
+    private final List<String> lineIpv4Addresses;
+    private final List<String> lineIpv6Addresses;
+    private boolean inGatewayBlock;
+    private boolean finished;
+
+    /**
+     * Constructs a {@link StreamingAddressExtractor} object.
+     */
+    public StreamingAddressExtractor() {
+        pendingLine = new StringBuilder();
+        ipv4Addresses = new LinkedHashSet<>();
+        ipv6Addresses = new LinkedHashSet<>();
+        defaultGatewayAddresses = new LinkedHashSet<>();
+        pendingGatewayAddresses = new LinkedHashSet<>();
+        lineIpv4Addresses = new ArrayList<>();
+        lineIpv6Addresses = new ArrayList<>();
+    }
+
+    /**
+     * Feed in the next chunk of text. Any lines completed by this chunk are scanned immediately. The remainder is held on to until the
+     * rest of the line arrives or {@link #finish() } is called.
+     * @param data next chunk of text
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalStateException if {@link #finish() } has already been called
+     */
+    public void feed(byte[] data) {
+        Validate.notNull(data);
+        Validate.validState(!finished);
+
+        String text = new String(data, US_ASCII);
+        int start = 0;
+        int len = text.length();
+        for (int i = 0; i < len; i++) {
+            char ch = text.charAt(i);
+            if (ch == '\n' || ch == '\r') {
+                pendingLine.append(text, start, i);
+                scanLine(pendingLine);
+                pendingLine.setLength(0);
+                start = i + 1;
+            }
+        }
+        pendingLine.append(text, start, len);
+    }
+
+    /**
+     * Signal that no more text is coming, scanning whatever partial line is left over. Don't call this if the text was cut off part way
+     * through (e.g. the process was killed), otherwise a truncated address may be picked up.
+     */
+    public void finish() {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        scanLine(pendingLine);
+        pendingLine.setLength(0);
+        closeGatewayBlock();
+    }
+
+    private void scanLine(CharSequence line) {
+        lineIpv4Addresses.clear();
+        lineIpv6Addresses.clear();
+        TextUtils.findAllIpAddresses(line, lineIpv4Addresses, lineIpv6Addresses);
+
+        String trimmedLine = line.toString().trim();
+        if (trimmedLine.isEmpty()) {
+            return; // blank lines don't end a gateway block (CRLF line endings show up as blank lines)
+        }
+
+        ipv4Addresses.addAll(lineIpv4Addresses);
+        ipv6Addresses.addAll(lineIpv6Addresses);
+
+        if (StringUtils.containsIgnoreCase(trimmedLine, "gateway")) {
+            closeGatewayBlock();
+            inGatewayBlock = true;
+            pendingGatewayAddresses.addAll(lineIpv4Addresses);
+            pendingGatewayAddresses.addAll(lineIpv6Addresses);
+        } else if (inGatewayBlock && isAddressOnlyLine(trimmedLine)) {
+            pendingGatewayAddresses.addAll(lineIpv4Addresses);
+            pendingGatewayAddresses.addAll(lineIpv6Addresses);
+        } else {
+            closeGatewayBlock();
+            if (isDefaultRouteLine(trimmedLine)) {
+                defaultGatewayAddresses.addAll(lineIpv4Addresses);
+                defaultGatewayAddresses.addAll(lineIpv6Addresses);
+            }
+        }
+    }
+
+    private void closeGatewayBlock() {
+        inGatewayBlock = false;
+        defaultGatewayAddresses.addAll(pendingGatewayAddresses);
+        pendingGatewayAddresses.clear();
+    }
+
+    private boolean isAddressOnlyLine(String trimmedLine) {
+        if (lineIpv4Addresses.isEmpty() && lineIpv6Addresses.isEmpty()) {
+            return false;
+        }
+        for (String token : StringUtils.split(trimmedLine)) {
+            String address = StringUtils.substringBefore(token, "%"); // strip IPv6 zone index (e.g. fe80::1%12)
+            if (!lineIpv4Addresses.contains(address) && !lineIpv6Addresses.contains(address)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isDefaultRouteLine(String trimmedLine) {
+        String firstToken = StringUtils.substringBefore(trimmedLine, " ");
+        firstToken = StringUtils.substringBefore(firstToken, "\t");
+        return firstToken.equalsIgnoreCase("default")
+                || firstToken.equals("0.0.0.0")
+                || firstToken.equals("::/0");
+    }
+
+    /**
+     * Get IPv4 addresses found so far, in the order they were found.
+     * @return IPv4 addresses found so far
+     */
+    public Set<String> getIpv4Addresses() {
+        return Collections.unmodifiableSet(new LinkedHashSet<>(ipv4Addresses));
+    }
+
+    /**
+     * Get IPv6 addresses found so far, in the order they were found.
+     * @return IPv6 addresses found so far
+     */
+    public Set<String> getIpv6Addresses() {
+        return Collections.unmodifiableSet(new LinkedHashSet<>(ipv6Addresses));
+    }
+
+    /**
+     * Get addresses (IPv4 and IPv6) found so far on lines that look like they describe a default route, in the order they were found.
+     * @return default route addresses found so far
+     */
+    public Set<String> getDefaultGatewayAddresses() {
+        return Collections.unmodifiableSet(new LinkedHashSet<>(defaultGatewayAddresses));
+    }
+}
@@ -15,7 +15,7 @@
  */
 package com.offbynull.portmapper.helpers;
 
-import java.util.ArrayList;
+import java.util.Collection;
 import java.util.LinkedList;
 import java.util.List;
 import org.apache.commons.lang3.StringUtils;
@@ -31,6 +31,7 @@ public final class TextUtils {
     // NOTE: We don't use regex/xml parsing for these because we eventually want to convert this project to other languages -- meaning that
     // we want to keep the code as light as possible.
     
+    private static final int IPV4_NUMBER_OF_COMPONENTS = 4;
     private static final int IPV4_COMPONENT_MAX = 255;
     private static final int IPV4_COMPONENT_MAX_SIZE = 3;
     private static final int IPV6_MAX_NUMBER_OF_COMPONENTS = 8;
@@ -208,90 +209,10 @@ public final class TextUtils {
         Validate.notNull(text);
 
         List<String> ret = new LinkedList<>();
-
-        int len = text.length();
-        for (int i = 0; i < len;) {
-            int cp = text.codePointAt(i);
-            try {
-                String ip = readIp4(text, i);
-                i += ip.length();
-                
-                ret.add(ip);
-            } catch (IllegalArgumentException iae) {
-                i += Character.charCount(cp);
-            }
-        }
-        
+        findAllIpAddresses(text, ret, null);
         return ret;
     }
 
-    private static String readIp4(String text, int offset) {
-        try {
-            String component1 = readIp4Component(text, offset);
-            offset += component1.length();
-
-            Validate.isTrue(text.codePointAt(offset) == '.');
-            offset++;
-
-            String component2 = readIp4Component(text, offset);
-            offset += component2.length();
-
-            Validate.isTrue(text.codePointAt(offset) == '.');
-            offset++;
-
-            String component3 = readIp4Component(text, offset);
-            offset += component3.length();
-
-            Validate.isTrue(text.codePointAt(offset) == '.');
-            offset++;
-
-            String component4 = readIp4Component(text, offset);
-//            offset += component4.length();
-
-            return component1 + '.' + component2 + '.' + component3 + '.' + component4;
-        } catch (IndexOutOfBoundsException e) {
-            throw new IllegalArgumentException(e);
-        }
-    }
-
-    private static String readIp4Component(String text, int offset) {
-        try {
-            int len = text.length();
-
-            StringBuilder component = new StringBuilder();
-            while (offset < len) {
-                int cp = text.codePointAt(offset);
-                if (cp >= '0' && cp <= '9') {
-                    component.appendCodePoint(cp);
-                } else {
-                    break;
-                }
-                offset += Character.charCount(cp);
-            }
-
-            String componentStr = component.toString();
-            
-            // make sure we only read a max of 3 bytes
-            Validate.isTrue(componentStr.length() <= IPV4_COMPONENT_MAX_SIZE);
-            
-            int componentAsNum = Integer.parseInt(componentStr);
-
-            // not a IP4 component if it has has trailing zeros
-            if (!String.valueOf(componentAsNum).equals(componentStr)) {
-                throw new IllegalArgumentException();
-            }
-
-            // not a IP4 component if its greater than 255
-            if (componentAsNum > IPV4_COMPONENT_MAX) {
-                throw new IllegalArgumentException();
-            }
-
-            return componentStr;
-        } catch (NumberFormatException | IndexOutOfBoundsException e) {
-            throw new IllegalArgumentException(e);
-        }
-    }
-
     /**
      * Finds all IPv6 addresses in a block of text.
      *
@@ -303,154 +224,152 @@ public final class TextUtils {
         Validate.notNull(text);
 
         List<String> ret = new LinkedList<>();
+        findAllIpAddresses(text, null, ret);
+        return ret;
+    }
 
+    // Finds IPv4 and IPv6 addresses in a single pass over text. Either output collection may be null, in which case that type of address
+    // isn't searched for.
+    //
+    // This replaces trying to read an address at every position and moving on by 1 character when that fails, or by the length of the
+    // address when it succeeds. Results match that old scan with one deliberate exception: the old scan never matched an IPv6 address
+    // that ran right up to the end of text, whereas this one does. It's also done without exceptions or intermediate strings: each
+    // attempt is a small state machine that stops as soon as the text can't be an address, and an attempt can only start on a character
+    // that an address can start with. Each attempt looks at a bounded number of characters (components are capped at 3 digits for IPv4 and
+    // 4 hex digits for IPv6), so the scan is linear in the length of text.
+    static void findAllIpAddresses(CharSequence text, Collection<String> ipv4Addresses, Collection<String> ipv6Addresses) {
         int len = text.length();
-        for (int i = 0; i < len;) {
-            int cp = text.codePointAt(i);
-            try {
-                String ip = readIp6(text, i);
-                i += ip.length();
-                
-                ret.add(ip);
-            } catch (IllegalArgumentException iae) {
-                i += Character.charCount(cp);
+        int nextIpv4Offset = ipv4Addresses == null ? len : 0;
+        int nextIpv6Offset = ipv6Addresses == null ? len : 0;
+        for (int i = 0; i < len; i++) {
+            char ch = text.charAt(i);
+
+            if (i >= nextIpv4Offset && isDigit(ch)) {
+                int end = matchIpv4(text, i);
+                if (end != -1) {
+                    ipv4Addresses.add(text.subSequence(i, end).toString());
+                    nextIpv4Offset = end;
+                }
+            }
+
+            if (i >= nextIpv6Offset && (ch == ':' || isHexDigit(ch))) {
+                int end = matchIpv6(text, i);
+                if (end != -1) {
+                    ipv6Addresses.add(text.subSequence(i, end).toString());
+                    nextIpv6Offset = end;
+                }
             }
         }
-        
-        return ret;
     }
 
-    private static String readIp6(String text, int offset) {
-        try {
-            List<String> components = new ArrayList<>(IPV6_MAX_NUMBER_OF_COMPONENTS);
-            for (int i = 0; i < IPV6_MAX_NUMBER_OF_COMPONENTS; i++) {
-                String component = readIp6Component(text, offset);
-                offset += component.length();
-                
-                components.add(component);
-
-                if (text.codePointAt(offset) != ':') {
-                    break;
+    // Returns the offset just past the IPv4 address that starts at offset, or -1 if there isn't one. Components are runs of digits that
+    // must be no more than 255 and must not have leading zeros.
+    private static int matchIpv4(CharSequence text, int offset) {
+        int len = text.length();
+        for (int component = 0; component < IPV4_NUMBER_OF_COMPONENTS; component++) {
+            if (component != 0) {
+                if (offset >= len || text.charAt(offset) != '.') {
+                    return -1;
                 }
-                
                 offset++;
             }
-            
-            if (components.size() < IPV6_MAX_NUMBER_OF_COMPONENTS) {
-                // If less than 8 components, must have 1 empty group ...
-                // "::" is a valid address  (has 3 empty components at start -- note that this means 1 empty group)
-                // "::1" is a valid address  (has 2 empty components at start -- note that this means 1 empty group)
-                // "1::" is a valid address  (has 2 empty components at end -- note that this means 1 empty group)
-                // "1::1" is a valid address  (has 1 empty component in the middle -- note that this means 1 empty group)
-                // "0:0::0" is a valid address  (has 1 empty component in the middle -- note that this means 1 empty group)
-                // "0::0::0" is NOT a valid address  (has 2 empty component in the middle -- note that this means 2 empty group)
-        
-                if (components.size() == 3
-                        && components.get(0).isEmpty()
-                        && components.get(1).isEmpty()
-                        && components.get(2).isEmpty()) {
-                    // SPECIAL CASE:
-                    // If 3 empty components, then this is a valid address that means full 0...
-                    // "::" is a valid address        
-                    
-                    // do nothing -- all 3 components are empty so this is valid
-                } else if (components.size() > 2
-                        && components.get(0).isEmpty()
-                        && components.get(1).isEmpty()) {
-                    // SPECIAL CASE:
-                    // If more than 2 components, but first 2 componetns are empty, then this is a valid address that starts with 0s...
-                    // "::1:2" is a valid address        
-                    
-                    Validate.isTrue(2 == getEmptyComponentCount(components)); // already made sure there's 2 in the start, making sure there
-                                                                              // are no others by doing this check
-                } else if (components.size() > 2
-                        && components.get(components.size() - 2).isEmpty()
-                        && components.get(components.size() - 1).isEmpty()) {
-                    // SPECIAL CASE:
-                    // If more than 2 components, but last 2 componetns are empty, then this is a valid address that ends with 0s...
-                    // "1:2::" is a valid address        
-                    
-                    Validate.isTrue(2 == getEmptyComponentCount(components)); // already made sure there's 2 in the end, making sure there
-                                                                              // are no others by doing this check.
-                } else if (components.size() > 2
-                        && !components.get(0).isEmpty()
-                        && !components.get(components.size() - 1).isEmpty()) {
-                    // SPECIAL CASE:
-                    // If more than 2 components, but the first and last components are not empty, there must be at least 1 empty component
-                    // in the middle...
-                    // "1::2" is a valid address        
-                    Validate.isTrue(1 == getEmptyComponentCount(components));
-                } else {
-                    // This is a bad address... addresses that don't have enough components + property empty components end up here ..
-                    // "" is an invalid address
-                    // "abcd" is an invalid address
-                    // "abcd:" is an invalid address
-                    // ":abcd:" is an invalid address
-                    // "abcd:abcd:" is an invalid address
-                    throw new IllegalArgumentException();
-                }
-            } else {
-                // Otherwise must have exactly 8 non-empty components
-                Validate.isTrue(components.size() == IPV6_MAX_NUMBER_OF_COMPONENTS);
-                Validate.isTrue(0 == getEmptyComponentCount(components));
-            }
 
-            // Construct IP
-            StringBuilder ip = new StringBuilder();
-            for (int i = 0; i < components.size(); i++) {
-                String component = components.get(i);
-                ip.append(component);
-                
-                if (i != components.size() - 1) {
-                    ip.append(':');
+            int value = 0;
+            int digitCount = 0;
+            while (offset < len && isDigit(text.charAt(offset))) {
+                digitCount++;
+                if (digitCount > IPV4_COMPONENT_MAX_SIZE) { // make sure we only read a max of 3 digits
+                    return -1;
                 }
+                if (digitCount == 2 && value == 0) { // not a IP4 component if it has leading zeros
+                    return -1;
+                }
+                value = value * 10 + (text.charAt(offset) - '0');
+                offset++;
             }
 
-            return ip.toString();
-        } catch (IndexOutOfBoundsException e) {
-            throw new IllegalArgumentException(e);
-        }
-    }
-
-    private static int getEmptyComponentCount(List<String> components) {
-        int emptyComponentCount = 0;
-        for (String component : components) {
-            if (component.isEmpty()) {
-                emptyComponentCount++;
+            if (digitCount == 0 || value > IPV4_COMPONENT_MAX) { // not a IP4 component if empty or greater than 255
+                return -1;
             }
         }
-        return emptyComponentCount;
+        return offset;
     }
 
-    private static String readIp6Component(String text, int offset) {
-        try {
-            int len = text.length();
+    // Returns the offset just past the IPv6 address that starts at offset, or -1 if there isn't one. Components are runs of up to 4 hex
+    // digits separated by colons. Empty components are allowed in the places where they make up the "::" shorthand. Up to 8 components
+    // are read: if what's been read up to the 8th component is valid, that's the address, even if more components follow.
+    //
+    // If less than 8 components, must have 1 empty group ...
+    // "::" is a valid address  (has 3 empty components at start -- note that this means 1 empty group)
+    // "::1" is a valid address  (has 2 empty components at start -- note that this means 1 empty group)
+    // "1::" is a valid address  (has 2 empty components at end -- note that this means 1 empty group)
+    // "1::1" is a valid address  (has 1 empty component in the middle -- note that this means 1 empty group)
+    // "0:0::0" is a valid address  (has 1 empty component in the middle -- note that this means 1 empty group)
+    // "0::0::0" is NOT a valid address  (has 2 empty component in the middle -- note that this means 2 empty group)
+    // Otherwise must have exactly 8 non-empty components.
+    private static int matchIpv6(CharSequence text, int offset) {
+        int len = text.length();
 
-            StringBuilder component = new StringBuilder();
-            while (offset < len) {
-                int cp = text.codePointAt(offset);
-                if ((cp >= '0' && cp <= '9')
-                        || (cp >= 'a' && cp <= 'f')
-                        || (cp >= 'A' && cp <= 'F')) {
-                    component.appendCodePoint(cp);
-                } else {
-                    break;
+        int componentCount = 0;
+        int emptyComponentCount = 0;
+        boolean firstEmpty = false;
+        boolean secondEmpty = false;
+        boolean secondLastEmpty = false;
+        boolean lastEmpty = false;
+        int end;
+        while (true) {
+            int digitCount = 0;
+            while (offset < len && isHexDigit(text.charAt(offset))) {
+                digitCount++;
+                if (digitCount > IPV6_COMPONENT_MAX_SIZE) { // make sure we only read a max of 4 hex digits
+                    return -1;
                 }
-                offset += Character.charCount(cp);
+                offset++;
             }
 
-            String componentStr = component.toString();
-            
-            // make sure we only read a max of 4 bytes
-            Validate.isTrue(componentStr.length() <= IPV6_COMPONENT_MAX_SIZE);
+            boolean empty = digitCount == 0; // may be empty -- empty means 0000
+            if (componentCount == 0) {
+                firstEmpty = empty;
+            } else if (componentCount == 1) {
+                secondEmpty = empty;
+            }
+            secondLastEmpty = lastEmpty;
+            lastEmpty = empty;
+            if (empty) {
+                emptyComponentCount++;
+            }
+            componentCount++;
+            end = offset;
 
-            // no need to check for leading 0's -- leading zeros may be omitted
-            
-            // may be empty -- empty means 0000
-            
-            return componentStr;
-        } catch (NumberFormatException | IndexOutOfBoundsException e) {
-            throw new IllegalArgumentException(e);
+            if (componentCount == IPV6_MAX_NUMBER_OF_COMPONENTS || offset >= len || text.charAt(offset) != ':') {
+                break;
+            }
+            offset++;
+        }
+
+        if (componentCount == IPV6_MAX_NUMBER_OF_COMPONENTS) {
+            return emptyComponentCount == 0 ? end : -1;
+        } else if (componentCount == 3 && emptyComponentCount == 3) {
+            return end; // "::"
+        } else if (componentCount > 2 && firstEmpty && secondEmpty) {
+            return emptyComponentCount == 2 ? end : -1; // e.g. "::1:2" -- the 2 at the start must be the only empty ones
+        } else if (componentCount > 2 && secondLastEmpty && lastEmpty) {
+            return emptyComponentCount == 2 ? end : -1; // e.g. "1:2::" -- the 2 at the end must be the only empty ones
+        } else if (componentCount > 2 && !firstEmpty && !lastEmpty) {
+            return emptyComponentCount == 1 ? end : -1; // e.g. "1::2" -- must be exactly 1 empty in the middle
+        } else {
+            // not enough components or badly placed empty components -- e.g. "", "abcd", "abcd:", ":abcd:", "abcd:abcd:"
+            return -1;
         }
     }
+
+    private static boolean isDigit(char ch) {
+        return ch >= '0' && ch <= '9';
+    }
+
+    private static boolean isHexDigit(char ch) {
+        return (ch >= '0' && ch <= '9')
+                || (ch >= 'a' && ch <= 'f')
+                || (ch >= 'A' && ch <= 'F');
+    }
 }
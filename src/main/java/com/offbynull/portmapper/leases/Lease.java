@@ -0,0 +1,114 @@
+/*
+ * Copyright 2013-2016, Kasra Faghihi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.offbynull.portmapper.leases;
+
+import com.offbynull.portmapper.mapper.MappedPort;
+import com.offbynull.portmapper.mapper.PortMapper;
+
+/**
+ * A mapping that's being kept alive by a {@link LeaseManager}.
+ * @author Kasra Faghihi
+ */
+public final class Lease {
+
+    private volatile PortMapper portMapper;
+    private final long lifetime;
+    private volatile MappedPort mappedPort;
+    private volatile long expireTime;
+    private volatile long refreshTime;
+    private volatile boolean remapPending;
+    private volatile boolean released;
+
+    Lease(PortMapper portMapper, MappedPort mappedPort, long lifetime, long expireTime) {
+        this.portMapper = portMapper;
+        this.mappedPort = mappedPort;
+        this.lifetime = lifetime;
+        this.expireTime = expireTime;
+    }
+
+    /**
+     * Get the port mapper used to refresh this lease. This changes if the lease is migrated to a different port mapper (see
+     * {@link LeaseManager#migrate(com.offbynull.portmapper.mapper.PortMapper, com.offbynull.portmapper.mapper.PortMapper) }).
+     * @return port mapper
+     */
+    public PortMapper getPortMapper() {
+        return portMapper;
+    }
+
+    void setPortMapper(PortMapper portMapper) {
+        this.portMapper = portMapper;
+    }
+
+    /**
+     * Get the most recent mapping. This changes each time the lease is refreshed -- use the object returned by this method if you need to
+     * unmap the port.
+     * @return current mapping
+     */
+    public MappedPort getMappedPort() {
+        return mappedPort;
+    }
+
+    /**
+     * Get the lifetime requested on each refresh.
+     * @return lifetime in seconds
+     */
+    public long getLifetime() {
+        return lifetime;
+    }
+
+    /**
+     * Get whether this lease has been released (either explicitly or because it could not be refreshed before it expired).
+     * @return {@code true} if released, {@code false} otherwise
+     */
+    public boolean isReleased() {
+        return released;
+    }
+
+    long getExpireTime() {
+        return expireTime;
+    }
+
+    void update(MappedPort mappedPort, long expireTime) {
+        this.mappedPort = mappedPort;
+        this.expireTime = expireTime;
+    }
+
+    long getRefreshTime() {
+        return refreshTime;
+    }
+
+    void setRefreshTime(long refreshTime) {
+        this.refreshTime = refreshTime;
+    }
+
+    boolean isRemapPending() {
+        return remapPending;
+    }
+
+    void setRemapPending(boolean remapPending) {
+        this.remapPending = remapPending;
+    }
+
+    void release() {
+        released = true;
+    }
+
+    @Override
+    public String toString() {
+        return "Lease{" + "portMapper=" + portMapper + ", lifetime=" + lifetime + ", mappedPort=" + mappedPort + ", expireTime="
+                + expireTime + ", refreshTime=" + refreshTime + ", remapPending=" + remapPending + ", released=" + released + '}';
+    }
+}
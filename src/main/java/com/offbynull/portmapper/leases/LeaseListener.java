@@ -0,0 +1,53 @@
+/*
+ * Copyright 2013-2016, Kasra Faghihi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.offbynull.portmapper.leases;
+
+import com.offbynull.portmapper.mapper.MappedPort;
+
+/**
+ * Listens for events on leases managed by a {@link LeaseManager}. Listeners are invoked from the {@link LeaseManager}'s worker threads, so
+ * implementations must be thread-safe and should return quickly.
+ * @author Kasra Faghihi
+ */
+public interface LeaseListener {
+
+    /**
+     * Called when a lease has been successfully refreshed. Compare {@code oldMappedPort} and {@code newMappedPort} to find out if
+     * anything (e.g. the lifetime) has changed.
+     * @param lease lease that was refreshed
+     * @param oldMappedPort mapping before the refresh
+     * @param newMappedPort mapping after the refresh
+     */
+    void refreshed(Lease lease, MappedPort oldMappedPort, MappedPort newMappedPort);
+
+    /**
+     * Called when a lease has been successfully re-mapped (see {@link LeaseManager#remap(com.offbynull.portmapper.mapper.PortMapper) }).
+     * The external IP/port of {@code newMappedPort} may be different from {@code oldMappedPort}.
+     * @param lease lease that was re-mapped
+     * @param oldMappedPort mapping before the re-map
+     * @param newMappedPort mapping after the re-map
+     */
+    void remapped(Lease lease, MappedPort oldMappedPort, MappedPort newMappedPort);
+
+    /**
+     * Called when a lease could not be refreshed or re-mapped.
+     * @param lease lease that failed to refresh or re-map
+     * @param cause reason for failure
+     * @param retrying {@code true} if another refresh will be attempted before the mapping expires, {@code false} if the lease has been
+     * dropped by the {@link LeaseManager}
+     */
+    void failed(Lease lease, Throwable cause, boolean retrying);
+}
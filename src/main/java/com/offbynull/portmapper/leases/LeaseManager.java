@@ -0,0 +1,560 @@
+/*
+ * Copyright 2013-2016, Kasra Faghihi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.offbynull.portmapper.leases;
+
+import com.offbynull.portmapper.mapper.EpochListener;
+import com.offbynull.portmapper.mapper.EpochTracker;
+import com.offbynull.portmapper.mapper.MappedPort;
+import com.offbynull.portmapper.mapper.PortMapper;
+import java.io.Closeable;
+import java.net.InetAddress;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps port mappings alive by automatically refreshing them.
+ * <p>
+ * Each lease is scheduled to be refreshed at a randomly jittered fraction of its mapping's lifetime, so that large numbers of mappings
+ * created together don't all get refreshed together. Schedules are kept on a hashed timer wheel driven by a single timer thread. Leases
+ * that become due together are grouped by their {@link PortMapper} and refreshed as a single batch by a fixed-size pool of worker threads
+ * -- a gateway is only ever being refreshed by one worker at a time.
+ * <p>
+ * A refresh that fails is retried half-way to the expiry of the mapping for as long as there's time left. Successes and failures are
+ * reported to registered {@link LeaseListener}s. Refreshes are never scheduled less than 5 ticks apart, and a gateway that grants a
+ * lifetime of 0 seconds is reported as a failure that's being retried.
+ * <p>
+ * If a gateway loses its state (e.g. it reboots) or changes its external address, call {@link #remap(PortMapper) } to immediately
+ * re-create all mappings held against it. The easiest way to do this is to add the listener returned by
+ * {@link #createRemapListener(PortMapper) } to the port mapper's {@link EpochTracker}. If the state loss is picked up from the response
+ * to one of this lease manager's own refreshes, that refresh has already re-created the mapping -- it's reported as remapped rather than
+ * being followed by a second request.
+ * @author Kasra Faghihi
+ */
+public final class LeaseManager implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(LeaseManager.class);
+
+    private static final long DEFAULT_TICK_DURATION = 1000L;
+    private static final int DEFAULT_WHEEL_SIZE = 512;
+    private static final double DEFAULT_MIN_REFRESH_FRACTION = 0.4;
+    private static final double DEFAULT_MAX_REFRESH_FRACTION = 0.6;
+    private static final int MIN_REFRESH_TICKS = 5;
+
+    private final TimerWheel<Lease> wheel;
+    private final double minRefreshFraction;
+    private final double maxRefreshFraction;
+    private final Random random;
+    private final List<LeaseListener> listeners;
+    private final Map<PortMapper, Batch> pendingBatches;
+    private final Map<PortMapper, Set<Lease>> leases; // guarded by pendingBatches
+    private final ExecutorService workers;
+    private final Thread timerThread;
+    private volatile boolean closed;
+
+    /**
+     * Creates a {@link LeaseManager} object with a 1 second tick and refreshes jittered between 40% and 60% of the mapping lifetime.
+     * @param workerCount number of worker threads used to refresh mappings
+     * @return new {@link LeaseManager}
+     * @throws IllegalArgumentException if {@code workerCount <= 0}
+     */
+    public static LeaseManager create(int workerCount) {
+        return create(workerCount, DEFAULT_TICK_DURATION, DEFAULT_WHEEL_SIZE, DEFAULT_MIN_REFRESH_FRACTION, DEFAULT_MAX_REFRESH_FRACTION);
+    }
+
+    /**
+     * Creates a {@link LeaseManager} object.
+     * @param workerCount number of worker threads used to refresh mappings
+     * @param tickDuration timer wheel tick duration in milliseconds (the precision at which refreshes are scheduled)
+     * @param wheelSize number of buckets in the timer wheel (must be a power of 2)
+     * @param minRefreshFraction smallest fraction of a mapping's lifetime to wait before refreshing it
+     * @param maxRefreshFraction largest fraction of a mapping's lifetime to wait before refreshing it
+     * @return new {@link LeaseManager}
+     * @throws IllegalArgumentException if any numeric argument is non-positive, if {@code wheelSize} isn't a power of 2, or if
+     * {@code !(0.0 < minRefreshFraction <= maxRefreshFraction < 1.0)}
+     */
+    public static LeaseManager create(int workerCount, long tickDuration, int wheelSize, double minRefreshFraction,
+            double maxRefreshFraction) {
+        Validate.isTrue(workerCount > 0);
+        Validate.isTrue(minRefreshFraction > 0.0);
+        Validate.isTrue(minRefreshFraction <= maxRefreshFraction);
+        Validate.isTrue(maxRefreshFraction < 1.0);
+
+        LeaseManager lm = new LeaseManager(workerCount, tickDuration, wheelSize, minRefreshFraction, maxRefreshFraction);
+        lm.timerThread.start();
+        return lm;
+    }
+
+    private LeaseManager(int workerCount, long tickDuration, int wheelSize, double minRefreshFraction, double maxRefreshFraction) {
+        this.wheel = new TimerWheel<>(currentTime(), tickDuration, wheelSize);
+        this.minRefreshFraction = minRefreshFraction;
+        this.maxRefreshFraction = maxRefreshFraction;
+        this.random = new Random();
+        this.listeners = new CopyOnWriteArrayList<>();
+        this.pendingBatches = new HashMap<>();
+        this.leases = new HashMap<>();
+        this.workers = Executors.newFixedThreadPool(workerCount, new ThreadFactory() {
+            private final AtomicInteger counter = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r);
+                thread.setDaemon(true);
+                thread.setName("Lease Worker " + counter.incrementAndGet());
+                return thread;
+            }
+        });
+        this.timerThread = new Thread(new TimerRunnable());
+        this.timerThread.setDaemon(true);
+        this.timerThread.setName("Lease Timer");
+    }
+
+    /**
+     * Start managing a mapping. The mapping will be refreshed with {@code lifetime} until the returned lease is released.
+     * @param portMapper port mapper that created {@code mappedPort}
+     * @param mappedPort mapping to keep alive
+     * @param lifetime number of seconds to request on each refresh
+     * @return lease for the mapping
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalArgumentException if {@code lifetime <= 0}
+     * @throws IllegalStateException if this lease manager has been closed
+     */
+    public Lease manage(PortMapper portMapper, MappedPort mappedPort, long lifetime) {
+        Validate.notNull(portMapper);
+        Validate.notNull(mappedPort);
+        Validate.isTrue(lifetime > 0L);
+        Validate.validState(!closed);
+
+        long now = currentTime();
+        Lease lease = new Lease(portMapper, mappedPort, lifetime, now + mappedPort.getLifetime() * 1000L);
+        synchronized (pendingBatches) {
+            Set<Lease> mapperLeases = leases.get(portMapper);
+            if (mapperLeases == null) {
+                mapperLeases = new HashSet<>();
+                leases.put(portMapper, mapperLeases);
+            }
+            mapperLeases.add(lease);
+        }
+        schedule(lease, now);
+        return lease;
+    }
+
+    /**
+     * Stop managing a mapping. The mapping itself is left as-is -- use {@link PortMapper#unmapPort(MappedPort) } with
+     * {@link Lease#getMappedPort() } if you want it removed. Releasing a lease that's already been released does nothing.
+     * @param lease lease to release
+     * @throws NullPointerException if any argument is {@code null}
+     */
+    public void release(Lease lease) {
+        Validate.notNull(lease);
+        lease.release();
+        unregister(lease);
+    }
+
+    /**
+     * Immediately re-create all mappings managed for a port mapper, ahead of any pending refreshes for that port mapper. Use this when
+     * the gateway has lost its state (e.g. rebooted) or its external address has changed. Each mapping is re-created using
+     * {@link PortMapper#mapPort(com.offbynull.portmapper.mapper.PortType, int, int, long) } with its current external port as the
+     * suggested external port, and the result is reported via {@link LeaseListener#remapped(Lease, MappedPort, MappedPort) }.
+     * @param portMapper port mapper to re-map leases for
+     * @throws NullPointerException if any argument is {@code null}
+     */
+    public void remap(PortMapper portMapper) {
+        Validate.notNull(portMapper);
+
+        synchronized (pendingBatches) {
+            Set<Lease> mapperLeases = leases.get(portMapper);
+            if (mapperLeases == null) {
+                return;
+            }
+
+            Batch batch = getBatch(portMapper);
+            for (Lease lease : mapperLeases) {
+                lease.setRemapPending(true);
+                batch.addRemap(lease);
+            }
+        }
+    }
+
+    /**
+     * Move all mappings managed for a port mapper over to a different port mapper, and immediately re-create them using that port mapper.
+     * Use this when {@code oldPortMapper} can no longer be used (e.g. the local address it was using has gone away because the host moved
+     * to a different network) and {@code newPortMapper} replaces it. Each mapping is re-created the same way as
+     * {@link #remap(PortMapper) } does and the result is reported via {@link LeaseListener#remapped(Lease, MappedPort, MappedPort) } --
+     * {@link Lease#getPortMapper() } returns {@code newPortMapper} from this point on. The old mappings are left as-is.
+     * @param oldPortMapper port mapper to move leases from
+     * @param newPortMapper port mapper to move leases to
+     * @throws NullPointerException if any argument is {@code null}
+     */
+    public void migrate(PortMapper oldPortMapper, PortMapper newPortMapper) {
+        Validate.notNull(oldPortMapper);
+        Validate.notNull(newPortMapper);
+
+        if (oldPortMapper == newPortMapper) {
+            return;
+        }
+
+        synchronized (pendingBatches) {
+            Set<Lease> oldMapperLeases = leases.remove(oldPortMapper);
+            if (oldMapperLeases == null) {
+                return;
+            }
+
+            Batch oldBatch = pendingBatches.get(oldPortMapper);
+            if (oldBatch != null) {
+                for (Lease lease : oldMapperLeases) {
+                    oldBatch.remove(lease);
+                }
+            }
+
+            Set<Lease> newMapperLeases = leases.get(newPortMapper);
+            if (newMapperLeases == null) {
+                newMapperLeases = new HashSet<>();
+                leases.put(newPortMapper, newMapperLeases);
+            }
+
+            Batch batch = getBatch(newPortMapper);
+            for (Lease lease : oldMapperLeases) {
+                lease.setPortMapper(newPortMapper);
+                lease.setRemapPending(true);
+                newMapperLeases.add(lease);
+                batch.addRemap(lease);
+            }
+        }
+    }
+
+    /**
+     * Create an {@link EpochListener} that calls {@link #remap(PortMapper) } whenever the gateway loses its state or changes its
+     * external address.
+     * @param portMapper port mapper to re-map leases for
+     * @return new listener
+     * @throws NullPointerException if any argument is {@code null}
+     */
+    public EpochListener createRemapListener(final PortMapper portMapper) {
+        Validate.notNull(portMapper);
+        return new EpochListener() {
+            @Override
+            public void gatewayReset(EpochTracker epochTracker) {
+                remap(portMapper);
+            }
+
+            @Override
+            public void externalAddressChanged(EpochTracker epochTracker, InetAddress oldExternalAddress, InetAddress newExternalAddress) {
+                remap(portMapper);
+            }
+        };
+    }
+
+    /**
+     * Add a listener.
+     * @param listener listener to add
+     * @throws NullPointerException if any argument is {@code null}
+     */
+    public void addListener(LeaseListener listener) {
+        Validate.notNull(listener);
+        listeners.add(listener);
+    }
+
+    /**
+     * Remove a listener.
+     * @param listener listener to remove
+     * @throws NullPointerException if any argument is {@code null}
+     */
+    public void removeListener(LeaseListener listener) {
+        Validate.notNull(listener);
+        listeners.remove(listener);
+    }
+
+    /**
+     * Stop refreshing all leases and shut down this lease manager's threads. Mappings are left as-is.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        timerThread.interrupt();
+        workers.shutdownNow();
+    }
+
+    private void schedule(Lease lease, long now) {
+        long lifetimeMillis = lease.getMappedPort().getLifetime() * 1000L;
+        double fraction = minRefreshFraction + random.nextDouble() * (maxRefreshFraction - minRefreshFraction);
+        long delay = Math.max((long) (lifetimeMillis * fraction), MIN_REFRESH_TICKS * wheel.getTickDuration());
+        scheduleAt(lease, now + delay);
+    }
+
+    private void scheduleAt(Lease lease, long time) {
+        lease.setRefreshTime(time);
+        wheel.schedule(lease, time);
+    }
+
+    private void unregister(Lease lease) {
+        synchronized (pendingBatches) {
+            PortMapper portMapper = lease.getPortMapper();
+            Set<Lease> mapperLeases = leases.get(portMapper);
+            if (mapperLeases != null) {
+                mapperLeases.remove(lease);
+                if (mapperLeases.isEmpty()) {
+                    leases.remove(portMapper);
+                }
+            }
+        }
+    }
+
+    private void dispatch(List<Lease> expired, long now) {
+        synchronized (pendingBatches) {
+            for (Lease lease : expired) {
+                // Skip if released, or if this is a stale timer entry (lease was rescheduled since this entry was added)
+                if (lease.isReleased() || lease.getRefreshTime() > now) {
+                    continue;
+                }
+
+                getBatch(lease.getPortMapper()).addRefresh(lease);
+            }
+        }
+    }
+
+    private Batch getBatch(PortMapper portMapper) {
+        // must be called while holding pendingBatches lock
+        Batch batch = pendingBatches.get(portMapper);
+        if (batch == null) {
+            batch = new Batch();
+            pendingBatches.put(portMapper, batch);
+            workers.execute(new BatchRunnable(portMapper, batch));
+        }
+        return batch;
+    }
+
+    private void refresh(Lease lease) throws InterruptedException {
+        if (lease.isReleased()) {
+            return;
+        }
+
+        boolean remap = lease.isRemapPending();
+        lease.setRemapPending(false);
+
+        PortMapper portMapper = lease.getPortMapper();
+        MappedPort oldMappedPort = lease.getMappedPort();
+        MappedPort newMappedPort;
+        try {
+            if (remap) {
+                newMappedPort = portMapper.mapPort(oldMappedPort.getPortType(), oldMappedPort.getInternalPort(),
+                        oldMappedPort.getExternalPort(), lease.getLifetime());
+            } else {
+                newMappedPort = portMapper.refreshPort(oldMappedPort, lease.getLifetime());
+            }
+        } catch (RuntimeException re) {
+            if (lease.getPortMapper() != portMapper) {
+                LOG.debug("Unable to {} {} but lease was migrated in the meantime", remap ? "remap" : "refresh", lease, re);
+                return; // the remap queued by migrate() takes over
+            }
+
+            long now = currentTime();
+            long remaining = lease.getExpireTime() - now;
+            boolean retrying = !lease.isReleased() && remaining / 2L >= wheel.getTickDuration();
+            LOG.debug("Unable to {} {} (retrying={})", remap ? "remap" : "refresh", lease, retrying, re);
+            if (retrying) {
+                lease.setRemapPending(remap);
+                scheduleAt(lease, now + remaining / 2L);
+            } else {
+                lease.release();
+                unregister(lease);
+            }
+            for (LeaseListener listener : listeners) {
+                try {
+                    listener.failed(lease, re, retrying);
+                } catch (RuntimeException lre) {
+                    LOG.warn("Listener threw exception", lre);
+                }
+            }
+            return;
+        }
+
+        long now = currentTime();
+        synchronized (pendingBatches) { // migrate() moves leases while holding this lock, so the check can't go stale before the update
+            if (lease.getPortMapper() != portMapper) {
+                LOG.debug("{} {} but lease was migrated in the meantime", remap ? "Remapped" : "Refreshed", lease);
+                return; // the remap queued by migrate() takes over -- don't overwrite it with the old port mapper's mapping
+            }
+            if (!remap && lease.isRemapPending()) {
+                // The gateway was found to have lost its state while this refresh was in flight (usually from this refresh's own
+                // response). The refresh still succeeded, so the mapping has already been re-created -- remapping on top of it would be
+                // redundant, and a PCP gateway would refuse it since it now holds the mapping under the refresh's nonce.
+                lease.setRemapPending(false);
+                Batch batch = pendingBatches.get(portMapper);
+                if (batch != null) {
+                    batch.remove(lease);
+                }
+                remap = true;
+            }
+            lease.update(newMappedPort, now + newMappedPort.getLifetime() * 1000L);
+        }
+        if (!lease.isReleased()) {
+            schedule(lease, now);
+        }
+        if (newMappedPort.getLifetime() == 0L) {
+            // Gateway accepted the request but granted no time at all -- keep trying (schedule() clamps the delay so this doesn't spin)
+            // but report it as a failure rather than a success
+            IllegalStateException ise = new IllegalStateException("Gateway granted a lifetime of 0 seconds: " + newMappedPort);
+            LOG.debug("Unable to {} {} (retrying=true)", remap ? "remap" : "refresh", lease, ise);
+            for (LeaseListener listener : listeners) {
+                try {
+                    listener.failed(lease, ise, true);
+                } catch (RuntimeException lre) {
+                    LOG.warn("Listener threw exception", lre);
+                }
+            }
+            return;
+        }
+
+        for (LeaseListener listener : listeners) {
+            try {
+                if (remap) {
+                    listener.remapped(lease, oldMappedPort, newMappedPort);
+                } else {
+                    listener.refreshed(lease, oldMappedPort, newMappedPort);
+                }
+            } catch (RuntimeException lre) {
+                LOG.warn("Listener threw exception", lre);
+            }
+        }
+    }
+
+    private static long currentTime() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+
+    private final class TimerRunnable implements Runnable {
+
+        @Override
+        public void run() {
+            LOG.debug("Starting lease timer");
+            try {
+                while (!closed) {
+                    long sleepTime = wheel.nextTickTime() - currentTime();
+                    if (sleepTime > 0L) {
+                        Thread.sleep(sleepTime);
+                    }
+
+                    long now = currentTime();
+                    List<Lease> expired = wheel.advance(now);
+                    if (!expired.isEmpty()) {
+                        dispatch(expired, now);
+                    }
+                }
+            } catch (InterruptedException ie) {
+                LOG.debug("Lease timer interrupted");
+            } catch (RuntimeException re) {
+                LOG.error("Lease timer encountered an error", re);
+            }
+            LOG.debug("Stopped lease timer");
+        }
+    }
+
+    private final class BatchRunnable implements Runnable {
+
+        private final PortMapper portMapper;
+        private final Batch batch;
+
+        BatchRunnable(PortMapper portMapper, Batch batch) {
+            this.portMapper = portMapper;
+            this.batch = batch;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!closed) {
+                    Lease lease;
+                    synchronized (pendingBatches) {
+                        lease = batch.poll();
+                        if (lease == null) {
+                            pendingBatches.remove(portMapper);
+                            return;
+                        }
+                    }
+
+                    refresh(lease);
+                }
+            } catch (InterruptedException ie) {
+                LOG.debug("Lease worker interrupted");
+                Thread.currentThread().interrupt();
+            } finally {
+                synchronized (pendingBatches) {
+                    if (pendingBatches.get(portMapper) == batch && batch.isEmpty()) {
+                        pendingBatches.remove(portMapper);
+                    }
+                }
+            }
+        }
+    }
+
+    // Leases waiting to be processed for a single port mapper. Remaps go ahead of refreshes and a lease is only ever queued once. All
+    // operations are O(1) so that remapping/migrating/dispatching a large number of leases stays linear. Guarded by pendingBatches.
+    private static final class Batch {
+
+        private final LinkedHashSet<Lease> remaps = new LinkedHashSet<>();
+        private final LinkedHashSet<Lease> refreshes = new LinkedHashSet<>();
+
+        void addRemap(Lease lease) {
+            refreshes.remove(lease);
+            remaps.add(lease);
+        }
+
+        void addRefresh(Lease lease) {
+            if (!remaps.contains(lease)) {
+                refreshes.add(lease);
+            }
+        }
+
+        void remove(Lease lease) {
+            remaps.remove(lease);
+            refreshes.remove(lease);
+        }
+
+        Lease poll() {
+            Lease lease = poll(remaps);
+            return lease != null ? lease : poll(refreshes);
+        }
+
+        boolean isEmpty() {
+            return remaps.isEmpty() && refreshes.isEmpty();
+        }
+
+        private static Lease poll(LinkedHashSet<Lease> set) {
+            Iterator<Lease> it = set.iterator();
+            if (!it.hasNext()) {
+                return null;
+            }
+            Lease lease = it.next();
+            it.remove();
+            return lease;
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2013-2016, Kasra Faghihi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.offbynull.portmapper.leases;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Hashed timer wheel. Items are hashed into a fixed number of buckets based on the tick they expire on, so scheduling and expiring are
+ * constant time regardless of how many items are outstanding. Time is passed in explicitly (in milliseconds) rather than read from a clock.
+ * <p>
+ * This class is thread-safe.
+ * @param <T> item type
+ * @author Kasra Faghihi
+ */
+final class TimerWheel<T> {
+
+    private final long startTime;
+    private final long tickDuration;
+    private final int mask;
+    private final List<LinkedList<Slot<T>>> buckets;
+    private long currentTick; // next tick to be processed
+
+    /**
+     * Constructs a {@link TimerWheel} object.
+     * @param startTime time the wheel starts at
+     * @param tickDuration duration of a single tick
+     * @param wheelSize number of buckets in the wheel (must be a power of 2)
+     * @throws IllegalArgumentException if {@code tickDuration <= 0}, or if {@code wheelSize} is not a positive power of 2
+     */
+    TimerWheel(long startTime, long tickDuration, int wheelSize) {
+        Validate.isTrue(tickDuration > 0L);
+        Validate.isTrue(wheelSize > 0 && Integer.bitCount(wheelSize) == 1);
+
+        this.startTime = startTime;
+        this.tickDuration = tickDuration;
+        this.mask = wheelSize - 1;
+        this.buckets = new ArrayList<>(wheelSize);
+        for (int i = 0; i < wheelSize; i++) {
+            buckets.add(new LinkedList<Slot<T>>());
+        }
+    }
+
+    /**
+     * Schedule an item. If {@code deadline} has already passed, the item will be expired on the next tick.
+     * @param item item to schedule
+     * @param deadline time to expire the item at
+     * @throws NullPointerException if any argument is {@code null}
+     */
+    synchronized void schedule(T item, long deadline) {
+        Validate.notNull(item);
+
+        long offset = deadline - startTime;
+        long targetTick = offset <= 0L ? 0L : (offset + tickDuration - 1L) / tickDuration;
+        if (targetTick < currentTick) {
+            targetTick = currentTick;
+        }
+
+        long rounds = (targetTick - currentTick) / buckets.size();
+        int idx = (int) (targetTick & mask);
+        buckets.get(idx).add(new Slot<>(item, rounds));
+    }
+
+    /**
+     * Process all ticks that have elapsed up to {@code now}.
+     * @param now current time
+     * @return items that have expired (in the order they were scheduled for each tick)
+     */
+    synchronized List<T> advance(long now) {
+        List<T> expired = new LinkedList<>();
+        while (startTime + currentTick * tickDuration <= now) {
+            int idx = (int) (currentTick & mask);
+            Iterator<Slot<T>> it = buckets.get(idx).iterator();
+            while (it.hasNext()) {
+                Slot<T> slot = it.next();
+                if (slot.rounds == 0L) {
+                    it.remove();
+                    expired.add(slot.item);
+                } else {
+                    slot.rounds--;
+                }
+            }
+            currentTick++;
+        }
+        return expired;
+    }
+
+    /**
+     * Get the time that the next tick becomes due.
+     * @return time of next tick
+     */
+    synchronized long nextTickTime() {
+        return startTime + currentTick * tickDuration;
+    }
+
+    /**
+     * Get the tick duration.
+     * @return tick duration
+     */
+    long getTickDuration() {
+        return tickDuration;
+    }
+
+    private static final class Slot<T> {
+        private final T item;
+        private long rounds;
+
+        Slot(T item, long rounds) {
+            this.item = item;
+            this.rounds = rounds;
+        }
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2013-2016, Kasra Faghihi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.offbynull.portmapper.mapper;
+
+import java.net.InetAddress;
+
+/**
+ * Listens for changes in a gateway's state, as detected by an {@link EpochTracker}. Listeners are invoked on whichever thread fed the
+ * {@link EpochTracker} the value that caused the change, so implementations must be thread-safe and should return quickly.
+ * @author Kasra Faghihi
+ */
+public interface EpochListener {
+
+    /**
+     * Called when the gateway has lost its state (e.g. it rebooted). Mappings held against the gateway should be re-created.
+     * @param epochTracker epoch tracker that detected the state loss
+     */
+    void gatewayReset(EpochTracker epochTracker);
+
+    /**
+     * Called when the gateway's external address has changed. Mappings held against the gateway should be re-created.
+     * @param epochTracker epoch tracker that detected the change
+     * @param oldExternalAddress previous external address
+     * @param newExternalAddress new external address
+     */
+    void externalAddressChanged(EpochTracker epochTracker, InetAddress oldExternalAddress, InetAddress newExternalAddress);
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright 2013-2016, Kasra Faghihi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.offbynull.portmapper.mapper;
+
+import java.net.InetAddress;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Tracks the epoch time reported by a single NAT-PMP/PCP gateway to detect when the gateway has lost its state, as described in
+ * RFC 6886 section 3.6 (NAT-PMP) or RFC 6887 section 8.5 (PCP) -- see {@link ValidationRule}. Also tracks the gateway's external address
+ * to detect when it has changed.
+ * <p>
+ * This class is thread-safe.
+ * @author Kasra Faghihi
+ */
+public final class EpochTracker {
+    private static final Logger LOG = LoggerFactory.getLogger(EpochTracker.class);
+
+    private final InetAddress gatewayAddress;
+    private final ValidationRule validationRule;
+    private final List<EpochListener> listeners;
+    private boolean epochSet;
+    private long previousServerTime;
+    private long previousClientTime;
+    private InetAddress externalAddress;
+
+    /**
+     * Constructs a {@link EpochTracker} object that uses {@link ValidationRule#PCP}.
+     * @param gatewayAddress address of the gateway being tracked
+     * @throws NullPointerException if any argument is {@code null}
+     */
+    public EpochTracker(InetAddress gatewayAddress) {
+        this(gatewayAddress, ValidationRule.PCP);
+    }
+
+    /**
+     * Constructs a {@link EpochTracker} object.
+     * @param gatewayAddress address of the gateway being tracked
+     * @param validationRule rule used to decide if the gateway has lost its state
+     * @throws NullPointerException if any argument is {@code null}
+     */
+    public EpochTracker(InetAddress gatewayAddress, ValidationRule validationRule) {
+        Validate.notNull(gatewayAddress);
+        Validate.notNull(validationRule);
+        this.gatewayAddress = gatewayAddress;
+        this.validationRule = validationRule;
+        this.listeners = new CopyOnWriteArrayList<>();
+    }
+
+    /**
+     * Get the address of the gateway being tracked.
+     * @return gateway address
+     */
+    public InetAddress getGatewayAddress() {
+        return gatewayAddress;
+    }
+
+    /**
+     * Get the rule used to decide if the gateway has lost its state.
+     * @return validation rule
+     */
+    public ValidationRule getValidationRule() {
+        return validationRule;
+    }
+
+    /**
+     * Add a listener.
+     * @param listener listener to add
+     * @throws NullPointerException if any argument is {@code null}
+     */
+    public void addListener(EpochListener listener) {
+        Validate.notNull(listener);
+        listeners.add(listener);
+    }
+
+    /**
+     * Remove a listener.
+     * @param listener listener to remove
+     * @throws NullPointerException if any argument is {@code null}
+     */
+    public void removeListener(EpochListener listener) {
+        Validate.notNull(listener);
+        listeners.remove(listener);
+    }
+
+    /**
+     * Feed in the epoch time from a response/announcement sent by the gateway. If the epoch time indicates that the gateway lost its
+     * state, listeners are notified.
+     * @param epochTime gateway's epoch time in seconds
+     * @return {@code false} if the gateway lost its state, {@code true} otherwise
+     * @throws IllegalArgumentException if {@code 0L > epochTime > 0xFFFFFFFFL}
+     */
+    public boolean updateEpoch(long epochTime) {
+        return updateEpoch(epochTime, TimeUnit.NANOSECONDS.toSeconds(System.nanoTime()));
+    }
+
+    boolean updateEpoch(long epochTime, long clientTime) {
+        Validate.inclusiveBetween(0L, 0xFFFFFFFFL, epochTime);
+
+        boolean valid;
+        synchronized (this) {
+            if (!epochSet) {
+                valid = true;
+                epochSet = true;
+            } else if (epochTime + 1L < previousServerTime) {
+                valid = false;
+            } else {
+                long clientDelta = clientTime - previousClientTime;
+                long serverDelta = epochTime - previousServerTime;
+                switch (validationRule) {
+                    case NAT_PMP:
+                        valid = serverDelta + 2L >= clientDelta - clientDelta / 8L;
+                        break;
+                    case PCP:
+                        valid = clientDelta + 2L >= serverDelta - serverDelta / 16L
+                                && serverDelta + 2L >= clientDelta - clientDelta / 16L;
+                        break;
+                    default:
+                        throw new IllegalStateException(); // should never happen
+                }
+            }
+            previousServerTime = epochTime;
+            previousClientTime = clientTime;
+        }
+
+        if (!valid) {
+            LOG.debug("Gateway {} lost state (epoch {})", gatewayAddress, epochTime);
+            for (EpochListener listener : listeners) {
+                try {
+                    listener.gatewayReset(this);
+                } catch (RuntimeException re) {
+                    LOG.warn("Listener threw exception", re);
+                }
+            }
+        }
+
+        return valid;
+    }
+
+    /**
+     * Feed in the external address reported by the gateway. If the external address is different from the last one fed in, listeners
+     * are notified.
+     * @param externalAddress gateway's external address
+     * @return {@code false} if the external address changed, {@code true} otherwise
+     * @throws NullPointerException if any argument is {@code null}
+     */
+    public boolean updateExternalAddress(InetAddress externalAddress) {
+        Validate.notNull(externalAddress);
+
+        InetAddress oldExternalAddress;
+        synchronized (this) {
+            oldExternalAddress = this.externalAddress;
+            this.externalAddress = externalAddress;
+        }
+
+        if (oldExternalAddress != null && !Objects.equals(oldExternalAddress, externalAddress)) {
+            LOG.debug("Gateway {} external address changed from {} to {}", gatewayAddress, oldExternalAddress, externalAddress);
+            for (EpochListener listener : listeners) {
+                try {
+                    listener.externalAddressChanged(this, oldExternalAddress, externalAddress);
+                } catch (RuntimeException re) {
+                    LOG.warn("Listener threw exception", re);
+                }
+            }
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Get the last external address fed in.
+     * @return last external address, or {@code null} if none has been fed in yet
+     */
+    public synchronized InetAddress getExternalAddress() {
+        return externalAddress;
+    }
+
+    @Override
+    public String toString() {
+        return "EpochTracker{" + "gatewayAddress=" + gatewayAddress + ", validationRule=" + validationRule + '}';
+    }
+
+    /**
+     * Rule used to decide if a gateway has lost its state based on how far its epoch time has moved compared to the local clock.
+     */
+    public enum ValidationRule {
+        /**
+         * RFC 6886 section 3.6 -- the gateway has lost its state if its epoch time has advanced by less than 7/8 of the time that's
+         * elapsed locally (minus 2 seconds of slack). An epoch time that has advanced too quickly is accepted.
+         */
+        NAT_PMP,
+        /**
+         * RFC 6887 section 8.5 -- the gateway has lost its state if its epoch time and the local clock have drifted apart by more than 1/16
+         * of the elapsed time (plus 2 seconds of slack) in either direction.
+         */
+        PCP
+    }
+}
@@ -34,12 +34,13 @@ import com.offbynull.portmapper.gateways.network.internalmessages.WriteTcpNetwor
 import com.offbynull.portmapper.gateways.network.internalmessages.WriteUdpNetworkRequest;
 import com.offbynull.portmapper.gateways.process.internalmessages.CloseProcessRequest;
 import com.offbynull.portmapper.gateways.process.internalmessages.CreateProcessRequest;
-import com.offbynull.portmapper.gateways.process.internalmessages.ErrorProcessResponse;
 import com.offbynull.portmapper.gateways.process.internalmessages.ExitProcessNotification;
 import com.offbynull.portmapper.gateways.process.internalmessages.GetNextIdProcessRequest;
 import com.offbynull.portmapper.gateways.process.internalmessages.GetNextIdProcessResponse;
 import com.offbynull.portmapper.gateways.process.internalmessages.IdentifiableErrorProcessResponse;
 import com.offbynull.portmapper.gateways.process.internalmessages.ReadProcessNotification;
+import com.offbynull.portmapper.gateways.process.internalmessages.ReadType;
+import com.offbynull.portmapper.helpers.StreamingAddressExtractor;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.net.InetAddress;
@@ -49,6 +50,7 @@ import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -62,6 +64,7 @@ import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 import org.apache.commons.collections4.BidiMap;
 import org.apache.commons.collections4.MultiValuedMap;
+import org.apache.commons.collections4.Predicate;
 import org.apache.commons.collections4.bidimap.DualHashBidiMap;
 import org.apache.commons.collections4.multimap.ArrayListValuedHashMap;
 import org.apache.commons.collections4.set.UnmodifiableSet;
@@ -309,7 +312,79 @@ public final class MapperIoUtils {
     }
     
     /**
-     * Run a group of processes at once.
+     * Early-exit predicate for {@link #runProcesses(Bus, Collection, long, Predicate) } that's satisfied once a process has output a
+     * default route with a usable gateway address (not an any-local, loopback, or multicast address). Gateways that are listed across
+     * several lines (e.g. Windows {@code ipconfig}) only count once the last of those lines has been output, so exiting early doesn't cut
+     * the list short.
+     */
+    public static final Predicate<ProcessRequest> DEFAULT_GATEWAY_FOUND = new Predicate<ProcessRequest>() {
+        @Override
+        public boolean evaluate(ProcessRequest req) {
+            for (InetAddress address : req.getDefaultGatewayAddresses()) {
+                if (!address.isAnyLocalAddress() && !address.isLoopbackAddress() && !address.isMulticastAddress()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    };
+
+    /**
+     * Gather addresses of potential NAT-PMP/PCP gateways. Multiple OS-specific commands are run (stopping as soon as one of them reports
+     * a default route -- see {@link #DEFAULT_GATEWAY_FOUND}) and the addresses they output are combined with
+     * {@link #PRESET_IPV4_GATEWAY_ADDRESSES} and {@code additionalIps}. Any-local, loopback, and multicast addresses are filtered out.
+     * @param processBus process bus
+     * @param additionalIps additional IPs to include
+     * @return potential gateway addresses
+     * @throws NullPointerException if any argument is {@code null} or contains {@code null}
+     * @throws InterruptedException if interrupted
+     */
+    public static Set<InetAddress> findPotentialGatewayAddresses(Bus processBus, InetAddress ... additionalIps)
+            throws InterruptedException {
+        Validate.notNull(processBus);
+        Validate.notNull(additionalIps);
+        Validate.noNullElements(additionalIps);
+
+        // Perform commands to try to grab gateway addresses
+        List<ProcessRequest> processReqs = new ArrayList<>();
+        processReqs.add(new ProcessRequest("netstat", "-rn")); //linux mac and windows
+        processReqs.add(new ProcessRequest("route", "-n")); // linux
+        processReqs.add(new ProcessRequest("route", "-n", "get", "default")); // mac
+        processReqs.add(new ProcessRequest("ipconfig")); // windows
+        processReqs.add(new ProcessRequest("ifconfig")); // linux (and mac?)
+        runProcesses(processBus, processReqs, 10000L, DEFAULT_GATEWAY_FOUND); // stop as soon as any of them reports the default route
+
+
+
+        // Aggregate results
+        Set<InetAddress> potentialGatewayAddresses = new HashSet<>();
+        potentialGatewayAddresses.addAll(PRESET_IPV4_GATEWAY_ADDRESSES);
+        potentialGatewayAddresses.addAll(Arrays.asList(additionalIps));
+
+        for (ProcessRequest req : processReqs) {
+            potentialGatewayAddresses.addAll(req.getAddresses());
+        }
+
+
+
+        // Filter out non-valid addresses
+        //   Remove any local address (e.g. 0.0.0.0)
+        //   Remove loopback address (e.g. 127.0.0.1)
+        //   Remove multicast address (e.g. 224.0.0.1)
+        Iterator<InetAddress> pgaIt = potentialGatewayAddresses.iterator();
+        while (pgaIt.hasNext()) {
+            InetAddress address = pgaIt.next();
+            if (address.isAnyLocalAddress() || address.isLoopbackAddress() || address.isMulticastAddress()) {
+                pgaIt.remove();
+            }
+        }
+
+        return potentialGatewayAddresses;
+    }
+
+    /**
+     * Run a group of processes at once. Equivalent to calling {@link #runProcesses(Bus, Collection, long, Predicate) } without an
+     * early-exit predicate.
      * @param processBus process bus
      * @param reqs processes to run
      * @param timeout process timeout
@@ -318,9 +393,33 @@ public final class MapperIoUtils {
      * @throws InterruptedException if interrupted
      */
     public static void runProcesses(Bus processBus, Collection<ProcessRequest> reqs, long timeout) throws InterruptedException {
+        runProcesses(processBus, reqs, timeout, null);
+    }
+
+    /**
+     * Run a group of processes at once. Output is scanned for addresses as it comes in (see {@link ProcessRequest#getAddresses() }),
+     * rather than only once every process has exited.
+     * <p>
+     * A process is closed once it runs past its own timeout (see {@link ProcessRequest#ProcessRequest(long, String, String...) }), and
+     * every process that's still running is closed once {@code timeout} elapses. If {@code earlyExit} is non-{@code null}, it's tested
+     * against a process request every time that process outputs something or exits -- as soon as it returns {@code true}, every process
+     * that's still running is closed and this method returns.
+     * <p>
+     * Output and addresses are partial for processes that didn't get to exit on their own.
+     * @param processBus process bus
+     * @param reqs processes to run
+     * @param timeout process timeout
+     * @param earlyExit predicate that stops the run early once satisfied (may be {@code null})
+     * @throws NullPointerException if any argument other than {@code earlyExit} is {@code null} or contains {@code null}
+     * @throws IllegalArgumentException if {@code timeout} is negative
+     * @throws InterruptedException if interrupted
+     */
+    public static void runProcesses(Bus processBus, Collection<ProcessRequest> reqs, long timeout, Predicate<ProcessRequest> earlyExit)
+            throws InterruptedException {
         Validate.notNull(processBus);
         Validate.notNull(reqs);
         Validate.noNullElements(reqs);
+        Validate.isTrue(timeout >= 0L);
 
         LOG.debug("Running processes {} with duration {}", reqs, timeout);
         
@@ -329,8 +428,7 @@ public final class MapperIoUtils {
         long endTime = System.currentTimeMillis() + timeout;
 
         Map<Integer, ProcessRequest> processes = new HashMap<>();
-        Map<Integer, ByteArrayOutputStream> stdoutBuffers = new HashMap<>();
-        Map<Integer, ByteArrayOutputStream> stderrBuffers = new HashMap<>();
+        Map<Integer, Long> processEndTimes = new HashMap<>(); // only contains processes that are still running
         
         try {
             // Get ids
@@ -342,7 +440,7 @@ public final class MapperIoUtils {
                 GetNextIdProcessResponse resp = (GetNextIdProcessResponse) queue.poll(sleepTime, TimeUnit.MILLISECONDS);
                 int id = resp.getId();
 
-                stdoutBuffers.put(id, new ByteArrayOutputStream());
+                req.reset();
                 processes.put(id, req);
             }
 
@@ -355,78 +453,75 @@ public final class MapperIoUtils {
 
                 processBus.send(new CreateProcessRequest(id, selfBus, req.getExecutable(), req.getParameters()));
                 // don't care about response
+                
+                long processTimeout = req.getTimeout();
+                long processEndTime = System.currentTimeMillis() + processTimeout;
+                if (processTimeout == Long.MAX_VALUE || processEndTime > endTime || processEndTime < 0L) { // < 0 means overflow
+                    processEndTime = endTime;
+                }
+                processEndTimes.put(id, processEndTime);
             }
 
-            // Read data from sockets
-            int runningProcs = reqs.size();
-            while (runningProcs > 0) {
-                long sleepTime = endTime - System.currentTimeMillis();
+            // Read data from processes
+            while (!processEndTimes.isEmpty()) {
+                long nextEndTime = Collections.min(processEndTimes.values());
+                long sleepTime = nextEndTime - System.currentTimeMillis();
                 if (sleepTime <= 0L) {
-                    break;
+                    // Close whichever processes have ran out of time
+                    long time = System.currentTimeMillis();
+                    Iterator<Entry<Integer, Long>> it = processEndTimes.entrySet().iterator();
+                    while (it.hasNext()) {
+                        Entry<Integer, Long> entry = it.next();
+                        if (entry.getValue() <= time) {
+                            int id = entry.getKey();
+                            LOG.debug("Process {} timed out", processes.get(id));
+                            processBus.send(new CloseProcessRequest(id));
+                            it.remove();
+                        }
+                    }
+                    continue;
                 }
 
                 Object resp = queue.poll(sleepTime, TimeUnit.MILLISECONDS);
 
+                ProcessRequest req;
                 if (resp instanceof ReadProcessNotification) {
-                    // On read, put in to readBuffer
+                    // On read, feed in to the request's buffers and address extractors
                     ReadProcessNotification readResp = (ReadProcessNotification) resp;
-                    Integer id = readResp.getId();
-                    ByteArrayOutputStream baos;
-                    switch (readResp.getReadType()) {
-                        case STDOUT:
-                            baos = stdoutBuffers.get(id);
-                            if (baos == null) {
-                                baos = new ByteArrayOutputStream();
-                                stdoutBuffers.put(id, baos);
-                            }
-                            break;
-                        case STDERR:
-                            baos = stderrBuffers.get(id);
-                            if (baos == null) {
-                                baos = new ByteArrayOutputStream();
-                                stderrBuffers.put(id, baos);
-                            }
-                            break;
-                        default:
-                            throw new IllegalStateException(); // should never happen
-                    }
-
-                    try {
-                        baos.write(readResp.getData());
-                    } catch (IOException ioe) {
-                        throw new IllegalStateException(); // should never happen
+                    int id = readResp.getId();
+                    if (!processEndTimes.containsKey(id)) {
+                        continue; // already timed out
                     }
+                    req = processes.get(id);
+                    req.read(readResp.getReadType(), readResp.getData());
                 } else if (resp instanceof ExitProcessNotification) {
-                    runningProcs--;
+                    int id = ((ExitProcessNotification) resp).getId();
+                    if (processEndTimes.remove(id) == null) {
+                        continue; // already timed out
+                    }
+                    req = processes.get(id);
+                    req.exited();
                 } else if (resp instanceof IdentifiableErrorProcessResponse) {
-                    runningProcs--;
-                } else if (resp instanceof ErrorProcessResponse) {
-                    runningProcs--;
+                    processEndTimes.remove(((IdentifiableErrorProcessResponse) resp).getId());
+                    continue;
+                } else {
+                    continue;
+                }
+                
+                if (earlyExit != null && earlyExit.evaluate(req)) {
+                    LOG.debug("Early exit condition satisfied by {}", req);
+                    break;
                 }
             }
         } finally {
             // Issue closes
-            for (int id : stdoutBuffers.keySet()) {
+            for (int id : processEndTimes.keySet()) {
                 processBus.send(new CloseProcessRequest(id));
             }
         }
 
-        // Process responses
-        for (int id : stdoutBuffers.keySet()) {
-            ByteArrayOutputStream outOs = stdoutBuffers.get(id);
-            ByteArrayOutputStream errOs = stderrBuffers.get(id);
-
-            byte[] outData = outOs == null ? new byte[0] : outOs.toByteArray();
-            byte[] errData = errOs == null ? new byte[0] : errOs.toByteArray();
-            
-            String out = new String(outData, Charset.forName("US-ASCII"));
-            String err = new String(errData, Charset.forName("US-ASCII"));
-
-            LOG.debug("Process response\nSTDOUT\n{}\nSTDERR\n{}", out, err);
-            
-            ProcessRequest req = processes.get(id);
-            req.setOutput(out);
-            req.setError(err);
+        for (ProcessRequest req : processes.values()) {
+            LOG.debug("Process response\nSTDOUT\n{}\nSTDERR\n{}", req.getOutput(), req.getError());
         }
     }
 
@@ -436,22 +531,41 @@ public final class MapperIoUtils {
     public static final class ProcessRequest {
         private final String executable;
         private final String[] parameters;
-        private String output;
-        private String error;
+        private final long timeout;
+        private ByteArrayOutputStream outputBuffer;
+        private ByteArrayOutputStream errorBuffer;
+        private StreamingAddressExtractor outputExtractor;
+        private StreamingAddressExtractor errorExtractor;
         
         /**
-         * Constructs a {@link ProcessRequest} object.
+         * Constructs a {@link ProcessRequest} object. Equivalent to calling {@link #ProcessRequest(long, String, String...) } with
+         * a timeout of {@link Long#MAX_VALUE} (bounded only by the timeout of the whole run).
          * @param executable executable
          * @param parameters parameters
          * @throws NullPointerException if any argument is {@code null} or contains {@code null}
          */
         public ProcessRequest(String executable, String ... parameters) {
+            this(Long.MAX_VALUE, executable, parameters);
+        }
+
+        /**
+         * Constructs a {@link ProcessRequest} object.
+         * @param timeout maximum amount of time the process is allowed to run for (in milliseconds)
+         * @param executable executable
+         * @param parameters parameters
+         * @throws NullPointerException if any argument is {@code null} or contains {@code null}
+         * @throws IllegalArgumentException if {@code timeout} is negative
+         */
+        public ProcessRequest(long timeout, String executable, String ... parameters) {
+            Validate.isTrue(timeout >= 0L);
             Validate.notNull(executable);
             Validate.notNull(parameters);
             Validate.noNullElements(parameters);
 
+            this.timeout = timeout;
             this.executable = executable;
             this.parameters = Arrays.copyOf(parameters, parameters.length);
+            reset();
         }
 
         /**
@@ -470,16 +584,20 @@ public final class MapperIoUtils {
             return executable;
         }
 
+        /**
+         * Get timeout.
+         * @return maximum amount of time the process is allowed to run for (in milliseconds)
+         */
+        public long getTimeout() {
+            return timeout;
+        }
+
         /**
          * Get process STDOUT.
          * @return process STDOUT
          */
         public String getOutput() {
-            return output;
-        }
-
-        void setOutput(String output) {
-            this.output = output;
+            return new String(outputBuffer.toByteArray(), Charset.forName("US-ASCII"));
         }
 
         /**
@@ -487,20 +605,70 @@ public final class MapperIoUtils {
          * @return process STDERR
          */
         public String getError() {
-            return error;
+            return new String(errorBuffer.toByteArray(), Charset.forName("US-ASCII"));
         }
 
-        void setError(String error) {
-            this.error = error;
+        /**
+         * Get addresses found in process STDOUT and STDERR so far. Unlike scanning {@link #getOutput() } / {@link #getError() }
+         * directly, a trailing line that was cut off (because the process was closed before it finished) isn't scanned.
+         * @return addresses found so far
+         */
+        public Set<InetAddress> getAddresses() {
+            List<String> addresses = new ArrayList<>();
+            addresses.addAll(outputExtractor.getIpv4Addresses());
+            addresses.addAll(outputExtractor.getIpv6Addresses());
+            addresses.addAll(errorExtractor.getIpv4Addresses());
+            addresses.addAll(errorExtractor.getIpv6Addresses());
+            return convertToAddressSet(addresses);
+        }
+
+        /**
+         * Get addresses found so far on lines of process STDOUT and STDERR that look like they describe a default route.
+         * @return default route addresses found so far
+         * @see StreamingAddressExtractor
+         */
+        public Set<InetAddress> getDefaultGatewayAddresses() {
+            List<String> addresses = new ArrayList<>();
+            addresses.addAll(outputExtractor.getDefaultGatewayAddresses());
+            addresses.addAll(errorExtractor.getDefaultGatewayAddresses());
+            return convertToAddressSet(addresses);
+        }
+
+        void reset() {
+            outputBuffer = new ByteArrayOutputStream();
+            errorBuffer = new ByteArrayOutputStream();
+            outputExtractor = new StreamingAddressExtractor();
+            errorExtractor = new StreamingAddressExtractor();
+        }
+
+        void read(ReadType readType, byte[] data) {
+            switch (readType) {
+                case STDOUT:
+                    outputBuffer.write(data, 0, data.length);
+                    outputExtractor.feed(data);
+                    break;
+                case STDERR:
+                    errorBuffer.write(data, 0, data.length);
+                    errorExtractor.feed(data);
+                    break;
+                default:
+                    throw new IllegalStateException(); // should never happen
+            }
+        }
+
+        void exited() {
+            outputExtractor.finish();
+            errorExtractor.finish();
         }
 
         @Override
         public String toString() {
-            return "RunProcessRequest{" + "executable=" + executable + ", parameters=" + Arrays.toString(parameters) + ", output=" + output
-                    + ", error=" + error + '}';
+            return "RunProcessRequest{" + "executable=" + executable + ", parameters=" + Arrays.toString(parameters) + ", timeout="
+                    + timeout + ", output=" + getOutput() + ", error=" + getError() + '}';
         }
     }
     
+    
     /**
      * Convert a list of addresses as strings to {@link InetAddress}es.
      * @param addresses string addresses to convert
@@ -573,6 +741,10 @@ public final class MapperIoUtils {
     
     /**
      * Perform a group of UDP requests.
+     * <p>
+     * Multiple requests may go out from the same source IP to the same destination (e.g. to pipeline requests of different types). A
+     * response is offered to each such request in turn, and is assigned to the first one whose {@link BytesToResponseTransformer} accepts
+     * it (does not throw an exception).
      * @param networkBus network bus
      * @param reqs requests to perform
      * @param broadcastBehaviour {@code true} if multiple responses may come in from any IP to each request, {@code false} if only a single
@@ -587,6 +759,30 @@ public final class MapperIoUtils {
      */
     public static void performUdpRequests(Bus networkBus, Collection<UdpRequest> reqs, boolean broadcastBehaviour,
             long ... attemptDurations) throws InterruptedException {
+        performUdpRequests(networkBus, reqs, broadcastBehaviour, null, attemptDurations);
+    }
+    
+    /**
+     * Perform a group of UDP requests, stopping before all attempts have been used up if some condition is met.
+     * <p>
+     * Identical to {@link #performUdpRequests(com.offbynull.portmapper.gateway.Bus, java.util.Collection, boolean, long...) }, except that
+     * if {@code earlyExit} is non-{@code null}, it's tested against {@code reqs} at the end of every attempt (after that attempt's
+     * duration has elapsed) -- as soon as it returns {@code true}, no further attempts are made and this method returns. This is mostly
+     * useful with {@code broadcastBehaviour} set, where requests never stop being resent on their own (e.g. stop once a round of
+     * requests turns up nothing new).
+     * @param networkBus network bus
+     * @param reqs requests to perform
+     * @param broadcastBehaviour {@code true} if multiple responses may come in from any IP to each request, {@code false} if only a single
+     * response is expected from the IP that the request was sent to
+     * @param earlyExit predicate that stops further attempts once satisfied (may be {@code null})
+     * @param attemptDurations amount of time to wait before resending a request
+     * @throws NullPointerException if any argument other than {@code earlyExit} is {@code null} or contains {@code null}
+     * @throws IllegalStateException if it takes too long to create sockets
+     * @throws IllegalArgumentException if any {@code attemptDuration} element is negative
+     * @throws InterruptedException if interrupted
+     */
+    public static void performUdpRequests(Bus networkBus, Collection<UdpRequest> reqs, boolean broadcastBehaviour,
+            Predicate<Collection<UdpRequest>> earlyExit, long ... attemptDurations) throws InterruptedException {
         
         Validate.notNull(networkBus);
         Validate.notNull(reqs);
@@ -671,6 +867,7 @@ public final class MapperIoUtils {
                     InetSocketAddress dst = req.getDestinationSocketAddress();
 
                     networkBus.send(new WriteUdpNetworkRequest(id, dst, reqBytes));
+                    req.incrementAttempts();
                 }
 
                 // Wait for responses
@@ -694,12 +891,17 @@ public final class MapperIoUtils {
                     ReadUdpNetworkNotification readNetResp = (ReadUdpNetworkNotification) netResp;
                     int id = readNetResp.getId();
 
+                    // Multiple requests may be pending to the same destination (e.g. pipelined requests of different types), so offer
+                    // the response to each matching request until one of them successfully parses it
                     InetSocketAddress remoteSocketAddress = readNetResp.getRemoteAddress();
+                    byte[] respData = readNetResp.getData();
+                    RuntimeException parseException = null;
+                    UdpRequest parseExceptionReq = null;
+                    boolean parsed = false;
                     Iterator<UdpRequest> it = socketIdToRequests.get(id).iterator();
                     while (it.hasNext()) {
                         UdpRequest pendingReq = it.next();
                         if (broadcastBehaviour || pendingReq.getDestinationSocketAddress().equals(remoteSocketAddress)) {
-                            byte[] respData = readNetResp.getData();
                             try {
                                 Object response = pendingReq.getBytesToResponseTransformer().create(respData);
                                 LOG.debug("Parsed the following response to {} from {}", response, respData);
@@ -710,12 +912,25 @@ public final class MapperIoUtils {
                                     it.remove();
                                 }
                             } catch (RuntimeException e) {
-                                LOG.error("Encountered error while parsing response from {}", respData, e);
+                                parseException = e;
+                                parseExceptionReq = pendingReq;
+                                continue;
                             }
 
+                            parsed = true;
                             break;
                         }
                     }
+                    
+                    if (!parsed && parseException != null) {
+                        LOG.error("Encountered error while parsing response from {}", respData, parseException);
+                        parseExceptionReq.setError(parseException); // only kept if nothing could parse it, see above
+                    }
+                }
+
+                if (earlyExit != null && earlyExit.evaluate(reqs)) {
+                    LOG.debug("Early exit condition satisfied");
+                    break;
                 }
             }
         } finally {
@@ -739,6 +954,8 @@ public final class MapperIoUtils {
         private final RequestToBytesTransformer requestToBytesTransformer;
         private final BytesToResponseTransformer bytesToResponseTransformer;
         private Object other;
+        private int attempts;
+        private RuntimeException error;
 
         /**
          * Construct a {@link UdpRequest} object.
@@ -825,6 +1042,31 @@ public final class MapperIoUtils {
             this.responses.add(response);
         }
 
+        /**
+         * Get the number of times this request was sent.
+         * @return number of times this request was sent
+         */
+        public int getAttempts() {
+            return attempts;
+        }
+
+        void incrementAttempts() {
+            attempts++;
+        }
+
+        /**
+         * Get the last error encountered while parsing a response to this request. For example, a response transformer may reject a
+         * response because the router returned an error code (see {@link RouterErrorException}).
+         * @return last error encountered while parsing a response (or {@code null} if no response was rejected)
+         */
+        public RuntimeException getError() {
+            return error;
+        }
+
+        void setError(RuntimeException error) {
+            this.error = error;
+        }
+
         /**
          * Get extra field.
          * @return extra
@@ -845,7 +1087,8 @@ public final class MapperIoUtils {
         public String toString() {
             return "UdpRequest{" + "sourceAddress=" + sourceAddress + ", destinationSocketAddress=" + destinationSocketAddress
                     + ", request=" + request + ", responses=" + responses + ", requestToBytesTransformer=" + requestToBytesTransformer
-                    + ", bytesToResponseTransformer=" + bytesToResponseTransformer + ", other=" + other + '}';
+                    + ", bytesToResponseTransformer=" + bytesToResponseTransformer + ", other=" + other + ", attempts=" + attempts
+                    + ", error=" + error + '}';
         }
     }
 
@@ -916,7 +1159,8 @@ public final class MapperIoUtils {
     }
     
     /**
-     * Perform a group of TCP requests.
+     * Perform a group of TCP requests. Each attempt opens a new connection for every request that hasn't received a parse-able response
+     * yet -- requests that have are not sent again.
      * @param networkBus network bus
      * @param reqs requests to perform
      * @param attemptDurations amount of time to wait before resending a request
@@ -941,7 +1185,8 @@ public final class MapperIoUtils {
         for (long attemptDuration : attemptDurations) {
             remainingAttemptDurations.add(attemptDuration);
         }
-        while (!remainingAttemptDurations.isEmpty()) {
+        List<TcpRequest> remainingReqs = new LinkedList<>(reqs);
+        while (!remainingReqs.isEmpty() && !remainingAttemptDurations.isEmpty()) {
             LinkedBlockingQueue<Object> queue = new LinkedBlockingQueue<>();
             Bus selfBus = new BasicBus(queue);
             
@@ -953,8 +1198,8 @@ public final class MapperIoUtils {
 
 
             try {
-                // Assign IDs for new sockets
-                for (TcpRequest req : reqs) {
+                // Assign IDs for new sockets -- only for requests that haven't been answered yet
+                for (TcpRequest req : remainingReqs) {
                     long sleepTime = endTime - System.currentTimeMillis();
                     Validate.validState(sleepTime > 0);
 
@@ -1000,6 +1245,7 @@ public final class MapperIoUtils {
                     byte[] reqBytes = req.getRequestToBytesTransformer().create(request); // should never throw an exc -- we created req
 
                     networkBus.send(new WriteTcpNetworkRequest(id, reqBytes));
+                    req.incrementAttempts();
                 }
 
 
@@ -1057,8 +1303,10 @@ public final class MapperIoUtils {
                     Object response = req.getBytesToResponseTransformer().create(respData);
                     LOG.debug("Parsed the following response to {} from {}", response, respData);
                     req.setResponse(response);
+                    remainingReqs.remove(req);
                 } catch (RuntimeException e) {
                     LOG.error("Encountered error while parsing response from {}", respData, e);
+                    req.setError(e);
                 }
             }
         }
@@ -1077,6 +1325,8 @@ public final class MapperIoUtils {
         private final RequestToBytesTransformer requestToBytesTransformer;
         private final BytesToResponseTransformer bytesToResponseTransformer;
         private Object other;
+        private int attempts;
+        private RuntimeException error;
 
         /**
          * Construct a {@link TcpRequest} object.
@@ -1153,6 +1403,31 @@ public final class MapperIoUtils {
             this.response = response;
         }
 
+        /**
+         * Get the number of times this request was sent.
+         * @return number of times this request was sent
+         */
+        public int getAttempts() {
+            return attempts;
+        }
+
+        void incrementAttempts() {
+            attempts++;
+        }
+
+        /**
+         * Get the last error encountered while parsing a response to this request. For example, a response transformer may reject a
+         * response because the router returned an error code (see {@link RouterErrorException}).
+         * @return last error encountered while parsing a response (or {@code null} if no response was rejected)
+         */
+        public RuntimeException getError() {
+            return error;
+        }
+
+        void setError(RuntimeException error) {
+            this.error = error;
+        }
+
         /**
          * Get extra field.
          * @return extra
@@ -1173,7 +1448,8 @@ public final class MapperIoUtils {
         public String toString() {
             return "TcpRequest{" + "sourceAddress=" + sourceAddress + ", destinationSocketAddress=" + destinationSocketAddress
                     + ", request=" + request + ", response=" + response + ", requestToBytesTransformer=" + requestToBytesTransformer
-                    + ", bytesToResponseTransformer=" + bytesToResponseTransformer + ", other=" + other + '}';
+                    + ", bytesToResponseTransformer=" + bytesToResponseTransformer + ", other=" + other + ", attempts=" + attempts
+                    + ", error=" + error + '}';
         }
 
     }
@@ -0,0 +1,303 @@
+/*
+ * Copyright 2013-2016, Kasra Faghihi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.offbynull.portmapper.mapper;
+
+import com.offbynull.portmapper.mapper.MapperIoUtils.TcpRequest;
+import com.offbynull.portmapper.mapper.MapperIoUtils.UdpRequest;
+import com.offbynull.portmapper.mapper.PortMapperMetricsListener.Operation;
+import com.offbynull.portmapper.mapper.PortMapperMetricsListener.Outcome;
+import java.net.InetAddress;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Dispatches {@link PortMapper} instrumentation events to registered {@link PortMapperMetricsListener}s. Listeners are registered
+ * globally rather than per port mapper because port mappers are created by static {@code identify()} methods, which need to be
+ * instrumented as well.
+ * <p>
+ * When no listeners are registered, recording an operation doesn't allocate or read the clock, so instrumentation can stay in place
+ * permanently.
+ * <p>
+ * This class is thread-safe.
+ * @author Kasra Faghihi
+ */
+public final class PortMapperMetrics {
+    private static final Logger LOG = LoggerFactory.getLogger(PortMapperMetrics.class);
+
+    private static final List<PortMapperMetricsListener> LISTENERS = new CopyOnWriteArrayList<>();
+    private static final OperationRecorder DISABLED_RECORDER = new OperationRecorder();
+
+    private PortMapperMetrics() {
+        // do nothing
+    }
+
+    /**
+     * Add a listener.
+     * @param listener listener to add
+     * @throws NullPointerException if any argument is {@code null}
+     */
+    public static void addListener(PortMapperMetricsListener listener) {
+        Validate.notNull(listener);
+        LISTENERS.add(listener);
+    }
+
+    /**
+     * Remove a listener.
+     * @param listener listener to remove
+     * @throws NullPointerException if any argument is {@code null}
+     */
+    public static void removeListener(PortMapperMetricsListener listener) {
+        Validate.notNull(listener);
+        LISTENERS.remove(listener);
+    }
+
+    /**
+     * Start recording a {@link PortMapper} operation. Requests performed as part of the operation should be passed to the returned
+     * recorder, and {@link OperationRecorder#finish() } must be called once the operation is over (typically in a {@code finally} block).
+     * @param mapperType type of port mapper performing the operation
+     * @param gatewayAddress address of the gateway the operation is being performed against
+     * @param operation operation being performed
+     * @return recorder for the operation
+     * @throws NullPointerException if any argument is {@code null}
+     */
+    public static OperationRecorder startOperation(Class<? extends PortMapper> mapperType, InetAddress gatewayAddress,
+            Operation operation) {
+        Validate.notNull(mapperType);
+        Validate.notNull(gatewayAddress);
+        Validate.notNull(operation);
+
+        if (LISTENERS.isEmpty()) {
+            return DISABLED_RECORDER;
+        }
+        return new OperationRecorder(mapperType, gatewayAddress, operation, System.nanoTime());
+    }
+
+    /**
+     * Record an {@code identify()} call that probed gateways over UDP. One event is reported per gateway probed (the destination address
+     * of each request). A gateway probed from multiple local addresses counts as a success if any of them got a response.
+     * @param mapperType type of port mapper {@code identify()} was called on
+     * @param startNanos value of {@link System#nanoTime() } when the call started
+     * @param reqs probes sent out
+     * @throws NullPointerException if any argument is {@code null} or contains {@code null}
+     */
+    public static void recordUdpIdentify(Class<? extends PortMapper> mapperType, long startNanos, Collection<UdpRequest> reqs) {
+        Validate.notNull(mapperType);
+        Validate.notNull(reqs);
+        Validate.noNullElements(reqs);
+
+        if (LISTENERS.isEmpty()) {
+            return;
+        }
+
+        Map<InetAddress, OperationRecorder> recorders = new LinkedHashMap<>();
+        for (UdpRequest req : reqs) {
+            InetAddress gatewayAddress = req.getDestinationSocketAddress().getAddress();
+            identifyRecorder(recorders, mapperType, gatewayAddress, startNanos)
+                    .trackProbe(req.getResponse(), req.getError(), req.getAttempts());
+        }
+        finishIdentify(recorders, mapperType, startNanos);
+    }
+
+    /**
+     * Record an {@code identify()} call that probed gateways over TCP. One event is reported per gateway probed (the destination address
+     * of each request). A gateway probed multiple times counts as a success if any of them got a response.
+     * @param mapperType type of port mapper {@code identify()} was called on
+     * @param startNanos value of {@link System#nanoTime() } when the call started
+     * @param reqs probes sent out
+     * @throws NullPointerException if any argument is {@code null} or contains {@code null}
+     */
+    public static void recordTcpIdentify(Class<? extends PortMapper> mapperType, long startNanos, Collection<TcpRequest> reqs) {
+        Validate.notNull(mapperType);
+        Validate.notNull(reqs);
+        Validate.noNullElements(reqs);
+
+        if (LISTENERS.isEmpty()) {
+            return;
+        }
+
+        Map<InetAddress, OperationRecorder> recorders = new LinkedHashMap<>();
+        for (TcpRequest req : reqs) {
+            InetAddress gatewayAddress = req.getDestinationSocketAddress().getAddress();
+            identifyRecorder(recorders, mapperType, gatewayAddress, startNanos)
+                    .trackProbe(req.getResponse(), req.getError(), req.getAttempts());
+        }
+        finishIdentify(recorders, mapperType, startNanos);
+    }
+
+    private static OperationRecorder identifyRecorder(Map<InetAddress, OperationRecorder> recorders, Class<? extends PortMapper> mapperType,
+            InetAddress gatewayAddress, long startNanos) {
+        OperationRecorder recorder = recorders.get(gatewayAddress);
+        if (recorder == null) {
+            recorder = new OperationRecorder(mapperType, gatewayAddress, Operation.IDENTIFY, startNanos);
+            recorders.put(gatewayAddress, recorder);
+        }
+        return recorder;
+    }
+
+    private static void finishIdentify(Map<InetAddress, OperationRecorder> recorders, Class<? extends PortMapper> mapperType,
+            long startNanos) {
+        if (recorders.isEmpty()) {
+            // nothing to probe (e.g. UPnP-IGD discovery got no replies), so there's no gateway to attribute this to
+            fire(mapperType, null, Operation.IDENTIFY, Outcome.TIMEOUT, null, 0, System.nanoTime() - startNanos);
+            return;
+        }
+
+        for (OperationRecorder recorder : recorders.values()) {
+            recorder.finish();
+        }
+    }
+
+    private static void fire(Class<? extends PortMapper> mapperType, InetAddress gatewayAddress, Operation operation, Outcome outcome,
+            String errorCode, int retries, long durationNanos) {
+        for (PortMapperMetricsListener listener : LISTENERS) {
+            try {
+                listener.operationCompleted(mapperType, gatewayAddress, operation, outcome, errorCode, retries, durationNanos);
+            } catch (RuntimeException re) {
+                LOG.warn("Listener threw exception", re);
+            }
+        }
+    }
+
+    private static Outcome classifyFailure(RuntimeException error) {
+        if (error == null) {
+            return Outcome.TIMEOUT;
+        } else if (error instanceof RouterErrorException) {
+            return Outcome.ROUTER_ERROR;
+        } else {
+            return Outcome.PARSE_ERROR;
+        }
+    }
+
+    /**
+     * Records a single {@link PortMapper} operation. Create using
+     * {@link PortMapperMetrics#startOperation(java.lang.Class, java.net.InetAddress,
+     * com.offbynull.portmapper.mapper.PortMapperMetricsListener.Operation) }.
+     * <p>
+     * If the operation didn't succeed, its outcome is taken from the last tracked request that didn't get a response: a timeout if
+     * nothing came back, a router error if the router responded with an error code, or a parse error if the router responded with garbage.
+     * If no tracked request failed, the outcome is {@link Outcome#OTHER_ERROR}.
+     * <p>
+     * This class is not thread-safe.
+     */
+    public static final class OperationRecorder {
+        private final boolean enabled;
+        private final Class<? extends PortMapper> mapperType;
+        private final InetAddress gatewayAddress;
+        private final Operation operation;
+        private final long startNanos;
+        private int retries;
+        private boolean succeeded;
+        private Outcome failureOutcome;
+        private String failureErrorCode;
+
+        private OperationRecorder() {
+            this.enabled = false;
+            this.mapperType = null;
+            this.gatewayAddress = null;
+            this.operation = null;
+            this.startNanos = 0L;
+        }
+
+        private OperationRecorder(Class<? extends PortMapper> mapperType, InetAddress gatewayAddress, Operation operation,
+                long startNanos) {
+            this.enabled = true;
+            this.mapperType = mapperType;
+            this.gatewayAddress = gatewayAddress;
+            this.operation = operation;
+            this.startNanos = startNanos;
+        }
+
+        /**
+         * Track a UDP request that was performed as part of this operation.
+         * @param req request
+         * @throws NullPointerException if any argument is {@code null}
+         */
+        public void track(UdpRequest req) {
+            Validate.notNull(req);
+            if (!enabled) {
+                return;
+            }
+            trackRequest(req.getResponse(), req.getError(), req.getAttempts());
+        }
+
+        /**
+         * Track a TCP request that was performed as part of this operation.
+         * @param req request
+         * @throws NullPointerException if any argument is {@code null}
+         */
+        public void track(TcpRequest req) {
+            Validate.notNull(req);
+            if (!enabled) {
+                return;
+            }
+            trackRequest(req.getResponse(), req.getError(), req.getAttempts());
+        }
+
+        /**
+         * Mark this operation as having succeeded.
+         */
+        public void succeeded() {
+            succeeded = true;
+        }
+
+        /**
+         * Finish this operation and report it to listeners.
+         */
+        public void finish() {
+            if (!enabled) {
+                return;
+            }
+
+            long durationNanos = System.nanoTime() - startNanos;
+            if (succeeded) {
+                fire(mapperType, gatewayAddress, operation, Outcome.SUCCESS, null, retries, durationNanos);
+            } else if (failureOutcome != null) {
+                fire(mapperType, gatewayAddress, operation, failureOutcome, failureErrorCode, retries, durationNanos);
+            } else {
+                fire(mapperType, gatewayAddress, operation, Outcome.OTHER_ERROR, null, retries, durationNanos);
+            }
+        }
+
+        private void trackRequest(Object response, RuntimeException error, int attempts) {
+            retries += Math.max(0, attempts - 1);
+            if (response == null) {
+                failureOutcome = classifyFailure(error);
+                failureErrorCode = error instanceof RouterErrorException ? ((RouterErrorException) error).getErrorCode() : null;
+            }
+        }
+
+        // identify probes the same gateway from multiple places -- any response is a success, otherwise keep the most telling failure
+        private void trackProbe(Object response, RuntimeException error, int attempts) {
+            retries = Math.max(retries, attempts - 1);
+            if (response != null) {
+                succeeded = true;
+                return;
+            }
+
+            Outcome outcome = classifyFailure(error);
+            if (failureOutcome == null || outcome.ordinal() > failureOutcome.ordinal()) {
+                failureOutcome = outcome;
+                failureErrorCode = error instanceof RouterErrorException ? ((RouterErrorException) error).getErrorCode() : null;
+            }
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2013-2016, Kasra Faghihi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.offbynull.portmapper.mapper;
+
+import java.net.InetAddress;
+
+/**
+ * Receives instrumentation events from {@link PortMapper}s. Register implementations through
+ * {@link PortMapperMetrics#addListener(com.offbynull.portmapper.mapper.PortMapperMetricsListener) }. Methods are invoked on whichever
+ * thread performed the operation, so implementations must be thread-safe and should return quickly. An exception thrown from a method
+ * is logged and otherwise ignored.
+ * @author Kasra Faghihi
+ */
+public interface PortMapperMetricsListener {
+
+    /**
+     * Called when a port mapper operation has finished, whether it succeeded or not.
+     * @param mapperType type of port mapper that performed the operation (for {@link Operation#IDENTIFY}, the type that
+     * {@code identify()} was invoked on)
+     * @param gatewayAddress address of the gateway the operation was performed against (may be {@code null} if {@code identify()} found
+     * no gateway to talk to)
+     * @param operation operation performed
+     * @param outcome outcome of the operation
+     * @param errorCode error code returned by the router if {@code outcome} is {@link Outcome#ROUTER_ERROR}, otherwise {@code null}
+     * @param retries number of times requests had to be resent before the operation finished
+     * @param durationNanos nanoseconds it took to perform the operation
+     */
+    void operationCompleted(Class<? extends PortMapper> mapperType, InetAddress gatewayAddress, Operation operation, Outcome outcome,
+            String errorCode, int retries, long durationNanos);
+
+    /**
+     * Port mapper operation.
+     */
+    enum Operation {
+        /**
+         * {@code identify()} -- reported once per gateway probed.
+         */
+        IDENTIFY,
+        /**
+         * {@link PortMapper#mapPort(com.offbynull.portmapper.mapper.PortType, int, int, long) }.
+         */
+        MAP,
+        /**
+         * {@link PortMapper#unmapPort(com.offbynull.portmapper.mapper.MappedPort) }.
+         */
+        UNMAP,
+        /**
+         * {@link PortMapper#refreshPort(com.offbynull.portmapper.mapper.MappedPort, long) }.
+         */
+        REFRESH
+    }
+
+    /**
+     * Port mapper operation outcome.
+     */
+    enum Outcome {
+        /**
+         * Operation succeeded.
+         */
+        SUCCESS,
+        /**
+         * Router didn't respond.
+         */
+        TIMEOUT,
+        /**
+         * Router responded, but the response couldn't be parsed.
+         */
+        PARSE_ERROR,
+        /**
+         * Router responded with an error code.
+         */
+        ROUTER_ERROR,
+        /**
+         * Operation failed for some other reason (e.g. a refreshed mapping came back with a different external port, or the thread was
+         * interrupted).
+         */
+        OTHER_ERROR
+    }
+}
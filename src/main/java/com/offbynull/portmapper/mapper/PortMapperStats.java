@@ -0,0 +1,246 @@
+/*
+ * Copyright 2013-2016, Kasra Faghihi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.offbynull.portmapper.mapper;
+
+import com.offbynull.portmapper.gateway.LatencyHistogram;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import org.apache.commons.lang3.Validate;
+
+/**
+ * {@link PortMapperMetricsListener} that aggregates operations per port mapper type, gateway, and operation: a latency histogram, a
+ * count of each outcome, a count of each router error code, and the total number of retries. Register it with
+ * {@link PortMapperMetrics#addListener(com.offbynull.portmapper.mapper.PortMapperMetricsListener) }.
+ * <p>
+ * This class is thread-safe.
+ * @author Kasra Faghihi
+ */
+public final class PortMapperStats implements PortMapperMetricsListener {
+    private final ConcurrentMap<Key, OperationStats> stats = new ConcurrentHashMap<>();
+
+    @Override
+    public void operationCompleted(Class<? extends PortMapper> mapperType, InetAddress gatewayAddress, Operation operation,
+            Outcome outcome, String errorCode, int retries, long durationNanos) {
+        Key key = new Key(mapperType, gatewayAddress, operation);
+        OperationStats operationStats = stats.get(key);
+        if (operationStats == null) {
+            OperationStats newOperationStats = new OperationStats(mapperType, gatewayAddress, operation);
+            operationStats = stats.putIfAbsent(key, newOperationStats);
+            if (operationStats == null) {
+                operationStats = newOperationStats;
+            }
+        }
+        operationStats.record(outcome, errorCode, retries, durationNanos);
+    }
+
+    /**
+     * Get statistics for a specific port mapper type, gateway, and operation.
+     * @param mapperType port mapper type
+     * @param gatewayAddress gateway address (may be {@code null})
+     * @param operation operation
+     * @return statistics, or {@code null} if no such operation has been recorded
+     * @throws NullPointerException if any argument other than {@code gatewayAddress} is {@code null}
+     */
+    public OperationStats getOperationStats(Class<? extends PortMapper> mapperType, InetAddress gatewayAddress, Operation operation) {
+        Validate.notNull(mapperType);
+        Validate.notNull(operation);
+        return stats.get(new Key(mapperType, gatewayAddress, operation));
+    }
+
+    /**
+     * Get statistics for every port mapper type, gateway, and operation recorded so far.
+     * @return statistics
+     */
+    public List<OperationStats> getOperationStats() {
+        return new ArrayList<>(stats.values());
+    }
+
+    /**
+     * Statistics for a single port mapper type, gateway, and operation. Values are live -- they keep changing as more operations get
+     * recorded.
+     */
+    public static final class OperationStats {
+        private final Class<? extends PortMapper> mapperType;
+        private final InetAddress gatewayAddress;
+        private final Operation operation;
+        private final LatencyHistogram latency;
+        private final AtomicLongArray outcomeCounts;
+        private final ConcurrentMap<String, AtomicLong> errorCodeCounts;
+        private final AtomicLong retries;
+
+        private OperationStats(Class<? extends PortMapper> mapperType, InetAddress gatewayAddress, Operation operation) {
+            this.mapperType = mapperType;
+            this.gatewayAddress = gatewayAddress;
+            this.operation = operation;
+            this.latency = new LatencyHistogram();
+            this.outcomeCounts = new AtomicLongArray(Outcome.values().length);
+            this.errorCodeCounts = new ConcurrentHashMap<>();
+            this.retries = new AtomicLong();
+        }
+
+        private void record(Outcome outcome, String errorCode, int retries, long durationNanos) {
+            latency.record(Math.max(0L, durationNanos));
+            outcomeCounts.incrementAndGet(outcome.ordinal());
+            this.retries.addAndGet(retries);
+            if (errorCode != null) {
+                AtomicLong count = errorCodeCounts.get(errorCode);
+                if (count == null) {
+                    AtomicLong newCount = new AtomicLong();
+                    count = errorCodeCounts.putIfAbsent(errorCode, newCount);
+                    if (count == null) {
+                        count = newCount;
+                    }
+                }
+                count.incrementAndGet();
+            }
+        }
+
+        /**
+         * Get port mapper type.
+         * @return port mapper type
+         */
+        public Class<? extends PortMapper> getMapperType() {
+            return mapperType;
+        }
+
+        /**
+         * Get gateway address.
+         * @return gateway address (may be {@code null}, see
+         * {@link PortMapperMetricsListener#operationCompleted(java.lang.Class, java.net.InetAddress,
+         * com.offbynull.portmapper.mapper.PortMapperMetricsListener.Operation,
+         * com.offbynull.portmapper.mapper.PortMapperMetricsListener.Outcome, java.lang.String, int, long) })
+         */
+        public InetAddress getGatewayAddress() {
+            return gatewayAddress;
+        }
+
+        /**
+         * Get operation.
+         * @return operation
+         */
+        public Operation getOperation() {
+            return operation;
+        }
+
+        /**
+         * Get the number of operations that ended with some outcome.
+         * @param outcome outcome
+         * @return number of operations that ended with {@code outcome}
+         * @throws NullPointerException if any argument is {@code null}
+         */
+        public long getCount(Outcome outcome) {
+            Validate.notNull(outcome);
+            return outcomeCounts.get(outcome.ordinal());
+        }
+
+        /**
+         * Get the total number of operations.
+         * @return total number of operations
+         */
+        public long getTotalCount() {
+            long total = 0L;
+            for (int i = 0; i < outcomeCounts.length(); i++) {
+                total += outcomeCounts.get(i);
+            }
+            return total;
+        }
+
+        /**
+         * Get the number of times each router error code was returned.
+         * @return error code to count
+         */
+        public Map<String, Long> getErrorCodeCounts() {
+            Map<String, Long> ret = new HashMap<>();
+            for (Map.Entry<String, AtomicLong> e : errorCodeCounts.entrySet()) {
+                ret.put(e.getKey(), e.getValue().get());
+            }
+            return ret;
+        }
+
+        /**
+         * Get the total number of retries across all operations.
+         * @return total number of retries
+         */
+        public long getRetries() {
+            return retries.get();
+        }
+
+        /**
+         * Get a snapshot of operation durations, in nanoseconds.
+         * @return latency snapshot
+         */
+        public LatencyHistogram.Snapshot getLatency() {
+            return latency.snapshot();
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append("OperationStats{mapperType=").append(mapperType.getSimpleName())
+                    .append(", gatewayAddress=").append(gatewayAddress)
+                    .append(", operation=").append(operation);
+            for (Outcome outcome : Outcome.values()) {
+                sb.append(", ").append(outcome).append('=').append(getCount(outcome));
+            }
+            sb.append(", errorCodeCounts=").append(getErrorCodeCounts())
+                    .append(", retries=").append(getRetries())
+                    .append(", latency=").append(getLatency())
+                    .append('}');
+            return sb.toString();
+        }
+    }
+
+    private static final class Key {
+        private final Class<? extends PortMapper> mapperType;
+        private final InetAddress gatewayAddress;
+        private final Operation operation;
+
+        private Key(Class<? extends PortMapper> mapperType, InetAddress gatewayAddress, Operation operation) {
+            this.mapperType = mapperType;
+            this.gatewayAddress = gatewayAddress;
+            this.operation = operation;
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = 7;
+            hash = 29 * hash + mapperType.hashCode();
+            hash = 29 * hash + Objects.hashCode(gatewayAddress);
+            hash = 29 * hash + operation.hashCode();
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (obj == null || getClass() != obj.getClass()) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return mapperType == other.mapperType && Objects.equals(gatewayAddress, other.gatewayAddress) && operation == other.operation;
+        }
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2013-2016, Kasra Faghihi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.offbynull.portmapper.mapper;
+
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Thrown when a router responded to a request, but the response was an error (e.g. a NAT-PMP/PCP result code other than success, or a
+ * SOAP fault from a UPnP-IGD device).
+ * <p>
+ * This is an {@link IllegalArgumentException} so that response transformers can throw it in place of the exception they'd normally
+ * throw for a response they can't use -- the response is rejected the same way, but the reason is kept for
+ * {@link PortMapperMetricsListener}s.
+ * @author Kasra Faghihi
+ */
+public final class RouterErrorException extends IllegalArgumentException {
+    private static final long serialVersionUID = 1L;
+
+    private final String errorCode;
+
+    /**
+     * Constructs a {@link RouterErrorException} object.
+     * @param errorCode error code returned by the router (e.g. {@code "NOT_AUTHORIZED"} or {@code "718"})
+     * @throws NullPointerException if any argument is {@code null}
+     */
+    public RouterErrorException(String errorCode) {
+        super("Router responded with error " + errorCode);
+        Validate.notNull(errorCode);
+        this.errorCode = errorCode;
+    }
+
+    /**
+     * Get the error code returned by the router.
+     * @return error code
+     */
+    public String getErrorCode() {
+        return errorCode;
+    }
+}
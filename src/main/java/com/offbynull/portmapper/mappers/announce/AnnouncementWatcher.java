@@ -0,0 +1,273 @@
+/*
+ * Copyright 2013-2016, Kasra Faghihi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.offbynull.portmapper.mappers.announce;
+
+import com.offbynull.portmapper.gateway.BasicBus;
+import com.offbynull.portmapper.gateway.Bus;
+import com.offbynull.portmapper.gateways.network.internalmessages.CloseNetworkRequest;
+import com.offbynull.portmapper.gateways.network.internalmessages.CreateMulticastUdpNetworkRequest;
+import com.offbynull.portmapper.gateways.network.internalmessages.CreateUdpNetworkResponse;
+import com.offbynull.portmapper.gateways.network.internalmessages.GetNextIdNetworkRequest;
+import com.offbynull.portmapper.gateways.network.internalmessages.GetNextIdNetworkResponse;
+import com.offbynull.portmapper.gateways.network.internalmessages.ReadUdpNetworkNotification;
+import com.offbynull.portmapper.mapper.EpochTracker;
+import com.offbynull.portmapper.mappers.natpmp.NatPmpPortMapper;
+import com.offbynull.portmapper.mappers.natpmp.externalmessages.ExternalAddressNatPmpResponse;
+import com.offbynull.portmapper.mappers.pcp.PcpPortMapper;
+import com.offbynull.portmapper.mappers.pcp.externalmessages.AnnouncePcpResponse;
+import java.io.Closeable;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Listens for unsolicited announcements sent by NAT-PMP and PCP gateways to the all-hosts multicast group ({@code 224.0.0.1:5350} and
+ * {@code [ff02::1]:5350}), and feeds them in to the {@link EpochTracker}s of the port mappers being watched.
+ * <p>
+ * NAT-PMP gateways multicast an external address response whenever they reboot or their external address changes (RFC 6886 section 3.2.1).
+ * PCP gateways multicast an ANNOUNCE response whenever they reboot or lose their state (RFC 6887 section 14.1.3). In both cases, the
+ * {@link EpochTracker} of the matching port mapper will notify its listeners that mappings need to be re-created -- this means mappings
+ * don't have to be refreshed aggressively just to catch a gateway reboot.
+ * @author Kasra Faghihi
+ */
+public final class AnnouncementWatcher implements Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(AnnouncementWatcher.class);
+
+    private static final int PORT = 5350;
+    private static final int NAT_PMP_VERSION = 0;
+    private static final int PCP_VERSION = 2;
+    private static final InetSocketAddress IPV4_GROUP_ADDRESS;
+    private static final InetSocketAddress IPV6_GROUP_ADDRESS;
+    static {
+        try {
+            IPV4_GROUP_ADDRESS = new InetSocketAddress(InetAddress.getByName("224.0.0.1"), PORT);
+            IPV6_GROUP_ADDRESS = new InetSocketAddress(InetAddress.getByName("ff02::1"), PORT);
+        } catch (UnknownHostException uhe) {
+            throw new IllegalStateException(uhe); // should never happen
+        }
+    }
+
+    private static final Object STOP_MARKER = new Object();
+
+    private final Bus networkBus;
+    private final LinkedBlockingQueue<Object> queue;
+    private final List<Integer> socketIds;
+    private final Map<InetAddress, Set<EpochTracker>> natPmpTrackers;
+    private final Map<InetAddress, Set<EpochTracker>> pcpTrackers;
+    private final Thread thread;
+
+    /**
+     * Creates a {@link AnnouncementWatcher} object. A socket that listens on the all-hosts multicast group is opened for each local
+     * address (use {@link NatPmpPortMapper#getSourceAddress() } / {@link PcpPortMapper#getSourceAddress() } of the port mappers you want
+     * to watch). Local addresses that can't listen on the multicast group are skipped.
+     * @param networkBus network bus
+     * @param localAddresses local addresses to listen for announcements on
+     * @return new {@link AnnouncementWatcher}
+     * @throws NullPointerException if any argument is {@code null} or contains {@code null}
+     * @throws InterruptedException if interrupted
+     */
+    public static AnnouncementWatcher create(Bus networkBus, Collection<InetAddress> localAddresses) throws InterruptedException {
+        Validate.notNull(networkBus);
+        Validate.notNull(localAddresses);
+        Validate.noNullElements(localAddresses);
+
+        AnnouncementWatcher watcher = new AnnouncementWatcher(networkBus);
+        Bus selfBus = new BasicBus(watcher.queue);
+
+        for (InetAddress localAddress : new LinkedHashSet<>(localAddresses)) {
+            InetSocketAddress groupAddress = localAddress instanceof Inet4Address ? IPV4_GROUP_ADDRESS : IPV6_GROUP_ADDRESS;
+
+            networkBus.send(new GetNextIdNetworkRequest(selfBus));
+            Object idResp = watcher.queue.poll(3000L, TimeUnit.MILLISECONDS);
+            Validate.validState(idResp instanceof GetNextIdNetworkResponse, "Timed out getting socket ID");
+            int id = ((GetNextIdNetworkResponse) idResp).getId();
+
+            LOG.debug("Creating multicast socket {} for {} on {}", id, groupAddress, localAddress);
+            networkBus.send(new CreateMulticastUdpNetworkRequest(id, selfBus, localAddress, groupAddress));
+            Object createResp = watcher.queue.poll(3000L, TimeUnit.MILLISECONDS);
+            if (createResp instanceof CreateUdpNetworkResponse) {
+                watcher.socketIds.add(id);
+            } else {
+                LOG.debug("Unable to listen for announcements on {}: {}", localAddress, createResp);
+                networkBus.send(new CloseNetworkRequest(id)); // close in case it gets created after timeout
+            }
+        }
+
+        watcher.thread.start();
+        return watcher;
+    }
+
+    private AnnouncementWatcher(Bus networkBus) {
+        this.networkBus = networkBus;
+        this.queue = new LinkedBlockingQueue<>();
+        this.socketIds = new ArrayList<>();
+        this.natPmpTrackers = new HashMap<>();
+        this.pcpTrackers = new HashMap<>();
+        this.thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                AnnouncementWatcher.this.run();
+            }
+        });
+        this.thread.setDaemon(true);
+        this.thread.setName("Announcement Watcher");
+    }
+
+    /**
+     * Start feeding announcements from a NAT-PMP gateway in to a port mapper's {@link EpochTracker}.
+     * @param portMapper port mapper to watch
+     * @throws NullPointerException if any argument is {@code null}
+     */
+    public void watch(NatPmpPortMapper portMapper) {
+        Validate.notNull(portMapper);
+        add(natPmpTrackers, portMapper.getGatewayAddress(), portMapper.getEpochTracker());
+    }
+
+    /**
+     * Start feeding announcements from a PCP gateway in to a port mapper's {@link EpochTracker}.
+     * @param portMapper port mapper to watch
+     * @throws NullPointerException if any argument is {@code null}
+     */
+    public void watch(PcpPortMapper portMapper) {
+        Validate.notNull(portMapper);
+        add(pcpTrackers, portMapper.getGatewayAddress(), portMapper.getEpochTracker());
+    }
+
+    /**
+     * Stop feeding announcements from a NAT-PMP gateway in to a port mapper's {@link EpochTracker}.
+     * @param portMapper port mapper to stop watching
+     * @throws NullPointerException if any argument is {@code null}
+     */
+    public void unwatch(NatPmpPortMapper portMapper) {
+        Validate.notNull(portMapper);
+        remove(natPmpTrackers, portMapper.getGatewayAddress(), portMapper.getEpochTracker());
+    }
+
+    /**
+     * Stop feeding announcements from a PCP gateway in to a port mapper's {@link EpochTracker}.
+     * @param portMapper port mapper to stop watching
+     * @throws NullPointerException if any argument is {@code null}
+     */
+    public void unwatch(PcpPortMapper portMapper) {
+        Validate.notNull(portMapper);
+        remove(pcpTrackers, portMapper.getGatewayAddress(), portMapper.getEpochTracker());
+    }
+
+    /**
+     * Stop listening for announcements and close all sockets.
+     */
+    @Override
+    public void close() {
+        for (int id : socketIds) {
+            networkBus.send(new CloseNetworkRequest(id));
+        }
+        queue.add(STOP_MARKER);
+    }
+
+    private synchronized void add(Map<InetAddress, Set<EpochTracker>> trackers, InetAddress gatewayAddress, EpochTracker tracker) {
+        Set<EpochTracker> set = trackers.get(gatewayAddress);
+        if (set == null) {
+            set = new HashSet<>();
+            trackers.put(gatewayAddress, set);
+        }
+        set.add(tracker);
+    }
+
+    private synchronized void remove(Map<InetAddress, Set<EpochTracker>> trackers, InetAddress gatewayAddress, EpochTracker tracker) {
+        Set<EpochTracker> set = trackers.get(gatewayAddress);
+        if (set == null) {
+            return;
+        }
+        set.remove(tracker);
+        if (set.isEmpty()) {
+            trackers.remove(gatewayAddress);
+        }
+    }
+
+    private synchronized List<EpochTracker> get(Map<InetAddress, Set<EpochTracker>> trackers, InetAddress gatewayAddress) {
+        Set<EpochTracker> set = trackers.get(gatewayAddress);
+        return set == null ? new ArrayList<EpochTracker>() : new ArrayList<>(set);
+    }
+
+    private void run() {
+        LOG.debug("Starting announcement watcher");
+        try {
+            while (true) {
+                Object msg = queue.take();
+                if (msg == STOP_MARKER) {
+                    break;
+                } else if (!(msg instanceof ReadUdpNetworkNotification)) {
+                    LOG.debug("Ignoring {}", msg);
+                    continue;
+                }
+
+                ReadUdpNetworkNotification readNotification = (ReadUdpNetworkNotification) msg;
+                InetAddress gatewayAddress = readNotification.getRemoteAddress().getAddress();
+                byte[] data = readNotification.getData();
+                try {
+                    handleAnnouncement(gatewayAddress, data);
+                } catch (RuntimeException re) {
+                    LOG.debug("Unable to handle announcement from {}: {}", gatewayAddress, data, re);
+                }
+            }
+        } catch (InterruptedException ie) {
+            LOG.debug("Announcement watcher interrupted");
+        }
+        LOG.debug("Stopped announcement watcher");
+    }
+
+    private void handleAnnouncement(InetAddress gatewayAddress, byte[] data) {
+        Validate.isTrue(data.length > 0);
+
+        int version = data[0] & 0xFF;
+        switch (version) {
+            case NAT_PMP_VERSION: {
+                ExternalAddressNatPmpResponse resp = new ExternalAddressNatPmpResponse(data);
+                LOG.debug("NAT-PMP announcement from {}: {}", gatewayAddress, resp);
+                for (EpochTracker tracker : get(natPmpTrackers, gatewayAddress)) {
+                    tracker.updateEpoch(resp.getSecondsSinceStartOfEpoch());
+                    tracker.updateExternalAddress(resp.getAddress());
+                }
+                break;
+            }
+            case PCP_VERSION: {
+                AnnouncePcpResponse resp = new AnnouncePcpResponse(data);
+                LOG.debug("PCP announcement from {}: {}", gatewayAddress, resp);
+                for (EpochTracker tracker : get(pcpTrackers, gatewayAddress)) {
+                    tracker.updateEpoch(resp.getEpochTime());
+                }
+                break;
+            }
+            default:
+                LOG.debug("Ignoring announcement with unknown version {} from {}", version, gatewayAddress);
+                break;
+        }
+    }
+}
@@ -17,36 +17,42 @@ package com.offbynull.portmapper.mappers.natpmp;
 
 import com.offbynull.portmapper.mapper.PortMapper;
 import com.offbynull.portmapper.gateway.Bus;
-import com.offbynull.portmapper.helpers.TextUtils;
+import com.offbynull.portmapper.mapper.EpochListener;
+import com.offbynull.portmapper.mapper.EpochTracker;
+import com.offbynull.portmapper.mapper.EpochTracker.ValidationRule;
 import com.offbynull.portmapper.mapper.MappedPort;
-import com.offbynull.portmapper.mapper.MapperIoUtils;
 import com.offbynull.portmapper.mapper.MapperIoUtils.BytesToResponseTransformer;
-import static com.offbynull.portmapper.mapper.MapperIoUtils.PRESET_IPV4_GATEWAY_ADDRESSES;
 import com.offbynull.portmapper.mapper.MapperIoUtils.RequestToBytesTransformer;
 import com.offbynull.portmapper.mapper.MapperIoUtils.UdpRequest;
 import static com.offbynull.portmapper.mapper.MapperIoUtils.calculateExponentialBackoffTimes;
-import static com.offbynull.portmapper.mapper.MapperIoUtils.convertToAddressSet;
+import static com.offbynull.portmapper.mapper.MapperIoUtils.findPotentialGatewayAddresses;
 import static com.offbynull.portmapper.mapper.MapperIoUtils.getLocalIpAddresses;
 import static com.offbynull.portmapper.mapper.MapperIoUtils.performUdpRequests;
-import static com.offbynull.portmapper.mapper.MapperIoUtils.runProcesses;
+import com.offbynull.portmapper.mapper.PortMapperMetrics;
+import com.offbynull.portmapper.mapper.PortMapperMetrics.OperationRecorder;
+import com.offbynull.portmapper.mapper.PortMapperMetricsListener.Operation;
 import com.offbynull.portmapper.mapper.PortType;
+import com.offbynull.portmapper.mapper.RouterErrorException;
 import static com.offbynull.portmapper.mapper.PortType.TCP;
 import static com.offbynull.portmapper.mapper.PortType.UDP;
 import com.offbynull.portmapper.mappers.natpmp.externalmessages.ExternalAddressNatPmpRequest;
 import com.offbynull.portmapper.mappers.natpmp.externalmessages.ExternalAddressNatPmpResponse;
+import com.offbynull.portmapper.mappers.natpmp.externalmessages.ExternalAddressNatPmpResponseView;
 import com.offbynull.portmapper.mappers.natpmp.externalmessages.MappingNatPmpRequest;
 import com.offbynull.portmapper.mappers.natpmp.externalmessages.MappingNatPmpResponse;
+import com.offbynull.portmapper.mappers.natpmp.externalmessages.NatPmpRequest;
+import com.offbynull.portmapper.mappers.natpmp.externalmessages.NatPmpResponseView;
 import com.offbynull.portmapper.mappers.natpmp.externalmessages.TcpMappingNatPmpRequest;
 import com.offbynull.portmapper.mappers.natpmp.externalmessages.TcpMappingNatPmpResponse;
+import com.offbynull.portmapper.mappers.natpmp.externalmessages.TcpMappingNatPmpResponseView;
 import com.offbynull.portmapper.mappers.natpmp.externalmessages.UdpMappingNatPmpRequest;
 import com.offbynull.portmapper.mappers.natpmp.externalmessages.UdpMappingNatPmpResponse;
+import com.offbynull.portmapper.mappers.natpmp.externalmessages.UdpMappingNatPmpResponseView;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashSet;
-import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Objects;
@@ -64,9 +70,65 @@ public final class NatPmpPortMapper implements PortMapper {
     private static final Logger LOG = LoggerFactory.getLogger(NatPmpPortMapper.class);
     
     private static final int PORT = 5351;
+
+    // Replies are screened through reused views first, so malformed packets and router errors are rejected without being decoded in to
+    // response objects
+    private static final ThreadLocal<ExternalAddressNatPmpResponseView> EXTERNAL_ADDRESS_RESPONSE_VIEW
+            = new ThreadLocal<ExternalAddressNatPmpResponseView>() {
+        @Override
+        protected ExternalAddressNatPmpResponseView initialValue() {
+            return new ExternalAddressNatPmpResponseView();
+        }
+    };
+    private static final ThreadLocal<TcpMappingNatPmpResponseView> TCP_MAPPING_RESPONSE_VIEW
+            = new ThreadLocal<TcpMappingNatPmpResponseView>() {
+        @Override
+        protected TcpMappingNatPmpResponseView initialValue() {
+            return new TcpMappingNatPmpResponseView();
+        }
+    };
+    private static final ThreadLocal<UdpMappingNatPmpResponseView> UDP_MAPPING_RESPONSE_VIEW
+            = new ThreadLocal<UdpMappingNatPmpResponseView>() {
+        @Override
+        protected UdpMappingNatPmpResponseView initialValue() {
+            return new UdpMappingNatPmpResponseView();
+        }
+    };
+
+    // Transformers hold no state, so the same instances are shared by every request rather than being created per call
+    private static final RequestToBytesTransformer REQUEST_TRANSFORMER = new RequestToBytesTransformer() {
+        @Override
+        public byte[] create(Object request) {
+            return ((NatPmpRequest) request).dump();
+        }
+    };
+    private static final BytesToResponseTransformer EXTERNAL_ADDRESS_RESPONSE_TRANSFORMER = new BytesToResponseTransformer() {
+        @Override
+        public Object create(byte[] buffer) {
+            checkSuccess(EXTERNAL_ADDRESS_RESPONSE_VIEW.get().wrap(ByteBuffer.wrap(buffer)));
+            return new ExternalAddressNatPmpResponse(buffer);
+        }
+    };
+    private static final BytesToResponseTransformer TCP_MAPPING_RESPONSE_TRANSFORMER = new BytesToResponseTransformer() {
+        @Override
+        public Object create(byte[] buffer) {
+            checkSuccess(TCP_MAPPING_RESPONSE_VIEW.get().wrap(ByteBuffer.wrap(buffer)));
+            return new TcpMappingNatPmpResponse(buffer);
+        }
+    };
+    private static final BytesToResponseTransformer UDP_MAPPING_RESPONSE_TRANSFORMER = new BytesToResponseTransformer() {
+        @Override
+        public Object create(byte[] buffer) {
+            checkSuccess(UDP_MAPPING_RESPONSE_VIEW.get().wrap(ByteBuffer.wrap(buffer)));
+            return new UdpMappingNatPmpResponse(buffer);
+        }
+    };
+
     private Bus networkBus;
     private InetAddress internalAddress;
     private InetAddress gatewayAddress;
+    private EpochTracker epochTracker;
+    private InetAddress cachedExternalAddress;
 
     /**
      * Identify NAT-PMP devices on all interfaces.
@@ -75,6 +137,9 @@ public final class NatPmpPortMapper implements PortMapper {
      * the addresses of gateways. This may is unlikely to change in the future as this is a deprecated protocol. However, once
      * <a href="https://tools.ietf.org/html/draft-ietf-pcp-anycast-08">this RFC draft</a> is implemented, PCP devices that implement that
      * RFC + also support NAT-PMP may be discoverable via anycast/broadcast.
+     * <p>
+     * If PCP devices are also being looked for, use {@link com.offbynull.portmapper.NatPmpPcpIdentifier} instead -- it gathers
+     * potential gateways and probes them once for both protocols.
      * @param networkBus network bus
      * @param processBus process bus
      * @param additionalIps additional IPs to check
@@ -92,47 +157,7 @@ public final class NatPmpPortMapper implements PortMapper {
         Validate.notNull(additionalIps);
         Validate.noNullElements(additionalIps);
 
-        // Perform commands to try to grab gateway addresses
-        List<MapperIoUtils.ProcessRequest> processReqs = new ArrayList<>();
-        processReqs.add(new MapperIoUtils.ProcessRequest("netstat", "-rn")); //linux mac and windows
-        processReqs.add(new MapperIoUtils.ProcessRequest("route", "-n")); // linux
-        processReqs.add(new MapperIoUtils.ProcessRequest("route", "-n", "get", "default")); // mac
-        processReqs.add(new MapperIoUtils.ProcessRequest("ipconfig")); // windows
-        processReqs.add(new MapperIoUtils.ProcessRequest("ifconfig")); // linux (and mac?)
-        runProcesses(processBus, processReqs, 10000L);
-        
-        
-        
-        // Aggregate results
-        Set<InetAddress> potentialGatewayAddresses = new HashSet<>();
-        potentialGatewayAddresses.addAll(PRESET_IPV4_GATEWAY_ADDRESSES);
-        potentialGatewayAddresses.addAll(Arrays.asList(additionalIps));
-        
-        for (MapperIoUtils.ProcessRequest req : processReqs) {
-            List<String> netstatOutputIpv4Addresses = TextUtils.findAllIpv4Addresses(req.getOutput());
-            List<String> netstatOutputIpv6Addresses = TextUtils.findAllIpv6Addresses(req.getOutput());
-            List<String> netstatErrorIpv4Addresses = TextUtils.findAllIpv4Addresses(req.getError());
-            List<String> netstatErrorIpv6Addresses = TextUtils.findAllIpv6Addresses(req.getError());
-
-            potentialGatewayAddresses.addAll(convertToAddressSet(netstatOutputIpv4Addresses));
-            potentialGatewayAddresses.addAll(convertToAddressSet(netstatOutputIpv6Addresses));
-            potentialGatewayAddresses.addAll(convertToAddressSet(netstatErrorIpv4Addresses));
-            potentialGatewayAddresses.addAll(convertToAddressSet(netstatErrorIpv6Addresses));
-        }
-        
-        
-        
-        // Filter out non-valid addresses
-        //   Remove any local address (e.g. 0.0.0.0)
-        //   Remove loopback address (e.g. 127.0.0.1)
-        //   Remove multicast address (e.g. 224.0.0.1)
-        Iterator<InetAddress> pgaIt = potentialGatewayAddresses.iterator();
-        while (pgaIt.hasNext()) {
-            InetAddress address = pgaIt.next();
-            if (address.isAnyLocalAddress() || address.isLoopbackAddress() || address.isMulticastAddress()) {
-                pgaIt.remove();
-            }
-        }
+        Set<InetAddress> potentialGatewayAddresses = findPotentialGatewayAddresses(processBus, additionalIps);
         
         
         
@@ -159,8 +184,10 @@ public final class NatPmpPortMapper implements PortMapper {
             }
         }
         
+        long probeStartTime = System.nanoTime();
         performUdpRequests(networkBus, udpReqs, false, 1000L, 1000L, 1000L, 1000L, 1000L); // don't do standard natpmp/pcp retries -- just
                                                                                            // attempting to discover
+        PortMapperMetrics.recordUdpIdentify(NatPmpPortMapper.class, probeStartTime, udpReqs);
         
         
         // Create mappers and returns
@@ -171,6 +198,7 @@ public final class NatPmpPortMapper implements PortMapper {
                         networkBus,
                         udpReq.getSourceAddress(),
                         udpReq.getDestinationSocketAddress().getAddress());
+                portMapper.handleExternalAddressResponse((ExternalAddressNatPmpResponse) udpReq.getResponse()); // seed epoch/address
                 mappers.add(portMapper);
             }
         }
@@ -178,6 +206,45 @@ public final class NatPmpPortMapper implements PortMapper {
         return mappers;
     }
 
+    /**
+     * Revalidate NAT-PMP devices that were previously identified (e.g. loaded from
+     * {@link com.offbynull.portmapper.PortMapperCache}). Rather than going through full discovery, each device is sent a single external
+     * address request from the source address it was found on.
+     * @param networkBus network bus
+     * @param mappers mappers to revalidate
+     * @return mappers from {@code mappers} whose devices responded (in the same order)
+     * @throws NullPointerException if any argument is {@code null} or contains {@code null}
+     * @throws InterruptedException if interrupted
+     */
+    public static List<NatPmpPortMapper> revalidate(Bus networkBus, List<NatPmpPortMapper> mappers) throws InterruptedException {
+        LOG.info("Attempting to revalidate devices");
+
+        Validate.notNull(networkBus);
+        Validate.notNull(mappers);
+        Validate.noNullElements(mappers);
+        
+        List<UdpRequest> udpReqs = new ArrayList<>(mappers.size());
+        for (NatPmpPortMapper mapper : mappers) {
+            udpReqs.add(createGetExternalIpUdpRequest(mapper.internalAddress, mapper.gatewayAddress));
+        }
+
+        long probeStartTime = System.nanoTime();
+        performUdpRequests(networkBus, udpReqs, false, 500L, 1000L); // only resent if the first one goes unanswered
+        PortMapperMetrics.recordUdpIdentify(NatPmpPortMapper.class, probeStartTime, udpReqs);
+
+        List<NatPmpPortMapper> ret = new ArrayList<>(mappers.size());
+        for (int i = 0; i < mappers.size(); i++) {
+            UdpRequest udpReq = udpReqs.get(i);
+            if (udpReq.getResponse() != null) {
+                NatPmpPortMapper mapper = mappers.get(i);
+                mapper.handleExternalAddressResponse((ExternalAddressNatPmpResponse) udpReq.getResponse()); // seed epoch/address
+                ret.add(mapper);
+            }
+        }
+        
+        return ret;
+    }
+
     /**
      * Constructs a {@link NatPmpPortMapper} object.
      * @param networkBus bus to network component
@@ -193,6 +260,20 @@ public final class NatPmpPortMapper implements PortMapper {
         this.networkBus = networkBus;
         this.internalAddress = internalAddress;
         this.gatewayAddress = gatewayAddress;
+        this.epochTracker = new EpochTracker(gatewayAddress, ValidationRule.NAT_PMP);
+        this.epochTracker.addListener(new EpochListener() {
+            // Keep the cached external address in sync with whatever feeds the tracker (e.g. an AnnouncementWatcher), otherwise a remap
+            // triggered by an announcement would go out with the old external address
+            @Override
+            public void gatewayReset(EpochTracker epochTracker) {
+                setCachedExternalAddress(null);
+            }
+
+            @Override
+            public void externalAddressChanged(EpochTracker epochTracker, InetAddress oldExternalAddress, InetAddress newExternalAddress) {
+                setCachedExternalAddress(newExternalAddress);
+            }
+        });
     }
 
 
@@ -204,22 +285,60 @@ public final class NatPmpPortMapper implements PortMapper {
         Validate.inclusiveBetween(1, 65535, internalPort);
         Validate.inclusiveBetween(1L, Long.MAX_VALUE, lifetime);
 
-        UdpRequest externalIpReq = createGetExternalIpUdpRequest(internalAddress, gatewayAddress);
-        performUdpRequests(networkBus, Collections.singleton(externalIpReq), false, calculateExponentialBackoffTimes(4));
-        if (externalIpReq.getResponse() == null) {
-            throw new IllegalStateException("No response/invalid response to getting external IP");
+        OperationRecorder recorder = PortMapperMetrics.startOperation(NatPmpPortMapper.class, gatewayAddress, Operation.MAP);
+        try {
+            MappedPort mappedPort = mapPort(recorder, portType, internalPort, externalPort, lifetime);
+            recorder.succeeded();
+            return mappedPort;
+        } finally {
+            recorder.finish();
         }
-        InetAddress externalAddress = ((ExternalAddressNatPmpResponse) externalIpReq.getResponse()).getAddress();
-        
-        
+    }
+
+    private MappedPort mapPort(OperationRecorder recorder, PortType portType, int internalPort, int externalPort, long lifetime)
+            throws InterruptedException {
+        // If the external address isn't cached, pipeline the request for it along with the mapping request -- both go out on the same
+        // socket and the responses are told apart by their opcode
+        InetAddress externalAddress = getCachedExternalAddress();
         
+        List<UdpRequest> reqs = new ArrayList<>(2);
         UdpRequest mapIpReq = createMappingUdpRequest(internalAddress, gatewayAddress, portType, internalPort, externalPort, lifetime);
-        performUdpRequests(networkBus, Collections.singleton(mapIpReq), false, calculateExponentialBackoffTimes(4));
+        reqs.add(mapIpReq);
+        UdpRequest externalIpReq = null;
+        if (externalAddress == null) {
+            externalIpReq = createGetExternalIpUdpRequest(internalAddress, gatewayAddress);
+            reqs.add(externalIpReq);
+        }
+        
+        performUdpRequests(networkBus, reqs, false, calculateExponentialBackoffTimes(4));
+        for (UdpRequest req : reqs) {
+            recorder.track(req);
+        }
         if (mapIpReq.getResponse() == null) {
             throw new IllegalStateException("No response/invalid response to mapping port");
         }
         MappingNatPmpResponse mappingResp = ((MappingNatPmpResponse) mapIpReq.getResponse());
         
+        if (externalIpReq != null) {
+            if (externalIpReq.getResponse() == null) {
+                throw new IllegalStateException("No response/invalid response to getting external IP");
+            }
+            externalAddress = handleExternalAddressResponse((ExternalAddressNatPmpResponse) externalIpReq.getResponse());
+        }
+        
+        boolean epochValid = epochTracker.updateEpoch(mappingResp.getSecondsSinceStartOfEpoch());
+        if (externalIpReq == null && !epochValid) {
+            // Gateway lost its state (e.g. rebooted), so the cached external address may no longer be valid
+            LOG.debug("Epoch reset detected, refreshing external address");
+            externalIpReq = createGetExternalIpUdpRequest(internalAddress, gatewayAddress);
+            performUdpRequests(networkBus, Collections.singleton(externalIpReq), false, calculateExponentialBackoffTimes(4));
+            recorder.track(externalIpReq);
+            if (externalIpReq.getResponse() == null) {
+                throw new IllegalStateException("No response/invalid response to getting external IP");
+            }
+            externalAddress = handleExternalAddressResponse((ExternalAddressNatPmpResponse) externalIpReq.getResponse());
+        }
+        
         
         
         MappedPort mappedPort = new NatPmpMappedPort(mappingResp.getInternalPort(), mappingResp.getExternalPort(), externalAddress,
@@ -239,10 +358,18 @@ public final class NatPmpPortMapper implements PortMapper {
         PortType portType = mappedPort.getPortType();
         int internalPort = mappedPort.getInternalPort();
         
-        UdpRequest mapIpReq = createMappingUdpRequest(internalAddress, gatewayAddress, portType, internalPort, 0, 0L);
-        performUdpRequests(networkBus, Collections.singleton(mapIpReq), false, calculateExponentialBackoffTimes(4));
-        if (mapIpReq.getResponse() == null) {
-            throw new IllegalStateException("No response/invalid response to mapping port");
+        OperationRecorder recorder = PortMapperMetrics.startOperation(NatPmpPortMapper.class, gatewayAddress, Operation.UNMAP);
+        try {
+            UdpRequest mapIpReq = createMappingUdpRequest(internalAddress, gatewayAddress, portType, internalPort, 0, 0L);
+            performUdpRequests(networkBus, Collections.singleton(mapIpReq), false, calculateExponentialBackoffTimes(4));
+            recorder.track(mapIpReq);
+            if (mapIpReq.getResponse() == null) {
+                throw new IllegalStateException("No response/invalid response to mapping port");
+            }
+            epochTracker.updateEpoch(((MappingNatPmpResponse) mapIpReq.getResponse()).getSecondsSinceStartOfEpoch());
+            recorder.succeeded();
+        } finally {
+            recorder.finish();
         }
         
         LOG.debug("Unmap successful {}", mappedPort);
@@ -255,11 +382,23 @@ public final class NatPmpPortMapper implements PortMapper {
         Validate.notNull(mappedPort);
         Validate.isTrue(mappedPort instanceof NatPmpMappedPort);
         Validate.inclusiveBetween(1L, Long.MAX_VALUE, lifetime);
-        MappedPort newMappedPort = mapPort(mappedPort.getPortType(), mappedPort.getInternalPort(), mappedPort.getExternalPort(), lifetime);
+
+        MappedPort newMappedPort;
+        OperationRecorder recorder = PortMapperMetrics.startOperation(NatPmpPortMapper.class, gatewayAddress, Operation.REFRESH);
+        try {
+            newMappedPort = mapPort(recorder, mappedPort.getPortType(), mappedPort.getInternalPort(), mappedPort.getExternalPort(),
+                    lifetime);
+            if (mappedPort.getExternalPort() == newMappedPort.getExternalPort()
+                    && Objects.equals(mappedPort.getExternalAddress(), newMappedPort.getExternalAddress())) {
+                recorder.succeeded();
+            }
+        } finally {
+            recorder.finish();
+        }
         
         if (mappedPort.getExternalPort() != newMappedPort.getExternalPort()
                 || !Objects.equals(mappedPort.getExternalAddress(), newMappedPort.getExternalAddress())) {
-            LOG.warn("Failed refresh mapping {}: ", mappedPort, newMappedPort);
+            LOG.warn("Failed refresh mapping {}: {}", mappedPort, newMappedPort);
             try {
                 unmapPort(newMappedPort);
             } catch (IllegalStateException ise) {
@@ -272,78 +411,57 @@ public final class NatPmpPortMapper implements PortMapper {
                     + newMappedPort.getExternalAddress() + ":" + newMappedPort.getExternalPort());
         }
         
-        LOG.debug("Mapping refreshed {}: ", mappedPort, newMappedPort);
+        LOG.debug("Mapping refreshed {}: {}", mappedPort, newMappedPort);
         
         return newMappedPort;
     }
 
+    private synchronized InetAddress getCachedExternalAddress() {
+        return cachedExternalAddress;
+    }
+
+    private synchronized void setCachedExternalAddress(InetAddress externalAddress) {
+        cachedExternalAddress = externalAddress;
+    }
+
+    private InetAddress handleExternalAddressResponse(ExternalAddressNatPmpResponse resp) {
+        InetAddress externalAddress = resp.getAddress();
+        epochTracker.updateEpoch(resp.getSecondsSinceStartOfEpoch());
+        epochTracker.updateExternalAddress(externalAddress); // notifies listeners if the external address changed
+        setCachedExternalAddress(externalAddress);
+        return externalAddress;
+    }
+
+    private static void checkSuccess(NatPmpResponseView view) {
+        int resultCode = view.getResultCode();
+        if (resultCode != NatPmpResultCode.SUCCESS.ordinal()) {
+            NatPmpResultCode[] resultCodes = NatPmpResultCode.values();
+            throw new RouterErrorException(resultCode < resultCodes.length ? resultCodes[resultCode].name() : String.valueOf(resultCode));
+        }
+    }
+
     private static UdpRequest createGetExternalIpUdpRequest(InetAddress internalAddress, InetAddress gatewayAddress) {
         UdpRequest externalIpReq = new UdpRequest(
                 internalAddress,
                 new InetSocketAddress(gatewayAddress, PORT),
                 new ExternalAddressNatPmpRequest(),
-                new RequestToBytesTransformer() {
-                    @Override
-                    public byte[] create(Object request) {
-                        return ((ExternalAddressNatPmpRequest) request).dump();
-                    }
-                },
-                new BytesToResponseTransformer() {
-                    @Override
-                    public Object create(byte[] buffer) {
-                        ExternalAddressNatPmpResponse resp = new ExternalAddressNatPmpResponse(buffer);
-                        if (resp.getResultCode() != NatPmpResultCode.SUCCESS.ordinal()) {
-                            throw new IllegalArgumentException();
-                        }
-                        return resp;
-                    }
-                });
+                REQUEST_TRANSFORMER,
+                EXTERNAL_ADDRESS_RESPONSE_TRANSFORMER);
         return externalIpReq;
     }
 
     private static UdpRequest createMappingUdpRequest(InetAddress internalAddress, InetAddress gatewayAddress, PortType portType,
             int internalPort, int externalPort, long lifetime) {
         MappingNatPmpRequest request;
-        RequestToBytesTransformer requestToBytesTransformer;
         BytesToResponseTransformer bytesToResponseTransformer;
         switch (portType) {
             case TCP:
                 request = new TcpMappingNatPmpRequest(internalPort, externalPort, lifetime);
-                requestToBytesTransformer = new RequestToBytesTransformer() {
-                    @Override
-                    public byte[] create(Object request) {
-                        return ((TcpMappingNatPmpRequest) request).dump();
-                    }
-                };
-                bytesToResponseTransformer = new BytesToResponseTransformer() {
-                    @Override
-                    public Object create(byte[] buffer) {
-                        TcpMappingNatPmpResponse resp = new TcpMappingNatPmpResponse(buffer);
-                        if (resp.getResultCode() != NatPmpResultCode.SUCCESS.ordinal()) {
-                            throw new IllegalArgumentException();
-                        }
-                        return resp;
-                    }
-                };
+                bytesToResponseTransformer = TCP_MAPPING_RESPONSE_TRANSFORMER;
                 break;
             case UDP:
                 request = new UdpMappingNatPmpRequest(internalPort, externalPort, lifetime);
-                requestToBytesTransformer = new RequestToBytesTransformer() {
-                    @Override
-                    public byte[] create(Object request) {
-                        return ((UdpMappingNatPmpRequest) request).dump();
-                    }
-                };
-                bytesToResponseTransformer = new BytesToResponseTransformer() {
-                    @Override
-                    public Object create(byte[] buffer) {
-                        UdpMappingNatPmpResponse resp = new UdpMappingNatPmpResponse(buffer);
-                        if (resp.getResultCode() != NatPmpResultCode.SUCCESS.ordinal()) {
-                            throw new IllegalArgumentException();
-                        }
-                        return resp;
-                    }
-                };
+                bytesToResponseTransformer = UDP_MAPPING_RESPONSE_TRANSFORMER;
                 break;
             default:
                 throw new IllegalStateException(); // should never happen
@@ -353,7 +471,7 @@ public final class NatPmpPortMapper implements PortMapper {
                 internalAddress,
                 new InetSocketAddress(gatewayAddress, PORT),
                 request,
-                requestToBytesTransformer,
+                REQUEST_TRANSFORMER,
                 bytesToResponseTransformer);
         
         return mapIpReq;
@@ -364,6 +482,23 @@ public final class NatPmpPortMapper implements PortMapper {
         return internalAddress;
     }
 
+    /**
+     * Get the gateway address.
+     * @return gateway address
+     */
+    public InetAddress getGatewayAddress() {
+        return gatewayAddress;
+    }
+
+    /**
+     * Get the tracker for the gateway's epoch time and external address. Add a listener to be notified when the gateway loses its state
+     * or changes its external address.
+     * @return epoch tracker
+     */
+    public EpochTracker getEpochTracker() {
+        return epochTracker;
+    }
+
     @Override
     public String toString() {
         return "NatPmpPortMapper{" + "networkBus=" + networkBus + ", internalAddress=" + internalAddress + ", gatewayAddress="
@@ -15,6 +15,7 @@
  */
 package com.offbynull.portmapper.mappers.natpmp.externalmessages;
 
+import java.nio.ByteBuffer;
 import org.apache.commons.lang3.Validate;
 
 /**
@@ -67,6 +68,15 @@ public final class ExternalAddressNatPmpRequest extends NatPmpRequest {
         return new byte[] {0, OP};
     }
 
+    @Override
+    public void writeTo(ByteBuffer dst) {
+        Validate.notNull(dst);
+        Validate.isTrue(dst.remaining() >= LENGTH);
+
+        dst.put((byte) 0);
+        dst.put((byte) OP);
+    }
+
     @Override
     public String toString() {
         return "ExternalAddressNatPmpRequest{super=" + super.toString() + '}';
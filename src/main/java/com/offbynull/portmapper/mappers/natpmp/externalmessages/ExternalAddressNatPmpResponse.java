@@ -18,6 +18,8 @@ package com.offbynull.portmapper.mappers.natpmp.externalmessages;
 import com.offbynull.portmapper.helpers.NetworkUtils;
 import java.net.Inet4Address;
 import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Objects;
 import org.apache.commons.lang3.Validate;
 
@@ -55,6 +57,7 @@ public final class ExternalAddressNatPmpResponse extends NatPmpResponse {
     private static final int OP = 128;
 
     private InetAddress inetAddress;
+    private byte[] inetAddressBytes; // kept so that writeTo() doesn't need to call getAddress() every time
 
     /**
      * Constructs a {@link ExternalAddressNatPmpResponse} object by parsing a buffer.
@@ -72,6 +75,7 @@ public final class ExternalAddressNatPmpResponse extends NatPmpResponse {
         Validate.isTrue(getOp() == OP);
         
         inetAddress = NetworkUtils.convertBytesToAddress(buffer, 8, 4);
+        inetAddressBytes = Arrays.copyOfRange(buffer, 8, 12);
         Validate.validState(inetAddress instanceof Inet4Address); // should never happen -- sanity check
     }
 
@@ -90,23 +94,26 @@ public final class ExternalAddressNatPmpResponse extends NatPmpResponse {
         Validate.isTrue(inetAddress instanceof Inet4Address);
         
         this.inetAddress = inetAddress;
+        this.inetAddressBytes = inetAddress.getAddress();
     }
 
     @Override
     public byte[] dump() {
         byte[] data = new byte[LENGTH];
+        writeTo(ByteBuffer.wrap(data));
+        return data;
+    }
 
-        data[0] = 0;
-        data[1] = (byte) OP;
-        InternalUtils.shortToBytes(data, 2, (short) getResultCode());
-        InternalUtils.intToBytes(data, 4, (int) getSecondsSinceStartOfEpoch());
-        byte[] addressBytes = inetAddress.getAddress();
-        data[8] = addressBytes[0];
-        data[9] = addressBytes[1];
-        data[10] = addressBytes[2];
-        data[11] = addressBytes[3];
+    @Override
+    public void writeTo(ByteBuffer dst) {
+        Validate.notNull(dst);
+        Validate.isTrue(dst.remaining() >= LENGTH);
 
-        return data;
+        dst.put((byte) 0);
+        dst.put((byte) OP);
+        InternalUtils.putShort(dst, (short) getResultCode());
+        InternalUtils.putInt(dst, (int) getSecondsSinceStartOfEpoch());
+        dst.put(inetAddressBytes);
     }
 
     /**
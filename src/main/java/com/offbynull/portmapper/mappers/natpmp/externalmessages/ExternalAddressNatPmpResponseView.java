@@ -0,0 +1,82 @@
+/*
+ * Copyright 2013-2016, Kasra Faghihi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.offbynull.portmapper.mappers.natpmp.externalmessages;
+
+import com.offbynull.portmapper.helpers.NetworkUtils;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Read-only view over a NAT-PMP external address response that's sitting in a {@link ByteBuffer}. See {@link NatPmpResponseView} for
+ * details.
+ * @author Kasra Faghihi
+ */
+public final class ExternalAddressNatPmpResponseView extends NatPmpResponseView {
+    private static final int LENGTH = 12;
+    private static final int OP = 128;
+    private static final int ADDRESS_LENGTH = 4;
+
+    /**
+     * Constructs a {@link ExternalAddressNatPmpResponseView} object. Call {@link #wrap(java.nio.ByteBuffer) } before accessing fields.
+     */
+    public ExternalAddressNatPmpResponseView() {
+        super(OP, LENGTH);
+    }
+
+    /**
+     * Point this view at the NAT-PMP external address response starting at {@code buffer}'s position and running to its limit. Neither
+     * the buffer's contents nor its position/limit are modified.
+     * @param buffer buffer containing NAT-PMP response
+     * @return this view
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalArgumentException if {@code buffer} isn't the right size or if the version/op don't match a NAT-PMP external address
+     * response
+     */
+    public ExternalAddressNatPmpResponseView wrap(ByteBuffer buffer) {
+        wrapBuffer(buffer);
+        return this;
+    }
+
+    /**
+     * Copy external IP address in to an array.
+     * @param dst array to copy to (must be 4 bytes)
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalArgumentException if {@code dst.length != 4}
+     * @throws IllegalStateException if no buffer is wrapped
+     */
+    public void getAddress(byte[] dst) {
+        Validate.notNull(dst);
+        Validate.isTrue(dst.length == ADDRESS_LENGTH);
+        
+        ByteBuffer buffer = buffer();
+        int index = index(8);
+        for (int i = 0; i < ADDRESS_LENGTH; i++) {
+            dst[i] = buffer.get(index + i);
+        }
+    }
+
+    /**
+     * Get external IP address. Allocates, use {@link #getAddress(byte[]) } on hot paths.
+     * @return external IP address
+     * @throws IllegalStateException if no buffer is wrapped
+     */
+    public InetAddress getAddress() {
+        byte[] address = new byte[ADDRESS_LENGTH];
+        getAddress(address);
+        return NetworkUtils.convertBytesToAddress(address);
+    }
+}
@@ -15,6 +15,8 @@
  */
 package com.offbynull.portmapper.mappers.natpmp.externalmessages;
 
+import java.nio.ByteBuffer;
+
 final class InternalUtils {
     static final int NAT_PMP_VERSION = 0;
     
@@ -69,4 +71,30 @@ final class InternalUtils {
         data[offset] = (byte) ((value >> 8) & 0xFF);
         data[offset + 1] = (byte) (value & 0xFF);
     }
+
+    // ByteBuffer helpers below read/write byte-by-byte so that they're independent of the buffer's byte order
+    static int getInt(ByteBuffer buffer, int index) {
+        return ((buffer.get(index) & 0xFF) << 24)
+                | ((buffer.get(index + 1) & 0xFF) << 16)
+                | ((buffer.get(index + 2) & 0xFF) << 8)
+                | (buffer.get(index + 3) & 0xFF);
+    }
+
+    static void putInt(ByteBuffer buffer, int value) {
+        buffer.put((byte) ((value >> 24) & 0xFF));
+        buffer.put((byte) ((value >> 16) & 0xFF));
+        buffer.put((byte) ((value >> 8) & 0xFF));
+        buffer.put((byte) (value & 0xFF));
+    }
+
+    static short getShort(ByteBuffer buffer, int index) {
+        return (short)
+                (((buffer.get(index) & 0xFF) << 8)
+                | (buffer.get(index + 1) & 0xFF));
+    }
+
+    static void putShort(ByteBuffer buffer, short value) {
+        buffer.put((byte) ((value >> 8) & 0xFF));
+        buffer.put((byte) (value & 0xFF));
+    }
 }
@@ -16,6 +16,7 @@
 package com.offbynull.portmapper.mappers.natpmp.externalmessages;
 
 import static com.offbynull.portmapper.mappers.natpmp.externalmessages.InternalUtils.NAT_PMP_VERSION;
+import java.nio.ByteBuffer;
 import org.apache.commons.lang3.Validate;
 
 /**
@@ -179,16 +180,21 @@ public abstract class MappingNatPmpRequest extends NatPmpRequest {
     @Override
     public final byte[] dump() {
         byte[] data = new byte[LENGTH];
+        writeTo(ByteBuffer.wrap(data));
+        return data;
+    }
 
-        data[0] = NAT_PMP_VERSION;
-        data[1] = (byte) getOp();
-        data[2] = 0;
-        data[3] = 0;
-        InternalUtils.shortToBytes(data, 4, (short) internalPort);
-        InternalUtils.shortToBytes(data, 6, (short) suggestedExternalPort);
-        InternalUtils.intToBytes(data, 8, (int) lifetime);
+    @Override
+    public final void writeTo(ByteBuffer dst) {
+        Validate.notNull(dst);
+        Validate.isTrue(dst.remaining() >= LENGTH);
 
-        return data;
+        dst.put((byte) NAT_PMP_VERSION);
+        dst.put((byte) getOp());
+        InternalUtils.putShort(dst, (short) 0); // reserved
+        InternalUtils.putShort(dst, (short) internalPort);
+        InternalUtils.putShort(dst, (short) suggestedExternalPort);
+        InternalUtils.putInt(dst, (int) lifetime);
     }
 
     /**
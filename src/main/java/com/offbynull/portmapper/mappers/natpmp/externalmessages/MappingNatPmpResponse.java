@@ -15,6 +15,7 @@
  */
 package com.offbynull.portmapper.mappers.natpmp.externalmessages;
 
+import java.nio.ByteBuffer;
 import org.apache.commons.lang3.Validate;
 
 /**
@@ -189,16 +190,22 @@ public abstract class MappingNatPmpResponse extends NatPmpResponse {
     @Override
     public final byte[] dump() {
         byte[] data = new byte[LENGTH];
+        writeTo(ByteBuffer.wrap(data));
+        return data;
+    }
 
-        data[0] = 0;
-        data[1] = (byte) getOp();
-        InternalUtils.shortToBytes(data, 2, (short) getResultCode());
-        InternalUtils.intToBytes(data, 4, (int) getSecondsSinceStartOfEpoch());
-        InternalUtils.shortToBytes(data, 8, (short) internalPort);
-        InternalUtils.shortToBytes(data, 10, (short) externalPort);
-        InternalUtils.intToBytes(data, 12, (int) lifetime);
+    @Override
+    public final void writeTo(ByteBuffer dst) {
+        Validate.notNull(dst);
+        Validate.isTrue(dst.remaining() >= LENGTH);
 
-        return data;
+        dst.put((byte) 0);
+        dst.put((byte) getOp());
+        InternalUtils.putShort(dst, (short) getResultCode());
+        InternalUtils.putInt(dst, (int) getSecondsSinceStartOfEpoch());
+        InternalUtils.putShort(dst, (short) internalPort);
+        InternalUtils.putShort(dst, (short) externalPort);
+        InternalUtils.putInt(dst, (int) lifetime);
     }
 
     /**
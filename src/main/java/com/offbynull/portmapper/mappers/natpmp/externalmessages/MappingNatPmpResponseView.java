@@ -0,0 +1,58 @@
+/*
+ * Copyright 2013-2016, Kasra Faghihi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.offbynull.portmapper.mappers.natpmp.externalmessages;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Read-only view over a NAT-PMP mapping response that's sitting in a {@link ByteBuffer}. Provides the same fields as
+ * {@link MappingNatPmpResponse}, but reads them directly out of the buffer. See {@link NatPmpResponseView} for details.
+ * @author Kasra Faghihi
+ */
+public abstract class MappingNatPmpResponseView extends NatPmpResponseView {
+    private static final int LENGTH = 16;
+
+    MappingNatPmpResponseView(int op) {
+        super(op, LENGTH);
+    }
+
+    /**
+     * Get the internal port number.
+     * @return internal port number
+     * @throws IllegalStateException if no buffer is wrapped
+     */
+    public final int getInternalPort() {
+        return InternalUtils.getShort(buffer(), index(8)) & 0xFFFF;
+    }
+
+    /**
+     * Get the external port number.
+     * @return external port number
+     * @throws IllegalStateException if no buffer is wrapped
+     */
+    public final int getExternalPort() {
+        return InternalUtils.getShort(buffer(), index(10)) & 0xFFFF;
+    }
+
+    /**
+     * Get the lifetime for this mapping.
+     * @return lifetime for this mapping
+     * @throws IllegalStateException if no buffer is wrapped
+     */
+    public final long getLifetime() {
+        return InternalUtils.getInt(buffer(), index(12)) & 0xFFFFFFFFL;
+    }
+}
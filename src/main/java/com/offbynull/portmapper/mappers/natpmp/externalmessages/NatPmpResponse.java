@@ -16,6 +16,7 @@
 package com.offbynull.portmapper.mappers.natpmp.externalmessages;
 
 import static com.offbynull.portmapper.mappers.natpmp.externalmessages.InternalUtils.NAT_PMP_VERSION;
+import java.nio.ByteBuffer;
 import org.apache.commons.lang3.Validate;
 
 /**
@@ -86,6 +87,15 @@ public abstract class NatPmpResponse implements NatPmpMessage {
         return secondsSinceStartOfEpoch;
     }
 
+    /**
+     * Write this NAT-PMP response in to a buffer (same format as {@link #dump() }). Written starting at {@code dst}'s position, which gets
+     * advanced by the number of bytes written. Unlike {@link #dump() }, this method doesn't allocate.
+     * @param dst buffer to write to
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalArgumentException if {@code dst} doesn't have enough space remaining
+     */
+    public abstract void writeTo(ByteBuffer dst);
+
     // CHECKSTYLE:OFF:DesignForExtension
     @Override
     public String toString() {
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2013-2016, Kasra Faghihi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.offbynull.portmapper.mappers.natpmp.externalmessages;
+
+import static com.offbynull.portmapper.mappers.natpmp.externalmessages.InternalUtils.NAT_PMP_VERSION;
+import java.nio.ByteBuffer;
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Read-only view over a NAT-PMP response that's sitting in a {@link ByteBuffer}. Unlike {@link NatPmpResponse} and its subclasses, a view
+ * doesn't copy or decode anything up front -- each accessor reads its field directly out of the wrapped buffer. This means a single view
+ * instance can be re-pointed at each incoming packet via {@code wrap()} without generating garbage.
+ * <p>
+ * The buffer isn't copied, so any changes made to it while it's wrapped will be visible through the view.
+ * @author Kasra Faghihi
+ */
+public abstract class NatPmpResponseView {
+    private final int op;
+    private final int length;
+
+    private ByteBuffer buffer;
+    private int start;
+
+    NatPmpResponseView(int op, int length) {
+        Validate.inclusiveBetween(128, 255, op);
+        Validate.isTrue(length >= 8);
+        this.op = op;
+        this.length = length;
+    }
+
+    final void wrapBuffer(ByteBuffer buffer) {
+        Validate.notNull(buffer);
+        
+        int start = buffer.position();
+        Validate.isTrue(buffer.remaining() == length);
+        Validate.isTrue((buffer.get(start) & 0xFF) == NAT_PMP_VERSION); // check nat-pmp version
+        Validate.isTrue((buffer.get(start + 1) & 0xFF) == op); // check op
+        
+        this.buffer = buffer;
+        this.start = start;
+    }
+
+    final int index(int offset) {
+        Validate.validState(buffer != null);
+        return start + offset;
+    }
+
+    final ByteBuffer buffer() {
+        Validate.validState(buffer != null);
+        return buffer;
+    }
+
+    /**
+     * Get op code.
+     * @return op code
+     */
+    public final int getOp() {
+        return op;
+    }
+
+    /**
+     * Get result code. 0 means success.
+     * @return result code
+     * @throws IllegalStateException if no buffer is wrapped
+     */
+    public final int getResultCode() {
+        return InternalUtils.getShort(buffer(), index(2)) & 0xFFFF;
+    }
+
+    /**
+     * Get the number of seconds since the device's port mapping table was initialized/reset.
+     * @return number of seconds the device's port mapping table has been up (up to {@code 0xFFFFFFFFL})
+     * @throws IllegalStateException if no buffer is wrapped
+     */
+    public final long getSecondsSinceStartOfEpoch() {
+        return InternalUtils.getInt(buffer(), index(4)) & 0xFFFFFFFFL;
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2013-2016, Kasra Faghihi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.offbynull.portmapper.mappers.natpmp.externalmessages;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Read-only view over a NAT-PMP TCP mapping response that's sitting in a {@link ByteBuffer}. See {@link NatPmpResponseView} for
+ * details.
+ * @author Kasra Faghihi
+ */
+public final class TcpMappingNatPmpResponseView extends MappingNatPmpResponseView {
+    private static final int OP = 130;
+
+    /**
+     * Constructs a {@link TcpMappingNatPmpResponseView} object. Call {@link #wrap(java.nio.ByteBuffer) } before accessing fields.
+     */
+    public TcpMappingNatPmpResponseView() {
+        super(OP);
+    }
+
+    /**
+     * Point this view at the NAT-PMP TCP mapping response starting at {@code buffer}'s position and running to its limit. Neither the
+     * buffer's contents nor its position/limit are modified.
+     * @param buffer buffer containing NAT-PMP response
+     * @return this view
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalArgumentException if {@code buffer} isn't the right size or if the version/op don't match a NAT-PMP TCP mapping
+     * response
+     */
+    public TcpMappingNatPmpResponseView wrap(ByteBuffer buffer) {
+        wrapBuffer(buffer);
+        return this;
+    }
+}
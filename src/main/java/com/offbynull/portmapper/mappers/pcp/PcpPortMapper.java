@@ -15,29 +15,32 @@
  */
 package com.offbynull.portmapper.mappers.pcp;
 
+import com.offbynull.portmapper.mapper.EpochTracker;
+import com.offbynull.portmapper.mapper.EpochTracker.ValidationRule;
 import com.offbynull.portmapper.mapper.MappedPort;
 import com.offbynull.portmapper.mapper.PortMapper;
+import com.offbynull.portmapper.mapper.PortMapperMetrics;
+import com.offbynull.portmapper.mapper.PortMapperMetrics.OperationRecorder;
+import com.offbynull.portmapper.mapper.PortMapperMetricsListener.Operation;
 import com.offbynull.portmapper.mapper.PortType;
+import com.offbynull.portmapper.mapper.RouterErrorException;
 import com.offbynull.portmapper.gateway.Bus;
 import static com.offbynull.portmapper.helpers.NetworkUtils.ZERO_IPV4;
 import static com.offbynull.portmapper.helpers.NetworkUtils.ZERO_IPV6;
-import com.offbynull.portmapper.helpers.TextUtils;
-import com.offbynull.portmapper.mapper.MapperIoUtils;
 import com.offbynull.portmapper.mapper.MapperIoUtils.BytesToResponseTransformer;
-import static com.offbynull.portmapper.mapper.MapperIoUtils.PRESET_IPV4_GATEWAY_ADDRESSES;
 import com.offbynull.portmapper.mapper.MapperIoUtils.RequestToBytesTransformer;
 import com.offbynull.portmapper.mapper.MapperIoUtils.UdpRequest;
 import static com.offbynull.portmapper.mapper.MapperIoUtils.calculateExponentialBackoffTimes;
-import static com.offbynull.portmapper.mapper.MapperIoUtils.convertToAddressSet;
+import static com.offbynull.portmapper.mapper.MapperIoUtils.findPotentialGatewayAddresses;
 import static com.offbynull.portmapper.mapper.MapperIoUtils.getLocalIpAddresses;
 import static com.offbynull.portmapper.mapper.MapperIoUtils.performUdpRequests;
-import static com.offbynull.portmapper.mapper.MapperIoUtils.runProcesses;
 import com.offbynull.portmapper.mappers.pcp.externalmessages.MapPcpRequest;
 import com.offbynull.portmapper.mappers.pcp.externalmessages.MapPcpResponse;
+import com.offbynull.portmapper.mappers.pcp.externalmessages.MapPcpResponseView;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
 import java.util.Collections;
-import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Objects;
@@ -45,8 +48,6 @@ import java.util.Random;
 import java.util.Set;
 import org.apache.commons.lang3.Validate;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Iterator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -59,10 +60,20 @@ public final class PcpPortMapper implements PortMapper {
     private static final Logger LOG = LoggerFactory.getLogger(PcpPortMapper.class);
     
     private static final int PORT = 5351;
+
+    // Replies are screened through a reused view first, so packets for other mappings (or router errors) are rejected without being
+    // decoded in to a MapPcpResponse
+    private static final ThreadLocal<MapPcpResponseView> MAP_RESPONSE_VIEW = new ThreadLocal<MapPcpResponseView>() {
+        @Override
+        protected MapPcpResponseView initialValue() {
+            return new MapPcpResponseView();
+        }
+    };
     
     private Bus networkBus;
     private InetAddress internalAddress;
     private InetAddress gatewayAddress;
+    private EpochTracker epochTracker;
     private Random random;
 
     /**
@@ -71,6 +82,9 @@ public final class PcpPortMapper implements PortMapper {
      * Since PCP devices have no broadcast discovery mechanism, this method makes use of multiple OS-specific commands to try to find the
      * addresses of gateways. This may change in the future -- see <a href="https://tools.ietf.org/html/draft-ietf-pcp-anycast-08">this RFC
      * draft</a>.
+     * <p>
+     * If NAT-PMP devices are also being looked for, use {@link com.offbynull.portmapper.NatPmpPcpIdentifier} instead -- it gathers
+     * potential gateways and probes them once for both protocols.
      * @param networkBus network bus
      * @param processBus process bus
      * @param additionalIps additional IPs to check
@@ -86,47 +100,7 @@ public final class PcpPortMapper implements PortMapper {
         Validate.notNull(additionalIps);
         Validate.noNullElements(additionalIps);
 
-        // Perform commands to try to grab gateway addresses
-        List<MapperIoUtils.ProcessRequest> processReqs = new ArrayList<>();
-        processReqs.add(new MapperIoUtils.ProcessRequest("netstat", "-rn")); //linux mac and windows -- but seems wrong for windows
-        processReqs.add(new MapperIoUtils.ProcessRequest("route", "-n")); // linux
-        processReqs.add(new MapperIoUtils.ProcessRequest("route", "-n", "get", "default")); // mac
-        processReqs.add(new MapperIoUtils.ProcessRequest("ipconfig")); // windows
-        processReqs.add(new MapperIoUtils.ProcessRequest("ifconfig")); // linux (and mac?)
-        runProcesses(processBus, processReqs, 10000L);
-        
-        
-        
-        // Aggregate results
-        Set<InetAddress> potentialGatewayAddresses = new HashSet<>();
-        potentialGatewayAddresses.addAll(PRESET_IPV4_GATEWAY_ADDRESSES);
-        potentialGatewayAddresses.addAll(Arrays.asList(additionalIps));
-        
-        for (MapperIoUtils.ProcessRequest req : processReqs) {
-            List<String> netstatOutputIpv4Addresses = TextUtils.findAllIpv4Addresses(req.getOutput());
-            List<String> netstatOutputIpv6Addresses = TextUtils.findAllIpv6Addresses(req.getOutput());
-            List<String> netstatErrorIpv4Addresses = TextUtils.findAllIpv4Addresses(req.getError());
-            List<String> netstatErrorIpv6Addresses = TextUtils.findAllIpv6Addresses(req.getError());
-
-            potentialGatewayAddresses.addAll(convertToAddressSet(netstatOutputIpv4Addresses));
-            potentialGatewayAddresses.addAll(convertToAddressSet(netstatOutputIpv6Addresses));
-            potentialGatewayAddresses.addAll(convertToAddressSet(netstatErrorIpv4Addresses));
-            potentialGatewayAddresses.addAll(convertToAddressSet(netstatErrorIpv6Addresses));
-        }
-        
-        
-        
-        // Filter out non-valid addresses
-        //   Remove any local address (e.g. 0.0.0.0)
-        //   Remove loopback address (e.g. 127.0.0.1)
-        //   Remove multicast address (e.g. 224.0.0.1)
-        Iterator<InetAddress> pgaIt = potentialGatewayAddresses.iterator();
-        while (pgaIt.hasNext()) {
-            InetAddress address = pgaIt.next();
-            if (address.isAnyLocalAddress() || address.isLoopbackAddress() || address.isMulticastAddress()) {
-                pgaIt.remove();
-            }
-        }
+        Set<InetAddress> potentialGatewayAddresses = findPotentialGatewayAddresses(processBus, additionalIps);
         
         
         
@@ -141,39 +115,14 @@ public final class PcpPortMapper implements PortMapper {
                     continue;
                 }
 
-                // Send a map pcp request to identify PCP-enabled routers...
-                // Should get back an error, but this should be fine because all we're looking for is a response (doesn't matter if it's
-                // an error response or not). Also, we need to pass in MAP because Apple's bullshit routers give back NATPMP responses when
-                // you pass in a PCP ANNOUNCE message.
-                UdpRequest udpReq = new UdpRequest(
-                        sourceAddress,
-                        new InetSocketAddress(gatewayAddress, PORT),
-                        new MapPcpRequest(new byte[12], 0, 0, 0, ZERO_IPV6, 0L, ZERO_IPV4),
-                        new RequestToBytesTransformer() {
-                            @Override
-                            public byte[] create(Object request) {
-                                return ((MapPcpRequest) request).dump();
-                            }
-                        },
-                        new BytesToResponseTransformer() {
-                            @Override
-                            public Object create(byte[] buffer) {
-                                // so long as version is 2, we can assume that this is a PCP router's response
-                                if (buffer.length < 4 || buffer[0] != 2) {
-                                    throw new IllegalArgumentException();
-                                }
-
-                                MapPcpResponse resp = new MapPcpResponse(buffer);
-                                return resp;
-                            }
-                        });
-                
-                udpReqs.add(udpReq);
+                udpReqs.add(createProbeUdpRequest(sourceAddress, gatewayAddress));
             }
         }
         
+        long probeStartTime = System.nanoTime();
         performUdpRequests(networkBus, udpReqs, false, 1000L, 1000L, 1000L, 1000L, 1000L); // don't do standard natpmp/pcp retries -- just
                                                                                            // attempting to discover
+        PortMapperMetrics.recordUdpIdentify(PcpPortMapper.class, probeStartTime, udpReqs);
         
         
         // Create mappers and returns
@@ -187,12 +136,81 @@ public final class PcpPortMapper implements PortMapper {
                     networkBus,
                     udpReq.getSourceAddress(),
                     udpReq.getDestinationSocketAddress().getAddress());
+            portMapper.epochTracker.updateEpoch(((MapPcpResponse) udpReq.getResponse()).getEpochTime()); // seed epoch bookkeeping
             mappers.add(portMapper);
         }
         
         return mappers;
     }
 
+    /**
+     * Revalidate PCP devices that were previously identified (e.g. loaded from {@link com.offbynull.portmapper.PortMapperCache}). Rather
+     * than going through full discovery, each device is sent the same single MAP probe that identification uses, from the source address it
+     * was found on.
+     * @param networkBus network bus
+     * @param mappers mappers to revalidate
+     * @return mappers from {@code mappers} whose devices responded (in the same order)
+     * @throws NullPointerException if any argument is {@code null} or contains {@code null}
+     * @throws InterruptedException if interrupted
+     */
+    public static List<PcpPortMapper> revalidate(Bus networkBus, List<PcpPortMapper> mappers) throws InterruptedException {
+        LOG.info("Attempting to revalidate devices");
+
+        Validate.notNull(networkBus);
+        Validate.notNull(mappers);
+        Validate.noNullElements(mappers);
+        
+        List<UdpRequest> udpReqs = new ArrayList<>(mappers.size());
+        for (PcpPortMapper mapper : mappers) {
+            udpReqs.add(createProbeUdpRequest(mapper.internalAddress, mapper.gatewayAddress));
+        }
+
+        long probeStartTime = System.nanoTime();
+        performUdpRequests(networkBus, udpReqs, false, 500L, 1000L); // only resent if the first one goes unanswered
+        PortMapperMetrics.recordUdpIdentify(PcpPortMapper.class, probeStartTime, udpReqs);
+
+        List<PcpPortMapper> ret = new ArrayList<>(mappers.size());
+        for (int i = 0; i < mappers.size(); i++) {
+            UdpRequest udpReq = udpReqs.get(i);
+            if (udpReq.getResponse() != null) {
+                PcpPortMapper mapper = mappers.get(i);
+                mapper.epochTracker.updateEpoch(((MapPcpResponse) udpReq.getResponse()).getEpochTime()); // seed epoch bookkeeping
+                ret.add(mapper);
+            }
+        }
+        
+        return ret;
+    }
+
+    private static UdpRequest createProbeUdpRequest(InetAddress sourceAddress, InetAddress gatewayAddress) {
+        // Send a map pcp request to identify PCP-enabled routers...
+        // Should get back an error, but this should be fine because all we're looking for is a response (doesn't matter if it's an error
+        // response or not). Also, we need to pass in MAP because Apple's bullshit routers give back NATPMP responses when you pass in a PCP
+        // ANNOUNCE message.
+        return new UdpRequest(
+                sourceAddress,
+                new InetSocketAddress(gatewayAddress, PORT),
+                new MapPcpRequest(new byte[12], 0, 0, 0, ZERO_IPV6, 0L, ZERO_IPV4),
+                new RequestToBytesTransformer() {
+                    @Override
+                    public byte[] create(Object request) {
+                        return ((MapPcpRequest) request).dump();
+                    }
+                },
+                new BytesToResponseTransformer() {
+                    @Override
+                    public Object create(byte[] buffer) {
+                        // so long as version is 2, we can assume that this is a PCP router's response
+                        if (buffer.length < 4 || buffer[0] != 2) {
+                            throw new IllegalArgumentException();
+                        }
+
+                        MapPcpResponse resp = new MapPcpResponse(buffer);
+                        return resp;
+                    }
+                });
+    }
+
     /**
      * Constructs a {@link PcpPortMapper} object.
      * @param networkBus bus to network component
@@ -209,6 +227,7 @@ public final class PcpPortMapper implements PortMapper {
         this.networkBus = networkBus;
         this.internalAddress = internalAddress;
         this.gatewayAddress = gatewayAddress;
+        this.epochTracker = new EpochTracker(gatewayAddress, ValidationRule.PCP);
     }
 
 
@@ -224,12 +243,21 @@ public final class PcpPortMapper implements PortMapper {
         // PERFORM MAPPING
         //
         byte[] nonce = nextNonce();
-        UdpRequest mapIpReq = createMappingUdpRequest(nonce, portType, internalPort, externalPort, lifetime);
-        performUdpRequests(networkBus, Collections.singleton(mapIpReq), false, calculateExponentialBackoffTimes(4));
-        if (mapIpReq.getResponse() == null) {
-            throw new IllegalStateException("No response/invalid response to mapping port");
+        MapPcpResponse mappingResp;
+        OperationRecorder recorder = PortMapperMetrics.startOperation(PcpPortMapper.class, gatewayAddress, Operation.MAP);
+        try {
+            UdpRequest mapIpReq = createMappingUdpRequest(nonce, portType, internalPort, externalPort, lifetime);
+            performUdpRequests(networkBus, Collections.singleton(mapIpReq), false, calculateExponentialBackoffTimes(4));
+            recorder.track(mapIpReq);
+            if (mapIpReq.getResponse() == null) {
+                throw new IllegalStateException("No response/invalid response to mapping port");
+            }
+            mappingResp = ((MapPcpResponse) mapIpReq.getResponse());
+            epochTracker.updateEpoch(mappingResp.getEpochTime());
+            recorder.succeeded();
+        } finally {
+            recorder.finish();
         }
-        MapPcpResponse mappingResp = ((MapPcpResponse) mapIpReq.getResponse());
         
         
         
@@ -251,10 +279,18 @@ public final class PcpPortMapper implements PortMapper {
         PortType portType = mappedPort.getPortType();
         int internalPort = mappedPort.getInternalPort();
         
-        UdpRequest mapIpReq = createMappingUdpRequest(nonce, portType, internalPort, 0, 0L);
-        performUdpRequests(networkBus, Collections.singleton(mapIpReq), false, calculateExponentialBackoffTimes(4));
-        if (mapIpReq.getResponse() == null) {
-            throw new IllegalStateException("No response/invalid response to mapping port");
+        OperationRecorder recorder = PortMapperMetrics.startOperation(PcpPortMapper.class, gatewayAddress, Operation.UNMAP);
+        try {
+            UdpRequest mapIpReq = createMappingUdpRequest(nonce, portType, internalPort, 0, 0L);
+            performUdpRequests(networkBus, Collections.singleton(mapIpReq), false, calculateExponentialBackoffTimes(4));
+            recorder.track(mapIpReq);
+            if (mapIpReq.getResponse() == null) {
+                throw new IllegalStateException("No response/invalid response to mapping port");
+            }
+            epochTracker.updateEpoch(((MapPcpResponse) mapIpReq.getResponse()).getEpochTime());
+            recorder.succeeded();
+        } finally {
+            recorder.finish();
         }
         
         LOG.debug("Unmap successful {}", mappedPort);
@@ -267,33 +303,65 @@ public final class PcpPortMapper implements PortMapper {
         Validate.notNull(mappedPort);
         Validate.isTrue(mappedPort instanceof PcpMappedPort);
         Validate.inclusiveBetween(1L, Long.MAX_VALUE, lifetime);
-        MappedPort newMappedPort = mapPort(mappedPort.getPortType(), mappedPort.getInternalPort(), mappedPort.getExternalPort(), lifetime);
         
+        // Refresh using the same nonce and suggest the currently assigned external IP/port -- as per RFC 6887 section 11.2.1, the server
+        // identifies this as the same mapping and extends it rather than creating a new one
+        byte[] nonce = ((PcpMappedPort) mappedPort).getNonce();
+        PortType portType = mappedPort.getPortType();
+        int internalPort = mappedPort.getInternalPort();
+        int externalPort = mappedPort.getExternalPort();
+        InetAddress externalAddress = mappedPort.getExternalAddress();
+        
+        MappedPort newMappedPort;
+        OperationRecorder recorder = PortMapperMetrics.startOperation(PcpPortMapper.class, gatewayAddress, Operation.REFRESH);
+        try {
+            UdpRequest mapIpReq = createMappingUdpRequest(nonce, portType, internalPort, externalPort,
+                    externalAddress == null ? ZERO_IPV6 : externalAddress, lifetime);
+            performUdpRequests(networkBus, Collections.singleton(mapIpReq), false, calculateExponentialBackoffTimes(4));
+            recorder.track(mapIpReq);
+            if (mapIpReq.getResponse() == null) {
+                throw new IllegalStateException("No response/invalid response to refreshing port");
+            }
+            MapPcpResponse mappingResp = ((MapPcpResponse) mapIpReq.getResponse());
+            epochTracker.updateEpoch(mappingResp.getEpochTime()); // notifies listeners if the gateway lost its state
+
+            newMappedPort = new PcpMappedPort(nonce, mappingResp.getInternalPort(), mappingResp.getAssignedExternalPort(),
+                    mappingResp.getAssignedExternalIpAddress(), portType, mappingResp.getLifetime());
+            if (mappedPort.getExternalPort() == newMappedPort.getExternalPort()
+                    && Objects.equals(mappedPort.getExternalAddress(), newMappedPort.getExternalAddress())) {
+                recorder.succeeded();
+            }
+        } finally {
+            recorder.finish();
+        }
+        
+        // The nonce is unchanged, so if the server did move the mapping (e.g. it lost state) the original mapped port can still be used
+        // to unmap it -- no need to unmap here
         if (mappedPort.getExternalPort() != newMappedPort.getExternalPort()
                 || !Objects.equals(mappedPort.getExternalAddress(), newMappedPort.getExternalAddress())) {
-            LOG.warn("Failed refresh mapping {}: ", mappedPort, newMappedPort);
-            try {
-                unmapPort(newMappedPort);
-            } catch (IllegalStateException ise) {
-                // do nothing
-            }
-            
+            LOG.warn("Failed refresh mapping {}: {}", mappedPort, newMappedPort);
             throw new IllegalStateException("External IP/port changed from "
                     + mappedPort.getExternalAddress() + ":" + mappedPort.getExternalPort()
                     + " to "
                     + newMappedPort.getExternalAddress() + ":" + newMappedPort.getExternalPort());
         }
         
-        LOG.debug("Mapping refreshed {}: ", mappedPort, newMappedPort);
+        LOG.debug("Mapping refreshed {}: {}", mappedPort, newMappedPort);
         
         return newMappedPort;
     }
 
     private UdpRequest createMappingUdpRequest(byte[] nonce, PortType portType, int internalPort, int externalPort, long lifetime) {
+        return createMappingUdpRequest(nonce, portType, internalPort, externalPort, ZERO_IPV6, lifetime);
+    }
+
+    private UdpRequest createMappingUdpRequest(final byte[] nonce, PortType portType, int internalPort, int externalPort,
+            InetAddress externalAddress, long lifetime) {
         UdpRequest mapIpReq = new UdpRequest(
                 internalAddress,
                 new InetSocketAddress(gatewayAddress, PORT),
-                new MapPcpRequest(nonce, portType.getProtocolNumber(), internalPort, externalPort, ZERO_IPV6, lifetime, internalAddress),
+                new MapPcpRequest(nonce, portType.getProtocolNumber(), internalPort, externalPort, externalAddress, lifetime,
+                        internalAddress),
                 new RequestToBytesTransformer() {
                     @Override
                     public byte[] create(Object request) {
@@ -303,11 +371,17 @@ public final class PcpPortMapper implements PortMapper {
                 new BytesToResponseTransformer() {
                     @Override
                     public Object create(byte[] buffer) {
-                        MapPcpResponse resp = new MapPcpResponse(buffer);
-                        if (resp.getResultCode() != PcpResultCode.SUCCESS.ordinal()) {
-                            throw new IllegalArgumentException();
+                        MapPcpResponseView view = MAP_RESPONSE_VIEW.get().wrap(ByteBuffer.wrap(buffer));
+                        if (!view.isMappingNonce(nonce)) {
+                            throw new IllegalArgumentException(); // response is for some other mapping
                         }
-                        return resp;
+                        int resultCode = view.getResultCode();
+                        if (resultCode != PcpResultCode.SUCCESS.ordinal()) {
+                            PcpResultCode[] resultCodes = PcpResultCode.values();
+                            throw new RouterErrorException(
+                                    resultCode < resultCodes.length ? resultCodes[resultCode].name() : String.valueOf(resultCode));
+                        }
+                        return new MapPcpResponse(buffer); // only the accepted reply gets decoded
                     }
                 });
         return mapIpReq;
@@ -318,6 +392,23 @@ public final class PcpPortMapper implements PortMapper {
         return internalAddress;
     }
 
+    /**
+     * Get the gateway address.
+     * @return gateway address
+     */
+    public InetAddress getGatewayAddress() {
+        return gatewayAddress;
+    }
+
+    /**
+     * Get the tracker for the gateway's epoch time and external address. Add a listener to be notified when the gateway loses its state
+     * or changes its external address.
+     * @return epoch tracker
+     */
+    public EpochTracker getEpochTracker() {
+        return epochTracker;
+    }
+
     private byte[] nextNonce() {
         byte[] mappingNonce = new byte[12];
         random.nextBytes(mappingNonce);
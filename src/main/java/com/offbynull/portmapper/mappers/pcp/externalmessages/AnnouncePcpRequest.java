@@ -16,6 +16,7 @@
 package com.offbynull.portmapper.mappers.pcp.externalmessages;
 
 import java.net.InetAddress;
+import java.nio.ByteBuffer;
 
 /**
  * Represents an ANNOUNCE PCP request. This request has no op-code specific payload.
@@ -59,6 +60,11 @@ public final class AnnouncePcpRequest extends PcpRequest {
         return new byte[OPCODE_SPECIFIC_DATA_LENGTH];
     }
 
+    @Override
+    protected void writeDataTo(ByteBuffer dst) {
+        // no opcode-specific data
+    }
+
     @Override
     public String toString() {
         return "AnnouncePcpRequest{super=" + super.toString() + '}';
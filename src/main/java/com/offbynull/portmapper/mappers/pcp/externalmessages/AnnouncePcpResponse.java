@@ -15,6 +15,8 @@
  */
 package com.offbynull.portmapper.mappers.pcp.externalmessages;
 
+import java.nio.ByteBuffer;
+
 /**
  * Represents an ANNOUNCE PCP response. This response has no op-code specific payload.
  * @author Kasra Faghihi
@@ -59,6 +61,11 @@ public final class AnnouncePcpResponse extends PcpResponse {
         return new byte[OPCODE_SPECIFIC_DATA_LENGTH];
     }
 
+    @Override
+    protected void writeDataTo(ByteBuffer dst) {
+        // no opcode-specific data
+    }
+
     @Override
     public String toString() {
         return "AnnouncePcpResponse{super=" + super.toString() + '}';
@@ -15,6 +15,7 @@
  */
 package com.offbynull.portmapper.mappers.pcp.externalmessages;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 import org.apache.commons.lang3.Validate;
@@ -90,6 +91,38 @@ final class InternalUtils {
     }
     
     
+    // ByteBuffer helpers below read/write byte-by-byte so that they're independent of the buffer's byte order
+    static int getInt(ByteBuffer buffer, int index) {
+        return ((buffer.get(index) & 0xFF) << 24)
+                | ((buffer.get(index + 1) & 0xFF) << 16)
+                | ((buffer.get(index + 2) & 0xFF) << 8)
+                | (buffer.get(index + 3) & 0xFF);
+    }
+
+    static void putInt(ByteBuffer buffer, int value) {
+        buffer.put((byte) ((value >> 24) & 0xFF));
+        buffer.put((byte) ((value >> 16) & 0xFF));
+        buffer.put((byte) ((value >> 8) & 0xFF));
+        buffer.put((byte) (value & 0xFF));
+    }
+
+    static short getShort(ByteBuffer buffer, int index) {
+        return (short)
+                (((buffer.get(index) & 0xFF) << 8)
+                | (buffer.get(index + 1) & 0xFF));
+    }
+
+    static void putShort(ByteBuffer buffer, short value) {
+        buffer.put((byte) ((value >> 8) & 0xFF));
+        buffer.put((byte) (value & 0xFF));
+    }
+
+    static void putZeros(ByteBuffer buffer, int count) {
+        for (int i = 0; i < count; i++) {
+            buffer.put((byte) 0);
+        }
+    }
+    
     static List<PcpOption> parseOptions(byte[] buffer, int offset) {
         Validate.notNull(buffer);
         Validate.isTrue(offset >= 0);
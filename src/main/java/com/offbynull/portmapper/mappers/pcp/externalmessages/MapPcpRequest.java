@@ -17,6 +17,7 @@ package com.offbynull.portmapper.mappers.pcp.externalmessages;
 
 import com.offbynull.portmapper.helpers.NetworkUtils;
 import java.net.InetAddress;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Objects;
 import org.apache.commons.lang3.Validate;
@@ -98,6 +99,7 @@ public final class MapPcpRequest extends PcpRequest {
     private int internalPort;
     private int suggestedExternalPort;
     private InetAddress suggestedExternalIpAddress;
+    private byte[] suggestedExternalIpAddressBytes; // IPv6 form of suggestedExternalIpAddress, kept for writeDataTo()
 
     /**
      * Constructs a {@link MapPcpRequest} object.
@@ -126,6 +128,7 @@ public final class MapPcpRequest extends PcpRequest {
         this.internalPort = internalPort;
         this.suggestedExternalPort = suggestedExternalPort;
         this.suggestedExternalIpAddress = suggestedExternalIpAddress; // for any ipv4 must be ::ffff:0:0, for any ipv6 must be ::
+        this.suggestedExternalIpAddressBytes = NetworkUtils.convertAddressToIpv6Bytes(suggestedExternalIpAddress);
     }
 
     /**
@@ -163,6 +166,7 @@ public final class MapPcpRequest extends PcpRequest {
         offset += 2;
 
         suggestedExternalIpAddress = NetworkUtils.convertBytesToAddress(buffer, offset, 16);
+        suggestedExternalIpAddressBytes = Arrays.copyOfRange(buffer, offset, offset + 16);
         offset += 16;
         
         validateState();
@@ -188,30 +192,20 @@ public final class MapPcpRequest extends PcpRequest {
     @Override
     public byte[] getData() {
         byte[] data = new byte[DATA_LENGTH];
-        
-        int offset = 0;
-        
-        System.arraycopy(mappingNonce, 0, data, offset, mappingNonce.length);
-        offset += mappingNonce.length;
-        
-        data[offset] = (byte) protocol;
-        offset++;
-        
-        offset += 3; // 3 reserved bytes
-        
-        InternalUtils.shortToBytes(data, offset, (short) internalPort);
-        offset += 2;
-        
-        InternalUtils.shortToBytes(data, offset, (short) suggestedExternalPort);
-        offset += 2;
-
-        byte[] ipv6Array = NetworkUtils.convertAddressToIpv6Bytes(suggestedExternalIpAddress);
-        System.arraycopy(ipv6Array, 0, data, offset, ipv6Array.length);
-        offset += ipv6Array.length;
-        
+        writeDataTo(ByteBuffer.wrap(data));
         return data;
     }
 
+    @Override
+    protected void writeDataTo(ByteBuffer dst) {
+        dst.put(mappingNonce);
+        dst.put((byte) protocol);
+        InternalUtils.putZeros(dst, 3); // 3 reserved bytes
+        InternalUtils.putShort(dst, (short) internalPort);
+        InternalUtils.putShort(dst, (short) suggestedExternalPort);
+        dst.put(suggestedExternalIpAddressBytes);
+    }
+
     /**
      * Get nonce.
      * @return nonce
@@ -17,6 +17,7 @@ package com.offbynull.portmapper.mappers.pcp.externalmessages;
 
 import com.offbynull.portmapper.helpers.NetworkUtils;
 import java.net.InetAddress;
+import java.nio.ByteBuffer;
 import java.nio.BufferUnderflowException; // NOPMD Javadoc not recognized (fixed in latest PMD but maven plugin has to catch up)
 import java.util.Arrays;
 import java.util.Objects;
@@ -86,6 +87,7 @@ public final class MapPcpResponse extends PcpResponse {
     private int internalPort;
     private int assignedExternalPort;
     private InetAddress assignedExternalIpAddress;
+    private byte[] assignedExternalIpAddressBytes; // IPv6 form of assignedExternalIpAddress, kept for writeDataTo()
 
     /**
      * Constructs a {@link MapPcpResponse} object.
@@ -114,6 +116,7 @@ public final class MapPcpResponse extends PcpResponse {
         this.internalPort = internalPort;
         this.assignedExternalPort = assignedExternalPort;
         this.assignedExternalIpAddress = assignedExternalIpAddress; // for any ipv4 must be ::ffff:0:0, for any ipv6 must be ::
+        this.assignedExternalIpAddressBytes = NetworkUtils.convertAddressToIpv6Bytes(assignedExternalIpAddress);
         
         validateState();
     }
@@ -155,6 +158,7 @@ public final class MapPcpResponse extends PcpResponse {
         offset += 2;
         
         assignedExternalIpAddress = NetworkUtils.convertBytesToAddress(buffer, offset, 16);
+        assignedExternalIpAddressBytes = Arrays.copyOfRange(buffer, offset, offset + 16);
         offset += 16;
         
         validateState();
@@ -179,30 +183,20 @@ public final class MapPcpResponse extends PcpResponse {
     @Override
     public byte[] getData() {
         byte[] data = new byte[DATA_LENGTH];
-        
-        int offset = 0;
-        
-        System.arraycopy(mappingNonce, 0, data, offset, mappingNonce.length);
-        offset += mappingNonce.length;
-        
-        data[offset] = (byte) protocol;
-        offset++;
-        
-        offset += 3; // 3 reserved bytes
-        
-        InternalUtils.shortToBytes(data, offset, (short) internalPort);
-        offset += 2;
-        
-        InternalUtils.shortToBytes(data, offset, (short) assignedExternalPort);
-        offset += 2;
-
-        byte[] ipv6Array = NetworkUtils.convertAddressToIpv6Bytes(assignedExternalIpAddress);
-        System.arraycopy(ipv6Array, 0, data, offset, ipv6Array.length);
-        offset += ipv6Array.length;
-        
+        writeDataTo(ByteBuffer.wrap(data));
         return data;
     }
 
+    @Override
+    protected void writeDataTo(ByteBuffer dst) {
+        dst.put(mappingNonce);
+        dst.put((byte) protocol);
+        InternalUtils.putZeros(dst, 3); // 3 reserved bytes
+        InternalUtils.putShort(dst, (short) internalPort);
+        InternalUtils.putShort(dst, (short) assignedExternalPort);
+        dst.put(assignedExternalIpAddressBytes);
+    }
+
     /**
      * Get nonce.
      * @return nonce
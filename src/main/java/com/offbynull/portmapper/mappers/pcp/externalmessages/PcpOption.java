@@ -15,6 +15,7 @@
  */
 package com.offbynull.portmapper.mappers.pcp.externalmessages;
 
+import java.nio.ByteBuffer;
 import org.apache.commons.lang3.Validate;
 
 /**
@@ -145,6 +146,37 @@ public abstract class PcpOption {
         return length;
     }
     
+    /**
+     * Write this PCP option in to a buffer (same format as {@link #dump() }). Written starting at {@code dst}'s position, which gets
+     * advanced by {@link #getBufferLength() }.
+     * @param dst buffer to write to
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalArgumentException if {@code dst} doesn't have enough space remaining
+     */
+    public final void writeTo(ByteBuffer dst) {
+        Validate.notNull(dst);
+        int bufferLength = getBufferLength();
+        Validate.isTrue(dst.remaining() >= bufferLength);
+        
+        int start = dst.position();
+        dst.put((byte) code); // pcp code
+        dst.put((byte) 0); // reserved
+        InternalUtils.putShort(dst, (short) dataLength); // length of pcp data
+        writeDataTo(dst); // pcp data
+        InternalUtils.putZeros(dst, bufferLength - (dst.position() - start)); // padding
+    }
+
+    // CHECKSTYLE:OFF:DesignForExtension
+    /**
+     * Write PCP option data in to a buffer (same format as {@link #getData() }). The default implementation writes the output of
+     * {@link #getData() }, override to avoid the intermediate array.
+     * @param dst buffer to write to
+     */
+    protected void writeDataTo(ByteBuffer dst) {
+        dst.put(getData());
+    }
+    // CHECKSTYLE:ON:DesignForExtension
+
     /**
      * Dump this PCP option in to a buffer.
      * @return buffer containing PCP option
@@ -18,6 +18,7 @@ package com.offbynull.portmapper.mappers.pcp.externalmessages;
 import com.offbynull.portmapper.helpers.NetworkUtils;
 import static com.offbynull.portmapper.mappers.pcp.externalmessages.InternalUtils.PCP_VERSION;
 import java.net.InetAddress;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -97,6 +98,7 @@ public abstract class PcpRequest implements PcpMessage {
     private int op;
     private long lifetime;
     private InetAddress internalIp;
+    private byte[] internalIpBytes; // internalIp as IPv6 bytes, kept so that writeTo() doesn't need to convert every time
     private List<PcpOption> options;
     
     private int dataLength;
@@ -119,6 +121,7 @@ public abstract class PcpRequest implements PcpMessage {
         this.op = op;
         this.lifetime = lifetime;
         this.internalIp = internalIp;
+        this.internalIpBytes = NetworkUtils.convertAddressToIpv6Bytes(internalIp);
         this.options = Collections.unmodifiableList(new ArrayList<>(Arrays.asList(options)));
 
         this.dataLength = opcodeSpecificDataLength;
@@ -163,6 +166,7 @@ public abstract class PcpRequest implements PcpMessage {
 
         // at offset 8, write ipv6 address
         internalIp = NetworkUtils.convertBytesToAddress(buffer, offset, 16);
+        internalIpBytes = Arrays.copyOfRange(buffer, offset, offset + 16);
         offset += 16;
         
         // skip over data block -- data block should be parsed by child class
@@ -243,50 +247,58 @@ public abstract class PcpRequest implements PcpMessage {
 
     @Override
     public final byte[] dump() {
-        // first pass calculates required size + gets dumps
-        int payloadLength = HEADER_LENGTH;
-        
-        byte[] opcodeSpecificData = getData();
-        payloadLength += opcodeSpecificData.length;
-        
-        List<byte[]> optionsData = new ArrayList<>(options.size());
-        for (PcpOption option : options) {
-            byte[] optionData = option.dump();
-            payloadLength += optionData.length;
-            optionsData.add(optionData);
-        }
-        
-        
-        // combine dumps and return
-        Validate.isTrue(payloadLength <= InternalUtils.MAX_UDP_PAYLOAD);
-        byte[] data = new byte[payloadLength];
+        byte[] data = new byte[calculateWriteLength()];
+        writeTo(ByteBuffer.wrap(data));
+        return data;
+    }
 
-        data[0] = 2;
-        data[1] = (byte) op; // topmost bit should be 0, because op is between 0 to 127, which means r-flag = 0
-        InternalUtils.shortToBytes(data, 2, (short) 0);
-        InternalUtils.intToBytes(data, 4, (int) lifetime);
+    /**
+     * Write this PCP request in to a buffer (same format as {@link #dump() }). Written starting at {@code dst}'s position, which gets
+     * advanced by the number of bytes written. Unlike {@link #dump() }, this method doesn't allocate any intermediate arrays (unless
+     * options that don't override {@link PcpOption#writeDataTo(java.nio.ByteBuffer) } are present).
+     * @param dst buffer to write to
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalArgumentException if {@code dst} doesn't have enough space remaining, or if the request exceeds the maximum PCP
+     * packet size
+     */
+    public final void writeTo(ByteBuffer dst) {
+        Validate.notNull(dst);
+        int length = calculateWriteLength();
+        Validate.isTrue(length <= InternalUtils.MAX_UDP_PAYLOAD);
+        Validate.isTrue(dst.remaining() >= length);
 
-        // at offset 8, write ipv6 address
-        byte[] selfAddressArr = NetworkUtils.convertAddressToIpv6Bytes(internalIp);
-        System.arraycopy(selfAddressArr, 0, data, 8, selfAddressArr.length);
+        dst.put((byte) PCP_VERSION);
+        dst.put((byte) op); // topmost bit should be 0, because op is between 0 to 127, which means r-flag = 0
+        InternalUtils.putShort(dst, (short) 0);
+        InternalUtils.putInt(dst, (int) lifetime);
+        dst.put(internalIpBytes);
 
-        int offset = 24;
-        
-        // write opcode-specific data
-        System.arraycopy(opcodeSpecificData, 0, data, offset, opcodeSpecificData.length);
-        offset += opcodeSpecificData.length;
+        writeDataTo(dst);
+
+        for (PcpOption option : options) {
+            option.writeTo(dst);
+        }
+    }
 
-        // write options data
-        for (byte[] optionData : optionsData) {
-            System.arraycopy(optionData, 0, data, offset, optionData.length);
-            offset += optionData.length;
+    private int calculateWriteLength() {
+        int length = HEADER_LENGTH + dataLength;
+        for (PcpOption option : options) {
+            length += option.getBufferLength();
         }
-        
-        
-        // return data
-        return data;
+        return length;
     }
 
+    // CHECKSTYLE:OFF:DesignForExtension
+    /**
+     * Write PCP opcode-specific data in to a buffer (same format as {@link #getData() }). The default implementation writes the output of
+     * {@link #getData() }, override to avoid the intermediate array.
+     * @param dst buffer to write to
+     */
+    protected void writeDataTo(ByteBuffer dst) {
+        dst.put(getData());
+    }
+    // CHECKSTYLE:ON:DesignForExtension
+
     // CHECKSTYLE:OFF:DesignForExtension
     @Override
     public String toString() {
@@ -16,6 +16,7 @@
 package com.offbynull.portmapper.mappers.pcp.externalmessages;
 
 import static com.offbynull.portmapper.mappers.pcp.externalmessages.InternalUtils.PCP_VERSION;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -264,48 +265,60 @@ public abstract class PcpResponse implements PcpMessage {
 
     @Override
     public final byte[] dump() {
-        // first pass calculates required size + gets dumps
-        int payloadLength = HEADER_LENGTH;
-        
-        byte[] opcodeSpecificData = getData();
-        payloadLength += opcodeSpecificData.length;
-        
-        List<byte[]> optionsData = new ArrayList<>(options.size());
-        for (PcpOption option : options) {
-            byte[] optionData = option.dump();
-            payloadLength += optionData.length;
-            optionsData.add(optionData);
-        }
-        
-        
-        // combine dumps and return
-        Validate.isTrue(payloadLength <= InternalUtils.MAX_UDP_PAYLOAD);
-        byte[] data = new byte[payloadLength];
+        byte[] data = new byte[calculateWriteLength()];
+        writeTo(ByteBuffer.wrap(data));
+        return data;
+    }
 
-        data[0] = 2;
-        data[1] = (byte) (op | 0x80); // topmost bit should be 1
-        data[2] = 0;
-        data[3] = (byte) resultCode;
-        InternalUtils.intToBytes(data, 4, (int) lifetime);
-        InternalUtils.intToBytes(data, 8, (int) epochTime);
+    /**
+     * Write this PCP response in to a buffer (same format as {@link #dump() }). Written starting at {@code dst}'s position, which gets
+     * advanced by the number of bytes written. Unlike {@link #dump() }, this method doesn't allocate any intermediate arrays (unless
+     * options that don't override {@link PcpOption#writeDataTo(java.nio.ByteBuffer) } are present).
+     * @param dst buffer to write to
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalArgumentException if {@code dst} doesn't have enough space remaining, or if the response exceeds the maximum PCP
+     * packet size
+     */
+    public final void writeTo(ByteBuffer dst) {
+        Validate.notNull(dst);
+        int length = calculateWriteLength();
+        Validate.isTrue(length <= InternalUtils.MAX_UDP_PAYLOAD);
+        Validate.isTrue(dst.remaining() >= length);
 
-        int offset = 24; // skip over reserved
-        
-        // write opcode-specific data
-        System.arraycopy(opcodeSpecificData, 0, data, offset, opcodeSpecificData.length);
-        offset += opcodeSpecificData.length;
+        dst.put((byte) PCP_VERSION);
+        dst.put((byte) (op | 0x80)); // topmost bit should be 1
+        dst.put((byte) 0);
+        dst.put((byte) resultCode);
+        InternalUtils.putInt(dst, (int) lifetime);
+        InternalUtils.putInt(dst, (int) epochTime);
+        InternalUtils.putZeros(dst, 12); // reserved
 
-        // write options data
-        for (byte[] optionData : optionsData) {
-            System.arraycopy(optionData, 0, data, offset, optionData.length);
-            offset += optionData.length;
+        writeDataTo(dst);
+
+        for (PcpOption option : options) {
+            option.writeTo(dst);
         }
-        
-        
-        // return data
-        return data;
     }
 
+    private int calculateWriteLength() {
+        int length = HEADER_LENGTH + dataLength;
+        for (PcpOption option : options) {
+            length += option.getBufferLength();
+        }
+        return length;
+    }
+
+    // CHECKSTYLE:OFF:DesignForExtension
+    /**
+     * Write PCP opcode-specific data in to a buffer (same format as {@link #getData() }). The default implementation writes the output of
+     * {@link #getData() }, override to avoid the intermediate array.
+     * @param dst buffer to write to
+     */
+    protected void writeDataTo(ByteBuffer dst) {
+        dst.put(getData());
+    }
+    // CHECKSTYLE:ON:DesignForExtension
+
     // CHECKSTYLE:OFF:DesignForExtension
     @Override
     public String toString() {
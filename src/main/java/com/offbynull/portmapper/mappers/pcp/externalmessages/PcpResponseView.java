@@ -0,0 +1,114 @@
+/*
+ * Copyright 2013-2016, Kasra Faghihi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.offbynull.portmapper.mappers.pcp.externalmessages;
+
+import static com.offbynull.portmapper.mappers.pcp.externalmessages.InternalUtils.PCP_VERSION;
+import java.nio.ByteBuffer;
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Read-only view over a PCP response that's sitting in a {@link ByteBuffer}. Unlike {@link PcpResponse} and its subclasses, a view
+ * doesn't copy or decode anything up front -- each accessor reads its field directly out of the wrapped buffer. This means a single view
+ * instance can be re-pointed at each incoming packet via {@code wrap()} without generating garbage.
+ * <p>
+ * The buffer isn't copied, so any changes made to it while it's wrapped will be visible through the view. The options region isn't
+ * parsed or validated. Use the {@link PcpResponse} subclasses if you need options or need to hold on to the response.
+ * @author Kasra Faghihi
+ */
+public abstract class PcpResponseView {
+    private static final int HEADER_LENGTH = 24;
+
+    private final int op;
+    private final int dataLength;
+
+    private ByteBuffer buffer;
+    private int start;
+
+    PcpResponseView(int op, int dataLength) {
+        Validate.inclusiveBetween(0, 127, op);
+        Validate.isTrue(dataLength >= 0);
+        this.op = op;
+        this.dataLength = dataLength;
+    }
+
+    final void wrapBuffer(ByteBuffer buffer) {
+        Validate.notNull(buffer);
+        
+        int start = buffer.position();
+        int length = buffer.remaining();
+        Validate.isTrue(length >= HEADER_LENGTH + dataLength);
+        Validate.isTrue(length <= InternalUtils.MAX_UDP_PAYLOAD);
+        
+        Validate.isTrue((buffer.get(start) & 0xFF) == PCP_VERSION); // check pcp version
+        int temp = buffer.get(start + 1) & 0xFF;
+        Validate.isTrue((temp & 128) == 128); // check top bit (r-flag) is 1
+        Validate.isTrue((temp & 0x7F) == op); // check op
+        
+        this.buffer = buffer;
+        this.start = start;
+    }
+
+    /**
+     * Get the offset within the wrapped buffer of a field in the opcode-specific data block.
+     * @param dataOffset offset of the field from the beginning of the opcode-specific data block
+     * @return offset of the field from the beginning of the wrapped buffer
+     * @throws IllegalStateException if no buffer is wrapped
+     */
+    final int dataIndex(int dataOffset) {
+        Validate.validState(buffer != null);
+        return start + HEADER_LENGTH + dataOffset;
+    }
+
+    final ByteBuffer buffer() {
+        Validate.validState(buffer != null);
+        return buffer;
+    }
+
+    /**
+     * Get opcode.
+     * @return opcode
+     */
+    public final int getOp() {
+        return op;
+    }
+
+    /**
+     * Get the result code. 0 means success.
+     * @return result code
+     * @throws IllegalStateException if no buffer is wrapped
+     */
+    public final int getResultCode() {
+        return buffer().get(start + 3) & 0xFF;
+    }
+
+    /**
+     * Get lifetime.
+     * @return lifetime in seconds
+     * @throws IllegalStateException if no buffer is wrapped
+     */
+    public final long getLifetime() {
+        return InternalUtils.getInt(buffer(), start + 4) & 0xFFFFFFFFL;
+    }
+
+    /**
+     * Get epoch time.
+     * @return epoch time in seconds
+     * @throws IllegalStateException if no buffer is wrapped
+     */
+    public final long getEpochTime() {
+        return InternalUtils.getInt(buffer(), start + 8) & 0xFFFFFFFFL;
+    }
+}
@@ -17,6 +17,7 @@ package com.offbynull.portmapper.mappers.pcp.externalmessages;
 
 import com.offbynull.portmapper.helpers.NetworkUtils;
 import java.net.InetAddress;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Objects;
 import org.apache.commons.lang3.Validate;
@@ -127,8 +128,10 @@ public final class PeerPcpRequest extends PcpRequest {
     private int internalPort;
     private int suggestedExternalPort;
     private InetAddress suggestedExternalIpAddress;
+    private byte[] suggestedExternalIpAddressBytes; // IPv6 form of suggestedExternalIpAddress, kept for writeDataTo()
     private int remotePeerPort;
     private InetAddress remotePeerIpAddress;
+    private byte[] remotePeerIpAddressBytes; // IPv6 form of remotePeerIpAddress, kept for writeDataTo()
     
     /**
      * Constructs a {@link PeerPcpRequest} object.
@@ -160,8 +163,10 @@ public final class PeerPcpRequest extends PcpRequest {
         this.internalPort = internalPort;
         this.suggestedExternalPort = suggestedExternalPort;
         this.suggestedExternalIpAddress = suggestedExternalIpAddress; // for any ipv4 must be ::ffff:0:0, for any ipv6 must be ::
+        this.suggestedExternalIpAddressBytes = NetworkUtils.convertAddressToIpv6Bytes(suggestedExternalIpAddress);
         this.remotePeerPort = remotePeerPort;
         this.remotePeerIpAddress = remotePeerIpAddress; // for any ipv4 must be ::ffff:0:0, for any ipv6 must be ::
+        this.remotePeerIpAddressBytes = NetworkUtils.convertAddressToIpv6Bytes(remotePeerIpAddress);
         
         validateState();
     }
@@ -201,6 +206,7 @@ public final class PeerPcpRequest extends PcpRequest {
         offset += 2;
 
         suggestedExternalIpAddress = NetworkUtils.convertBytesToAddress(buffer, offset, 16);
+        suggestedExternalIpAddressBytes = Arrays.copyOfRange(buffer, offset, offset + 16);
         offset += 16;
 
         remotePeerPort = InternalUtils.bytesToShort(buffer, offset) & 0xFFFF;
@@ -209,6 +215,7 @@ public final class PeerPcpRequest extends PcpRequest {
         offset += 2; // reserved
         
         remotePeerIpAddress = NetworkUtils.convertBytesToAddress(buffer, offset, 16);
+        remotePeerIpAddressBytes = Arrays.copyOfRange(buffer, offset, offset + 16);
         offset += 16;
         
         
@@ -229,39 +236,23 @@ public final class PeerPcpRequest extends PcpRequest {
     @Override
     public byte[] getData() {
         byte[] data = new byte[DATA_LENGTH];
-        
-        int offset = 0;
-        
-        System.arraycopy(mappingNonce, 0, data, offset, mappingNonce.length);
-        offset += mappingNonce.length;
-        
-        data[offset] = (byte) protocol;
-        offset++;
-        
-        offset += 3; // 3 reserved bytes
-        
-        InternalUtils.shortToBytes(data, offset, (short) internalPort);
-        offset += 2;
-        
-        InternalUtils.shortToBytes(data, offset, (short) suggestedExternalPort);
-        offset += 2;
-        
-        byte[] ipv6Array = NetworkUtils.convertAddressToIpv6Bytes(suggestedExternalIpAddress);
-        System.arraycopy(ipv6Array, 0, data, offset, ipv6Array.length);
-        offset += ipv6Array.length;
-
-        InternalUtils.shortToBytes(data, offset, (short) remotePeerPort);
-        offset += 2;
-        
-        offset += 2; // 2 reserved bytes
-
-        ipv6Array = NetworkUtils.convertAddressToIpv6Bytes(remotePeerIpAddress);
-        System.arraycopy(ipv6Array, 0, data, offset, ipv6Array.length);
-        offset += ipv6Array.length;
-        
+        writeDataTo(ByteBuffer.wrap(data));
         return data;
     }
 
+    @Override
+    protected void writeDataTo(ByteBuffer dst) {
+        dst.put(mappingNonce);
+        dst.put((byte) protocol);
+        InternalUtils.putZeros(dst, 3); // 3 reserved bytes
+        InternalUtils.putShort(dst, (short) internalPort);
+        InternalUtils.putShort(dst, (short) suggestedExternalPort);
+        dst.put(suggestedExternalIpAddressBytes);
+        InternalUtils.putShort(dst, (short) remotePeerPort);
+        InternalUtils.putZeros(dst, 2); // 2 reserved bytes
+        dst.put(remotePeerIpAddressBytes);
+    }
+
     /**
      * Get nonce.
      * @return nonce
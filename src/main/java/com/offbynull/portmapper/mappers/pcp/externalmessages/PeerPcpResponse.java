@@ -17,6 +17,7 @@ package com.offbynull.portmapper.mappers.pcp.externalmessages;
 
 import com.offbynull.portmapper.helpers.NetworkUtils;
 import java.net.InetAddress;
+import java.nio.ByteBuffer;
 import java.nio.BufferUnderflowException; // NOPMD Javadoc not recognized (fixed in latest PMD but maven plugin has to catch up)
 import java.util.Arrays;
 import java.util.Objects;
@@ -96,8 +97,10 @@ public final class PeerPcpResponse extends PcpResponse {
     private int internalPort;
     private int assignedExternalPort;
     private InetAddress assignedExternalIpAddress;
+    private byte[] assignedExternalIpAddressBytes; // IPv6 form of assignedExternalIpAddress, kept for writeDataTo()
     private int remotePeerPort;
     private InetAddress remotePeerIpAddress;
+    private byte[] remotePeerIpAddressBytes; // IPv6 form of remotePeerIpAddress, kept for writeDataTo()
 
     /**
      * Constructs a {@link PeerPcpResponse} object.
@@ -133,8 +136,10 @@ public final class PeerPcpResponse extends PcpResponse {
         this.internalPort = internalPort;
         this.assignedExternalPort = assignedExternalPort;
         this.assignedExternalIpAddress = assignedExternalIpAddress; // for any ipv4 must be ::ffff:0:0, for any ipv6 must be ::
+        this.assignedExternalIpAddressBytes = NetworkUtils.convertAddressToIpv6Bytes(assignedExternalIpAddress);
         this.remotePeerPort = remotePeerPort;
         this.remotePeerIpAddress = remotePeerIpAddress; // for any ipv4 must be ::ffff:0:0, for any ipv6 must be ::
+        this.remotePeerIpAddressBytes = NetworkUtils.convertAddressToIpv6Bytes(remotePeerIpAddress);
         
         validateState();
     }
@@ -176,6 +181,7 @@ public final class PeerPcpResponse extends PcpResponse {
         offset += 2;
 
         assignedExternalIpAddress = NetworkUtils.convertBytesToAddress(buffer, offset, 16);
+        assignedExternalIpAddressBytes = Arrays.copyOfRange(buffer, offset, offset + 16);
         offset += 16;
 
         remotePeerPort = InternalUtils.bytesToShort(buffer, offset) & 0xFFFF;
@@ -184,6 +190,7 @@ public final class PeerPcpResponse extends PcpResponse {
         offset += 2; // reserved
         
         remotePeerIpAddress = NetworkUtils.convertBytesToAddress(buffer, offset, 16);
+        remotePeerIpAddressBytes = Arrays.copyOfRange(buffer, offset, offset + 16);
         offset += 16;
         
         validateState();
@@ -207,39 +214,23 @@ public final class PeerPcpResponse extends PcpResponse {
     @Override
     public byte[] getData() {
         byte[] data = new byte[DATA_LENGTH];
-        
-        int offset = 0;
-        
-        System.arraycopy(mappingNonce, 0, data, offset, mappingNonce.length);
-        offset += mappingNonce.length;
-        
-        data[offset] = (byte) protocol;
-        offset++;
-        
-        offset += 3; // 3 reserved bytes
-        
-        InternalUtils.shortToBytes(data, offset, (short) internalPort);
-        offset += 2;
-        
-        InternalUtils.shortToBytes(data, offset, (short) assignedExternalPort);
-        offset += 2;
-        
-        byte[] ipv6Array = NetworkUtils.convertAddressToIpv6Bytes(assignedExternalIpAddress);
-        System.arraycopy(ipv6Array, 0, data, offset, ipv6Array.length);
-        offset += ipv6Array.length;
-
-        InternalUtils.shortToBytes(data, offset, (short) remotePeerPort);
-        offset += 2;
-        
-        offset += 2; // 2 reserved bytes
-
-        ipv6Array = NetworkUtils.convertAddressToIpv6Bytes(remotePeerIpAddress);
-        System.arraycopy(ipv6Array, 0, data, offset, ipv6Array.length);
-        offset += ipv6Array.length;
-        
+        writeDataTo(ByteBuffer.wrap(data));
         return data;
     }
 
+    @Override
+    protected void writeDataTo(ByteBuffer dst) {
+        dst.put(mappingNonce);
+        dst.put((byte) protocol);
+        InternalUtils.putZeros(dst, 3); // 3 reserved bytes
+        InternalUtils.putShort(dst, (short) internalPort);
+        InternalUtils.putShort(dst, (short) assignedExternalPort);
+        dst.put(assignedExternalIpAddressBytes);
+        InternalUtils.putShort(dst, (short) remotePeerPort);
+        InternalUtils.putZeros(dst, 2); // 2 reserved bytes
+        dst.put(remotePeerIpAddressBytes);
+    }
+
     /**
      * Get nonce.
      * @return nonce
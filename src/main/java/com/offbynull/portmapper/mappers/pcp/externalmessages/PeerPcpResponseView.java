@@ -0,0 +1,190 @@
+/*
+ * Copyright 2013-2016, Kasra Faghihi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.offbynull.portmapper.mappers.pcp.externalmessages;
+
+import com.offbynull.portmapper.helpers.NetworkUtils;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Read-only view over a PEER PCP response that's sitting in a {@link ByteBuffer}. Provides the same fields as {@link PeerPcpResponse},
+ * but reads them directly out of the buffer. See {@link PcpResponseView} for details.
+ * @author Kasra Faghihi
+ */
+public final class PeerPcpResponseView extends PcpResponseView {
+    private static final int OPCODE = 2;
+    private static final int DATA_LENGTH = 56;
+    private static final int NONCE_LENGTH = 12;
+    private static final int IP_LENGTH = 16;
+
+    private static final int NONCE_OFFSET = 0;
+    private static final int PROTOCOL_OFFSET = 12;
+    private static final int INTERNAL_PORT_OFFSET = 16;
+    private static final int ASSIGNED_EXTERNAL_PORT_OFFSET = 18;
+    private static final int ASSIGNED_EXTERNAL_IP_OFFSET = 20;
+    private static final int REMOTE_PEER_PORT_OFFSET = 36;
+    private static final int REMOTE_PEER_IP_OFFSET = 40;
+
+    /**
+     * Constructs a {@link PeerPcpResponseView} object. Call {@link #wrap(java.nio.ByteBuffer) } before accessing fields.
+     */
+    public PeerPcpResponseView() {
+        super(OPCODE, DATA_LENGTH);
+    }
+
+    /**
+     * Point this view at the PEER PCP response starting at {@code buffer}'s position and running to its limit. Neither the buffer's
+     * contents nor its position/limit are modified.
+     * @param buffer buffer containing PCP response
+     * @return this view
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalArgumentException if {@code buffer} isn't the right size (max of 1100 bytes) or if the version/r-flag/op don't match
+     * a PEER PCP response
+     */
+    public PeerPcpResponseView wrap(ByteBuffer buffer) {
+        wrapBuffer(buffer);
+        return this;
+    }
+
+    /**
+     * Copy nonce in to an array.
+     * @param dst array to copy to (must be 12 bytes)
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalArgumentException if {@code dst.length != 12}
+     * @throws IllegalStateException if no buffer is wrapped
+     */
+    public void getMappingNonce(byte[] dst) {
+        Validate.notNull(dst);
+        Validate.isTrue(dst.length == NONCE_LENGTH);
+        copyOut(NONCE_OFFSET, dst);
+    }
+
+    /**
+     * Check if nonce matches. Use this to match a response to the request it's for without copying out the nonce.
+     * @param nonce nonce to check against
+     * @return {@code true} if the nonce in the wrapped buffer matches {@code nonce}, {@code false} otherwise
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalStateException if no buffer is wrapped
+     */
+    public boolean isMappingNonce(byte[] nonce) {
+        Validate.notNull(nonce);
+        if (nonce.length != NONCE_LENGTH) {
+            return false;
+        }
+        
+        ByteBuffer buffer = buffer();
+        int index = dataIndex(NONCE_OFFSET);
+        for (int i = 0; i < NONCE_LENGTH; i++) {
+            if (buffer.get(index + i) != nonce[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get IANA protocol number.
+     * @return IANA protocol number
+     * @throws IllegalStateException if no buffer is wrapped
+     */
+    public int getProtocol() {
+        return buffer().get(dataIndex(PROTOCOL_OFFSET)) & 0xFF;
+    }
+
+    /**
+     * Get internal port number.
+     * @return internal port number
+     * @throws IllegalStateException if no buffer is wrapped
+     */
+    public int getInternalPort() {
+        return InternalUtils.getShort(buffer(), dataIndex(INTERNAL_PORT_OFFSET)) & 0xFFFF;
+    }
+
+    /**
+     * Get assigned external port number.
+     * @return assigned external port number
+     * @throws IllegalStateException if no buffer is wrapped
+     */
+    public int getAssignedExternalPort() {
+        return InternalUtils.getShort(buffer(), dataIndex(ASSIGNED_EXTERNAL_PORT_OFFSET)) & 0xFFFF;
+    }
+
+    /**
+     * Copy assigned external IP address (in IPv6 form -- IPv4 addresses are IPv4-mapped) in to an array.
+     * @param dst array to copy to (must be 16 bytes)
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalArgumentException if {@code dst.length != 16}
+     * @throws IllegalStateException if no buffer is wrapped
+     */
+    public void getAssignedExternalIpAddress(byte[] dst) {
+        Validate.notNull(dst);
+        Validate.isTrue(dst.length == IP_LENGTH);
+        copyOut(ASSIGNED_EXTERNAL_IP_OFFSET, dst);
+    }
+
+    /**
+     * Get assigned external IP address. Allocates, use {@link #getAssignedExternalIpAddress(byte[]) } on hot paths.
+     * @return assigned external IP address
+     * @throws IllegalStateException if no buffer is wrapped
+     */
+    public InetAddress getAssignedExternalIpAddress() {
+        byte[] ip = new byte[IP_LENGTH];
+        copyOut(ASSIGNED_EXTERNAL_IP_OFFSET, ip);
+        return NetworkUtils.convertBytesToAddress(ip);
+    }
+
+    /**
+     * Get remote peer port number.
+     * @return remote peer port number
+     * @throws IllegalStateException if no buffer is wrapped
+     */
+    public int getRemotePeerPort() {
+        return InternalUtils.getShort(buffer(), dataIndex(REMOTE_PEER_PORT_OFFSET)) & 0xFFFF;
+    }
+
+    /**
+     * Copy remote peer IP address (in IPv6 form -- IPv4 addresses are IPv4-mapped) in to an array.
+     * @param dst array to copy to (must be 16 bytes)
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalArgumentException if {@code dst.length != 16}
+     * @throws IllegalStateException if no buffer is wrapped
+     */
+    public void getRemotePeerIpAddress(byte[] dst) {
+        Validate.notNull(dst);
+        Validate.isTrue(dst.length == IP_LENGTH);
+        copyOut(REMOTE_PEER_IP_OFFSET, dst);
+    }
+
+    /**
+     * Get remote peer IP address. Allocates, use {@link #getRemotePeerIpAddress(byte[]) } on hot paths.
+     * @return remote peer IP address
+     * @throws IllegalStateException if no buffer is wrapped
+     */
+    public InetAddress getRemotePeerIpAddress() {
+        byte[] ip = new byte[IP_LENGTH];
+        copyOut(REMOTE_PEER_IP_OFFSET, ip);
+        return NetworkUtils.convertBytesToAddress(ip);
+    }
+
+    private void copyOut(int dataOffset, byte[] dst) {
+        ByteBuffer buffer = buffer();
+        int index = dataIndex(dataOffset);
+        for (int i = 0; i < dst.length; i++) {
+            dst[i] = buffer.get(index + i);
+        }
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright 2013-2016, Kasra Faghihi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.offbynull.portmapper.mappers.upnpigd;
+
+import com.offbynull.portmapper.mappers.upnpigd.externalmessages.ServiceDescriptionUpnpIgdResponse;
+import com.offbynull.portmapper.mappers.upnpigd.externalmessages.ServiceDescriptionUpnpIgdResponse.IdentifiedService;
+import com.offbynull.portmapper.mappers.upnpigd.externalmessages.ServiceDescriptionUpnpIgdResponse.ServiceType;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import org.apache.commons.lang3.Validate;
+
+// Bounded LRU cache of what was learned from UPnP-IGD devices' root descriptions and SCPDs, so that identify() doesn't have to download and
+// parse them again for devices that haven't changed.
+//
+// Entries are keyed by root description LOCATION and hold the parsed results (the control URL, service type and identified service of each
+// usable service), not the XML. An entry is only used if the BOOTID.UPNP.ORG and CONFIGID.UPNP.ORG that came with the SSDP response match
+// the ones that came with the SSDP response the entry was created from -- CONFIGID changes whenever a device's descriptions change and
+// BOOTID changes whenever it reboots. UPnP 1.0 devices send neither, so nothing is ever served from the cache for them.
+//
+// Separately, parsed SCPDs are cached by a digest of their content, since some devices serve identical SCPDs under several URLs (e.g. one
+// per WAN connection). That saves the parse but not the download.
+//
+// This class is thread-safe.
+final class DescriptionCache {
+
+    private static final String DIGEST_ALGORITHM = "SHA-256";
+    private static final byte[] HEADER_SPLIT_POINT = "\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    private final Map<String, Entry> locations; // URL.equals()/hashCode() do DNS lookups, so key on URL.toExternalForm()
+    private final Map<ByteBuffer, Map<ServiceType, IdentifiedService>> scpds;
+
+    DescriptionCache(int maxLocations, int maxScpds) {
+        Validate.isTrue(maxLocations > 0);
+        Validate.isTrue(maxScpds > 0);
+        this.locations = new LruMap<>(maxLocations);
+        this.scpds = new LruMap<>(maxScpds);
+    }
+
+    // returns null if there's no entry or the entry is stale
+    synchronized List<CachedService> get(URL location, Long bootId, Long configId) {
+        Validate.notNull(location);
+        if (bootId == null && configId == null) {
+            return null; // can't tell if device has changed
+        }
+
+        String key = location.toExternalForm();
+        Entry entry = locations.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (!Objects.equals(entry.bootId, bootId) || !Objects.equals(entry.configId, configId)) {
+            locations.remove(key);
+            return null;
+        }
+        return entry.services;
+    }
+
+    synchronized void put(URL location, Long bootId, Long configId, List<CachedService> services) {
+        Validate.notNull(location);
+        Validate.notNull(services);
+        Validate.noNullElements(services);
+        if (bootId == null && configId == null) {
+            return; // can't ever be validated, so don't bother
+        }
+        locations.put(location.toExternalForm(), new Entry(bootId, configId, services));
+    }
+
+    synchronized void clear() {
+        locations.clear();
+        scpds.clear();
+    }
+
+    synchronized int size() {
+        return locations.size();
+    }
+
+    Map<ServiceType, IdentifiedService> parseScpd(byte[] buffer) {
+        Validate.notNull(buffer);
+        ByteBuffer key = ByteBuffer.wrap(digestContent(buffer));
+
+        synchronized (this) {
+            Map<ServiceType, IdentifiedService> cached = scpds.get(key);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        // parse outside of lock -- worst case the same SCPD gets parsed more than once concurrently
+        Map<ServiceType, IdentifiedService> services = Collections.unmodifiableMap(
+                new ServiceDescriptionUpnpIgdResponse(buffer).getIdentifiedServices());
+
+        synchronized (this) {
+            scpds.put(key, services);
+        }
+        return services;
+    }
+
+    // digest only the body -- headers (e.g. Date) may differ between responses with the same XML
+    private static byte[] digestContent(byte[] buffer) {
+        int contentStart = indexOf(buffer, HEADER_SPLIT_POINT);
+        contentStart = contentStart == -1 ? 0 : contentStart + HEADER_SPLIT_POINT.length;
+
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+        } catch (NoSuchAlgorithmException nsae) {
+            throw new IllegalStateException(nsae); // should never happen -- every JVM is required to support SHA-256
+        }
+        digest.update(buffer, contentStart, buffer.length - contentStart);
+        return digest.digest();
+    }
+
+    private static int indexOf(byte[] buffer, byte[] target) {
+        next:
+        for (int i = 0; i <= buffer.length - target.length; i++) {
+            for (int j = 0; j < target.length; j++) {
+                if (buffer[i + j] != target[j]) {
+                    continue next;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    static final class CachedService {
+        private final String serviceType;
+        private final URL controlUrl;
+        private final ServiceType identifiedServiceType;
+        private final IdentifiedService identifiedService;
+
+        CachedService(String serviceType, URL controlUrl, ServiceType identifiedServiceType, IdentifiedService identifiedService) {
+            Validate.notNull(serviceType);
+            Validate.notNull(controlUrl);
+            Validate.notNull(identifiedServiceType);
+            Validate.notNull(identifiedService);
+            this.serviceType = serviceType;
+            this.controlUrl = controlUrl;
+            this.identifiedServiceType = identifiedServiceType;
+            this.identifiedService = identifiedService;
+        }
+
+        String getServiceType() {
+            return serviceType;
+        }
+
+        URL getControlUrl() {
+            return controlUrl;
+        }
+
+        ServiceType getIdentifiedServiceType() {
+            return identifiedServiceType;
+        }
+
+        IdentifiedService getIdentifiedService() {
+            return identifiedService;
+        }
+    }
+
+    private static final class Entry {
+        private final Long bootId;
+        private final Long configId;
+        private final List<CachedService> services;
+
+        Entry(Long bootId, Long configId, List<CachedService> services) {
+            this.bootId = bootId;
+            this.configId = configId;
+            this.services = Collections.unmodifiableList(new ArrayList<>(services));
+        }
+    }
+
+    private static final class LruMap<K, V> extends LinkedHashMap<K, V> {
+        private static final long serialVersionUID = 1L;
+
+        private final int maxSize;
+
+        LruMap(int maxSize) {
+            super(16, 0.75f, true);
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+            return size() > maxSize;
+        }
+    }
+}
@@ -16,6 +16,9 @@
 package com.offbynull.portmapper.mappers.upnpigd;
 
 import com.offbynull.portmapper.mapper.MappedPort;
+import com.offbynull.portmapper.mapper.PortMapperMetrics;
+import com.offbynull.portmapper.mapper.PortMapperMetrics.OperationRecorder;
+import com.offbynull.portmapper.mapper.PortMapperMetricsListener.Operation;
 import com.offbynull.portmapper.mapper.PortType;
 import com.offbynull.portmapper.gateway.Bus;
 import com.offbynull.portmapper.mapper.MapperIoUtils.BytesToResponseTransformer;
@@ -84,70 +87,78 @@ public final class FirewallUpnpIgdPortMapper extends UpnpIgdPortMapper {
         String serviceType = getServiceType();
         InetAddress internalAddress = getInternalAddress();
 
-        // attempt to map 5 times -- first attempt should be 3 tries to map the externalPort passed in... anything after that is 1 attempt
-        // to map a randomized externalPort
-        long[] retryDurations = new long[] {5000L, 5000L, 5000L};
-        for (int i = 0; i < 5; i++) {
-            Range<Long> externalPortRange = getExternalPortRange();
-            Range<Long> leaseDurationRange = getLeaseDurationRange();
-            long leaseDuration;
-            if (leaseDurationRange.isBefore(lifetime)) {
-                leaseDuration = leaseDurationRange.getMaximum();
-            } else if (leaseDurationRange.isAfter(lifetime)) {
-                leaseDuration = leaseDurationRange.getMinimum();
-            } else {
-                leaseDuration = lifetime;
-            }
+        OperationRecorder recorder = PortMapperMetrics.startOperation(FirewallUpnpIgdPortMapper.class, controlUrlAddress.getAddress(),
+                Operation.MAP);
+        try {
+            // attempt to map 5 times -- first attempt should be 3 tries to map the externalPort passed in... anything after that is 1
+            // attempt to map a randomized externalPort
+            long[] retryDurations = new long[] {5000L, 5000L, 5000L};
+            for (int i = 0; i < 5; i++) {
+                Range<Long> externalPortRange = getExternalPortRange();
+                Range<Long> leaseDurationRange = getLeaseDurationRange();
+                long leaseDuration;
+                if (leaseDurationRange.isBefore(lifetime)) {
+                    leaseDuration = leaseDurationRange.getMaximum();
+                } else if (leaseDurationRange.isAfter(lifetime)) {
+                    leaseDuration = leaseDurationRange.getMinimum();
+                } else {
+                    leaseDuration = lifetime;
+                }
 
-            Validate.validState(externalPortRange.contains((long) externalPort),
-                    "Router reports external port mappings as %s", externalPortRange);
+                Validate.validState(externalPortRange.contains((long) externalPort),
+                        "Router reports external port mappings as %s", externalPortRange);
 
-            TcpRequest mapHttpRequest = new TcpRequest(
-                    internalAddress,
-                    controlUrlAddress,
-                    new AddPinholeUpnpIgdRequest(
-                            controlUrl.getAuthority(),
-                            controlUrl.getFile(),
-                            serviceType,
-                            null,
-                            externalPort,
-                            internalAddress,
-                            internalPort,
-                            portType,
-                            leaseDuration),
-                    new BasicRequestTransformer(),
-                    new BytesToResponseTransformer() {
-                        @Override
-                        public Object create(byte[] buffer) {
-                            return new AddPinholeUpnpIgdResponse(buffer);
-                        }
-                    });
+                TcpRequest mapHttpRequest = new TcpRequest(
+                        internalAddress,
+                        controlUrlAddress,
+                        new AddPinholeUpnpIgdRequest(
+                                controlUrl.getAuthority(),
+                                controlUrl.getFile(),
+                                serviceType,
+                                null,
+                                externalPort,
+                                internalAddress,
+                                internalPort,
+                                portType,
+                                leaseDuration),
+                        new BasicRequestTransformer(),
+                        new BytesToResponseTransformer() {
+                            @Override
+                            public Object create(byte[] buffer) {
+                                return new AddPinholeUpnpIgdResponse(buffer);
+                            }
+                        });
 
-            performTcpRequests(
-                    networkBus,
-                    Collections.singleton(mapHttpRequest),
-                    retryDurations);
+                performTcpRequests(
+                        networkBus,
+                        Collections.singleton(mapHttpRequest),
+                        retryDurations);
+                recorder.track(mapHttpRequest);
 
-            if (mapHttpRequest.getResponse() != null) {
-                // server responded, so we're good to go
-                String key = ((AddPinholeUpnpIgdResponse) mapHttpRequest.getResponse()).getUniqueId();
+                if (mapHttpRequest.getResponse() != null) {
+                    // server responded, so we're good to go
+                    String key = ((AddPinholeUpnpIgdResponse) mapHttpRequest.getResponse()).getUniqueId();
                 
-                MappedPort mappedPort = new FirewallMappedPort(key, internalPort, externalPort, portType, leaseDuration);
-                LOG.debug("Map successful {}", mappedPort);
+                    MappedPort mappedPort = new FirewallMappedPort(key, internalPort, externalPort, portType, leaseDuration);
+                    LOG.debug("Map successful {}", mappedPort);
+                    recorder.succeeded();
                 
-                return mappedPort;
-            }
+                    return mappedPort;
+                }
             
-            // choose another external port for next try -- next try only make 1 attempt
-            retryDurations = new long[] {5000L};
-            externalPort = RandomUtils.nextInt(
-                    externalPortRange.getMinimum().intValue(), // should never be < 1
-                    externalPortRange.getMaximum().intValue() + 1); // should never be > 65535
-        }
+                // choose another external port for next try -- next try only make 1 attempt
+                retryDurations = new long[] {5000L};
+                externalPort = RandomUtils.nextInt(
+                        externalPortRange.getMinimum().intValue(), // should never be < 1
+                        externalPortRange.getMaximum().intValue() + 1); // should never be > 65535
+            }
         
         
         
-        throw new IllegalStateException();
+            throw new IllegalStateException();
+        } finally {
+            recorder.finish();
+        }
     }
 
     @Override
@@ -163,29 +174,37 @@ public final class FirewallUpnpIgdPortMapper extends UpnpIgdPortMapper {
         String key = ((FirewallMappedPort) mappedPort).getKey();
         InetAddress internalAddress = getInternalAddress();
         
-        TcpRequest httpRequest = new TcpRequest(
-                internalAddress,
-                controlUrlAddress,
-                new DeletePinholeUpnpIgdRequest(
-                        controlUrl.getAuthority(),
-                        controlUrl.getFile(),
-                        serviceType,
-                        key),
-                new BasicRequestTransformer(),
-                new BytesToResponseTransformer() {
-                    @Override
-                    public Object create(byte[] buffer) {
-                        return new DeletePinholeUpnpIgdResponse(buffer);
-                    }
-                });
-        
-        performTcpRequests(
-                networkBus,
-                Collections.singleton(httpRequest),
-                5000L, 5000L, 5000L);
-        
-        if (httpRequest.getResponse() == null) {
-            throw new IllegalStateException("No response/invalid response to unmapping");
+        OperationRecorder recorder = PortMapperMetrics.startOperation(FirewallUpnpIgdPortMapper.class, controlUrlAddress.getAddress(),
+                Operation.UNMAP);
+        try {
+            TcpRequest httpRequest = new TcpRequest(
+                    internalAddress,
+                    controlUrlAddress,
+                    new DeletePinholeUpnpIgdRequest(
+                            controlUrl.getAuthority(),
+                            controlUrl.getFile(),
+                            serviceType,
+                            key),
+                    new BasicRequestTransformer(),
+                    new BytesToResponseTransformer() {
+                        @Override
+                        public Object create(byte[] buffer) {
+                            return new DeletePinholeUpnpIgdResponse(buffer);
+                        }
+                    });
+        
+            performTcpRequests(
+                    networkBus,
+                    Collections.singleton(httpRequest),
+                    5000L, 5000L, 5000L);
+            recorder.track(httpRequest);
+        
+            if (httpRequest.getResponse() == null) {
+                throw new IllegalStateException("No response/invalid response to unmapping");
+            }
+            recorder.succeeded();
+        } finally {
+            recorder.finish();
         }
         
         LOG.debug("Unmap successful {}", mappedPort);
@@ -213,30 +232,38 @@ public final class FirewallUpnpIgdPortMapper extends UpnpIgdPortMapper {
         String key = ((FirewallMappedPort) mappedPort).getKey();
         InetAddress internalAddress = getInternalAddress();
         
-        TcpRequest httpRequest = new TcpRequest(
-                internalAddress,
-                controlUrlAddress,
-                new UpdatePinholeUpnpIgdRequest(
-                        controlUrl.getAuthority(),
-                        controlUrl.getFile(),
-                        serviceType,
-                        key,
-                        leaseDuration),
-                new BasicRequestTransformer(),
-                new BytesToResponseTransformer() {
-                    @Override
-                    public Object create(byte[] buffer) {
-                        return new UpdatePinholeUpnpIgdResponse(buffer);
-                    }
-                });
-        
-        performTcpRequests(
-                networkBus,
-                Collections.singleton(httpRequest),
-                5000L, 5000L, 5000L);
-        
-        if (httpRequest.getResponse() == null) {
-            throw new IllegalStateException("No response/invalid response to refresh");
+        OperationRecorder recorder = PortMapperMetrics.startOperation(FirewallUpnpIgdPortMapper.class, controlUrlAddress.getAddress(),
+                Operation.REFRESH);
+        try {
+            TcpRequest httpRequest = new TcpRequest(
+                    internalAddress,
+                    controlUrlAddress,
+                    new UpdatePinholeUpnpIgdRequest(
+                            controlUrl.getAuthority(),
+                            controlUrl.getFile(),
+                            serviceType,
+                            key,
+                            leaseDuration),
+                    new BasicRequestTransformer(),
+                    new BytesToResponseTransformer() {
+                        @Override
+                        public Object create(byte[] buffer) {
+                            return new UpdatePinholeUpnpIgdResponse(buffer);
+                        }
+                    });
+        
+            performTcpRequests(
+                    networkBus,
+                    Collections.singleton(httpRequest),
+                    5000L, 5000L, 5000L);
+            recorder.track(httpRequest);
+        
+            if (httpRequest.getResponse() == null) {
+                throw new IllegalStateException("No response/invalid response to refresh");
+            }
+            recorder.succeeded();
+        } finally {
+            recorder.finish();
         }
         
         FirewallMappedPort newMappedPort = new FirewallMappedPort(key, mappedPort.getInternalPort(), mappedPort.getExternalPort(),
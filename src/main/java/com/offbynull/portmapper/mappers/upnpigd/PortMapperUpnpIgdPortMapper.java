@@ -16,6 +16,9 @@
 package com.offbynull.portmapper.mappers.upnpigd;
 
 import com.offbynull.portmapper.mapper.MappedPort;
+import com.offbynull.portmapper.mapper.PortMapperMetrics;
+import com.offbynull.portmapper.mapper.PortMapperMetrics.OperationRecorder;
+import com.offbynull.portmapper.mapper.PortMapperMetricsListener.Operation;
 import com.offbynull.portmapper.mapper.PortType;
 import com.offbynull.portmapper.gateway.Bus;
 import com.offbynull.portmapper.mapper.MapperIoUtils.BytesToResponseTransformer;
@@ -86,6 +89,19 @@ public final class PortMapperUpnpIgdPortMapper extends UpnpIgdPortMapper {
         Validate.inclusiveBetween(1, 65535, internalPort);
         Validate.inclusiveBetween(1L, Long.MAX_VALUE, lifetime);
 
+        OperationRecorder recorder = PortMapperMetrics.startOperation(PortMapperUpnpIgdPortMapper.class, controlUrlAddress.getAddress(),
+                Operation.MAP);
+        try {
+            MappedPort mappedPort = mapPort(recorder, portType, internalPort, externalPort, lifetime);
+            recorder.succeeded();
+            return mappedPort;
+        } finally {
+            recorder.finish();
+        }
+    }
+
+    private MappedPort mapPort(OperationRecorder recorder, PortType portType, int internalPort, int externalPort, long lifetime)
+            throws InterruptedException {
         Bus networkBus = getNetworkBus();
         URL controlUrl = getControlUrl();
         String serviceType = getServiceType();
@@ -115,6 +131,7 @@ public final class PortMapperUpnpIgdPortMapper extends UpnpIgdPortMapper {
                 networkBus,
                 Collections.singleton(externalIpHttpRequest),
                 5000L, 5000L, 5000L);
+        recorder.track(externalIpHttpRequest);
         
         if (externalIpHttpRequest.getResponse() == null) {
             throw new IllegalStateException("No response/invalid response to getting external IP");
@@ -129,17 +146,17 @@ public final class PortMapperUpnpIgdPortMapper extends UpnpIgdPortMapper {
         //
         MappedPort mappedPort;
         if (hasAddAnyPortMappingMethod) {
-            mappedPort = newMapPort(portType, internalPort, externalPort, lifetime, externalAddress);
+            mappedPort = newMapPort(recorder, portType, internalPort, externalPort, lifetime, externalAddress);
         } else {
-            mappedPort = oldMapPort(portType, internalPort, externalPort, lifetime, externalAddress);
+            mappedPort = oldMapPort(recorder, portType, internalPort, externalPort, lifetime, externalAddress);
         }
         LOG.debug("Map successful {}", mappedPort);
         
         return mappedPort;
     }
     
-    private MappedPort newMapPort(PortType portType, int internalPort, int externalPort, long lifetime, InetAddress externalAddress)
-            throws InterruptedException {
+    private MappedPort newMapPort(OperationRecorder recorder, PortType portType, int internalPort, int externalPort, long lifetime,
+            InetAddress externalAddress) throws InterruptedException {
         Bus networkBus = getNetworkBus();
         URL controlUrl = getControlUrl();
         String serviceType = getServiceType();
@@ -185,6 +202,7 @@ public final class PortMapperUpnpIgdPortMapper extends UpnpIgdPortMapper {
                 networkBus,
                 Collections.singleton(mapHttpRequest),
                 5000L, 5000L, 5000L);
+        recorder.track(mapHttpRequest);
         
         if (mapHttpRequest.getResponse() == null) {
             throw new IllegalStateException("No response/invalid response to mapping");
@@ -201,8 +219,8 @@ public final class PortMapperUpnpIgdPortMapper extends UpnpIgdPortMapper {
                 leaseDuration);
     }
     
-    private MappedPort oldMapPort(PortType portType, int internalPort, int externalPort, long lifetime, InetAddress externalAddress)
-            throws InterruptedException {
+    private MappedPort oldMapPort(OperationRecorder recorder, PortType portType, int internalPort, int externalPort, long lifetime,
+            InetAddress externalAddress) throws InterruptedException {
         Bus networkBus = getNetworkBus();
         URL controlUrl = getControlUrl();
         String serviceType = getServiceType();
@@ -253,6 +271,7 @@ public final class PortMapperUpnpIgdPortMapper extends UpnpIgdPortMapper {
                     networkBus,
                     Collections.singleton(mapHttpRequest),
                     retryDurations);
+            recorder.track(mapHttpRequest);
 
             if (mapHttpRequest.getResponse() != null) {
                 // server responded, so we're good to go
@@ -290,31 +309,39 @@ public final class PortMapperUpnpIgdPortMapper extends UpnpIgdPortMapper {
         InetAddress internalAddress = getInternalAddress();
         PortType portType = mappedPort.getPortType();
         
-        TcpRequest httpRequest = new TcpRequest(
-                internalAddress,
-                controlUrlAddress,
-                new DeletePortMappingUpnpIgdRequest(
-                        controlUrl.getAuthority(),
-                        controlUrl.getFile(),
-                        serviceType,
-                        null,
-                        externalPort,
-                        portType),
-                new BasicRequestTransformer(),
-                new BytesToResponseTransformer() {
-                    @Override
-                    public Object create(byte[] buffer) {
-                        return new DeletePortMappingUpnpIgdResponse(buffer);
-                    }
-                });
-        
-        performTcpRequests(
-                networkBus,
-                Collections.singleton(httpRequest),
-                5000L, 5000L, 5000L);
-        
-        if (httpRequest.getResponse() == null) {
-            throw new IllegalStateException("No response/invalid response to unmapping");
+        OperationRecorder recorder = PortMapperMetrics.startOperation(PortMapperUpnpIgdPortMapper.class, controlUrlAddress.getAddress(),
+                Operation.UNMAP);
+        try {
+            TcpRequest httpRequest = new TcpRequest(
+                    internalAddress,
+                    controlUrlAddress,
+                    new DeletePortMappingUpnpIgdRequest(
+                            controlUrl.getAuthority(),
+                            controlUrl.getFile(),
+                            serviceType,
+                            null,
+                            externalPort,
+                            portType),
+                    new BasicRequestTransformer(),
+                    new BytesToResponseTransformer() {
+                        @Override
+                        public Object create(byte[] buffer) {
+                            return new DeletePortMappingUpnpIgdResponse(buffer);
+                        }
+                    });
+
+            performTcpRequests(
+                    networkBus,
+                    Collections.singleton(httpRequest),
+                    5000L, 5000L, 5000L);
+            recorder.track(httpRequest);
+
+            if (httpRequest.getResponse() == null) {
+                throw new IllegalStateException("No response/invalid response to unmapping");
+            }
+            recorder.succeeded();
+        } finally {
+            recorder.finish();
         }
         
         LOG.debug("Unmap successful {}", mappedPort);
@@ -327,7 +354,20 @@ public final class PortMapperUpnpIgdPortMapper extends UpnpIgdPortMapper {
         Validate.notNull(mappedPort);
         Validate.isTrue(mappedPort instanceof PortMapperMappedPort);
         Validate.inclusiveBetween(1L, Long.MAX_VALUE, lifetime);
-        MappedPort newMappedPort = mapPort(mappedPort.getPortType(), mappedPort.getInternalPort(), mappedPort.getExternalPort(), lifetime);
+
+        MappedPort newMappedPort;
+        OperationRecorder recorder = PortMapperMetrics.startOperation(PortMapperUpnpIgdPortMapper.class, controlUrlAddress.getAddress(),
+                Operation.REFRESH);
+        try {
+            newMappedPort = mapPort(recorder, mappedPort.getPortType(), mappedPort.getInternalPort(), mappedPort.getExternalPort(),
+                    lifetime);
+            if (mappedPort.getExternalPort() == newMappedPort.getExternalPort()
+                    && Objects.equals(mappedPort.getExternalAddress(), newMappedPort.getExternalAddress())) {
+                recorder.succeeded();
+            }
+        } finally {
+            recorder.finish();
+        }
         
         if (mappedPort.getExternalPort() != newMappedPort.getExternalPort()
                 || !Objects.equals(mappedPort.getExternalAddress(), newMappedPort.getExternalAddress())) {
@@ -349,6 +389,14 @@ public final class PortMapperUpnpIgdPortMapper extends UpnpIgdPortMapper {
         return newMappedPort;
     }
 
+    /**
+     * Get whether the service exposes the AddAnyPortMapping action (UPnP-IGD 2.0 variants).
+     * @return {@code true} if AddAnyPortMapping is available, {@code false} otherwise
+     */
+    public boolean hasAddAnyPortMappingMethod() {
+        return hasAddAnyPortMappingMethod;
+    }
+
     @Override
     public String toString() {
         return "PortMapperUpnpIgdPortMapper{super=" + super.toString() + ", hasAddAnyPortMappingMethod=" + hasAddAnyPortMappingMethod + '}';
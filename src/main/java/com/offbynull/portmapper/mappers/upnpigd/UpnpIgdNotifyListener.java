@@ -0,0 +1,46 @@
+/*
+ * Copyright 2013-2016, Kasra Faghihi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.offbynull.portmapper.mappers.upnpigd;
+
+/**
+ * Listens for changes in the UPnP-IGD devices seen by an {@link UpnpIgdNotifyWatcher}. Listeners are invoked on the watcher's thread, so
+ * implementations must be thread-safe and should return quickly.
+ * @author Kasra Faghihi
+ */
+public interface UpnpIgdNotifyListener {
+
+    /**
+     * Called when a UPnP-IGD device that wasn't previously known announces itself.
+     * @param device device that announced itself
+     */
+    void deviceAdded(UpnpIgdNotifyWatcher.AnnouncedDevice device);
+
+    /**
+     * Called when a UPnP-IGD device has rebooted or its network configuration has changed (its boot ID or its location changed). Port
+     * mappers (and anything cached about them, e.g. via {@link com.offbynull.portmapper.PortMapperCache}) for the old device should be
+     * discarded and mappings should be re-created.
+     * @param oldDevice device as it was before the change
+     * @param newDevice device as it is now
+     */
+    void deviceRebooted(UpnpIgdNotifyWatcher.AnnouncedDevice oldDevice, UpnpIgdNotifyWatcher.AnnouncedDevice newDevice);
+
+    /**
+     * Called when a UPnP-IGD device has said goodbye or its last announcement has expired. Port mappers (and anything cached about them,
+     * e.g. via {@link com.offbynull.portmapper.PortMapperCache}) for the device should be discarded.
+     * @param device device that went away
+     */
+    void deviceRemoved(UpnpIgdNotifyWatcher.AnnouncedDevice device);
+}
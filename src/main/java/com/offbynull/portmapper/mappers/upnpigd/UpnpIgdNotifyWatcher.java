@@ -0,0 +1,537 @@
+/*
+ * Copyright 2013-2016, Kasra Faghihi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.offbynull.portmapper.mappers.upnpigd;
+
+import com.offbynull.portmapper.gateway.BasicBus;
+import com.offbynull.portmapper.gateway.Bus;
+import com.offbynull.portmapper.gateways.network.internalmessages.CloseNetworkRequest;
+import com.offbynull.portmapper.gateways.network.internalmessages.CreateMulticastUdpNetworkRequest;
+import com.offbynull.portmapper.gateways.network.internalmessages.CreateUdpNetworkResponse;
+import com.offbynull.portmapper.gateways.network.internalmessages.GetNextIdNetworkRequest;
+import com.offbynull.portmapper.gateways.network.internalmessages.GetNextIdNetworkResponse;
+import com.offbynull.portmapper.gateways.network.internalmessages.ReadUdpNetworkNotification;
+import static com.offbynull.portmapper.helpers.NetworkUtils.getCommonPrefixLength;
+import static com.offbynull.portmapper.helpers.NetworkUtils.getNetworkPrefixLength;
+import com.offbynull.portmapper.mappers.upnpigd.externalmessages.ServiceDiscoveryUpnpIgdRequest.ProbeDeviceType;
+import com.offbynull.portmapper.mappers.upnpigd.externalmessages.ServiceNotificationUpnpIgdResponse;
+import java.io.Closeable;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Listens for the SSDP notifications ({@code NOTIFY * HTTP/1.1}) that UPnP devices multicast to {@code 239.255.255.250:1900} /
+ * {@code [ff02::c]:1900} when they come up, periodically while they're up, and when they go down, and keeps a live table of the UPnP-IGD
+ * devices that sent them.
+ * <p>
+ * Active discovery (M-SEARCH) has to wait seconds for devices to answer. Once a gateway has announced itself to this watcher, its location
+ * is already known -- {@link UpnpIgdPortMapper#identify(com.offbynull.portmapper.gateway.Bus, UpnpIgdNotifyWatcher) } can skip straight to
+ * fetching its descriptions. Devices are dropped from the table when they send {@code ssdp:byebye} or when their last announcement expires
+ * ({@code CACHE-CONTROL: max-age}). When a device's {@code BOOTID.UPNP.ORG} or location changes, it's treated as having rebooted. Register
+ * a {@link UpnpIgdNotifyListener} to find out about any of these events (e.g. to invalidate cached port mappers).
+ * <p>
+ * A gateway announces its root device and each of its embedded devices under a different UUID, but all of them share the same location.
+ * Devices are tracked by location, so each gateway shows up (and is reported to listeners) once.
+ * <p>
+ * Only devices announcing a gateway device or service type (InternetGatewayDevice, WANIPConnection, WANPPPConnection, or
+ * WANIPv6FirewallControl) are tracked. This class is thread-safe.
+ * @author Kasra Faghihi
+ */
+public final class UpnpIgdNotifyWatcher implements Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(UpnpIgdNotifyWatcher.class);
+
+    private static final String[] GATEWAY_NOTIFICATION_TYPE_PREFIXES = new String[] {
+        "urn:schemas-upnp-org:device:InternetGatewayDevice:",
+        "urn:schemas-upnp-org:service:WANIPConnection:",
+        "urn:schemas-upnp-org:service:WANPPPConnection:",
+        "urn:schemas-upnp-org:service:WANIPv6FirewallControl:"
+    };
+    private static final long DEFAULT_MAX_AGE = 1800L; // UPnP device architecture recommends at least this
+    private static final long PURGE_INTERVAL = 1000L;
+
+    private static final Object STOP_MARKER = new Object();
+
+    private final Bus networkBus;
+    private final LinkedBlockingQueue<Object> queue;
+    private final Map<Integer, InetAddress> socketIds;
+    private final Map<InetAddress, Integer> prefixLengths; // local address -> network prefix length (-1 if unknown)
+    private final Map<String, Entry> devices; // location -> entry
+    private final Map<String, String> locations; // device uuid -> location, guarded by devices
+    private final List<UpnpIgdNotifyListener> listeners;
+    private final Thread thread;
+
+    /**
+     * Creates a {@link UpnpIgdNotifyWatcher} object. A socket that joins the SSDP multicast group is opened for each local address. Local
+     * addresses that can't join the multicast group are skipped.
+     * @param networkBus network bus
+     * @param localAddresses local addresses to listen for notifications on
+     * @return new {@link UpnpIgdNotifyWatcher}
+     * @throws NullPointerException if any argument is {@code null} or contains {@code null}
+     * @throws InterruptedException if interrupted
+     */
+    public static UpnpIgdNotifyWatcher create(Bus networkBus, Collection<InetAddress> localAddresses) throws InterruptedException {
+        Validate.notNull(networkBus);
+        Validate.notNull(localAddresses);
+        Validate.noNullElements(localAddresses);
+
+        UpnpIgdNotifyWatcher watcher = new UpnpIgdNotifyWatcher(networkBus);
+        Bus selfBus = new BasicBus(watcher.queue);
+
+        for (InetAddress localAddress : new LinkedHashSet<>(localAddresses)) {
+            InetSocketAddress groupAddress = localAddress instanceof Inet4Address
+                    ? ProbeDeviceType.IPV4.getMulticastSocketAddress()
+                    : ProbeDeviceType.IPV6_LINK_LOCAL.getMulticastSocketAddress();
+
+            networkBus.send(new GetNextIdNetworkRequest(selfBus));
+            Object idResp = watcher.queue.poll(3000L, TimeUnit.MILLISECONDS);
+            Validate.validState(idResp instanceof GetNextIdNetworkResponse, "Timed out getting socket ID");
+            int id = ((GetNextIdNetworkResponse) idResp).getId();
+
+            LOG.debug("Creating multicast socket {} for {} on {}", id, groupAddress, localAddress);
+            networkBus.send(new CreateMulticastUdpNetworkRequest(id, selfBus, localAddress, groupAddress));
+            Object createResp = watcher.queue.poll(3000L, TimeUnit.MILLISECONDS);
+            if (createResp instanceof CreateUdpNetworkResponse) {
+                watcher.socketIds.put(id, localAddress);
+                watcher.prefixLengths.put(localAddress, getNetworkPrefixLength(localAddress));
+            } else {
+                LOG.debug("Unable to listen for notifications on {}: {}", localAddress, createResp);
+                networkBus.send(new CloseNetworkRequest(id)); // close in case it gets created after timeout
+            }
+        }
+
+        watcher.thread.start();
+        return watcher;
+    }
+
+    private UpnpIgdNotifyWatcher(Bus networkBus) {
+        this.networkBus = networkBus;
+        this.queue = new LinkedBlockingQueue<>();
+        this.socketIds = new ConcurrentHashMap<>();
+        this.prefixLengths = new ConcurrentHashMap<>();
+        this.devices = new HashMap<>();
+        this.locations = new HashMap<>();
+        this.listeners = new CopyOnWriteArrayList<>();
+        this.thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                UpnpIgdNotifyWatcher.this.run();
+            }
+        });
+        this.thread.setDaemon(true);
+        this.thread.setName("UPnP-IGD Notify Watcher");
+    }
+
+    /**
+     * Add a listener.
+     * @param listener listener to add
+     * @throws NullPointerException if any argument is {@code null}
+     */
+    public void addListener(UpnpIgdNotifyListener listener) {
+        Validate.notNull(listener);
+        listeners.add(listener);
+    }
+
+    /**
+     * Remove a listener.
+     * @param listener listener to remove
+     * @throws NullPointerException if any argument is {@code null}
+     */
+    public void removeListener(UpnpIgdNotifyListener listener) {
+        Validate.notNull(listener);
+        listeners.remove(listener);
+    }
+
+    /**
+     * Get the UPnP-IGD devices that are currently announced (have sent an {@code ssdp:alive} that hasn't yet expired or been followed by
+     * an {@code ssdp:byebye}).
+     * @return announced devices
+     */
+    public List<AnnouncedDevice> getDevices() {
+        long now = System.nanoTime();
+        List<AnnouncedDevice> ret = new ArrayList<>();
+        synchronized (devices) {
+            for (Entry entry : devices.values()) {
+                if (entry.expireTime - now > 0L) {
+                    ret.add(entry.device);
+                }
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Stop listening for notifications and close all sockets.
+     */
+    @Override
+    public void close() {
+        for (int id : socketIds.keySet()) {
+            networkBus.send(new CloseNetworkRequest(id));
+        }
+        queue.add(STOP_MARKER);
+    }
+
+    private void run() {
+        LOG.debug("Starting notify watcher");
+        try {
+            while (true) {
+                Object msg = queue.poll(PURGE_INTERVAL, TimeUnit.MILLISECONDS);
+                if (msg == STOP_MARKER) {
+                    break;
+                } else if (msg instanceof ReadUdpNetworkNotification) {
+                    ReadUdpNetworkNotification readNotification = (ReadUdpNetworkNotification) msg;
+                    InetAddress socketAddress = socketIds.get(readNotification.getId());
+                    byte[] data = readNotification.getData();
+                    if (socketAddress != null) {
+                        InetAddress localAddress = findLocalAddress(socketAddress, readNotification.getRemoteAddress().getAddress());
+                        try {
+                            handleNotification(localAddress, data);
+                        } catch (RuntimeException re) {
+                            LOG.debug("Unable to handle notification from {}: {}", readNotification.getRemoteAddress(), data, re);
+                        }
+                    }
+                } else if (msg != null) {
+                    LOG.debug("Ignoring {}", msg);
+                }
+
+                purgeExpired();
+            }
+        } catch (InterruptedException ie) {
+            LOG.debug("Notify watcher interrupted");
+        }
+        LOG.debug("Stopped notify watcher");
+    }
+
+    private void handleNotification(InetAddress localAddress, byte[] data) {
+        ServiceNotificationUpnpIgdResponse notification = new ServiceNotificationUpnpIgdResponse(data);
+        String uuid = notification.getDeviceUuid();
+        String subType = notification.getNotificationSubType();
+
+        if (subType.equals(ServiceNotificationUpnpIgdResponse.BYEBYE)) {
+            Entry removed = null;
+            synchronized (devices) {
+                String key = locations.remove(uuid);
+                if (key != null) {
+                    removed = devices.remove(key);
+                    removeLocations(Collections.singleton(key));
+                }
+            }
+            if (removed != null) {
+                LOG.debug("Device said goodbye: {}", removed.device);
+                fireRemoved(removed.device);
+            }
+            return;
+        }
+
+        if (!subType.equals(ServiceNotificationUpnpIgdResponse.ALIVE) && !subType.equals(ServiceNotificationUpnpIgdResponse.UPDATE)) {
+            LOG.debug("Ignoring notification with unknown sub-type {}", subType);
+            return;
+        }
+
+        URL location = notification.getLocation();
+        Validate.validState(location != null);
+        Long maxAge = notification.getMaxAge();
+        long expireTime = System.nanoTime() + TimeUnit.SECONDS.toNanos(maxAge == null ? DEFAULT_MAX_AGE : maxAge);
+        String key = location.toExternalForm(); // URL.equals()/hashCode() do DNS lookups
+
+        AnnouncedDevice device;
+        Entry oldEntry;
+        synchronized (devices) {
+            oldEntry = devices.get(key);
+            String oldKey = locations.get(uuid);
+            if (oldEntry == null && oldKey != null && !oldKey.equals(key)) {
+                oldEntry = devices.remove(oldKey); // device moved to a new location (isRebooted() picks this up below)
+            }
+            if (oldEntry == null && !isGatewayNotificationType(notification.getNotificationType())) {
+                return; // not something we care about (a TV, a printer, ...), or a gateway we haven't seen a gateway type from yet
+            }
+            String deviceUuid = oldEntry == null ? uuid : oldEntry.device.uuid; // keep reporting the UUID the gateway was first seen with
+            device = new AnnouncedDevice(deviceUuid, localAddress, location, notification.getServer(), notification.getBootId(),
+                    notification.getConfigId());
+            devices.put(key, new Entry(device, expireTime));
+            locations.put(uuid, key);
+        }
+
+        if (oldEntry == null) {
+            LOG.debug("Device added: {}", device);
+            fireAdded(device);
+        } else if (oldEntry.expireTime - System.nanoTime() <= 0L) {
+            LOG.debug("Device expired and came back: {}", device);
+            fireRemoved(oldEntry.device);
+            fireAdded(device);
+        } else if (isRebooted(oldEntry.device, device)) {
+            LOG.debug("Device rebooted: {} -> {}", oldEntry.device, device);
+            fireRebooted(oldEntry.device, device);
+        }
+    }
+
+    private InetAddress findLocalAddress(InetAddress socketAddress, InetAddress senderAddress) {
+        // Every socket is bound to the wildcard address on the SSDP port, so on most OSes (e.g. Linux with IP_MULTICAST_ALL) each of them
+        // gets a copy of every NOTIFY no matter which interface it arrived on -- the socket a copy came in through doesn't say which local
+        // address can reach the sender. Pick the local address whose subnet the sender is on, or failing that the local address that
+        // shares the longest prefix with the sender. This way every copy of a NOTIFY is attributed to the same local address.
+        InetAddress bestAddress = socketAddress;
+        int bestLength = -1;
+        for (Map.Entry<InetAddress, Integer> entry : prefixLengths.entrySet()) {
+            InetAddress localAddress = entry.getKey();
+            int prefixLength = entry.getValue();
+            int commonLength = getCommonPrefixLength(localAddress, senderAddress);
+            if (commonLength < 0) {
+                continue; // different IP version
+            }
+            if (prefixLength >= 0 && commonLength >= prefixLength) {
+                return localAddress; // sender is on this local address's subnet
+            }
+            if (commonLength > bestLength) {
+                bestAddress = localAddress;
+                bestLength = commonLength;
+            }
+        }
+        return bestAddress;
+    }
+
+    private void purgeExpired() {
+        long now = System.nanoTime();
+        List<AnnouncedDevice> removed = new ArrayList<>();
+        synchronized (devices) {
+            Set<String> removedKeys = new HashSet<>();
+            Iterator<Map.Entry<String, Entry>> it = devices.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<String, Entry> mapEntry = it.next();
+                if (mapEntry.getValue().expireTime - now <= 0L) {
+                    removed.add(mapEntry.getValue().device);
+                    removedKeys.add(mapEntry.getKey());
+                    it.remove();
+                }
+            }
+            if (!removedKeys.isEmpty()) {
+                removeLocations(removedKeys);
+            }
+        }
+        for (AnnouncedDevice device : removed) {
+            LOG.debug("Device expired: {}", device);
+            fireRemoved(device);
+        }
+    }
+
+    private void removeLocations(Set<String> keys) {
+        // must be called while holding devices lock
+        Iterator<String> it = locations.values().iterator();
+        while (it.hasNext()) {
+            if (keys.contains(it.next())) {
+                it.remove();
+            }
+        }
+    }
+
+    private static boolean isGatewayNotificationType(String notificationType) {
+        for (String prefix : GATEWAY_NOTIFICATION_TYPE_PREFIXES) {
+            if (StringUtils.startsWithIgnoreCase(notificationType, prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isRebooted(AnnouncedDevice oldDevice, AnnouncedDevice newDevice) {
+        if (oldDevice.bootId != null && newDevice.bootId != null && !oldDevice.bootId.equals(newDevice.bootId)) {
+            return true;
+        }
+        return !oldDevice.location.toExternalForm().equals(newDevice.location.toExternalForm()); // URL.equals() does DNS lookups
+    }
+
+    private void fireAdded(AnnouncedDevice device) {
+        for (UpnpIgdNotifyListener listener : listeners) {
+            try {
+                listener.deviceAdded(device);
+            } catch (RuntimeException re) {
+                LOG.warn("Listener threw exception", re);
+            }
+        }
+    }
+
+    private void fireRebooted(AnnouncedDevice oldDevice, AnnouncedDevice newDevice) {
+        for (UpnpIgdNotifyListener listener : listeners) {
+            try {
+                listener.deviceRebooted(oldDevice, newDevice);
+            } catch (RuntimeException re) {
+                LOG.warn("Listener threw exception", re);
+            }
+        }
+    }
+
+    private void fireRemoved(AnnouncedDevice device) {
+        for (UpnpIgdNotifyListener listener : listeners) {
+            try {
+                listener.deviceRemoved(device);
+            } catch (RuntimeException re) {
+                LOG.warn("Listener threw exception", re);
+            }
+        }
+    }
+
+    private static final class Entry {
+        private final AnnouncedDevice device;
+        private final long expireTime;
+
+        Entry(AnnouncedDevice device, long expireTime) {
+            this.device = device;
+            this.expireTime = expireTime;
+        }
+    }
+
+    /**
+     * A UPnP-IGD device that has announced itself.
+     */
+    public static final class AnnouncedDevice {
+        private final String uuid;
+        private final InetAddress sourceAddress;
+        private final URL location;
+        private final String serverName;
+        private final Long bootId;
+        private final Long configId;
+
+        private AnnouncedDevice(String uuid, InetAddress sourceAddress, URL location, String serverName, Long bootId, Long configId) {
+            this.uuid = uuid;
+            this.sourceAddress = sourceAddress;
+            this.location = location;
+            this.serverName = serverName;
+            this.bootId = bootId;
+            this.configId = configId;
+        }
+
+        /**
+         * Get device UUID. If the gateway announced itself under several UUIDs (root device and embedded devices), this is the first one
+         * that was seen.
+         * @return device UUID (e.g. {@code "uuid:00000000-0000-0000-0000-000000000000"})
+         */
+        public String getUuid() {
+            return uuid;
+        }
+
+        /**
+         * Get the local address to reach the device from. This is the local address whose subnet the device announced itself from (or the
+         * one that shares the longest prefix with the device, if the subnets aren't known), not necessarily the one whose socket happened
+         * to receive the announcement.
+         * @return local address
+         */
+        public InetAddress getSourceAddress() {
+            return sourceAddress;
+        }
+
+        /**
+         * Get location of device's root description.
+         * @return location
+         */
+        public URL getLocation() {
+            return location;
+        }
+
+        /**
+         * Get server description.
+         * @return server description (may be {@code null})
+         */
+        public String getServerName() {
+            return serverName;
+        }
+
+        /**
+         * Get boot ID ({@code BOOTID.UPNP.ORG}).
+         * @return boot ID (may be {@code null} -- only UPnP 1.1 devices send it)
+         */
+        public Long getBootId() {
+            return bootId;
+        }
+
+        /**
+         * Get configuration ID ({@code CONFIGID.UPNP.ORG}).
+         * @return configuration ID (may be {@code null} -- only UPnP 1.1 devices send it)
+         */
+        public Long getConfigId() {
+            return configId;
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = 7;
+            hash = 97 * hash + Objects.hashCode(this.uuid);
+            hash = 97 * hash + Objects.hashCode(this.sourceAddress);
+            hash = 97 * hash + Objects.hashCode(this.location.toExternalForm());
+            hash = 97 * hash + Objects.hashCode(this.serverName);
+            hash = 97 * hash + Objects.hashCode(this.bootId);
+            hash = 97 * hash + Objects.hashCode(this.configId);
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (obj == null) {
+                return false;
+            }
+            if (getClass() != obj.getClass()) {
+                return false;
+            }
+            final AnnouncedDevice other = (AnnouncedDevice) obj;
+            if (!Objects.equals(this.uuid, other.uuid)) {
+                return false;
+            }
+            if (!Objects.equals(this.sourceAddress, other.sourceAddress)) {
+                return false;
+            }
+            if (!Objects.equals(this.location.toExternalForm(), other.location.toExternalForm())) {
+                return false;
+            }
+            if (!Objects.equals(this.serverName, other.serverName)) {
+                return false;
+            }
+            if (!Objects.equals(this.bootId, other.bootId)) {
+                return false;
+            }
+            if (!Objects.equals(this.configId, other.configId)) {
+                return false;
+            }
+            return true;
+        }
+
+        @Override
+        public String toString() {
+            return "AnnouncedDevice{" + "uuid=" + uuid + ", sourceAddress=" + sourceAddress + ", location=" + location + ", serverName="
+                    + serverName + ", bootId=" + bootId + ", configId=" + configId + '}';
+        }
+    }
+}
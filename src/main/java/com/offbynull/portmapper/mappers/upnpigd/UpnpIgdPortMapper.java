@@ -16,6 +16,8 @@
 package com.offbynull.portmapper.mappers.upnpigd;
 
 import com.offbynull.portmapper.mapper.PortMapper;
+import com.offbynull.portmapper.mapper.PortMapperMetrics;
+import com.offbynull.portmapper.mapper.RouterErrorException;
 import com.offbynull.portmapper.gateway.Bus;
 import com.offbynull.portmapper.helpers.NetworkUtils;
 import com.offbynull.portmapper.mapper.MapperIoUtils.BytesToResponseTransformer;
@@ -25,11 +27,13 @@ import com.offbynull.portmapper.mapper.MapperIoUtils.UdpRequest;
 import static com.offbynull.portmapper.mapper.MapperIoUtils.getLocalIpAddresses;
 import static com.offbynull.portmapper.mapper.MapperIoUtils.performBatchedTcpRequests;
 import static com.offbynull.portmapper.mapper.MapperIoUtils.performUdpRequests;
+import com.offbynull.portmapper.mappers.upnpigd.externalmessages.GetExternalIpAddressUpnpIgdRequest;
+import com.offbynull.portmapper.mappers.upnpigd.externalmessages.GetExternalIpAddressUpnpIgdResponse;
+import com.offbynull.portmapper.mappers.upnpigd.DescriptionCache.CachedService;
 import com.offbynull.portmapper.mappers.upnpigd.externalmessages.RootUpnpIgdRequest;
 import com.offbynull.portmapper.mappers.upnpigd.externalmessages.RootUpnpIgdResponse;
 import com.offbynull.portmapper.mappers.upnpigd.externalmessages.RootUpnpIgdResponse.ServiceReference;
 import com.offbynull.portmapper.mappers.upnpigd.externalmessages.ServiceDescriptionUpnpIgdRequest;
-import com.offbynull.portmapper.mappers.upnpigd.externalmessages.ServiceDescriptionUpnpIgdResponse;
 import com.offbynull.portmapper.mappers.upnpigd.externalmessages.ServiceDescriptionUpnpIgdResponse.IdentifiedService;
 import com.offbynull.portmapper.mappers.upnpigd.externalmessages.ServiceDiscoveryUpnpIgdRequest;
 import com.offbynull.portmapper.mappers.upnpigd.externalmessages.ServiceDiscoveryUpnpIgdRequest.ProbeDeviceType;
@@ -43,6 +47,7 @@ import java.util.Collection;
 import java.util.LinkedList;
 import java.util.Map.Entry;
 import java.util.Set;
+import org.apache.commons.collections4.Predicate;
 import org.apache.commons.lang3.Range;
 import org.apache.commons.lang3.Validate;
 import com.offbynull.portmapper.mappers.upnpigd.externalmessages.ServiceDescriptionUpnpIgdResponse.ServiceType;
@@ -53,6 +58,7 @@ import com.offbynull.portmapper.mappers.upnpigd.externalmessages.UpnpIgdHttpRequ
 import java.net.InetSocketAddress;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -64,6 +70,29 @@ import org.slf4j.LoggerFactory;
 public abstract class UpnpIgdPortMapper implements PortMapper {
     private static final Logger LOG = LoggerFactory.getLogger(UpnpIgdPortMapper.class);
 
+    // Search targets for SSDP discovery. Devices/services are required to answer searches for older versions of themselves, so version 1
+    // of each covers later versions as well (e.g. an IGD 2.0 device with WANIPConnection:2 answers to WANIPConnection:1).
+    private static final String[] SEARCH_TARGETS = new String[] {
+        "urn:schemas-upnp-org:device:InternetGatewayDevice:1",
+        "urn:schemas-upnp-org:service:WANIPConnection:1",
+        "urn:schemas-upnp-org:service:WANPPPConnection:1",
+        "urn:schemas-upnp-org:service:WANIPv6FirewallControl:1"
+    };
+    // Devices spread their responses out over MX seconds, so keep it within the length of a single search round -- otherwise responses to
+    // one round would trickle in during the next and make it look like there's still something new coming in.
+    private static final int SEARCH_MX = 1;
+    // Parsed root/service descriptions of recently seen devices
+    private static final DescriptionCache DESCRIPTION_CACHE = new DescriptionCache(64, 64);
+    private static final ProbeDeviceType[] IPV4_PROBE_DEVICE_TYPES = new ProbeDeviceType[] {
+        ProbeDeviceType.IPV4
+    };
+    private static final ProbeDeviceType[] IPV6_PROBE_DEVICE_TYPES = new ProbeDeviceType[] {
+        ProbeDeviceType.IPV6_LINK_LOCAL,
+        ProbeDeviceType.IPV6_SITE_LOCAL,
+        ProbeDeviceType.IPV6_ORGANIZATION_LOCAL,
+        ProbeDeviceType.IPV6_GLOBAL
+    };
+
     private final Bus networkBus;
     private final InetAddress internalAddress;
     private final URL controlUrl;
@@ -129,7 +158,7 @@ public abstract class UpnpIgdPortMapper implements PortMapper {
      * Get control URL.
      * @return control URL
      */
-    protected final URL getControlUrl() {
+    public final URL getControlUrl() {
         return controlUrl;
     }
 
@@ -137,7 +166,7 @@ public abstract class UpnpIgdPortMapper implements PortMapper {
      * Get server name.
      * @return server name (may be {@code null})
      */
-    protected final String getServerName() {
+    public final String getServerName() {
         return serverName;
     }
 
@@ -145,7 +174,7 @@ public abstract class UpnpIgdPortMapper implements PortMapper {
      * Get service type.
      * @return service type
      */
-    protected final String getServiceType() {
+    public final String getServiceType() {
         return serviceType;
     }
 
@@ -153,7 +182,7 @@ public abstract class UpnpIgdPortMapper implements PortMapper {
      * Get external port mapping range.
      * @return external port mapping range
      */
-    protected final Range<Long> getExternalPortRange() {
+    public final Range<Long> getExternalPortRange() {
         return externalPortRange;
     }
 
@@ -161,7 +190,7 @@ public abstract class UpnpIgdPortMapper implements PortMapper {
      * Get lease duration range.
      * @return lease duration range
      */
-    protected final Range<Long> getLeaseDurationRange() {
+    public final Range<Long> getLeaseDurationRange() {
         return leaseDurationRange;
     }
 
@@ -182,62 +211,57 @@ public abstract class UpnpIgdPortMapper implements PortMapper {
      * @throws InterruptedException if interrupted
      */
     public static List<UpnpIgdPortMapper> identify(Bus networkBus) throws InterruptedException {
+        Validate.notNull(networkBus);
+        return identify(networkBus, getLocalIpAddresses(networkBus));
+    }
+
+    /**
+     * Identify UPnP-IGD devices reachable from specific local addresses. Only the interfaces that {@code sourceAddresses} belong to are
+     * searched, which is useful when only some interfaces have changed (e.g. an address was added) and the rest don't need to be
+     * searched again.
+     * @param networkBus network bus
+     * @param sourceAddresses local addresses to search from
+     * @return set of found UPnP-IGD devices
+     * @throws NullPointerException if any argument is {@code null} or contains {@code null}
+     * @throws InterruptedException if interrupted
+     */
+    public static List<UpnpIgdPortMapper> identify(Bus networkBus, Collection<InetAddress> sourceAddresses) throws InterruptedException {
         LOG.info("Attempting to identify devices");
         
         Validate.notNull(networkBus);
+        Validate.notNull(sourceAddresses);
+        Validate.noNullElements(sourceAddresses);
 
-        // Probe for devices -- for each device found, query the device
-        Set<InetAddress> sourceAddresses = getLocalIpAddresses(networkBus);
+        // Probe for devices -- for each device found, query the device. Only search for what we can use (rather than ssdp:all) so that
+        // media renderers, printers, TVs, etc.. don't answer and we don't have to go and fetch their root XMLs.
         Collection<UdpRequest> discoveryRequests = new LinkedList<>();
         for (InetAddress sourceAddress : sourceAddresses) {
+            ProbeDeviceType[] probeDeviceTypes;
             if (sourceAddress instanceof Inet4Address) {
-                UdpRequest req = new UdpRequest(
-                        sourceAddress,
-                        ProbeDeviceType.IPV4.getMulticastSocketAddress(),
-                        new ServiceDiscoveryUpnpIgdRequest(ProbeDeviceType.IPV4, null, 3, "ssdp:all"),
-                        new BasicRequestTransformer(),
-                        new ServiceDiscoveryResponseTransformer());
-                discoveryRequests.add(req);
+                probeDeviceTypes = IPV4_PROBE_DEVICE_TYPES;
             } else if (sourceAddress instanceof Inet6Address) {
-                UdpRequest v6LocalReq = new UdpRequest(
-                        sourceAddress,
-                        ProbeDeviceType.IPV6_LINK_LOCAL.getMulticastSocketAddress(),
-                        new ServiceDiscoveryUpnpIgdRequest(ProbeDeviceType.IPV6_LINK_LOCAL, null, 3, "ssdp:all"),
-                        new BasicRequestTransformer(),
-                        new ServiceDiscoveryResponseTransformer());
-                discoveryRequests.add(v6LocalReq);
-
-                UdpRequest v6SiteReq = new UdpRequest(
-                        sourceAddress,
-                        ProbeDeviceType.IPV6_SITE_LOCAL.getMulticastSocketAddress(),
-                        new ServiceDiscoveryUpnpIgdRequest(ProbeDeviceType.IPV6_SITE_LOCAL, null, 3, "ssdp:all"),
-                        new BasicRequestTransformer(),
-                        new ServiceDiscoveryResponseTransformer());
-                discoveryRequests.add(v6SiteReq);
-
-                UdpRequest v6OrgReq = new UdpRequest(
-                        sourceAddress,
-                        ProbeDeviceType.IPV6_ORGANIZATION_LOCAL.getMulticastSocketAddress(),
-                        new ServiceDiscoveryUpnpIgdRequest(ProbeDeviceType.IPV6_ORGANIZATION_LOCAL, null, 3, "ssdp:all"),
-                        new BasicRequestTransformer(),
-                        new ServiceDiscoveryResponseTransformer());
-                discoveryRequests.add(v6OrgReq);
-
-                UdpRequest v6GlobalReq = new UdpRequest(
-                        sourceAddress,
-                        ProbeDeviceType.IPV6_GLOBAL.getMulticastSocketAddress(),
-                        new ServiceDiscoveryUpnpIgdRequest(ProbeDeviceType.IPV6_GLOBAL, null, 3, "ssdp:all"),
-                        new BasicRequestTransformer(),
-                        new ServiceDiscoveryResponseTransformer());
-                discoveryRequests.add(v6GlobalReq);
+                probeDeviceTypes = IPV6_PROBE_DEVICE_TYPES;
             } else {
                 throw new IllegalStateException();
             }
+
+            for (ProbeDeviceType probeDeviceType : probeDeviceTypes) {
+                for (String searchTarget : SEARCH_TARGETS) {
+                    UdpRequest req = new UdpRequest(
+                            sourceAddress,
+                            probeDeviceType.getMulticastSocketAddress(),
+                            new ServiceDiscoveryUpnpIgdRequest(probeDeviceType, null, SEARCH_MX, searchTarget),
+                            new BasicRequestTransformer(),
+                            new ServiceDiscoveryResponseTransformer());
+                    discoveryRequests.add(req);
+                }
+            }
         }
-        performUdpRequests(networkBus, discoveryRequests, true, 1000L, 1000L, 1000L, 1000L, 1000L);
+        long probeStartTime = System.nanoTime();
+        performUdpRequests(networkBus, discoveryRequests, true, new NoNewLocationsPredicate(), 1000L, 1000L, 1000L, 1000L, 1000L);
 
-        // Get root XMLs
-        Collection<TcpRequest> rootRequests = new ArrayList<>(discoveryRequests.size());
+        // Collect device locations
+        List<ProbeResult> probeResults = new ArrayList<>();
         Set<URL> processedLocations = new HashSet<>();
         for (UdpRequest discoveryReq : discoveryRequests) {
             LOG.debug("Processing discovery {}", discoveryReq);
@@ -253,35 +277,102 @@ public abstract class UpnpIgdPortMapper implements PortMapper {
                     other.source = discoveryReq.getSourceAddress();
                     other.location = discoveryResp.getLocation();
                     other.serverName = discoveryResp.getServer();
-                    
-                    TcpRequest req = new TcpRequest(
-                            other.source,
-                            getAddressFromUrl(other.location),
-                            new RootUpnpIgdRequest(other.location.getAuthority(), other.location.getFile()),
-                            new BasicRequestTransformer(),
-                            new RootUpnpIgdBytesToResponseTransformer(other.location));
-                    req.setOther(other);
-
-                    rootRequests.add(req);
+                    other.bootId = discoveryResp.getBootId();
+                    other.configId = discoveryResp.getConfigId();
+                    probeResults.add(other);
                 } catch (RuntimeException iae) {
                     LOG.error("Encountered error", iae);
                 }
             }
         }
+
+        return identifyFromProbeResults(networkBus, probeResults, probeStartTime);
+    }
+
+    /**
+     * Identify UPnP-IGD devices that have announced themselves to a {@link UpnpIgdNotifyWatcher}. The locations of these devices are
+     * already known, so no SSDP search is performed -- the root and service descriptions are fetched straight away. If the watcher hasn't
+     * seen any devices yet, this falls back to {@link #identify(com.offbynull.portmapper.gateway.Bus) }.
+     * @param networkBus network bus
+     * @param notifyWatcher watcher to get the locations of announced devices from
+     * @return set of found UPnP-IGD devices
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws InterruptedException if interrupted
+     */
+    public static List<UpnpIgdPortMapper> identify(Bus networkBus, UpnpIgdNotifyWatcher notifyWatcher) throws InterruptedException {
+        Validate.notNull(networkBus);
+        Validate.notNull(notifyWatcher);
+
+        List<UpnpIgdNotifyWatcher.AnnouncedDevice> devices = notifyWatcher.getDevices();
+        if (devices.isEmpty()) {
+            LOG.debug("No announced devices -- falling back to search");
+            return identify(networkBus);
+        }
+
+        LOG.info("Attempting to identify announced devices");
+
+        List<ProbeResult> probeResults = new ArrayList<>(devices.size());
+        for (UpnpIgdNotifyWatcher.AnnouncedDevice device : devices) {
+            ProbeResult other = new ProbeResult();
+            other.source = device.getSourceAddress();
+            other.location = device.getLocation();
+            other.serverName = device.getServerName();
+            other.bootId = device.getBootId();
+            other.configId = device.getConfigId();
+            probeResults.add(other);
+        }
+
+        return identifyFromProbeResults(networkBus, probeResults, System.nanoTime());
+    }
+
+    private static List<UpnpIgdPortMapper> identifyFromProbeResults(Bus networkBus, List<ProbeResult> probeResults, long probeStartTime)
+            throws InterruptedException {
+        List<UpnpIgdPortMapper> ret = new LinkedList<>();
+
+        // Use cached descriptions for devices that haven't changed + get root XMLs for the rest
+        Collection<TcpRequest> rootRequests = new ArrayList<>(probeResults.size());
+        for (ProbeResult other : probeResults) {
+            List<CachedService> cachedServices = DESCRIPTION_CACHE.get(other.location, other.bootId, other.configId);
+            if (cachedServices != null) {
+                LOG.debug("Using cached descriptions for {}", other.location);
+                for (CachedService cachedService : cachedServices) {
+                    ret.add(createPortMapper(networkBus, other.source, other.serverName, cachedService));
+                }
+                continue;
+            }
+
+            try {
+                TcpRequest req = new TcpRequest(
+                        other.source,
+                        getAddressFromUrl(other.location),
+                        new RootUpnpIgdRequest(other.location.getAuthority(), other.location.getFile()),
+                        new BasicRequestTransformer(),
+                        new RootUpnpIgdBytesToResponseTransformer(other.location));
+                req.setOther(other);
+
+                rootRequests.add(req);
+            } catch (RuntimeException iae) {
+                LOG.error("Encountered error", iae);
+            }
+        }
         performBatchedTcpRequests(networkBus, rootRequests, 3, 5000L, 5000L, 5000L);
+        PortMapperMetrics.recordTcpIdentify(UpnpIgdPortMapper.class, probeStartTime, rootRequests); // per device that answered discovery
 
         // Extract service locations from root XMLs + get service descriptions
         Collection<TcpRequest> serviceDescRequests = new ArrayList<>(rootRequests.size());
+        List<ProbeResult> fetchedProbeResults = new ArrayList<>(rootRequests.size());
         for (TcpRequest rootRequest : rootRequests) {
             LOG.debug("Processing root {}", rootRequest);
             try {
                 RootUpnpIgdResponse rootResp = (RootUpnpIgdResponse) rootRequest.getResponse();
+                ProbeResult probeResult = (ProbeResult) rootRequest.getOther();
+                Validate.validState(rootResp != null, "No response/invalid response to getting root XML");
 
                 for (ServiceReference serviceReference : rootResp.getServices()) {
                     URL scpdUrl = serviceReference.getScpdUrl();
 
                     RootRequestResult other = new RootRequestResult();
-                    other.probeResult = (ProbeResult) rootRequest.getOther();
+                    other.probeResult = probeResult;
                     other.serviceReference = serviceReference;
 
                     TcpRequest req = new TcpRequest(
@@ -294,6 +385,9 @@ public abstract class UpnpIgdPortMapper implements PortMapper {
 
                     serviceDescRequests.add(req);
                 }
+
+                probeResult.services = new ArrayList<>();
+                fetchedProbeResults.add(probeResult);
             } catch (RuntimeException iae) {
                 LOG.error("Encountered error", iae);
             }
@@ -301,62 +395,138 @@ public abstract class UpnpIgdPortMapper implements PortMapper {
         performBatchedTcpRequests(networkBus, serviceDescRequests, 3, 5000L, 5000L, 5000L);
 
         // Get service descriptions
-        List<UpnpIgdPortMapper> ret = new LinkedList<>();
         for (TcpRequest serviceDescRequest : serviceDescRequests) {
             LOG.debug("Processing description {}", serviceDescRequest);
+            RootRequestResult rootReqRes = (RootRequestResult) serviceDescRequest.getOther();
             try {
-                ServiceDescriptionUpnpIgdResponse serviceDescResp = (ServiceDescriptionUpnpIgdResponse) serviceDescRequest.getResponse();
-
-                RootRequestResult rootReqRes = (RootRequestResult) serviceDescRequest.getOther();
-                for (Entry<ServiceType, IdentifiedService> e : serviceDescResp.getIdentifiedServices().entrySet()) {
-                    ServiceType serviceType = e.getKey();
-                    IdentifiedService identifiedService = e.getValue();
-
-                    UpnpIgdPortMapper upnpIgdPortMapper;
-                    switch (serviceType) {
-                        case OLD_PORT_MAPPER:
-                            upnpIgdPortMapper = new PortMapperUpnpIgdPortMapper(
-                                    networkBus, serviceDescRequest.getSourceAddress(),
-                                    rootReqRes.serviceReference.getControlUrl(),
-                                    rootReqRes.probeResult.serverName,
-                                    rootReqRes.serviceReference.getServiceType(),
-                                    identifiedService.getExternalPortRange(),
-                                    identifiedService.getLeaseDurationRange(),
-                                    false);
-                            break;
-                        case NEW_PORT_MAPPER:
-                            upnpIgdPortMapper = new PortMapperUpnpIgdPortMapper(
-                                    networkBus, serviceDescRequest.getSourceAddress(),
-                                    rootReqRes.serviceReference.getControlUrl(),
-                                    rootReqRes.probeResult.serverName,
-                                    rootReqRes.serviceReference.getServiceType(),
-                                    identifiedService.getExternalPortRange(),
-                                    identifiedService.getLeaseDurationRange(),
-                                    true);
-                            break;
-                        case FIREWALL:
-                            upnpIgdPortMapper = new FirewallUpnpIgdPortMapper(
-                                    networkBus, serviceDescRequest.getSourceAddress(),
-                                    rootReqRes.serviceReference.getControlUrl(),
-                                    rootReqRes.probeResult.serverName,
-                                    rootReqRes.serviceReference.getServiceType(),
-                                    identifiedService.getExternalPortRange(),
-                                    identifiedService.getLeaseDurationRange());
-                            break;
-                        default:
-                            throw new IllegalStateException(); // should never happen
-                    }
-
-                    ret.add(upnpIgdPortMapper);
+                @SuppressWarnings("unchecked")
+                Map<ServiceType, IdentifiedService> identifiedServices =
+                        (Map<ServiceType, IdentifiedService>) serviceDescRequest.getResponse();
+                Validate.validState(identifiedServices != null, "No response/invalid response to getting service description");
+
+                for (Entry<ServiceType, IdentifiedService> e : identifiedServices.entrySet()) {
+                    CachedService cachedService = new CachedService(
+                            rootReqRes.serviceReference.getServiceType(),
+                            rootReqRes.serviceReference.getControlUrl(),
+                            e.getKey(),
+                            e.getValue());
+                    rootReqRes.probeResult.services.add(cachedService);
+
+                    ret.add(createPortMapper(networkBus, serviceDescRequest.getSourceAddress(), rootReqRes.probeResult.serverName,
+                            cachedService));
                 }
             } catch (RuntimeException iae) {
+                rootReqRes.probeResult.services = null; // incomplete, so don't cache
                 LOG.error("Encountered error", iae);
             }
         }
 
+        // Cache descriptions of devices where everything was fetched successfully
+        for (ProbeResult probeResult : fetchedProbeResults) {
+            if (probeResult.services != null) {
+                DESCRIPTION_CACHE.put(probeResult.location, probeResult.bootId, probeResult.configId, probeResult.services);
+            }
+        }
+
         return ret;
     }
 
+    private static UpnpIgdPortMapper createPortMapper(Bus networkBus, InetAddress sourceAddress, String serverName,
+            CachedService cachedService) {
+        IdentifiedService identifiedService = cachedService.getIdentifiedService();
+        switch (cachedService.getIdentifiedServiceType()) {
+            case OLD_PORT_MAPPER:
+                return new PortMapperUpnpIgdPortMapper(
+                        networkBus, sourceAddress,
+                        cachedService.getControlUrl(),
+                        serverName,
+                        cachedService.getServiceType(),
+                        identifiedService.getExternalPortRange(),
+                        identifiedService.getLeaseDurationRange(),
+                        false);
+            case NEW_PORT_MAPPER:
+                return new PortMapperUpnpIgdPortMapper(
+                        networkBus, sourceAddress,
+                        cachedService.getControlUrl(),
+                        serverName,
+                        cachedService.getServiceType(),
+                        identifiedService.getExternalPortRange(),
+                        identifiedService.getLeaseDurationRange(),
+                        true);
+            case FIREWALL:
+                return new FirewallUpnpIgdPortMapper(
+                        networkBus, sourceAddress,
+                        cachedService.getControlUrl(),
+                        serverName,
+                        cachedService.getServiceType(),
+                        identifiedService.getExternalPortRange(),
+                        identifiedService.getLeaseDurationRange());
+            default:
+                throw new IllegalStateException(); // should never happen
+        }
+    }
+
+    /**
+     * Discard all cached root/service descriptions. {@link #identify(com.offbynull.portmapper.gateway.Bus) } keeps what it learns from
+     * each device's descriptions (in memory, for a bounded number of devices) and reuses it the next time that device is found with the
+     * same {@code BOOTID.UPNP.ORG}/{@code CONFIGID.UPNP.ORG}, rather than downloading and parsing its descriptions again. Call this if you
+     * have reason to believe a device's descriptions changed without it bumping those values.
+     */
+    public static void clearDescriptionCache() {
+        DESCRIPTION_CACHE.clear();
+    }
+
+    /**
+     * Revalidate UPnP-IGD services that were previously identified (e.g. loaded from
+     * {@link com.offbynull.portmapper.PortMapperCache}). Rather than going through SSDP discovery and re-fetching the root and service
+     * descriptions, each service's control URL is sent a single GetExternalIPAddress action. Any well-formed SOAP reply counts as proof
+     * that the service is still there -- firewall services don't expose that action, so the fault they return is accepted as well.
+     * @param networkBus network bus
+     * @param mappers mappers to revalidate
+     * @return mappers from {@code mappers} whose services responded (in the same order)
+     * @throws NullPointerException if any argument is {@code null} or contains {@code null}
+     * @throws InterruptedException if interrupted
+     */
+    public static List<UpnpIgdPortMapper> revalidate(Bus networkBus, List<UpnpIgdPortMapper> mappers) throws InterruptedException {
+        LOG.info("Attempting to revalidate devices");
+
+        Validate.notNull(networkBus);
+        Validate.notNull(mappers);
+        Validate.noNullElements(mappers);
+
+        List<TcpRequest> controlRequests = new ArrayList<>(mappers.size());
+        for (UpnpIgdPortMapper mapper : mappers) {
+            URL controlUrl = mapper.getControlUrl();
+            TcpRequest req = new TcpRequest(
+                    mapper.getInternalAddress(),
+                    getAddressFromUrl(controlUrl),
+                    new GetExternalIpAddressUpnpIgdRequest(controlUrl.getAuthority(), controlUrl.getFile(), mapper.getServiceType()),
+                    new BasicRequestTransformer(),
+                    new BytesToResponseTransformer() {
+                        @Override
+                        public Object create(byte[] buffer) {
+                            return new GetExternalIpAddressUpnpIgdResponse(buffer);
+                        }
+                    });
+            req.setOther(mapper);
+            controlRequests.add(req);
+        }
+
+        long probeStartTime = System.nanoTime();
+        performBatchedTcpRequests(networkBus, controlRequests, 3, 3000L);
+        PortMapperMetrics.recordTcpIdentify(UpnpIgdPortMapper.class, probeStartTime, controlRequests);
+
+        List<UpnpIgdPortMapper> ret = new ArrayList<>(mappers.size());
+        for (TcpRequest controlRequest : controlRequests) {
+            if (controlRequest.getResponse() != null || controlRequest.getError() instanceof RouterErrorException) {
+                ret.add((UpnpIgdPortMapper) controlRequest.getOther());
+            } else {
+                LOG.debug("Unable to revalidate {}", controlRequest.getOther());
+            }
+        }
+
+        return ret;
+    }
 
     @Override
     public final InetAddress getSourceAddress() {
@@ -386,11 +556,43 @@ public abstract class UpnpIgdPortMapper implements PortMapper {
         return NetworkUtils.toSocketAddress(host, port);
     }
 
+    // Stops SSDP search rounds once a round goes by without turning up a LOCATION that wasn't seen before (at least 2 rounds are always
+    // performed, so a single lost datagram doesn't end the search).
+    private static final class NoNewLocationsPredicate implements Predicate<Collection<UdpRequest>> {
+
+        private final Set<URL> locations = new HashSet<>();
+        private int rounds;
+
+        @Override
+        public boolean evaluate(Collection<UdpRequest> reqs) {
+            rounds++;
+
+            boolean foundNew = false;
+            for (UdpRequest req : reqs) {
+                for (Object response : req.getResponses()) {
+                    try {
+                        if (locations.add(((ServiceDiscoveryUpnpIgdResponse) response).getLocation())) {
+                            foundNew = true;
+                        }
+                    } catch (RuntimeException re) {
+                        // bad location -- ignore, it'll get logged when responses are processed
+                    }
+                }
+            }
+
+            LOG.debug("Search round {} complete -- {} locations so far, new locations found: {}", rounds, locations.size(), foundNew);
+            return rounds >= 2 && !foundNew;
+        }
+    }
+
     private static final class ProbeResult {
 
         private InetAddress source;
         private URL location;
         private String serverName;
+        private Long bootId;
+        private Long configId;
+        private List<CachedService> services; // services identified from descriptions, null if descriptions weren't (fully) fetched
     }
 
     private static final class RootRequestResult {
@@ -436,7 +638,7 @@ public abstract class UpnpIgdPortMapper implements PortMapper {
 
         @Override
         public Object create(byte[] buffer) {
-            return new ServiceDescriptionUpnpIgdResponse(buffer);
+            return DESCRIPTION_CACHE.parseScpd(buffer); // devices may serve identical SCPDs under different URLs, so parsed once
         }
     }
 }
@@ -121,6 +121,24 @@ public final class ServiceDiscoveryUpnpIgdResponse extends UpnpIgdHttpResponse {
         return val;
     }
 
+    /**
+     * Get boot ID ({@code BOOTID.UPNP.ORG}). This value is increased by the device each time it reboots or its network configuration
+     * changes. Only sent by UPnP 1.1 devices.
+     * @return boot ID (or {@code null} if not present or could not be interpreted)
+     */
+    public Long getBootId() {
+        return getHeaderAsLongIgnoreCase("BOOTID.UPNP.ORG");
+    }
+
+    /**
+     * Get configuration ID ({@code CONFIGID.UPNP.ORG}). This value changes whenever the device's descriptions change. Only sent by UPnP 1.1
+     * devices.
+     * @return configuration ID (or {@code null} if not present or could not be interpreted)
+     */
+    public Long getConfigId() {
+        return getHeaderAsLongIgnoreCase("CONFIGID.UPNP.ORG");
+    }
+
     @Override
     public String toString() {
         return "ServiceDiscoveryUpnpIgdResponse{super=" + super.toString() +  '}';
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2013-2016, Kasra Faghihi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.offbynull.portmapper.mappers.upnpigd.externalmessages;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Locale;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Represents a UPnP notification (an unsolicited {@code NOTIFY * HTTP/1.1} multicast by a device when it comes up, periodically while
+ * it's up, and when it goes down).
+ * <p>
+ * Parsed with the same fault tolerance as {@link ServiceDiscoveryUpnpIgdResponse} -- the request line isn't checked, and only the headers
+ * that are asked for need to be present.
+ * <p>
+ * Specifications are documented at http://upnp.org/specs/arch/UPnP-arch-DeviceArchitecture-v1.1.pdf (section 1.2) and
+ * http://quimby.gnus.org/internet-drafts/draft-cai-ssdp-v1-03.txt
+ * @author Kasra Faghihi
+ */
+public final class ServiceNotificationUpnpIgdResponse extends UpnpIgdHttpResponse {
+
+    /**
+     * Notification sub-type sent when a device comes up or re-advertises itself.
+     */
+    public static final String ALIVE = "ssdp:alive";
+    /**
+     * Notification sub-type sent when a device goes down.
+     */
+    public static final String BYEBYE = "ssdp:byebye";
+    /**
+     * Notification sub-type sent when a device's {@code BOOTID.UPNP.ORG} is about to change (UPnP 1.1).
+     */
+    public static final String UPDATE = "ssdp:update";
+
+    /**
+     * Constructs a {@link ServiceNotificationUpnpIgdResponse} object by parsing a buffer.
+     * @param buffer buffer containing notification data
+     * @throws NullPointerException if any argument is {@code null}
+     */
+    public ServiceNotificationUpnpIgdResponse(byte[] buffer) {
+        super(buffer);
+    }
+
+    /**
+     * Get location to access service.
+     * @return location (may be {@code null} -- not sent with {@link #BYEBYE})
+     * @throws IllegalStateException if could not be interpreted
+     */
+    public URL getLocation() {
+        String uriStr = getHeaderIgnoreCase("LOCATION");
+        if (uriStr == null) {
+            return null;
+        }
+        try {
+            return new URL(uriStr);
+        } catch (MalformedURLException urise) {
+            throw new IllegalStateException(urise);
+        }
+    }
+
+    /**
+     * Get server description.
+     * @return server description (may be {@code null})
+     */
+    public String getServer() {
+        return getHeaderIgnoreCase("SERVER");
+    }
+
+    /**
+     * Get unique service identifier.
+     * @return unique service identifier
+     * @throws IllegalStateException if was not found
+     */
+    public String getUsn() {
+        String val = getHeaderIgnoreCase("USN");
+        Validate.validState(val != null);
+        return val;
+    }
+
+    /**
+     * Get the UUID of the device that sent this notification (the part of the unique service identifier up to {@code "::"}).
+     * @return device UUID (e.g. {@code "uuid:00000000-0000-0000-0000-000000000000"})
+     * @throws IllegalStateException if unique service identifier was not found
+     */
+    public String getDeviceUuid() {
+        String usn = getUsn();
+        int idx = usn.indexOf("::");
+        return idx == -1 ? usn : usn.substring(0, idx);
+    }
+
+    /**
+     * Get notification type (the device type, service type, UUID, or {@code upnp:rootdevice} being advertised).
+     * @return notification type
+     * @throws IllegalStateException if was not found
+     */
+    public String getNotificationType() {
+        String val = getHeaderIgnoreCase("NT");
+        Validate.validState(val != null);
+        return val;
+    }
+
+    /**
+     * Get notification sub-type (one of {@link #ALIVE}, {@link #BYEBYE}, or {@link #UPDATE} -- converted to lowercase).
+     * @return notification sub-type
+     * @throws IllegalStateException if was not found
+     */
+    public String getNotificationSubType() {
+        String val = getHeaderIgnoreCase("NTS");
+        Validate.validState(val != null);
+        return val.toLowerCase(Locale.ENGLISH);
+    }
+
+    /**
+     * Get boot ID ({@code BOOTID.UPNP.ORG}). This value is increased by the device each time it reboots or its network configuration
+     * changes. Only sent by UPnP 1.1 devices.
+     * @return boot ID (or {@code null} if not present or could not be interpreted)
+     */
+    public Long getBootId() {
+        return getHeaderAsLongIgnoreCase("BOOTID.UPNP.ORG");
+    }
+
+    /**
+     * Get configuration ID ({@code CONFIGID.UPNP.ORG}). This value changes whenever the device's descriptions change. Only sent by UPnP 1.1
+     * devices.
+     * @return configuration ID (or {@code null} if not present or could not be interpreted)
+     */
+    public Long getConfigId() {
+        return getHeaderAsLongIgnoreCase("CONFIGID.UPNP.ORG");
+    }
+
+    /**
+     * Get the number of seconds this notification is valid for (the {@code max-age} directive of {@code CACHE-CONTROL}).
+     * @return number of seconds this notification is valid for (or {@code null} if not present or could not be interpreted)
+     */
+    public Long getMaxAge() {
+        String val = getHeaderIgnoreCase("CACHE-CONTROL");
+        if (val == null) {
+            return null;
+        }
+        for (String directive : StringUtils.split(val, ',')) {
+            String[] splitDirective = StringUtils.split(directive, "=", 2);
+            if (splitDirective.length == 2 && splitDirective[0].trim().equalsIgnoreCase("max-age")) {
+                try {
+                    long maxAge = Long.parseLong(splitDirective[1].trim());
+                    return maxAge < 0L ? null : maxAge;
+                } catch (NumberFormatException nfe) {
+                    return null;
+                }
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return "ServiceNotificationUpnpIgdResponse{super=" + super.toString() +  '}';
+    }
+    
+    // NO NON-STATIC FIELDS, so parent's equals/hashCode should work
+}
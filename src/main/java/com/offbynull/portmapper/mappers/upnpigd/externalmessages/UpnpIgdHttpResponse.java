@@ -125,6 +125,18 @@ public abstract class UpnpIgdHttpResponse {
         return null;
     }
 
+    final Long getHeaderAsLongIgnoreCase(String key) {
+        String val = getHeaderIgnoreCase(key);
+        if (val == null) {
+            return null;
+        }
+        try {
+            return Long.valueOf(val.trim());
+        } catch (NumberFormatException nfe) {
+            return null;
+        }
+    }
+
     final String getContent() {
         return content;
     }
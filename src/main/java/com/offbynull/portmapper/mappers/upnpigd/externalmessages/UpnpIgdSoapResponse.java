@@ -16,6 +16,7 @@
 package com.offbynull.portmapper.mappers.upnpigd.externalmessages;
 
 import com.offbynull.portmapper.helpers.TextUtils;
+import com.offbynull.portmapper.mapper.RouterErrorException;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
@@ -50,16 +51,24 @@ public abstract class UpnpIgdSoapResponse extends UpnpIgdHttpResponse {
         String responseBlock = TextUtils.findFirstBlock(content,
                 /*<soapprefix*/":" + expectedResponseAction,
                 /*</soapprefix:*/":" + expectedResponseAction, true);
+        if (responseBlock == null) {
+            // A router that refuses an action responds with a SOAP fault, which should carry a UPnP error code (e.g. 718 for
+            // ConflictInMappingEntry) -- report it as such so it can be told apart from a garbled response
+            String faultBlock = TextUtils.findFirstBlock(content, /*<soapprefix*/":Fault", /*</soapprefix:*/":Fault", true);
+            if (faultBlock != null) {
+                String errorCode = findValue(faultBlock, "errorCode");
+                if (errorCode == null) {
+                    errorCode = findValue(faultBlock, "faultcode");
+                }
+                throw new RouterErrorException(errorCode == null ? "Fault" : errorCode);
+            }
+        }
         Validate.isTrue(responseBlock != null);
         
         Map<String, String> args = new HashMap<>();
         for (String key : expectedArguments) {
-            // A really hacky way of finding args -- reason why the whole tag isn't used is because the soap prefix in the tag isn't
-            // consistent... we'd have to do more hacky parsing to figure out what it is
-            String value = TextUtils.findFirstBlock(responseBlock, key + ">", key + ">", true);
-            value = StringUtils.substringBeforeLast(value, "<");
+            String value = findValue(responseBlock, key);
             if (value != null) {
-                value = StringEscapeUtils.unescapeXml(value).trim();
                 args.put(key, value);
             }
         }
@@ -91,6 +100,17 @@ public abstract class UpnpIgdSoapResponse extends UpnpIgdHttpResponse {
         //</soap:Envelope>
     }
     
+    private static String findValue(String block, String key) {
+        // A really hacky way of finding args -- reason why the whole tag isn't used is because the soap prefix in the tag isn't
+        // consistent... we'd have to do more hacky parsing to figure out what it is
+        String value = TextUtils.findFirstBlock(block, key + ">", key + ">", true);
+        value = StringUtils.substringBeforeLast(value, "<");
+        if (value != null) {
+            value = StringEscapeUtils.unescapeXml(value).trim();
+        }
+        return value;
+    }
+
     final String getArgumentIgnoreCase(String key) {
         for (Map.Entry<String, String> header : arguments.entrySet()) {
             if (header.getKey().equalsIgnoreCase(key)) {
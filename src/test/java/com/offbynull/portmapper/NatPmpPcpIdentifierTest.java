@@ -0,0 +1,104 @@
+package com.offbynull.portmapper;
+
+import com.offbynull.portmapper.gateway.Bus;
+import com.offbynull.portmapper.gateways.network.NetworkGateway;
+import com.offbynull.portmapper.gateways.network.internalmessages.KillNetworkRequest;
+import com.offbynull.portmapper.mapper.PortMapper;
+import com.offbynull.portmapper.mappers.natpmp.NatPmpPortMapper;
+import com.offbynull.portmapper.mappers.pcp.PcpPortMapper;
+import com.offbynull.portmapper.testtools.RouterEmulator;
+import com.offbynull.portmapper.testtools.StubProcessBus;
+import com.offbynull.portmapper.testtools.VirtualNetworkBus;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class NatPmpPcpIdentifierTest {
+
+    private InetAddress gatewayAddress;
+    private InetAddress interfaceAddress;
+    private RouterEmulator emulator;
+    private NetworkGateway network;
+    private VirtualNetworkBus networkBus;
+    private StubProcessBus processBus;
+
+    @Before
+    public void before() throws IOException {
+        gatewayAddress = InetAddress.getByAddress(new byte[] {10, 99, 0, 1});
+        interfaceAddress = InetAddress.getByAddress(new byte[] {10, 99, 0, 2});
+        emulator = RouterEmulator.create(InetAddress.getByAddress(new byte[] {127, 0, 0, 1}), 5351,
+                InetAddress.getByAddress(new byte[] {1, 2, 3, 4}));
+        network = NetworkGateway.create();
+
+        networkBus = new VirtualNetworkBus(network.getBus());
+        networkBus.setLocalAddresses(Arrays.asList(interfaceAddress));
+        networkBus.addRoute(new InetSocketAddress(gatewayAddress, 5351), emulator.getPcpAddress());
+
+        processBus = new StubProcessBus();
+        processBus.setOutput("netstat -rn", ""
+                + "Kernel IP routing table\n"
+                + "Destination     Gateway         Genmask         Flags   MSS Window  irtt Iface\n"
+                + "0.0.0.0         10.99.0.1       0.0.0.0         UG        0 0          0 eth0\n");
+    }
+
+    @After
+    public void after() throws IOException {
+        Bus bus = network.getBus();
+        bus.send(new KillNetworkRequest());
+        emulator.close();
+    }
+
+    @Test
+    public void mustIdentifyBothProtocolsFromSinglePass() throws Exception {
+        List<PortMapper> mappers = NatPmpPcpIdentifier.identify(networkBus, processBus);
+
+        assertEquals(2, mappers.size());
+        assertTrue(mappers.get(0) instanceof NatPmpPortMapper);
+        assertTrue(mappers.get(1) instanceof PcpPortMapper);
+        assertEquals(gatewayAddress, ((NatPmpPortMapper) mappers.get(0)).getGatewayAddress());
+        assertEquals(gatewayAddress, ((PcpPortMapper) mappers.get(1)).getGatewayAddress());
+
+        assertEquals(5, processBus.getCreateCount()); // processes only run once
+        assertEquals(2L, emulator.getRequestCount()); // 1 probe + 1 NAT-PMP confirmation
+    }
+
+    @Test
+    public void mustClassifyNatPmpOnlyGatewayFromVersionError() throws Exception {
+        emulator.setPcpEnabled(false);
+        emulator.setVersionErrorsEnabled(true);
+
+        List<PortMapper> mappers = NatPmpPcpIdentifier.identify(networkBus, processBus);
+
+        assertEquals(1, mappers.size());
+        assertTrue(mappers.get(0) instanceof NatPmpPortMapper);
+        assertEquals(interfaceAddress, ((NatPmpPortMapper) mappers.get(0)).getSourceAddress());
+    }
+
+    @Test
+    public void mustClassifyPcpOnlyGateway() throws Exception {
+        emulator.setNatPmpEnabled(false);
+
+        List<PortMapper> mappers = NatPmpPcpIdentifier.identify(networkBus, processBus);
+
+        assertEquals(1, mappers.size());
+        assertTrue(mappers.get(0) instanceof PcpPortMapper);
+    }
+
+    @Test
+    public void mustNotConfirmNatPmpWhenNothingResponds() throws Exception {
+        emulator.setNatPmpEnabled(false);
+        emulator.setPcpEnabled(false);
+
+        List<PortMapper> mappers = NatPmpPcpIdentifier.identify(networkBus, processBus);
+
+        assertTrue(mappers.isEmpty());
+        assertEquals(0L, emulator.getRequestCount());
+    }
+}
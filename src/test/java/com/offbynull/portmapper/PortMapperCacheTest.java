@@ -0,0 +1,169 @@
+package com.offbynull.portmapper;
+
+import com.offbynull.portmapper.gateway.Bus;
+import com.offbynull.portmapper.gateways.network.NetworkGateway;
+import com.offbynull.portmapper.gateways.network.internalmessages.KillNetworkRequest;
+import com.offbynull.portmapper.mapper.PortMapper;
+import com.offbynull.portmapper.mappers.natpmp.NatPmpPortMapper;
+import com.offbynull.portmapper.mappers.pcp.PcpPortMapper;
+import com.offbynull.portmapper.mappers.upnpigd.FirewallUpnpIgdPortMapper;
+import com.offbynull.portmapper.mappers.upnpigd.PortMapperUpnpIgdPortMapper;
+import com.offbynull.portmapper.mappers.upnpigd.externalmessages.ServiceDiscoveryUpnpIgdRequest.ProbeDeviceType;
+import com.offbynull.portmapper.testtools.RouterEmulator;
+import com.offbynull.portmapper.testtools.StubProcessBus;
+import com.offbynull.portmapper.testtools.VirtualNetworkBus;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.apache.commons.lang3.Range;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PortMapperCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private InetAddress gatewayAddress;
+    private InetAddress interfaceAddress;
+    private RouterEmulator emulator;
+    private NetworkGateway network;
+    private Bus networkBus;
+    private Path cacheFile;
+
+    @Before
+    public void before() throws IOException {
+        gatewayAddress = InetAddress.getByAddress(new byte[] {10, 99, 0, 1});
+        interfaceAddress = InetAddress.getByAddress(new byte[] {10, 99, 0, 2});
+        emulator = RouterEmulator.create(InetAddress.getByAddress(new byte[] {127, 0, 0, 1}), 5351,
+                InetAddress.getByAddress(new byte[] {1, 2, 3, 4}));
+        network = NetworkGateway.create();
+        networkBus = network.getBus();
+        cacheFile = folder.getRoot().toPath().resolve("mappers.cache");
+    }
+
+    @After
+    public void after() throws IOException {
+        networkBus.send(new KillNetworkRequest());
+        emulator.close();
+    }
+
+    @Test
+    public void mustRoundTripAllMapperTypes() throws Exception {
+        InetAddress v6Address = InetAddress.getByName("fe80::1");
+        URL controlUrl = new URL("http://10.99.0.1:5000/ctl");
+        List<PortMapper> mappers = Arrays.<PortMapper>asList(
+                new NatPmpPortMapper(networkBus, interfaceAddress, gatewayAddress),
+                new PcpPortMapper(networkBus, v6Address, gatewayAddress),
+                new PortMapperUpnpIgdPortMapper(networkBus, interfaceAddress, controlUrl, null, RouterEmulator.NEW_SERVICE_TYPE,
+                        Range.between(1L, 65535L), Range.between(0L, 604800L), true),
+                new FirewallUpnpIgdPortMapper(networkBus, v6Address, controlUrl, RouterEmulator.SERVER_NAME,
+                        "urn:schemas-upnp-org:service:WANIPv6FirewallControl:1", Range.between(1024L, 2048L), Range.between(1L, 3600L)));
+
+        PortMapperCache.save(cacheFile, mappers);
+        List<PortMapper> loaded = PortMapperCache.load(networkBus, cacheFile);
+
+        assertEquals(4, loaded.size());
+
+        NatPmpPortMapper natPmp = (NatPmpPortMapper) loaded.get(0);
+        assertEquals(interfaceAddress, natPmp.getSourceAddress());
+        assertEquals(gatewayAddress, natPmp.getGatewayAddress());
+
+        PcpPortMapper pcp = (PcpPortMapper) loaded.get(1);
+        assertEquals(v6Address, pcp.getSourceAddress());
+        assertEquals(gatewayAddress, pcp.getGatewayAddress());
+
+        PortMapperUpnpIgdPortMapper upnpIgd = (PortMapperUpnpIgdPortMapper) loaded.get(2);
+        assertEquals(interfaceAddress, upnpIgd.getSourceAddress());
+        assertEquals(controlUrl, upnpIgd.getControlUrl());
+        assertNull(upnpIgd.getServerName());
+        assertEquals(RouterEmulator.NEW_SERVICE_TYPE, upnpIgd.getServiceType());
+        assertEquals(Range.between(1L, 65535L), upnpIgd.getExternalPortRange());
+        assertEquals(Range.between(0L, 604800L), upnpIgd.getLeaseDurationRange());
+        assertTrue(upnpIgd.hasAddAnyPortMappingMethod());
+
+        FirewallUpnpIgdPortMapper firewall = (FirewallUpnpIgdPortMapper) loaded.get(3);
+        assertEquals(v6Address, firewall.getSourceAddress());
+        assertEquals(RouterEmulator.SERVER_NAME, firewall.getServerName());
+        assertEquals(Range.between(1024L, 2048L), firewall.getExternalPortRange());
+        assertEquals(Range.between(1L, 3600L), firewall.getLeaseDurationRange());
+    }
+
+    @Test
+    public void mustRejectCorruptFile() throws Exception {
+        Files.write(cacheFile, new byte[] {0x50, 0x4D, 0x43, 0x41, 1, 0, 1, 9});
+
+        try {
+            PortMapperCache.load(networkBus, cacheFile);
+            fail();
+        } catch (IOException ioe) {
+            // expected
+        }
+    }
+
+    @Test
+    public void mustSkipDiscoveryWhenCachedMappersRevalidate() throws Exception {
+        List<PortMapper> discovered = PortMapperFactory.discover(createVirtualBus(true), createProcessBus(), cacheFile);
+        assertEquals(4, discovered.size());
+        assertTrue(Files.exists(cacheFile));
+
+        // no SSDP and no routing table this time around -- full discovery would find nothing but the PCP/NAT-PMP port is still reachable
+        List<PortMapper> cached = PortMapperFactory.discover(createVirtualBus(false), new StubProcessBus(), cacheFile);
+
+        assertEquals(4, cached.size());
+        int upnpIgdCount = 0;
+        for (PortMapper mapper : cached) {
+            if (mapper instanceof PortMapperUpnpIgdPortMapper) {
+                upnpIgdCount++;
+            }
+        }
+        assertEquals(2, upnpIgdCount);
+    }
+
+    @Test
+    public void mustFallBackToDiscoveryWhenCachedMapperFailsRevalidation() throws Exception {
+        InetAddress goneGatewayAddress = InetAddress.getByAddress(new byte[] {10, 99, 0, 77});
+        PortMapperCache.save(cacheFile, Collections.singleton(new NatPmpPortMapper(networkBus, interfaceAddress, goneGatewayAddress)));
+
+        List<PortMapper> mappers = PortMapperFactory.discover(createVirtualBus(true), createProcessBus(), cacheFile);
+
+        assertEquals(4, mappers.size());
+        for (PortMapper mapper : mappers) {
+            assertFalse(mapper instanceof NatPmpPortMapper && ((NatPmpPortMapper) mapper).getGatewayAddress().equals(goneGatewayAddress));
+        }
+        assertEquals(4, PortMapperCache.load(networkBus, cacheFile).size()); // cache rewritten with fresh results
+    }
+
+    private VirtualNetworkBus createVirtualBus(boolean ssdpRoute) {
+        VirtualNetworkBus virtualBus = new VirtualNetworkBus(networkBus);
+        virtualBus.setLocalAddresses(Arrays.asList(interfaceAddress));
+        virtualBus.addRoute(new InetSocketAddress(gatewayAddress, 5351), emulator.getPcpAddress());
+        if (ssdpRoute) {
+            virtualBus.addRoute(ProbeDeviceType.IPV4.getMulticastSocketAddress(), emulator.getSsdpAddress());
+        }
+        return virtualBus;
+    }
+
+    private StubProcessBus createProcessBus() {
+        StubProcessBus processBus = new StubProcessBus();
+        processBus.setOutput("netstat -rn", ""
+                + "Kernel IP routing table\n"
+                + "Destination     Gateway         Genmask         Flags   MSS Window  irtt Iface\n"
+                + "0.0.0.0         10.99.0.1       0.0.0.0         UG        0 0          0 eth0\n");
+        return processBus;
+    }
+}
@@ -0,0 +1,265 @@
+package com.offbynull.portmapper;
+
+import com.offbynull.portmapper.gateway.Bus;
+import com.offbynull.portmapper.gateways.network.NetworkGateway;
+import com.offbynull.portmapper.gateways.network.internalmessages.CreateMulticastUdpNetworkRequest;
+import com.offbynull.portmapper.gateways.network.internalmessages.CreateUdpNetworkRequest;
+import com.offbynull.portmapper.gateways.network.internalmessages.KillNetworkRequest;
+import com.offbynull.portmapper.leases.Lease;
+import com.offbynull.portmapper.leases.LeaseListener;
+import com.offbynull.portmapper.leases.LeaseManager;
+import com.offbynull.portmapper.mapper.MappedPort;
+import com.offbynull.portmapper.mapper.PortMapper;
+import com.offbynull.portmapper.mapper.PortType;
+import com.offbynull.portmapper.mappers.natpmp.NatPmpPortMapper;
+import com.offbynull.portmapper.mappers.pcp.PcpPortMapper;
+import com.offbynull.portmapper.testtools.RouterEmulator;
+import com.offbynull.portmapper.testtools.StubProcessBus;
+import com.offbynull.portmapper.testtools.VirtualNetworkBus;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PortMapperTrackerTest {
+
+    private InetAddress gatewayAddress;
+    private InetAddress interfaceAddress;
+    private RouterEmulator emulator;
+    private NetworkGateway network;
+    private VirtualNetworkBus networkBus;
+    private StubProcessBus processBus;
+    private LeaseManager leaseManager;
+    private PortMapperTracker fixture;
+    private List<List<PortMapper>> changes;
+    private AtomicBoolean failNextSocket;
+
+    @Before
+    public void before() throws Exception {
+        gatewayAddress = InetAddress.getByAddress(new byte[] {10, 99, 0, 1});
+        interfaceAddress = InetAddress.getByAddress(new byte[] {10, 99, 0, 2});
+        emulator = RouterEmulator.create(InetAddress.getByAddress(new byte[] {127, 0, 0, 1}), 5351,
+                InetAddress.getByAddress(new byte[] {1, 2, 3, 4}));
+        network = NetworkGateway.create();
+
+        networkBus = new VirtualNetworkBus(network.getBus());
+        networkBus.setLocalAddresses(Arrays.asList(interfaceAddress));
+        networkBus.addRoute(new InetSocketAddress(gatewayAddress, 5351), emulator.getPcpAddress());
+
+        processBus = new StubProcessBus();
+        setDefaultGateway("10.99.0.1");
+
+        failNextSocket = new AtomicBoolean();
+        Bus failableNetworkBus = new Bus() {
+            @Override
+            public void send(Object msg) {
+                if ((msg instanceof CreateUdpNetworkRequest || msg instanceof CreateMulticastUdpNetworkRequest)
+                        && failNextSocket.compareAndSet(true, false)) {
+                    throw new IllegalStateException("Injected failure");
+                }
+                networkBus.send(msg);
+            }
+        };
+
+        leaseManager = LeaseManager.create(1);
+        fixture = PortMapperTracker.create(failableNetworkBus, processBus, leaseManager);
+
+        changes = new ArrayList<>();
+        fixture.addListener(new PortMapperTrackerListener() {
+            @Override
+            public void portMappersChanged(List<PortMapper> added, List<PortMapper> retired) {
+                changes.add(added);
+                changes.add(retired);
+            }
+        });
+    }
+
+    @After
+    public void after() throws IOException {
+        fixture.close();
+        leaseManager.close();
+        network.getBus().send(new KillNetworkRequest());
+        emulator.close();
+    }
+
+    @Test
+    public void mustNotProbeWhenNothingChanged() throws Exception {
+        assertEquals(2, fixture.getPortMappers().size());
+        long requestCount = emulator.getRequestCount();
+
+        fixture.rediscover();
+
+        assertEquals(requestCount, emulator.getRequestCount());
+        assertEquals(2, fixture.getPortMappers().size());
+        assertTrue(changes.isEmpty());
+    }
+
+    @Test
+    public void mustRetireMappersAndMigrateLeasesWhenSourceAddressChanges() throws Exception {
+        NatPmpPortMapper oldMapper = null;
+        for (PortMapper portMapper : fixture.getPortMappers()) {
+            if (portMapper instanceof NatPmpPortMapper) {
+                oldMapper = (NatPmpPortMapper) portMapper;
+            }
+        }
+        MappedPort mappedPort = oldMapper.mapPort(PortType.TCP, 12345, 12345, 3600L);
+        Lease lease = leaseManager.manage(oldMapper, mappedPort, 3600L);
+
+        final CountDownLatch remapLatch = new CountDownLatch(1);
+        leaseManager.addListener(new LeaseListener() {
+            @Override
+            public void refreshed(Lease lease, MappedPort oldMappedPort, MappedPort newMappedPort) {
+            }
+
+            @Override
+            public void remapped(Lease lease, MappedPort oldMappedPort, MappedPort newMappedPort) {
+                remapLatch.countDown();
+            }
+
+            @Override
+            public void failed(Lease lease, Throwable cause, boolean retrying) {
+            }
+        });
+
+        InetAddress newInterfaceAddress = InetAddress.getByAddress(new byte[] {10, 99, 0, 5});
+        networkBus.setLocalAddresses(Arrays.asList(newInterfaceAddress));
+        fixture.rediscover();
+
+        assertEquals(2, changes.size());
+        assertEquals(2, changes.get(0).size()); // added
+        assertEquals(2, changes.get(1).size()); // retired
+        for (PortMapper portMapper : fixture.getPortMappers()) {
+            assertEquals(newInterfaceAddress, portMapper.getSourceAddress());
+        }
+
+        assertTrue(remapLatch.await(5L, TimeUnit.SECONDS));
+        assertTrue(lease.getPortMapper() instanceof NatPmpPortMapper);
+        assertEquals(newInterfaceAddress, lease.getPortMapper().getSourceAddress());
+    }
+
+    @Test
+    public void mustOnlyProbeNewGatewayAndRetireOldGatewayWhenRouteChanges() throws Exception {
+        InetAddress newGatewayAddress = InetAddress.getByAddress(new byte[] {10, 99, 0, 9});
+        RouterEmulator newEmulator = RouterEmulator.create(InetAddress.getByAddress(new byte[] {127, 0, 0, 1}), 5352,
+                InetAddress.getByAddress(new byte[] {5, 6, 7, 8}));
+        try {
+            newEmulator.setNatPmpEnabled(false);
+            networkBus.addRoute(new InetSocketAddress(newGatewayAddress, 5351), newEmulator.getPcpAddress());
+            setDefaultGateway("10.99.0.9");
+            long requestCount = emulator.getRequestCount();
+
+            fixture.rediscover();
+
+            assertEquals(requestCount, emulator.getRequestCount()); // old gateway not probed again
+            assertEquals(1L, newEmulator.getRequestCount());
+            assertEquals(2, changes.size());
+            assertEquals(1, changes.get(0).size());
+            assertTrue(changes.get(0).get(0) instanceof PcpPortMapper);
+            assertEquals(newGatewayAddress, ((PcpPortMapper) changes.get(0).get(0)).getGatewayAddress());
+            assertEquals(2, changes.get(1).size()); // NAT-PMP and PCP on the old gateway
+            assertEquals(1, fixture.getPortMappers().size());
+        } finally {
+            newEmulator.close();
+        }
+    }
+
+    @Test
+    public void mustMigrateLeasesWhenGatewayChangesOnSameSourceAddress() throws Exception {
+        NatPmpPortMapper oldMapper = null;
+        for (PortMapper portMapper : fixture.getPortMappers()) {
+            if (portMapper instanceof NatPmpPortMapper) {
+                oldMapper = (NatPmpPortMapper) portMapper;
+            }
+        }
+        MappedPort mappedPort = oldMapper.mapPort(PortType.TCP, 12345, 12345, 3600L);
+        Lease lease = leaseManager.manage(oldMapper, mappedPort, 3600L);
+
+        final CountDownLatch remapLatch = new CountDownLatch(1);
+        leaseManager.addListener(new LeaseListener() {
+            @Override
+            public void refreshed(Lease lease, MappedPort oldMappedPort, MappedPort newMappedPort) {
+            }
+
+            @Override
+            public void remapped(Lease lease, MappedPort oldMappedPort, MappedPort newMappedPort) {
+                remapLatch.countDown();
+            }
+
+            @Override
+            public void failed(Lease lease, Throwable cause, boolean retrying) {
+            }
+        });
+
+        InetAddress newGatewayAddress = InetAddress.getByAddress(new byte[] {10, 99, 0, 9});
+        RouterEmulator newEmulator = RouterEmulator.create(InetAddress.getByAddress(new byte[] {127, 0, 0, 1}), 5352,
+                InetAddress.getByAddress(new byte[] {5, 6, 7, 8}));
+        try {
+            newEmulator.setPcpEnabled(false);
+            newEmulator.setVersionErrorsEnabled(true);
+            networkBus.addRoute(new InetSocketAddress(newGatewayAddress, 5351), newEmulator.getPcpAddress());
+            setDefaultGateway("10.99.0.9"); // same local address, different gateway
+
+            fixture.rediscover();
+
+            assertTrue(changes.get(1).contains(oldMapper));
+            assertTrue(remapLatch.await(5L, TimeUnit.SECONDS));
+            assertTrue(lease.getPortMapper() instanceof NatPmpPortMapper);
+            assertEquals(newGatewayAddress, ((NatPmpPortMapper) lease.getPortMapper()).getGatewayAddress());
+            assertEquals(interfaceAddress, lease.getPortMapper().getSourceAddress());
+            assertEquals(1, newEmulator.getMappingCount());
+        } finally {
+            newEmulator.close();
+        }
+    }
+
+    @Test
+    public void mustRetryChangesWhenIdentificationFails() throws Exception {
+        InetAddress newGatewayAddress = InetAddress.getByAddress(new byte[] {10, 99, 0, 9});
+        RouterEmulator newEmulator = RouterEmulator.create(InetAddress.getByAddress(new byte[] {127, 0, 0, 1}), 5352,
+                InetAddress.getByAddress(new byte[] {5, 6, 7, 8}));
+        try {
+            newEmulator.setNatPmpEnabled(false);
+            networkBus.addRoute(new InetSocketAddress(newGatewayAddress, 5351), newEmulator.getPcpAddress());
+            setDefaultGateway("10.99.0.9");
+
+            failNextSocket.set(true);
+            try {
+                fixture.rediscover();
+                fail();
+            } catch (IllegalStateException ise) {
+                // expected
+            }
+            assertTrue(changes.isEmpty());
+            assertEquals(2, fixture.getPortMappers().size());
+
+            fixture.rediscover(); // same changes must be picked up again
+
+            assertEquals(2, changes.size());
+            assertEquals(1, changes.get(0).size());
+            assertTrue(changes.get(0).get(0) instanceof PcpPortMapper);
+            assertEquals(newGatewayAddress, ((PcpPortMapper) changes.get(0).get(0)).getGatewayAddress());
+            assertEquals(2, changes.get(1).size());
+            assertEquals(1, fixture.getPortMappers().size());
+        } finally {
+            newEmulator.close();
+        }
+    }
+
+    private void setDefaultGateway(String address) {
+        processBus.setOutput("netstat -rn", ""
+                + "Kernel IP routing table\n"
+                + "Destination     Gateway         Genmask         Flags   MSS Window  irtt Iface\n"
+                + "0.0.0.0         " + address + "       0.0.0.0         UG        0 0          0 eth0\n");
+    }
+}
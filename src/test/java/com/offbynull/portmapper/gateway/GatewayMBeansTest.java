@@ -0,0 +1,34 @@
+package com.offbynull.portmapper.gateway;
+
+import com.offbynull.portmapper.gateways.network.NetworkGateway;
+import com.offbynull.portmapper.gateways.network.internalmessages.KillNetworkRequest;
+import java.lang.management.ManagementFactory;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+public class GatewayMBeansTest {
+
+    @Test
+    public void mustExposeNetworkGatewayStats() throws Exception {
+        NetworkGateway gateway = NetworkGateway.create();
+        ObjectName name = GatewayMBeans.register("NetworkGateway", gateway.getStats());
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            assertTrue(server.isRegistered(name));
+            assertEquals(0L, server.getAttribute(name, "OpenUdpSockets"));
+
+            CompositeData processingTime = (CompositeData) server.getAttribute(name, "MessageProcessingNanos");
+            assertTrue(processingTime.containsKey("p99"));
+        } finally {
+            GatewayMBeans.unregister(name);
+            gateway.getBus().send(new KillNetworkRequest());
+        }
+
+        assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+    }
+}
@@ -0,0 +1,66 @@
+package com.offbynull.portmapper.gateway;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void mustReportNothingWhenEmpty() {
+        LatencyHistogram.Snapshot snapshot = new LatencyHistogram().snapshot();
+
+        assertEquals(0L, snapshot.getCount());
+        assertEquals(0.0, snapshot.getMean(), 0.0);
+        assertEquals(0L, snapshot.getMax());
+        assertEquals(0L, snapshot.getP99());
+    }
+
+    @Test
+    public void mustBeExactForSmallValues() {
+        LatencyHistogram fixture = new LatencyHistogram();
+        for (int i = 1; i <= 10; i++) {
+            fixture.record(i);
+        }
+
+        LatencyHistogram.Snapshot snapshot = fixture.snapshot();
+        assertEquals(10L, snapshot.getCount());
+        assertEquals(5.5, snapshot.getMean(), 0.0);
+        assertEquals(10L, snapshot.getMax());
+        assertEquals(5L, snapshot.getP50());
+        assertEquals(9L, snapshot.getP90());
+        assertEquals(10L, snapshot.getP99());
+    }
+
+    @Test
+    public void mustStayWithinErrorBoundForLargeValues() {
+        LatencyHistogram fixture = new LatencyHistogram();
+        for (long i = 1L; i <= 100000L; i++) {
+            fixture.record(i * 1000L);
+        }
+
+        LatencyHistogram.Snapshot snapshot = fixture.snapshot();
+        assertWithinEighth(50000000L, snapshot.getP50());
+        assertWithinEighth(90000000L, snapshot.getP90());
+        assertWithinEighth(99000000L, snapshot.getP99());
+        assertEquals(100000000L, snapshot.getMax());
+        assertEquals(100000000L, snapshot.percentile(100.0));
+    }
+
+    @Test
+    public void mustHandleLargestValue() {
+        LatencyHistogram fixture = new LatencyHistogram();
+        fixture.record(Long.MAX_VALUE);
+
+        assertEquals(Long.MAX_VALUE, fixture.snapshot().getP50());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void mustFailOnNegativeValue() {
+        new LatencyHistogram().record(-1L);
+    }
+
+    private static void assertWithinEighth(long expected, long actual) {
+        assertTrue(expected + " vs " + actual, actual >= expected && actual <= expected + expected / 8L);
+    }
+}
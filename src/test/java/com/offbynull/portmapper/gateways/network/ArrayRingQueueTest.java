@@ -0,0 +1,53 @@
+package com.offbynull.portmapper.gateways.network;
+
+import java.util.ArrayDeque;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+public class ArrayRingQueueTest {
+
+    @Test
+    public void mustBeFirstInFirstOut() {
+        ArrayRingQueue<String> queue = new ArrayRingQueue<>();
+        assertTrue(queue.isEmpty());
+        assertNull(queue.peekFirst());
+
+        queue.addLast("a");
+        queue.addLast("b");
+        queue.addLast("c");
+
+        assertEquals(3, queue.size());
+        assertEquals("a", queue.peekFirst());
+        assertEquals("a", queue.removeFirst());
+        assertEquals("b", queue.removeFirst());
+        assertEquals("c", queue.removeFirst());
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void mustFailToRemoveFromEmpty() {
+        new ArrayRingQueue<String>().removeFirst();
+    }
+
+    @Test
+    public void mustKeepOrderWhenGrowingWhileWrapped() {
+        ArrayRingQueue<Integer> queue = new ArrayRingQueue<>();
+        ArrayDeque<Integer> expected = new ArrayDeque<>();
+        Random random = new Random(1L);
+
+        for (int i = 0; i < 10000; i++) {
+            if (random.nextInt(3) != 0) { // bias towards adding so the queue grows while its head is somewhere in the middle
+                queue.addLast(i);
+                expected.addLast(i);
+            } else if (!expected.isEmpty()) {
+                assertEquals(expected.removeFirst(), queue.removeFirst());
+            }
+            assertEquals(expected.size(), queue.size());
+            assertEquals(expected.peekFirst(), queue.peekFirst());
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.offbynull.portmapper.gateways.network;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import org.junit.Test;
+
+public class IntObjectMapTest {
+
+    @Test
+    public void mustPutGetAndRemove() {
+        IntObjectMap<String> map = new IntObjectMap<>();
+
+        assertNull(map.put(5, "a"));
+        assertEquals("a", map.put(5, "b"));
+        assertEquals("b", map.get(5));
+        assertNull(map.get(6));
+        assertEquals(1, map.size());
+
+        assertEquals("b", map.remove(5));
+        assertNull(map.remove(5));
+        assertNull(map.get(5));
+        assertEquals(0, map.size());
+    }
+
+    @Test
+    public void mustReturnCopyOfKeys() {
+        IntObjectMap<String> map = new IntObjectMap<>();
+        for (int i = 0; i < 100; i++) {
+            map.put(i, "v" + i);
+        }
+
+        int[] keys = map.keys();
+        for (int key : keys) {
+            map.remove(key); // removing while iterating over the copy must be safe
+        }
+
+        Arrays.sort(keys);
+        int[] expected = new int[100];
+        for (int i = 0; i < expected.length; i++) {
+            expected[i] = i;
+        }
+        assertArrayEquals(expected, keys);
+        assertEquals(0, map.size());
+    }
+
+    @Test
+    public void mustMatchHashMapUnderRandomOperations() {
+        IntObjectMap<Integer> map = new IntObjectMap<>();
+        Map<Integer, Integer> expected = new HashMap<>();
+        Random random = new Random(1L);
+
+        // small key range so that there are lots of collisions, removals in the middle of probe sequences and resizes
+        for (int i = 0; i < 100000; i++) {
+            int key = random.nextInt(200) - 100;
+            if (random.nextBoolean()) {
+                assertEquals(expected.put(key, i), map.put(key, i));
+            } else {
+                assertEquals(expected.remove(key), map.remove(key));
+            }
+            assertEquals(expected.size(), map.size());
+        }
+        for (int key = -100; key < 100; key++) {
+            assertEquals(expected.get(key), map.get(key));
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.offbynull.portmapper.gateways.network;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LocalAddressMonitorTest {
+
+    private InetAddress address1;
+    private InetAddress address2;
+    private FakeSource source;
+    private LocalAddressMonitor fixture;
+
+    @Before
+    public void before() throws Exception {
+        address1 = InetAddress.getByAddress(new byte[] {10, 0, 0, 2});
+        address2 = InetAddress.getByAddress(new byte[] {10, 0, 0, 3});
+        source = new FakeSource();
+        source.addresses = new HashSet<>(Arrays.asList(address1));
+        source.fingerprint = new byte[] {1};
+        fixture = new LocalAddressMonitor(source, Long.MAX_VALUE, 5); // poll() is called directly by the tests
+        fixture.start();
+    }
+
+    @After
+    public void after() {
+        fixture.stop();
+    }
+
+    @Test
+    public void mustTakeInitialSnapshotOnStart() {
+        assertEquals(Collections.singleton(address1), fixture.getAddresses());
+        assertEquals(1, fixture.getFullScanCount());
+    }
+
+    @Test
+    public void mustOnlyWalkInterfacesWhenFingerprintChanges() {
+        fixture.poll();
+        fixture.poll();
+        assertEquals(1, fixture.getFullScanCount());
+
+        source.addresses = new HashSet<>(Arrays.asList(address1, address2));
+        source.fingerprint = new byte[] {2};
+        fixture.poll();
+
+        assertEquals(2, fixture.getFullScanCount());
+        assertEquals(new HashSet<>(Arrays.asList(address1, address2)), fixture.getAddresses());
+    }
+
+    @Test
+    public void mustWalkInterfacesPeriodicallyWhenFingerprintUnavailable() {
+        source.fingerprint = null;
+
+        for (int i = 0; i < 4; i++) {
+            fixture.poll();
+        }
+        assertEquals(1, fixture.getFullScanCount());
+
+        fixture.poll();
+        assertEquals(2, fixture.getFullScanCount());
+    }
+
+    @Test
+    public void mustNotifyListenersOfChanges() {
+        final List<Set<InetAddress>> calls = new ArrayList<>();
+        fixture.addListener(new LocalAddressListener() {
+            @Override
+            public void localAddressesChanged(Set<InetAddress> added, Set<InetAddress> removed, Set<InetAddress> current) {
+                throw new IllegalStateException(); // must not stop other listeners from being notified
+            }
+        });
+        fixture.addListener(new LocalAddressListener() {
+            @Override
+            public void localAddressesChanged(Set<InetAddress> added, Set<InetAddress> removed, Set<InetAddress> current) {
+                calls.add(added);
+                calls.add(removed);
+                calls.add(current);
+            }
+        });
+
+        source.fingerprint = new byte[] {2}; // fingerprint changed but addresses didn't -- no notification
+        fixture.poll();
+        assertTrue(calls.isEmpty());
+
+        source.addresses = new HashSet<>(Arrays.asList(address2));
+        source.fingerprint = new byte[] {3};
+        fixture.poll();
+
+        assertEquals(Arrays.asList(
+                Collections.singleton(address2),
+                Collections.singleton(address1),
+                Collections.singleton(address2)), calls);
+    }
+
+    private static final class FakeSource implements LocalAddressMonitor.Source {
+        private volatile Set<InetAddress> addresses;
+        private volatile byte[] fingerprint;
+
+        @Override
+        public Set<InetAddress> readAddresses() throws IOException {
+            return new HashSet<>(addresses);
+        }
+
+        @Override
+        public byte[] readFingerprint() {
+            return fingerprint;
+        }
+    }
+}
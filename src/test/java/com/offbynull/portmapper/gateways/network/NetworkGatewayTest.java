@@ -9,6 +9,8 @@ import com.offbynull.portmapper.gateways.network.internalmessages.CreateUdpNetwo
 import com.offbynull.portmapper.gateways.network.internalmessages.CloseNetworkRequest;
 import com.offbynull.portmapper.gateways.network.internalmessages.CloseNetworkResponse;
 import com.offbynull.portmapper.gateways.network.internalmessages.ConnectedTcpNetworkNotification;
+import com.offbynull.portmapper.gateways.network.internalmessages.GetLocalIpAddressesNetworkRequest;
+import com.offbynull.portmapper.gateways.network.internalmessages.GetLocalIpAddressesNetworkResponse;
 import com.offbynull.portmapper.gateways.network.internalmessages.GetNextIdNetworkRequest;
 import com.offbynull.portmapper.gateways.network.internalmessages.GetNextIdNetworkResponse;
 import com.offbynull.portmapper.gateways.network.internalmessages.KillNetworkRequest;
@@ -30,6 +32,7 @@ import java.nio.charset.Charset;
 import java.util.concurrent.LinkedBlockingQueue;
 import org.junit.After;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -144,4 +147,53 @@ public class NetworkGatewayTest {
         }
     }
 
+    @Test
+    public void mustAnswerLocalAddressesFromSnapshot() throws Exception {
+        LinkedBlockingQueue<Object> queue = new LinkedBlockingQueue<>();
+        Bus bus = new BasicBus(queue);
+
+        fixtureBus.send(new GetLocalIpAddressesNetworkRequest(bus));
+        GetLocalIpAddressesNetworkResponse resp = (GetLocalIpAddressesNetworkResponse) queue.take();
+
+        assertEquals(fixture.getLocalAddresses(), resp.getLocalAddresses());
+    }
+
+    @Test
+    public void mustCollectStats() throws Exception {
+        UdpServerEmulator emulator = UdpServerEmulator.create(12345);
+        try {
+            emulator.addMapping(
+                    ByteBuffer.wrap("hello".getBytes("UTF-8")),
+                    ByteBuffer.wrap("goodbye".getBytes("UTF-8")));
+
+            LinkedBlockingQueue<Object> queue = new LinkedBlockingQueue<>();
+            Bus responseBus = new BasicBus(queue);
+            NetworkGatewayStats stats = fixture.getStats();
+
+            fixtureBus.send(new CreateUdpNetworkRequest(0, responseBus, InetAddress.getByName("0.0.0.0")));
+            CreateUdpNetworkResponse createResp = (CreateUdpNetworkResponse) queue.take();
+            assertEquals(1L, stats.getOpenUdpSockets());
+
+            WriteEmptyUdpNetworkNotification writeReadyResp = (WriteEmptyUdpNetworkNotification) queue.take();
+            fixtureBus.send(new WriteUdpNetworkRequest(0, new InetSocketAddress("127.0.0.1", 12345), "hello".getBytes("UTF-8")));
+            WriteUdpNetworkResponse writeResp = (WriteUdpNetworkResponse) queue.take();
+            WriteEmptyUdpNetworkNotification writeReadyResp2 = (WriteEmptyUdpNetworkNotification) queue.take();
+            ReadUdpNetworkNotification readResp = (ReadUdpNetworkNotification) queue.take();
+
+            fixtureBus.send(new CloseNetworkRequest(0));
+            CloseNetworkResponse closeResp = (CloseNetworkResponse) queue.take();
+
+            assertEquals(0L, stats.getOpenUdpSockets());
+            assertEquals(1L, stats.getDatagramsOut());
+            assertEquals(5L, stats.getUdpBytesOut());
+            assertEquals(1L, stats.getDatagramsIn());
+            assertEquals(7L, stats.getUdpBytesIn());
+            assertEquals(1L, stats.getSocketLifetimeNanos().getCount());
+            assertTrue(stats.getMessageProcessingNanos().getCount() >= 2L); // close may not have been recorded by the time this runs
+            assertTrue(stats.getSelectLoopIterations() > 0L);
+        } finally {
+            emulator.close();
+        }
+    }
+
 }
@@ -7,12 +7,16 @@ import com.offbynull.portmapper.gateways.process.internalmessages.CreateProcessR
 import com.offbynull.portmapper.gateways.process.internalmessages.ExitProcessNotification;
 import com.offbynull.portmapper.gateways.process.internalmessages.GetNextIdProcessRequest;
 import com.offbynull.portmapper.gateways.process.internalmessages.KillProcessRequest;
+import com.offbynull.portmapper.gateways.process.internalmessages.GetNextIdProcessResponse;
 import com.offbynull.portmapper.gateways.process.internalmessages.ReadProcessNotification;
 import java.io.ByteArrayOutputStream;
 import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.LinkedBlockingQueue;
 import org.junit.After;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import org.junit.Before;
 import org.junit.Ignore;
 import org.junit.Test;
@@ -69,4 +73,43 @@ public class ProcessGatewayTest {
                 new String(baos.toByteArray(), Charset.forName("US-ASCII")));
     }
 
+    @Test
+    public void mustRunManyProcessesOnSingleWorker() throws Exception {
+        ProcessGateway singleWorkerFixture = ProcessGateway.create(1);
+        Bus singleWorkerBus = singleWorkerFixture.getBus();
+        try {
+            LinkedBlockingQueue<Object> queue = new LinkedBlockingQueue<>();
+            Bus responseBus = new BasicBus(queue);
+
+            Map<Integer, ByteArrayOutputStream> outputs = new HashMap<>();
+            for (int i = 0; i < 16; i++) {
+                singleWorkerBus.send(new GetNextIdProcessRequest(responseBus));
+                int id = ((GetNextIdProcessResponse) queue.take()).getId();
+                outputs.put(id, new ByteArrayOutputStream());
+            }
+            for (int id : outputs.keySet()) {
+                singleWorkerBus.send(new CreateProcessRequest(id, responseBus, "java", "-version"));
+            }
+
+            int remaining = outputs.size();
+            while (remaining > 0) {
+                Object resp = queue.take();
+                if (resp instanceof ReadProcessNotification) {
+                    ReadProcessNotification readResp = (ReadProcessNotification) resp;
+                    outputs.get(readResp.getId()).write(readResp.getData());
+                } else if (resp instanceof ExitProcessNotification) {
+                    assertEquals(0, ((ExitProcessNotification) resp).getExitCode().intValue());
+                    remaining--;
+                }
+            }
+
+            for (ByteArrayOutputStream baos : outputs.values()) {
+                assertTrue(new String(baos.toByteArray(), Charset.forName("US-ASCII")).contains("version"));
+            }
+            assertEquals(0L, singleWorkerFixture.getStats().getOpenProcesses());
+        } finally {
+            singleWorkerBus.send(new KillProcessRequest());
+        }
+    }
+
 }
@@ -55,4 +55,13 @@ public class NetworkUtilsTest {
         byte[] actual = NetworkUtils.convertAddressToIpv6Bytes(InetAddress.getByName("1111::1111"));
         assertArrayEquals(new byte[] {17, 17, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 17, 17}, actual);
     }
+
+    @Test
+    public void mustCountCommonPrefixBits() throws UnknownHostException {
+        assertEquals(32, NetworkUtils.getCommonPrefixLength(InetAddress.getByName("10.1.2.3"), InetAddress.getByName("10.1.2.3")));
+        assertEquals(30, NetworkUtils.getCommonPrefixLength(InetAddress.getByName("192.168.1.1"), InetAddress.getByName("192.168.1.2")));
+        assertEquals(0, NetworkUtils.getCommonPrefixLength(InetAddress.getByName("10.0.0.1"), InetAddress.getByName("192.168.1.1")));
+        assertEquals(64, NetworkUtils.getCommonPrefixLength(InetAddress.getByName("fe80::1"), InetAddress.getByName("fe80::8000:0:0:1")));
+        assertEquals(-1, NetworkUtils.getCommonPrefixLength(InetAddress.getByName("10.0.0.1"), InetAddress.getByName("::1")));
+    }
 }
@@ -0,0 +1,69 @@
+package com.offbynull.portmapper.helpers;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+public class StreamingAddressExtractorTest {
+
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
+
+    @Test
+    public void mustFindAddressesSplitAcrossChunks() {
+        StreamingAddressExtractor fixture = new StreamingAddressExtractor();
+        fixture.feed("eth0 inet 192.16".getBytes(US_ASCII));
+        assertEquals(Collections.emptySet(), fixture.getIpv4Addresses());
+
+        fixture.feed("8.1.25 netmask 255.255.255.0\nfe80::1 ".getBytes(US_ASCII));
+        assertEquals(new LinkedHashSet<>(Arrays.asList("192.168.1.25", "255.255.255.0")), fixture.getIpv4Addresses());
+        assertEquals(Collections.emptySet(), fixture.getIpv6Addresses());
+
+        fixture.finish();
+        assertEquals(new LinkedHashSet<>(Arrays.asList("fe80::1")), fixture.getIpv6Addresses());
+    }
+
+    @Test
+    public void mustNotScanTrailingPartialLineUnlessFinished() {
+        StreamingAddressExtractor fixture = new StreamingAddressExtractor();
+        fixture.feed("default via 10.0.0.1\r\n10.0.0.2".getBytes(US_ASCII));
+
+        assertEquals(new LinkedHashSet<>(Arrays.asList("10.0.0.1")), fixture.getIpv4Addresses());
+    }
+
+    @Test
+    public void mustFindDefaultGatewayAddresses() {
+        StreamingAddressExtractor fixture = new StreamingAddressExtractor();
+        fixture.feed((""
+                + "Destination     Gateway         Genmask         Flags Metric Ref    Use Iface\n"
+                + "0.0.0.0         192.168.1.1     0.0.0.0         UG    100    0        0 eth0\n"
+                + "192.168.1.0     0.0.0.0         255.255.255.0   U     100    0        0 eth0\n"
+                + "default            10.0.0.1          UGScg           en0\n"
+                + "    gateway: 10.0.0.2\n"
+                + "   Default Gateway . . . . . . . . . : 10.0.0.3\n").getBytes(US_ASCII));
+        fixture.finish();
+
+        assertEquals(new LinkedHashSet<>(Arrays.asList("0.0.0.0", "192.168.1.1", "10.0.0.1", "10.0.0.2", "10.0.0.3")),
+                fixture.getDefaultGatewayAddresses());
+    }
+
+    @Test
+    public void mustTreatAddressOnlyLinesAfterGatewayLineAsGatewayAddresses() {
+        StreamingAddressExtractor fixture = new StreamingAddressExtractor();
+        fixture.feed("   Default Gateway . . . . . . . . . : fe80::1%12\r\n".getBytes(US_ASCII));
+        assertEquals(Collections.emptySet(), fixture.getDefaultGatewayAddresses()); // more gateways may be listed on the lines below
+
+        fixture.feed("                                       192.168.1.1\r\n".getBytes(US_ASCII));
+        assertEquals(Collections.emptySet(), fixture.getDefaultGatewayAddresses());
+
+        fixture.feed("   DHCPv6 IAID . . . . . . . . . . . : 50331648\r\n   DNS Servers . . . . . . . . . . . : 192.168.1.2\r\n"
+                .getBytes(US_ASCII));
+        assertEquals(new LinkedHashSet<>(Arrays.asList("fe80::1", "192.168.1.1")), fixture.getDefaultGatewayAddresses());
+
+        fixture.feed("   Default Gateway . . . . . . . . . : 10.0.0.1\r\n".getBytes(US_ASCII));
+        fixture.finish();
+        assertEquals(new LinkedHashSet<>(Arrays.asList("fe80::1", "192.168.1.1", "10.0.0.1")), fixture.getDefaultGatewayAddresses());
+    }
+}
@@ -213,6 +213,29 @@ public class TextUtilsTest {
         assertEquals("f8:9:a:b:c:d:e:f", addresses.get(0));
     }
     
+    @Test
+    public void mustPassWithIpv6AtEndOfText() {
+        List<String> addresses = TextUtils.findAllIpv6Addresses(
+                "gateway: fe80::1");
+
+        assertEquals(1, addresses.size());
+        assertEquals("fe80::1", addresses.get(0));
+    }
+
+    @Test
+    public void mustRejectLongRunsOfDigitsAndHex() {
+        List<String> ipv4Addresses = TextUtils.findAllIpv4Addresses(
+                "1234567.1.1.1 99999999999999999999999999999999.1.2.3.4 fs");
+        List<String> ipv6Addresses = TextUtils.findAllIpv6Addresses(
+                "abcdeabcdeabcdeabcde::1 fs");
+
+        assertEquals(2, ipv4Addresses.size());
+        assertEquals("67.1.1.1", ipv4Addresses.get(0));
+        assertEquals("99.1.2.3", ipv4Addresses.get(1));
+        assertEquals(1, ipv6Addresses.size());
+        assertEquals("bcde::1", ipv6Addresses.get(0));
+    }
+
     @Test
     public void mustFindBlocksOfText() {
         List<String> blocks = TextUtils.findAllBlocks("\t\tsfosnfhello this is a test goodbyes\tfsdfshellogoodbye", "hello", "goodbye",
@@ -0,0 +1,357 @@
+package com.offbynull.portmapper.leases;
+
+import com.offbynull.portmapper.mapper.EpochTracker;
+import com.offbynull.portmapper.mapper.MappedPort;
+import com.offbynull.portmapper.mapper.PortMapper;
+import com.offbynull.portmapper.mapper.PortType;
+import java.net.InetAddress;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LeaseManagerTest {
+
+    private LeaseManager fixture;
+
+    @Before
+    public void before() {
+        fixture = LeaseManager.create(2, 10L, 64, 0.4, 0.6);
+    }
+
+    @After
+    public void after() {
+        fixture.close();
+    }
+
+    @Test
+    public void mustRefreshLeaseRepeatedly() throws Exception {
+        TestPortMapper mapper = new TestPortMapper(false);
+        final CountDownLatch latch = new CountDownLatch(3);
+        fixture.addListener(new LeaseListener() {
+            @Override
+            public void refreshed(Lease lease, MappedPort oldMappedPort, MappedPort newMappedPort) {
+                latch.countDown();
+            }
+
+            @Override
+            public void remapped(Lease lease, MappedPort oldMappedPort, MappedPort newMappedPort) {
+            }
+
+            @Override
+            public void failed(Lease lease, Throwable cause, boolean retrying) {
+            }
+        });
+
+        Lease lease = fixture.manage(mapper, new TestMappedPort(1L), 1L);
+
+        assertTrue(latch.await(5L, TimeUnit.SECONDS));
+        assertTrue(mapper.refreshCount.get() >= 3);
+        assertFalse(lease.isReleased());
+        assertEquals(1L, lease.getMappedPort().getLifetime());
+    }
+
+    @Test
+    public void mustStopRefreshingReleasedLease() throws Exception {
+        TestPortMapper mapper = new TestPortMapper(false);
+
+        Lease lease = fixture.manage(mapper, new TestMappedPort(1L), 1L);
+        fixture.release(lease);
+        Thread.sleep(1500L);
+
+        assertEquals(0, mapper.refreshCount.get());
+    }
+
+    @Test
+    public void mustReportFailureAndDropLeaseOnceExpired() throws Exception {
+        TestPortMapper mapper = new TestPortMapper(true);
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicInteger retries = new AtomicInteger();
+        fixture.addListener(new LeaseListener() {
+            @Override
+            public void refreshed(Lease lease, MappedPort oldMappedPort, MappedPort newMappedPort) {
+            }
+
+            @Override
+            public void remapped(Lease lease, MappedPort oldMappedPort, MappedPort newMappedPort) {
+            }
+
+            @Override
+            public void failed(Lease lease, Throwable cause, boolean retrying) {
+                if (retrying) {
+                    retries.incrementAndGet();
+                } else {
+                    latch.countDown();
+                }
+            }
+        });
+
+        Lease lease = fixture.manage(mapper, new TestMappedPort(1L), 1L);
+
+        assertTrue(latch.await(5L, TimeUnit.SECONDS));
+        assertTrue(retries.get() >= 1);
+        assertTrue(lease.isReleased());
+    }
+
+    @Test
+    public void mustThrottleAndReportZeroLifetimeRefreshes() throws Exception {
+        fixture.close();
+        fixture = LeaseManager.create(2, 100L, 64, 0.4, 0.6); // refreshes clamped to at least 500ms apart
+
+        TestPortMapper mapper = new TestPortMapper(false, 0L);
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicInteger refreshes = new AtomicInteger();
+        fixture.addListener(new LeaseListener() {
+            @Override
+            public void refreshed(Lease lease, MappedPort oldMappedPort, MappedPort newMappedPort) {
+                refreshes.incrementAndGet();
+            }
+
+            @Override
+            public void remapped(Lease lease, MappedPort oldMappedPort, MappedPort newMappedPort) {
+            }
+
+            @Override
+            public void failed(Lease lease, Throwable cause, boolean retrying) {
+                if (retrying) {
+                    latch.countDown();
+                }
+            }
+        });
+
+        Lease lease = fixture.manage(mapper, new TestMappedPort(0L), 1L);
+
+        assertTrue(latch.await(5L, TimeUnit.SECONDS));
+        int count = mapper.refreshCount.get();
+        Thread.sleep(1000L);
+        assertTrue(mapper.refreshCount.get() - count <= 3);
+        assertEquals(0, refreshes.get());
+        assertFalse(lease.isReleased());
+    }
+
+    @Test
+    public void mustRemapLeasesWhenGatewayResets() throws Exception {
+        TestPortMapper mapper = new TestPortMapper(false);
+        final CountDownLatch latch = new CountDownLatch(2);
+        fixture.addListener(new LeaseListener() {
+            @Override
+            public void refreshed(Lease lease, MappedPort oldMappedPort, MappedPort newMappedPort) {
+            }
+
+            @Override
+            public void remapped(Lease lease, MappedPort oldMappedPort, MappedPort newMappedPort) {
+                latch.countDown();
+            }
+
+            @Override
+            public void failed(Lease lease, Throwable cause, boolean retrying) {
+            }
+        });
+
+        fixture.manage(mapper, new TestMappedPort(3600L), 3600L);
+        fixture.manage(mapper, new TestMappedPort(3600L), 3600L);
+
+        EpochTracker epochTracker = new EpochTracker(InetAddress.getLoopbackAddress());
+        epochTracker.addListener(fixture.createRemapListener(mapper));
+        epochTracker.updateEpoch(1000L);
+        epochTracker.updateEpoch(5L);
+
+        assertTrue(latch.await(5L, TimeUnit.SECONDS));
+        assertEquals(2, mapper.mapCount.get());
+        assertEquals(0, mapper.refreshCount.get());
+    }
+
+    @Test
+    public void mustMigrateLeasesToNewPortMapper() throws Exception {
+        TestPortMapper oldMapper = new TestPortMapper(false);
+        TestPortMapper newMapper = new TestPortMapper(false);
+        final CountDownLatch latch = new CountDownLatch(2);
+        fixture.addListener(new LeaseListener() {
+            @Override
+            public void refreshed(Lease lease, MappedPort oldMappedPort, MappedPort newMappedPort) {
+            }
+
+            @Override
+            public void remapped(Lease lease, MappedPort oldMappedPort, MappedPort newMappedPort) {
+                latch.countDown();
+            }
+
+            @Override
+            public void failed(Lease lease, Throwable cause, boolean retrying) {
+            }
+        });
+
+        Lease lease1 = fixture.manage(oldMapper, new TestMappedPort(3600L), 3600L);
+        Lease lease2 = fixture.manage(oldMapper, new TestMappedPort(3600L), 3600L);
+
+        fixture.migrate(oldMapper, newMapper);
+
+        assertTrue(latch.await(5L, TimeUnit.SECONDS));
+        assertEquals(2, newMapper.mapCount.get());
+        assertEquals(0, oldMapper.mapCount.get());
+        assertSame(newMapper, lease1.getPortMapper());
+        assertSame(newMapper, lease2.getPortMapper());
+
+        fixture.remap(oldMapper); // nothing left on the old port mapper
+        Thread.sleep(200L);
+        assertEquals(0, oldMapper.mapCount.get());
+    }
+
+    @Test
+    public void mustNotApplyRefreshThatFinishesAfterMigration() throws Exception {
+        BlockingPortMapper oldMapper = new BlockingPortMapper();
+        TestPortMapper newMapper = new TestPortMapper(false);
+        final CountDownLatch remapLatch = new CountDownLatch(1);
+        final AtomicInteger refreshes = new AtomicInteger();
+        fixture.addListener(new LeaseListener() {
+            @Override
+            public void refreshed(Lease lease, MappedPort oldMappedPort, MappedPort newMappedPort) {
+                refreshes.incrementAndGet();
+            }
+
+            @Override
+            public void remapped(Lease lease, MappedPort oldMappedPort, MappedPort newMappedPort) {
+                remapLatch.countDown();
+            }
+
+            @Override
+            public void failed(Lease lease, Throwable cause, boolean retrying) {
+            }
+        });
+
+        Lease lease = fixture.manage(oldMapper, new TestMappedPort(1L), 3600L);
+        assertTrue(oldMapper.refreshStarted.await(5L, TimeUnit.SECONDS));
+
+        fixture.migrate(oldMapper, newMapper); // refresh on the old port mapper is still in flight
+        assertTrue(remapLatch.await(5L, TimeUnit.SECONDS));
+        MappedPort remappedPort = lease.getMappedPort();
+
+        oldMapper.refreshRelease.countDown();
+        assertTrue(oldMapper.refreshReturned.await(5L, TimeUnit.SECONDS));
+        Thread.sleep(200L);
+
+        assertSame(newMapper, lease.getPortMapper());
+        assertSame(remappedPort, lease.getMappedPort());
+        assertNotSame(oldMapper.staleMappedPort, lease.getMappedPort());
+        assertEquals(0, refreshes.get());
+    }
+
+    private static final class BlockingPortMapper implements PortMapper {
+
+        private final CountDownLatch refreshStarted = new CountDownLatch(1);
+        private final CountDownLatch refreshRelease = new CountDownLatch(1);
+        private final CountDownLatch refreshReturned = new CountDownLatch(1);
+        private final MappedPort staleMappedPort = new TestMappedPort(3600L);
+
+        @Override
+        public MappedPort mapPort(PortType portType, int internalPort, int externalPort, long lifetime) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void unmapPort(MappedPort mappedPort) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public MappedPort refreshPort(MappedPort mappedPort, long lifetime) {
+            refreshStarted.countDown();
+            try {
+                refreshRelease.await();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(ie);
+            }
+            refreshReturned.countDown();
+            return staleMappedPort;
+        }
+
+        @Override
+        public InetAddress getSourceAddress() {
+            return InetAddress.getLoopbackAddress();
+        }
+    }
+
+    private static final class TestPortMapper implements PortMapper {
+
+        private final boolean fail;
+        private final long grantedLifetime;
+        private final AtomicInteger refreshCount = new AtomicInteger();
+        private final AtomicInteger mapCount = new AtomicInteger();
+
+        TestPortMapper(boolean fail) {
+            this(fail, -1L);
+        }
+
+        TestPortMapper(boolean fail, long grantedLifetime) {
+            this.fail = fail;
+            this.grantedLifetime = grantedLifetime;
+        }
+
+        @Override
+        public MappedPort mapPort(PortType portType, int internalPort, int externalPort, long lifetime) {
+            mapCount.incrementAndGet();
+            return new TestMappedPort(lifetime);
+        }
+
+        @Override
+        public void unmapPort(MappedPort mappedPort) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public MappedPort refreshPort(MappedPort mappedPort, long lifetime) {
+            refreshCount.incrementAndGet();
+            if (fail) {
+                throw new IllegalStateException();
+            }
+            return new TestMappedPort(grantedLifetime >= 0L ? grantedLifetime : lifetime);
+        }
+
+        @Override
+        public InetAddress getSourceAddress() {
+            return InetAddress.getLoopbackAddress();
+        }
+    }
+
+    private static final class TestMappedPort implements MappedPort {
+
+        private final long lifetime;
+
+        TestMappedPort(long lifetime) {
+            this.lifetime = lifetime;
+        }
+
+        @Override
+        public int getInternalPort() {
+            return 12345;
+        }
+
+        @Override
+        public int getExternalPort() {
+            return 12345;
+        }
+
+        @Override
+        public InetAddress getExternalAddress() {
+            return null;
+        }
+
+        @Override
+        public PortType getPortType() {
+            return PortType.TCP;
+        }
+
+        @Override
+        public long getLifetime() {
+            return lifetime;
+        }
+    }
+}
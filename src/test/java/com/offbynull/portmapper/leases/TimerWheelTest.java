@@ -0,0 +1,44 @@
+package com.offbynull.portmapper.leases;
+
+import java.util.Arrays;
+import java.util.Collections;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+public class TimerWheelTest {
+
+    @Test
+    public void mustExpireItemsOnTheirTick() {
+        TimerWheel<String> fixture = new TimerWheel<>(0L, 10L, 4);
+        fixture.schedule("a", 15L);
+        fixture.schedule("b", 20L);
+        fixture.schedule("c", 31L);
+
+        assertEquals(Collections.<String>emptyList(), fixture.advance(9L));
+        assertEquals(Arrays.asList("a", "b"), fixture.advance(20L));
+        assertEquals(Collections.<String>emptyList(), fixture.advance(39L));
+        assertEquals(Arrays.asList("c"), fixture.advance(40L));
+    }
+
+    @Test
+    public void mustExpireItemsThatWrapAroundTheWheel() {
+        TimerWheel<String> fixture = new TimerWheel<>(0L, 10L, 4);
+        fixture.schedule("a", 10L);
+        fixture.schedule("b", 50L);
+        fixture.schedule("c", 90L);
+
+        assertEquals(Arrays.asList("a"), fixture.advance(49L));
+        assertEquals(Arrays.asList("b"), fixture.advance(89L));
+        assertEquals(Arrays.asList("c"), fixture.advance(90L));
+    }
+
+    @Test
+    public void mustExpireOverdueItemsOnNextTick() {
+        TimerWheel<String> fixture = new TimerWheel<>(0L, 10L, 4);
+        fixture.advance(100L);
+        fixture.schedule("a", 5L);
+
+        assertEquals(110L, fixture.nextTickTime());
+        assertEquals(Arrays.asList("a"), fixture.advance(110L));
+    }
+}
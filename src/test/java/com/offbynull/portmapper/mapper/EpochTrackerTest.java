@@ -0,0 +1,85 @@
+package com.offbynull.portmapper.mapper;
+
+import java.net.InetAddress;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Before;
+import org.junit.Test;
+
+public class EpochTrackerTest {
+
+    private EpochTracker fixture;
+    private AtomicInteger resetCount;
+    private AtomicInteger addressChangeCount;
+
+    @Before
+    public void before() {
+        fixture = new EpochTracker(InetAddress.getLoopbackAddress());
+        resetCount = new AtomicInteger();
+        addressChangeCount = new AtomicInteger();
+        fixture.addListener(new EpochListener() {
+            @Override
+            public void gatewayReset(EpochTracker epochTracker) {
+                resetCount.incrementAndGet();
+            }
+
+            @Override
+            public void externalAddressChanged(EpochTracker epochTracker, InetAddress oldExternalAddress, InetAddress newExternalAddress) {
+                addressChangeCount.incrementAndGet();
+            }
+        });
+    }
+
+    @Test
+    public void mustAcceptEpochThatAdvancesWithClock() {
+        assertTrue(fixture.updateEpoch(1000L, 50L));
+        assertTrue(fixture.updateEpoch(1100L, 150L));
+        assertTrue(fixture.updateEpoch(1101L, 150L));
+        assertEquals(0, resetCount.get());
+    }
+
+    @Test
+    public void mustDetectEpochThatGoesBackwards() {
+        assertTrue(fixture.updateEpoch(1000L, 50L));
+        assertFalse(fixture.updateEpoch(10L, 60L));
+        assertEquals(1, resetCount.get());
+    }
+
+    @Test
+    public void mustDetectEpochThatAdvancesTooSlowly() {
+        assertTrue(fixture.updateEpoch(1000L, 0L));
+        assertFalse(fixture.updateEpoch(1010L, 1000L)); // gateway rebooted some time ago and has been up for less time than expected
+        assertEquals(1, resetCount.get());
+    }
+
+    @Test
+    public void mustApplyPcpToleranceInBothDirections() {
+        EpochTracker tracker = new EpochTracker(InetAddress.getLoopbackAddress(), EpochTracker.ValidationRule.PCP);
+        assertTrue(tracker.updateEpoch(1000L, 0L));
+        assertTrue(tracker.updateEpoch(1940L, 1000L)); // 60 behind -- within 1/16 + 2
+        assertFalse(tracker.updateEpoch(2870L, 2000L)); // 70 behind
+        assertTrue(tracker.updateEpoch(3930L, 3000L)); // 60 ahead -- within 1/16 + 2
+        assertFalse(tracker.updateEpoch(5030L, 4000L)); // 100 ahead
+    }
+
+    @Test
+    public void mustApplyNatPmpSevenEighthsRule() {
+        EpochTracker tracker = new EpochTracker(InetAddress.getLoopbackAddress(), EpochTracker.ValidationRule.NAT_PMP);
+        assertTrue(tracker.updateEpoch(1000L, 0L));
+        assertTrue(tracker.updateEpoch(1875L, 1000L)); // exactly 7/8 of client time elapsed
+        assertTrue(tracker.updateEpoch(2748L, 2000L)); // 2 seconds of slack below 7/8
+        assertFalse(tracker.updateEpoch(3600L, 3000L)); // well below 7/8
+        assertTrue(tracker.updateEpoch(9000L, 4000L)); // advancing too quickly is fine for NAT-PMP
+        assertFalse(tracker.updateEpoch(100L, 4001L)); // going backwards is not
+    }
+
+    @Test
+    public void mustDetectExternalAddressChange() throws Exception {
+        assertTrue(fixture.updateExternalAddress(InetAddress.getByName("1.2.3.4")));
+        assertTrue(fixture.updateExternalAddress(InetAddress.getByName("1.2.3.4")));
+        assertFalse(fixture.updateExternalAddress(InetAddress.getByName("5.6.7.8")));
+        assertEquals(1, addressChangeCount.get());
+    }
+}
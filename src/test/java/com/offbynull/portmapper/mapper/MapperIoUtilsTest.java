@@ -0,0 +1,150 @@
+package com.offbynull.portmapper.mapper;
+
+import com.offbynull.portmapper.gateway.Bus;
+import com.offbynull.portmapper.gateways.network.NetworkGateway;
+import com.offbynull.portmapper.gateways.network.internalmessages.KillNetworkRequest;
+import com.offbynull.portmapper.mapper.MapperIoUtils.BytesToResponseTransformer;
+import com.offbynull.portmapper.mapper.MapperIoUtils.ProcessRequest;
+import com.offbynull.portmapper.mapper.MapperIoUtils.RequestToBytesTransformer;
+import com.offbynull.portmapper.mapper.MapperIoUtils.UdpRequest;
+import com.offbynull.portmapper.testtools.StubProcessBus;
+import com.offbynull.portmapper.testtools.UdpServerEmulator;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import org.junit.After;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MapperIoUtilsTest {
+
+    private NetworkGateway network;
+    private Bus networkBus;
+
+    @Before
+    public void before() {
+        network = NetworkGateway.create();
+        networkBus = network.getBus();
+    }
+
+    @After
+    public void after() {
+        networkBus.send(new KillNetworkRequest());
+    }
+
+    @Test
+    public void mustDemultiplexPipelinedUdpRequestsToSameDestination() throws Exception {
+        try (UdpServerEmulator emulator = UdpServerEmulator.create(12345)) {
+            emulator.addMapping(ByteBuffer.wrap(new byte[] {1}), ByteBuffer.wrap(new byte[] {11}));
+            emulator.addMapping(ByteBuffer.wrap(new byte[] {2}), ByteBuffer.wrap(new byte[] {22}));
+
+            InetAddress localhost = InetAddress.getLoopbackAddress();
+            InetSocketAddress dst = new InetSocketAddress(localhost, 12345);
+            UdpRequest req1 = new UdpRequest(localhost, dst, (byte) 1, new ByteTransformer(), new ByteTransformer((byte) 11));
+            UdpRequest req2 = new UdpRequest(localhost, dst, (byte) 2, new ByteTransformer(), new ByteTransformer((byte) 22));
+
+            MapperIoUtils.performUdpRequests(networkBus, Arrays.asList(req2, req1), false, 5000L);
+
+            assertEquals((byte) 11, req1.getResponse());
+            assertEquals((byte) 22, req2.getResponse());
+        }
+    }
+
+    @Test
+    public void mustStopRunningProcessesOnceDefaultGatewayFound() throws Exception {
+        StubProcessBus processBus = new StubProcessBus();
+        processBus.setOutput("netstat -rn", ""
+                + "Kernel IP routing table\n"
+                + "Destination     Gateway         Genmask         Flags   MSS Window  irtt Iface\n"
+                + "0.0.0.0         10.99.0.1       0.0.0.0         UG        0 0          0 eth0\n"
+                + "10.99.0.0       0.0.0.0         255.255.255.0   U         0 0          0 eth0\n");
+        processBus.setHanging("ifconfig");
+
+        ProcessRequest netstatReq = new ProcessRequest("netstat", "-rn");
+        ProcessRequest ifconfigReq = new ProcessRequest("ifconfig");
+        long startTime = System.currentTimeMillis();
+        MapperIoUtils.runProcesses(processBus, Arrays.asList(ifconfigReq, netstatReq), 10000L, MapperIoUtils.DEFAULT_GATEWAY_FOUND);
+
+        assertTrue(System.currentTimeMillis() - startTime < 5000L);
+        assertEquals(2, processBus.getCloseCount()); // netstat gets closed as well -- the run stops before its exit comes in
+        assertTrue(netstatReq.getDefaultGatewayAddresses().contains(InetAddress.getByName("10.99.0.1")));
+        assertTrue(netstatReq.getAddresses().contains(InetAddress.getByName("10.99.0.1"))); // lines after the default route may not be read
+        assertTrue(ifconfigReq.getAddresses().isEmpty());
+    }
+
+    @Test
+    public void mustNotStopRunningProcessesPartWayThroughWindowsGatewayList() throws Exception {
+        StubProcessBus processBus = new StubProcessBus();
+        processBus.setOutput("ipconfig", ""
+                + "Windows IP Configuration\r\n"
+                + "\r\n"
+                + "Ethernet adapter Ethernet:\r\n"
+                + "\r\n"
+                + "   Connection-specific DNS Suffix  . : home\r\n"
+                + "   Link-local IPv6 Address . . . . . : fe80::8d4f:2a1c:61b2:9e3%12\r\n"
+                + "   IPv4 Address. . . . . . . . . . . : 192.168.1.23\r\n"
+                + "   Subnet Mask . . . . . . . . . . . : 255.255.255.0\r\n"
+                + "   Default Gateway . . . . . . . . . : fe80::1%12\r\n"
+                + "                                       192.168.1.1\r\n"
+                + "\r\n"
+                + "Wireless LAN adapter Wi-Fi:\r\n"
+                + "\r\n"
+                + "   Media State . . . . . . . . . . . : Media disconnected\r\n");
+        processBus.setHanging("ifconfig");
+
+        ProcessRequest ipconfigReq = new ProcessRequest("ipconfig");
+        ProcessRequest ifconfigReq = new ProcessRequest("ifconfig");
+        MapperIoUtils.runProcesses(processBus, Arrays.asList(ipconfigReq, ifconfigReq), 10000L, MapperIoUtils.DEFAULT_GATEWAY_FOUND);
+
+        assertTrue(ipconfigReq.getDefaultGatewayAddresses().contains(InetAddress.getByName("fe80::1")));
+        assertTrue(ipconfigReq.getDefaultGatewayAddresses().contains(InetAddress.getByName("192.168.1.1")));
+        assertFalse(ipconfigReq.getDefaultGatewayAddresses().contains(InetAddress.getByName("192.168.1.23")));
+    }
+
+    @Test
+    public void mustCloseProcessesThatRunPastTheirOwnTimeout() throws Exception {
+        StubProcessBus processBus = new StubProcessBus();
+        processBus.setOutput("route -n", "Kernel IP routing table\n");
+        processBus.setHanging("ifconfig");
+
+        ProcessRequest routeReq = new ProcessRequest("route", "-n");
+        ProcessRequest ifconfigReq = new ProcessRequest(200L, "ifconfig");
+        long startTime = System.currentTimeMillis();
+        MapperIoUtils.runProcesses(processBus, Arrays.asList(routeReq, ifconfigReq), 10000L, MapperIoUtils.DEFAULT_GATEWAY_FOUND);
+
+        assertTrue(System.currentTimeMillis() - startTime < 5000L);
+        assertEquals(1, processBus.getCloseCount());
+        assertEquals("Kernel IP routing table\n", routeReq.getOutput());
+        assertFalse(MapperIoUtils.DEFAULT_GATEWAY_FOUND.evaluate(routeReq));
+    }
+
+    private static final class ByteTransformer implements RequestToBytesTransformer, BytesToResponseTransformer {
+
+        private final byte expected;
+
+        ByteTransformer() {
+            this((byte) 0);
+        }
+
+        ByteTransformer(byte expected) {
+            this.expected = expected;
+        }
+
+        @Override
+        public byte[] create(Object request) {
+            return new byte[] {(Byte) request};
+        }
+
+        @Override
+        public Object create(byte[] buffer) {
+            if (buffer.length != 1 || buffer[0] != expected) {
+                throw new IllegalArgumentException();
+            }
+            return buffer[0];
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.offbynull.portmapper.mapper;
+
+import com.offbynull.portmapper.gateway.Bus;
+import com.offbynull.portmapper.gateways.network.NetworkGateway;
+import com.offbynull.portmapper.gateways.network.internalmessages.KillNetworkRequest;
+import com.offbynull.portmapper.mapper.PortMapperMetricsListener.Operation;
+import com.offbynull.portmapper.mapper.PortMapperMetricsListener.Outcome;
+import com.offbynull.portmapper.mapper.PortMapperStats.OperationStats;
+import com.offbynull.portmapper.mappers.natpmp.NatPmpPortMapper;
+import com.offbynull.portmapper.mappers.pcp.PcpPortMapper;
+import com.offbynull.portmapper.mappers.upnpigd.PortMapperUpnpIgdPortMapper;
+import com.offbynull.portmapper.testtools.RouterEmulator;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.Collections;
+import org.apache.commons.lang3.Range;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PortMapperMetricsTest {
+
+    private InetAddress localAddress;
+    private RouterEmulator emulator;
+    private NetworkGateway network;
+    private Bus networkBus;
+    private PortMapperStats stats;
+
+    @Before
+    public void before() throws IOException {
+        localAddress = InetAddress.getByAddress(new byte[] {127, 0, 0, 1});
+        emulator = RouterEmulator.create(localAddress, 5351, InetAddress.getByAddress(new byte[] {1, 2, 3, 4}));
+        network = NetworkGateway.create();
+        networkBus = network.getBus();
+        stats = new PortMapperStats();
+        PortMapperMetrics.addListener(stats);
+    }
+
+    @After
+    public void after() throws IOException {
+        PortMapperMetrics.removeListener(stats);
+        networkBus.send(new KillNetworkRequest());
+        emulator.close();
+    }
+
+    @Test
+    public void mustRecordSuccessfulOperations() throws Throwable {
+        PcpPortMapper mapper = new PcpPortMapper(networkBus, localAddress, localAddress);
+
+        MappedPort mappedPort = mapper.mapPort(PortType.TCP, 12345, 12345, 3600L);
+        mappedPort = mapper.refreshPort(mappedPort, 3600L);
+        mapper.unmapPort(mappedPort);
+
+        for (Operation operation : new Operation[] {Operation.MAP, Operation.REFRESH, Operation.UNMAP}) {
+            OperationStats operationStats = stats.getOperationStats(PcpPortMapper.class, localAddress, operation);
+            assertEquals(1L, operationStats.getTotalCount());
+            assertEquals(1L, operationStats.getCount(Outcome.SUCCESS));
+            assertEquals(0L, operationStats.getRetries());
+            assertEquals(1L, operationStats.getLatency().getCount());
+            assertTrue(operationStats.getErrorCodeCounts().isEmpty());
+        }
+    }
+
+    @Test
+    public void mustRecordNatPmpResultCode() throws Throwable {
+        emulator.setCapacity(1);
+        NatPmpPortMapper mapper = new NatPmpPortMapper(networkBus, localAddress, localAddress);
+
+        mapper.mapPort(PortType.TCP, 10000, 10000, 3600L);
+        try {
+            mapper.mapPort(PortType.TCP, 10001, 10001, 3600L);
+            fail();
+        } catch (IllegalStateException ise) {
+            // expected
+        }
+
+        OperationStats operationStats = stats.getOperationStats(NatPmpPortMapper.class, localAddress, Operation.MAP);
+        assertEquals(1L, operationStats.getCount(Outcome.SUCCESS));
+        assertEquals(1L, operationStats.getCount(Outcome.ROUTER_ERROR));
+        assertEquals(Collections.singletonMap("OUT_OF_RESOURCES", 1L), operationStats.getErrorCodeCounts());
+        assertTrue(operationStats.getRetries() > 0L); // error responses are dropped, so the mapping request kept getting resent
+    }
+
+    @Test
+    public void mustRecordUpnpIgdSoapFault() throws Throwable {
+        emulator.setCapacity(1);
+        PortMapperUpnpIgdPortMapper mapper = new PortMapperUpnpIgdPortMapper(networkBus, localAddress, emulator.getControlUrl(true),
+                null, RouterEmulator.NEW_SERVICE_TYPE, Range.between(1L, 65535L), Range.between(1L, 0xFFFFFFFFL), true);
+
+        mapper.mapPort(PortType.TCP, 10000, 10000, 3600L);
+        try {
+            mapper.mapPort(PortType.TCP, 10001, 10001, 3600L);
+            fail();
+        } catch (IllegalStateException ise) {
+            // expected
+        }
+
+        OperationStats operationStats = stats.getOperationStats(PortMapperUpnpIgdPortMapper.class, localAddress, Operation.MAP);
+        assertEquals(1L, operationStats.getCount(Outcome.SUCCESS));
+        assertEquals(1L, operationStats.getCount(Outcome.ROUTER_ERROR));
+        assertEquals(Collections.singletonMap("728", 1L), operationStats.getErrorCodeCounts());
+    }
+
+    @Test
+    public void mustRecordTimeout() throws Throwable {
+        emulator.setPcpEnabled(false);
+        PcpPortMapper mapper = new PcpPortMapper(networkBus, localAddress, localAddress);
+
+        try {
+            mapper.mapPort(PortType.UDP, 12345, 12345, 3600L);
+            fail();
+        } catch (IllegalStateException ise) {
+            // expected
+        }
+
+        OperationStats operationStats = stats.getOperationStats(PcpPortMapper.class, localAddress, Operation.MAP);
+        assertEquals(1L, operationStats.getCount(Outcome.TIMEOUT));
+        assertEquals(3L, operationStats.getRetries()); // 4 attempts
+        assertNull(stats.getOperationStats(PcpPortMapper.class, localAddress, Operation.UNMAP));
+    }
+
+    @Test
+    public void mustIgnoreListenersThatThrow() throws Throwable {
+        PortMapperMetricsListener badListener = new PortMapperMetricsListener() {
+            @Override
+            public void operationCompleted(Class<? extends PortMapper> mapperType, InetAddress gatewayAddress, Operation operation,
+                    Outcome outcome, String errorCode, int retries, long durationNanos) {
+                throw new IllegalStateException();
+            }
+        };
+        PortMapperMetrics.addListener(badListener);
+        try {
+            PcpPortMapper mapper = new PcpPortMapper(networkBus, localAddress, localAddress);
+            mapper.mapPort(PortType.TCP, 12345, 12345, 3600L);
+        } finally {
+            PortMapperMetrics.removeListener(badListener);
+        }
+
+        assertEquals(1L, stats.getOperationStats(PcpPortMapper.class, localAddress, Operation.MAP).getCount(Outcome.SUCCESS));
+    }
+}
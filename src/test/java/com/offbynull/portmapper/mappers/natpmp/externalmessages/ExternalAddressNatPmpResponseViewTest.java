@@ -0,0 +1,35 @@
+package com.offbynull.portmapper.mappers.natpmp.externalmessages;
+
+import com.offbynull.portmapper.helpers.NetworkUtils;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+public class ExternalAddressNatPmpResponseViewTest {
+    private static final InetAddress IPV4_TEST_ADDRESS
+            = NetworkUtils.convertBytesToAddress(new byte[] {1, 2, 3, 4});
+    
+    @Test
+    public void mustReadSameFieldsAsParsedResponse() {
+        ExternalAddressNatPmpResponse resp = new ExternalAddressNatPmpResponse(1, 0xFFFFFFFFL, IPV4_TEST_ADDRESS);
+        
+        ExternalAddressNatPmpResponseView view = new ExternalAddressNatPmpResponseView().wrap(ByteBuffer.wrap(resp.dump()));
+        assertEquals(128, view.getOp());
+        assertEquals(1, view.getResultCode());
+        assertEquals(0xFFFFFFFFL, view.getSecondsSinceStartOfEpoch());
+        assertEquals(IPV4_TEST_ADDRESS, view.getAddress());
+        
+        byte[] address = new byte[4];
+        view.getAddress(address);
+        assertArrayEquals(new byte[] {1, 2, 3, 4}, address);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void mustFailToWrapMappingResponse() {
+        TcpMappingNatPmpResponse resp = new TcpMappingNatPmpResponse(1, 0xFFFFFFFEL, 0xF1F2, 0xF3F4, 0xFFFFFFFFL);
+        
+        new ExternalAddressNatPmpResponseView().wrap(ByteBuffer.wrap(resp.dump()));
+    }
+}
@@ -1,6 +1,8 @@
 package com.offbynull.portmapper.mappers.natpmp.externalmessages;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import org.junit.Test;
 
@@ -55,4 +57,23 @@ public class TcpMappingNatPmpRequestTest {
         
         TcpMappingNatPmpRequest parsedReq = new TcpMappingNatPmpRequest(buffer);
     }
+
+    @Test
+    public void mustWriteSameBytesAsDump() {
+        TcpMappingNatPmpRequest req = new TcpMappingNatPmpRequest(0xF1F2, 0xF3F4, 0xFFFFFFFFL);
+        byte[] expected = req.dump();
+        
+        ByteBuffer buffer = ByteBuffer.allocate(expected.length + 4);
+        buffer.position(4);
+        req.writeTo(buffer);
+        
+        assertEquals(4 + expected.length, buffer.position());
+        assertArrayEquals(expected, Arrays.copyOfRange(buffer.array(), 4, 4 + expected.length));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void mustFailToWriteToBufferThatsTooSmall() {
+        TcpMappingNatPmpRequest req = new TcpMappingNatPmpRequest(0xF1F2, 0xF3F4, 0xFFFFFFFFL);
+        req.writeTo(ByteBuffer.allocate(11));
+    }
 }
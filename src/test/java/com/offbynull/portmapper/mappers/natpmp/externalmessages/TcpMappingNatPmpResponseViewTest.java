@@ -0,0 +1,66 @@
+package com.offbynull.portmapper.mappers.natpmp.externalmessages;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+public class TcpMappingNatPmpResponseViewTest {
+    
+    @Test
+    public void mustReadSameFieldsAsParsedResponse() {
+        TcpMappingNatPmpResponse resp = new TcpMappingNatPmpResponse(1, 0xFFFFFFFEL, 0xF1F2, 0xF3F4, 0xFFFFFFFFL);
+        
+        TcpMappingNatPmpResponseView view = new TcpMappingNatPmpResponseView().wrap(ByteBuffer.wrap(resp.dump()));
+        assertEquals(1, view.getResultCode());
+        assertEquals(0xFFFFFFFEL, view.getSecondsSinceStartOfEpoch());
+        assertEquals(130, view.getOp());
+        assertEquals(0xF1F2, view.getInternalPort());
+        assertEquals(0xF3F4, view.getExternalPort());
+        assertEquals(0xFFFFFFFFL, view.getLifetime());
+    }
+
+    @Test
+    public void mustRewrapInPlace() {
+        TcpMappingNatPmpResponse resp1 = new TcpMappingNatPmpResponse(0, 1L, 1000, 2000, 3600L);
+        TcpMappingNatPmpResponse resp2 = new TcpMappingNatPmpResponse(0, 2L, 1001, 2001, 7200L);
+        
+        ByteBuffer buffer = ByteBuffer.allocate(16);
+        TcpMappingNatPmpResponseView view = new TcpMappingNatPmpResponseView();
+        
+        resp1.writeTo(buffer);
+        buffer.flip();
+        view.wrap(buffer);
+        assertEquals(1000, view.getInternalPort());
+        assertEquals(2000, view.getExternalPort());
+        
+        buffer.clear();
+        resp2.writeTo(buffer);
+        buffer.flip();
+        view.wrap(buffer);
+        assertEquals(2L, view.getSecondsSinceStartOfEpoch());
+        assertEquals(1001, view.getInternalPort());
+        assertEquals(2001, view.getExternalPort());
+        assertEquals(7200L, view.getLifetime());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void mustFailToWrapPacketThatsTooShort() {
+        TcpMappingNatPmpResponse resp = new TcpMappingNatPmpResponse(1, 0xFFFFFFFEL, 0xF1F2, 0xF3F4, 0xFFFFFFFFL);
+        byte[] buffer = Arrays.copyOf(resp.dump(), 15);
+        
+        new TcpMappingNatPmpResponseView().wrap(ByteBuffer.wrap(buffer));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void mustFailToWrapUdpResponse() {
+        UdpMappingNatPmpResponse resp = new UdpMappingNatPmpResponse(1, 0xFFFFFFFEL, 0xF1F2, 0xF3F4, 0xFFFFFFFFL);
+        
+        new TcpMappingNatPmpResponseView().wrap(ByteBuffer.wrap(resp.dump()));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void mustFailToReadBeforeWrap() {
+        new TcpMappingNatPmpResponseView().getExternalPort();
+    }
+}
@@ -0,0 +1,136 @@
+package com.offbynull.portmapper.mappers.pcp;
+
+import com.offbynull.portmapper.gateway.Bus;
+import com.offbynull.portmapper.gateways.network.NetworkGateway;
+import com.offbynull.portmapper.gateways.network.internalmessages.KillNetworkRequest;
+import com.offbynull.portmapper.leases.Lease;
+import com.offbynull.portmapper.leases.LeaseListener;
+import com.offbynull.portmapper.leases.LeaseManager;
+import com.offbynull.portmapper.mapper.EpochListener;
+import com.offbynull.portmapper.mapper.EpochTracker;
+import com.offbynull.portmapper.mapper.MappedPort;
+import com.offbynull.portmapper.mapper.PortType;
+import com.offbynull.portmapper.testtools.RouterEmulator;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public final class PcpPortMapperTest {
+
+    private InetAddress localAddress;
+    private InetAddress externalAddress;
+    private RouterEmulator emulator;
+    private NetworkGateway network;
+    private Bus networkBus;
+
+    @Before
+    public void before() throws IOException {
+        localAddress = InetAddress.getByAddress(new byte[] {127, 0, 0, 1});
+        externalAddress = InetAddress.getByAddress(new byte[] {1, 2, 3, 4});
+        emulator = RouterEmulator.create(localAddress, 5351, externalAddress); // mappers always talk to port 5351
+        network = NetworkGateway.create();
+        networkBus = network.getBus();
+    }
+
+    @After
+    public void after() throws IOException {
+        networkBus.send(new KillNetworkRequest());
+        emulator.close();
+    }
+
+    @Test
+    public void mustRefreshWithSingleRequestThatReusesNonce() throws Throwable {
+        PcpPortMapper mapper = new PcpPortMapper(networkBus, localAddress, localAddress);
+
+        MappedPort mappedPort = mapper.mapPort(PortType.TCP, 12345, 12345, 3600L);
+        assertEquals(1, emulator.getMappingCount());
+
+        long requestCount = emulator.getRequestCount();
+        MappedPort refreshedPort = mapper.refreshPort(mappedPort, 7200L);
+
+        assertEquals(requestCount + 1L, emulator.getRequestCount()); // a single MAP, no unmap of the old mapping
+        assertEquals(1, emulator.getMappingCount()); // same nonce, so the gateway extended the existing mapping
+        assertEquals(mappedPort.getExternalPort(), refreshedPort.getExternalPort());
+        assertEquals(7200L, refreshedPort.getLifetime());
+    }
+
+    @Test
+    public void mustRejectRefreshReplyWithDifferentNonce() throws Throwable {
+        PcpPortMapper mapper = new PcpPortMapper(networkBus, localAddress, localAddress);
+
+        MappedPort mappedPort = mapper.mapPort(PortType.TCP, 12345, 12345, 3600L);
+        emulator.setReplyNonce(new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12});
+
+        try {
+            mapper.refreshPort(mappedPort, 7200L);
+            fail();
+        } catch (IllegalStateException ise) {
+            // expected -- every reply was for some other mapping, so none were accepted
+        }
+    }
+
+    @Test
+    public void mustRemapLeaseWhenRefreshSeesReboot() throws Throwable {
+        emulator.setEpoch(1000L); // gateway has been up for a while
+        PcpPortMapper mapper = new PcpPortMapper(networkBus, localAddress, localAddress);
+        LeaseManager leaseManager = LeaseManager.create(1, 10L, 64, 0.4, 0.6);
+        try {
+            final AtomicInteger resets = new AtomicInteger();
+            final AtomicInteger refreshes = new AtomicInteger();
+            final CountDownLatch remapLatch = new CountDownLatch(1);
+            mapper.getEpochTracker().addListener(new EpochListener() {
+                @Override
+                public void gatewayReset(EpochTracker epochTracker) {
+                    resets.incrementAndGet();
+                }
+
+                @Override
+                public void externalAddressChanged(EpochTracker epochTracker, InetAddress oldExternalAddress,
+                        InetAddress newExternalAddress) {
+                }
+            });
+            mapper.getEpochTracker().addListener(leaseManager.createRemapListener(mapper));
+            leaseManager.addListener(new LeaseListener() {
+                @Override
+                public void refreshed(Lease lease, MappedPort oldMappedPort, MappedPort newMappedPort) {
+                    refreshes.incrementAndGet();
+                }
+
+                @Override
+                public void remapped(Lease lease, MappedPort oldMappedPort, MappedPort newMappedPort) {
+                    remapLatch.countDown();
+                }
+
+                @Override
+                public void failed(Lease lease, Throwable cause, boolean retrying) {
+                }
+            });
+
+            MappedPort mappedPort = mapper.mapPort(PortType.TCP, 12345, 12345, 2L); // lease manager refreshes this in about a second
+            Lease lease = leaseManager.manage(mapper, mappedPort, 3600L);
+            emulator.reboot(); // mappings lost, epoch back to 0
+
+            assertTrue(remapLatch.await(5L, TimeUnit.SECONDS)); // refresh saw the epoch go backwards
+            assertEquals(1, resets.get());
+            assertEquals(0, refreshes.get());
+            assertSame(mapper, lease.getPortMapper());
+            assertNotSame(mappedPort, lease.getMappedPort());
+            assertEquals(3600L, lease.getMappedPort().getLifetime());
+            assertEquals(1, emulator.getMappingCount());
+            assertNotNull(emulator.getMapping(6, lease.getMappedPort().getExternalPort())); // 6 = TCP
+        } finally {
+            leaseManager.close();
+        }
+    }
+}
@@ -2,6 +2,7 @@ package com.offbynull.portmapper.mappers.pcp.externalmessages;
 
 import com.offbynull.portmapper.helpers.NetworkUtils;
 import java.net.InetAddress;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Collections;
 import static org.junit.Assert.assertArrayEquals;
@@ -129,4 +130,26 @@ public class MapPcpRequestTest {
         
         MapPcpRequest parsedReq = new MapPcpRequest(buffer);
     }
+
+    @Test
+    public void mustWriteSameBytesAsDump() {
+        MapPcpRequest req = new MapPcpRequest(nonce, 1, 2, 0, IPV4_TEST_ADDRESS, 0xFFFFFFFFL, IPV6_TEST_ADDRESS,
+                new PreferFailurePcpOption(), new ThirdPartyPcpOption(IPV6_TEST_ADDRESS));
+        byte[] expected = req.dump();
+        
+        ByteBuffer buffer = ByteBuffer.allocate(expected.length + 10);
+        buffer.position(5);
+        req.writeTo(buffer);
+        
+        assertEquals(5 + expected.length, buffer.position());
+        assertArrayEquals(expected, Arrays.copyOfRange(buffer.array(), 5, 5 + expected.length));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void mustFailToWriteToBufferThatsTooSmall() {
+        MapPcpRequest req = new MapPcpRequest(nonce, 1, 2, 0, IPV4_TEST_ADDRESS, 0xFFFFFFFFL, IPV6_TEST_ADDRESS);
+        
+        ByteBuffer buffer = ByteBuffer.allocate(req.dump().length - 1);
+        req.writeTo(buffer);
+    }
 }
@@ -0,0 +1,108 @@
+package com.offbynull.portmapper.mappers.pcp.externalmessages;
+
+import com.offbynull.portmapper.helpers.NetworkUtils;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+public class MapPcpResponseViewTest {
+    private static final InetAddress IPV4_TEST_ADDRESS
+            = NetworkUtils.convertBytesToAddress(new byte[] {1, 2, 3, 4});
+    private static final InetAddress IPV6_TEST_ADDRESS
+            = NetworkUtils.convertBytesToAddress(new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16});
+    
+    private static byte[] nonce = new byte[] { 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12 }; // DONT CHANGE CONTENTS IN TEST, POTENTIAL THREADING
+                                                                                        // ISSUE
+
+    @Test
+    public void mustReadSameFieldsAsParsedResponse() {
+        MapPcpResponse resp = new MapPcpResponse(nonce, 1, 2, 3, IPV6_TEST_ADDRESS, 0, 0xFFFFFFFFL, 0xFFFFFFFEL,
+                new PreferFailurePcpOption(), new ThirdPartyPcpOption(IPV6_TEST_ADDRESS));
+        
+        MapPcpResponseView view = new MapPcpResponseView().wrap(ByteBuffer.wrap(resp.dump()));
+        assertEquals(1, view.getOp());
+        assertEquals(0, view.getResultCode());
+        assertEquals(0xFFFFFFFFL, view.getLifetime());
+        assertEquals(0xFFFFFFFEL, view.getEpochTime());
+        assertEquals(1, view.getProtocol());
+        assertEquals(2, view.getInternalPort());
+        assertEquals(3, view.getAssignedExternalPort());
+        assertEquals(IPV6_TEST_ADDRESS, view.getAssignedExternalIpAddress());
+        
+        byte[] nonceCopy = new byte[12];
+        view.getMappingNonce(nonceCopy);
+        assertArrayEquals(nonce, nonceCopy);
+        assertTrue(view.isMappingNonce(nonce));
+        
+        byte[] ipCopy = new byte[16];
+        view.getAssignedExternalIpAddress(ipCopy);
+        assertArrayEquals(NetworkUtils.convertAddressToIpv6Bytes(IPV6_TEST_ADDRESS), ipCopy);
+    }
+
+    @Test
+    public void mustRewrapToNewResponse() {
+        MapPcpResponse resp1 = new MapPcpResponse(nonce, 1, 2, 3, IPV6_TEST_ADDRESS, 0, 100L, 200L);
+        byte[] otherNonce = new byte[] { 12, 11, 10, 9, 8, 7, 6, 5, 4, 3, 2, 1 };
+        MapPcpResponse resp2 = new MapPcpResponse(otherNonce, 17, 4, 5, IPV4_TEST_ADDRESS, 0, 300L, 400L);
+        
+        MapPcpResponseView view = new MapPcpResponseView();
+        
+        view.wrap(ByteBuffer.wrap(resp1.dump()));
+        assertTrue(view.isMappingNonce(nonce));
+        assertEquals(3, view.getAssignedExternalPort());
+        
+        view.wrap(ByteBuffer.wrap(resp2.dump()));
+        assertFalse(view.isMappingNonce(nonce));
+        assertTrue(view.isMappingNonce(otherNonce));
+        assertEquals(17, view.getProtocol());
+        assertEquals(4, view.getInternalPort());
+        assertEquals(5, view.getAssignedExternalPort());
+        assertEquals(IPV4_TEST_ADDRESS, view.getAssignedExternalIpAddress());
+        assertEquals(300L, view.getLifetime());
+        assertEquals(400L, view.getEpochTime());
+    }
+
+    @Test
+    public void mustReadFromBufferPosition() {
+        MapPcpResponse resp = new MapPcpResponse(nonce, 1, 2, 3, IPV6_TEST_ADDRESS, 0, 0xFFFFFFFFL, 0xFFFFFFFEL);
+        
+        ByteBuffer buffer = ByteBuffer.allocate(resp.getBufferLength() + 5);
+        buffer.position(5);
+        resp.writeTo(buffer);
+        buffer.flip();
+        buffer.position(5);
+        
+        MapPcpResponseView view = new MapPcpResponseView().wrap(buffer);
+        assertTrue(view.isMappingNonce(nonce));
+        assertEquals(2, view.getInternalPort());
+        assertEquals(3, view.getAssignedExternalPort());
+        assertEquals(5, buffer.position());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void mustFailToWrapPacketThatsTooShort() {
+        MapPcpResponse resp = new MapPcpResponse(nonce, 1, 2, 3, IPV6_TEST_ADDRESS, 0, 0xFFFFFFFFL, 0xFFFFFFFEL);
+        byte[] buffer = resp.dump();
+        
+        buffer = Arrays.copyOf(buffer, buffer.length - 1);
+        
+        new MapPcpResponseView().wrap(ByteBuffer.wrap(buffer));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void mustFailToWrapPacketWithWrongOp() {
+        PeerPcpResponse resp = new PeerPcpResponse(nonce, 1, 2, 3, IPV6_TEST_ADDRESS, 4, IPV4_TEST_ADDRESS, 0, 0xFFFFFFFFL, 0xFFFFFFFEL);
+        
+        new MapPcpResponseView().wrap(ByteBuffer.wrap(resp.dump()));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void mustFailToReadBeforeWrap() {
+        new MapPcpResponseView().getInternalPort();
+    }
+}
@@ -2,6 +2,7 @@ package com.offbynull.portmapper.mappers.pcp.externalmessages;
 
 import com.offbynull.portmapper.helpers.NetworkUtils;
 import java.net.InetAddress;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Collections;
 import static org.junit.Assert.assertArrayEquals;
@@ -142,4 +143,17 @@ public class PeerPcpRequestTest {
         
         PeerPcpRequest parsedReq = new PeerPcpRequest(buffer);
     }
+
+    @Test
+    public void mustWriteSameBytesAsDump() {
+        PeerPcpRequest req = new PeerPcpRequest(nonce, 1, 2, 3, IPV6_TEST_ADDRESS, 4, IPV4_TEST_ADDRESS, 0xFFFFFFFFL, IPV6_TEST_ADDRESS,
+                new PreferFailurePcpOption(), new ThirdPartyPcpOption(IPV6_TEST_ADDRESS));
+        byte[] expected = req.dump();
+        
+        ByteBuffer buffer = ByteBuffer.allocate(expected.length);
+        req.writeTo(buffer);
+        
+        assertEquals(expected.length, buffer.position());
+        assertArrayEquals(expected, buffer.array());
+    }
 }
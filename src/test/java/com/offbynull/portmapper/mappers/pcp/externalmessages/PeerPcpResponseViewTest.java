@@ -0,0 +1,60 @@
+package com.offbynull.portmapper.mappers.pcp.externalmessages;
+
+import com.offbynull.portmapper.helpers.NetworkUtils;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+public class PeerPcpResponseViewTest {
+    private static final InetAddress IPV4_TEST_ADDRESS
+            = NetworkUtils.convertBytesToAddress(new byte[] {1, 2, 3, 4});
+    private static final InetAddress IPV6_TEST_ADDRESS
+            = NetworkUtils.convertBytesToAddress(new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16});
+    
+    private static byte[] nonce = new byte[] { 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12 }; // DONT CHANGE CONTENTS IN TEST, POTENTIAL THREADING
+                                                                                        // ISSUE
+
+    @Test
+    public void mustReadSameFieldsAsParsedResponse() {
+        PeerPcpResponse resp = new PeerPcpResponse(nonce, 1, 2, 3, IPV6_TEST_ADDRESS, 4, IPV4_TEST_ADDRESS, 0, 0xFFFFFFFFL, 0xFFFFFFFEL,
+                new PreferFailurePcpOption(), new ThirdPartyPcpOption(IPV6_TEST_ADDRESS));
+        
+        PeerPcpResponseView view = new PeerPcpResponseView().wrap(ByteBuffer.wrap(resp.dump()));
+        assertEquals(2, view.getOp());
+        assertEquals(0, view.getResultCode());
+        assertEquals(0xFFFFFFFFL, view.getLifetime());
+        assertEquals(0xFFFFFFFEL, view.getEpochTime());
+        assertTrue(view.isMappingNonce(nonce));
+        assertEquals(1, view.getProtocol());
+        assertEquals(2, view.getInternalPort());
+        assertEquals(3, view.getAssignedExternalPort());
+        assertEquals(IPV6_TEST_ADDRESS, view.getAssignedExternalIpAddress());
+        assertEquals(4, view.getRemotePeerPort());
+        assertEquals(IPV4_TEST_ADDRESS, view.getRemotePeerIpAddress());
+        
+        byte[] ipCopy = new byte[16];
+        view.getRemotePeerIpAddress(ipCopy);
+        assertArrayEquals(NetworkUtils.convertAddressToIpv6Bytes(IPV4_TEST_ADDRESS), ipCopy);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void mustFailToWrapPacketThatsTooShort() {
+        PeerPcpResponse resp = new PeerPcpResponse(nonce, 1, 2, 3, IPV6_TEST_ADDRESS, 4, IPV4_TEST_ADDRESS, 0, 0xFFFFFFFFL, 0xFFFFFFFEL);
+        byte[] buffer = resp.dump();
+        
+        buffer = Arrays.copyOf(buffer, buffer.length - 1);
+        
+        new PeerPcpResponseView().wrap(ByteBuffer.wrap(buffer));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void mustFailToWrapRequest() {
+        PeerPcpRequest req = new PeerPcpRequest(nonce, 1, 2, 3, IPV6_TEST_ADDRESS, 4, IPV4_TEST_ADDRESS, 0xFFFFFFFFL, IPV4_TEST_ADDRESS);
+        
+        new PeerPcpResponseView().wrap(ByteBuffer.wrap(req.dump())); // r-flag not set
+    }
+}
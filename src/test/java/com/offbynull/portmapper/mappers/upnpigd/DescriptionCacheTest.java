@@ -0,0 +1,82 @@
+package com.offbynull.portmapper.mappers.upnpigd;
+
+import com.offbynull.portmapper.mappers.upnpigd.DescriptionCache.CachedService;
+import com.offbynull.portmapper.mappers.upnpigd.externalmessages.ServiceDescriptionUpnpIgdResponse.IdentifiedService;
+import com.offbynull.portmapper.mappers.upnpigd.externalmessages.ServiceDescriptionUpnpIgdResponse.ServiceType;
+import java.net.URL;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class DescriptionCacheTest {
+
+    private static final String SCPD_XML = "<?xml version=\"1.0\"?>"
+            + "<scpd xmlns=\"urn:schemas-upnp-org:service-1-0\">"
+            + "<actionList>"
+            + "<action><name>GetExternalIPAddress</name></action>"
+            + "<action><name>AddPortMapping</name></action>"
+            + "<action><name>DeletePortMapping</name></action>"
+            + "<action><name>GetSpecificPortMappingEntry</name></action>"
+            + "</actionList>"
+            + "</scpd>";
+
+    @Test
+    public void mustOnlyHitWhenValidatorsMatch() throws Exception {
+        DescriptionCache fixture = new DescriptionCache(8, 8);
+        URL location = new URL("http://10.0.0.1:5000/rootDesc.xml");
+
+        fixture.put(location, 1L, 1L, Collections.<CachedService>emptyList());
+
+        assertNotNull(fixture.get(location, 1L, 1L));
+        assertNull(fixture.get(location, 1L, 2L)); // config changed -- also evicts
+        assertNull(fixture.get(location, 1L, 1L));
+    }
+
+    @Test
+    public void mustNotCacheWithoutValidators() throws Exception {
+        DescriptionCache fixture = new DescriptionCache(8, 8);
+        URL location = new URL("http://10.0.0.1:5000/rootDesc.xml");
+
+        fixture.put(location, null, null, Collections.<CachedService>emptyList());
+
+        assertNull(fixture.get(location, null, null));
+        assertEquals(0, fixture.size());
+    }
+
+    @Test
+    public void mustEvictLeastRecentlyUsedLocation() throws Exception {
+        DescriptionCache fixture = new DescriptionCache(2, 8);
+        URL location1 = new URL("http://10.0.0.1:5000/rootDesc.xml");
+        URL location2 = new URL("http://10.0.0.2:5000/rootDesc.xml");
+        URL location3 = new URL("http://10.0.0.3:5000/rootDesc.xml");
+        List<CachedService> services = Collections.emptyList();
+
+        fixture.put(location1, 1L, null, services);
+        fixture.put(location2, 1L, null, services);
+        fixture.get(location1, 1L, null); // location2 is now least recently used
+        fixture.put(location3, 1L, null, services);
+
+        assertNotNull(fixture.get(location1, 1L, null));
+        assertNull(fixture.get(location2, 1L, null));
+        assertNotNull(fixture.get(location3, 1L, null));
+    }
+
+    @Test
+    public void mustParseIdenticalScpdsOnceRegardlessOfHeaders() throws Exception {
+        DescriptionCache fixture = new DescriptionCache(8, 8);
+        byte[] resp1 = ("HTTP/1.1 200 OK\r\nDate: Mon, 01 Jan 2024 00:00:00 GMT\r\n\r\n" + SCPD_XML).getBytes("US-ASCII");
+        byte[] resp2 = ("HTTP/1.1 200 OK\r\nDate: Tue, 02 Jan 2024 00:00:00 GMT\r\n\r\n" + SCPD_XML).getBytes("US-ASCII");
+
+        Map<ServiceType, IdentifiedService> services1 = fixture.parseScpd(resp1);
+        Map<ServiceType, IdentifiedService> services2 = fixture.parseScpd(resp2);
+
+        assertEquals(1, services1.size());
+        assertNotNull(services1.get(ServiceType.OLD_PORT_MAPPER));
+        assertSame(services1, services2);
+    }
+}
@@ -0,0 +1,217 @@
+package com.offbynull.portmapper.mappers.upnpigd;
+
+import com.offbynull.portmapper.gateway.Bus;
+import com.offbynull.portmapper.gateways.network.NetworkGateway;
+import com.offbynull.portmapper.gateways.network.internalmessages.CreateMulticastUdpNetworkRequest;
+import com.offbynull.portmapper.gateways.network.internalmessages.CreateUdpNetworkResponse;
+import com.offbynull.portmapper.gateways.network.internalmessages.KillNetworkRequest;
+import com.offbynull.portmapper.gateways.network.internalmessages.ReadUdpNetworkNotification;
+import com.offbynull.portmapper.mappers.upnpigd.UpnpIgdNotifyWatcher.AnnouncedDevice;
+import com.offbynull.portmapper.testtools.RouterEmulator;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class UpnpIgdNotifyWatcherTest {
+
+    private static final String IGD_NT = "urn:schemas-upnp-org:device:InternetGatewayDevice:1";
+
+    private RouterEmulator emulator;
+    private NetworkGateway network;
+    private Bus networkBus;
+    private InetAddress localAddress;
+    private volatile int multicastSocketId;
+    private volatile Bus multicastResponseBus;
+    private UpnpIgdNotifyWatcher watcher;
+    private LinkedBlockingQueue<String> events;
+
+    @Before
+    public void before() throws Exception {
+        emulator = RouterEmulator.create(InetAddress.getByAddress(new byte[] {127, 0, 0, 1}), 0,
+                InetAddress.getByAddress(new byte[] {1, 2, 3, 4}));
+        network = NetworkGateway.create();
+        networkBus = network.getBus();
+        localAddress = InetAddress.getByAddress(new byte[] {127, 0, 0, 1});
+
+        // multicast can't be joined on loopback, so stand in for the multicast socket and inject notifications directly
+        Bus interceptingBus = new Bus() {
+            @Override
+            public void send(Object msg) {
+                if (msg instanceof CreateMulticastUdpNetworkRequest) {
+                    CreateMulticastUdpNetworkRequest req = (CreateMulticastUdpNetworkRequest) msg;
+                    multicastSocketId = req.getId();
+                    multicastResponseBus = req.getResponseBus();
+                    multicastResponseBus.send(new CreateUdpNetworkResponse(req.getId()));
+                } else {
+                    networkBus.send(msg);
+                }
+            }
+        };
+
+        watcher = UpnpIgdNotifyWatcher.create(interceptingBus, Arrays.asList(localAddress));
+
+        events = new LinkedBlockingQueue<>();
+        watcher.addListener(new UpnpIgdNotifyListener() {
+            @Override
+            public void deviceAdded(AnnouncedDevice device) {
+                events.add("added " + device.getUuid());
+            }
+
+            @Override
+            public void deviceRebooted(AnnouncedDevice oldDevice, AnnouncedDevice newDevice) {
+                events.add("rebooted " + newDevice.getUuid());
+            }
+
+            @Override
+            public void deviceRemoved(AnnouncedDevice device) {
+                events.add("removed " + device.getUuid());
+            }
+        });
+    }
+
+    @After
+    public void after() throws IOException {
+        watcher.close();
+        networkBus.send(new KillNetworkRequest());
+        emulator.close();
+    }
+
+    @Test
+    public void mustTrackAliveAndByeByeFromGateway() throws Exception {
+        notify("uuid:gw", IGD_NT, "ssdp:alive", emulator.getRootUrl().toString(), 1L);
+        assertEquals("added uuid:gw", events.poll(5L, TimeUnit.SECONDS));
+
+        List<AnnouncedDevice> devices = watcher.getDevices();
+        assertEquals(1, devices.size());
+        assertEquals(emulator.getRootUrl().toString(), devices.get(0).getLocation().toString());
+        assertEquals(localAddress, devices.get(0).getSourceAddress());
+        assertEquals(1L, (long) devices.get(0).getBootId());
+
+        notify("uuid:gw", "upnp:rootdevice", "ssdp:byebye", null, null);
+        assertEquals("removed uuid:gw", events.poll(5L, TimeUnit.SECONDS));
+        assertTrue(watcher.getDevices().isEmpty());
+    }
+
+    @Test
+    public void mustIgnoreNonGatewayDevices() throws Exception {
+        notify("uuid:tv", "urn:schemas-upnp-org:device:MediaRenderer:1", "ssdp:alive", "http://127.0.0.1:1/tv.xml", null);
+        notify("uuid:gw", IGD_NT, "ssdp:alive", emulator.getRootUrl().toString(), null);
+
+        assertEquals("added uuid:gw", events.poll(5L, TimeUnit.SECONDS));
+        assertEquals(1, watcher.getDevices().size());
+        assertEquals("uuid:gw", watcher.getDevices().get(0).getUuid());
+    }
+
+    @Test
+    public void mustReportRebootWhenBootIdChanges() throws Exception {
+        notify("uuid:gw", IGD_NT, "ssdp:alive", emulator.getRootUrl().toString(), 1L);
+        notify("uuid:gw", "upnp:rootdevice", "ssdp:alive", emulator.getRootUrl().toString(), 1L); // same boot -- nothing
+        notify("uuid:gw", IGD_NT, "ssdp:alive", emulator.getRootUrl().toString(), 2L);
+
+        assertEquals("added uuid:gw", events.poll(5L, TimeUnit.SECONDS));
+        assertEquals("rebooted uuid:gw", events.poll(5L, TimeUnit.SECONDS));
+        assertNull(events.poll(500L, TimeUnit.MILLISECONDS));
+        assertEquals(2L, (long) watcher.getDevices().get(0).getBootId());
+    }
+
+    @Test
+    public void mustIdentifyFromAnnouncedDevicesWithoutSearching() throws Exception {
+        notify("uuid:gw", IGD_NT, "ssdp:alive", emulator.getRootUrl().toString(), null);
+        assertEquals("added uuid:gw", events.poll(5L, TimeUnit.SECONDS));
+
+        long startTime = System.currentTimeMillis();
+        List<UpnpIgdPortMapper> mappers = UpnpIgdPortMapper.identify(networkBus, watcher);
+        long duration = System.currentTimeMillis() - startTime;
+
+        assertEquals(2, mappers.size()); // WANIPConnection:1 and WANIPConnection:2
+        assertTrue(duration < 2000L); // a search would take at least 2 rounds of 1 second
+    }
+
+    @Test
+    public void mustTrackGatewayAnnouncedUnderMultipleUuidsOnce() throws Exception {
+        String location = emulator.getRootUrl().toString();
+        notify("uuid:gw", IGD_NT, "ssdp:alive", location, 1L); // root device
+        notify("uuid:gw-wan", "urn:schemas-upnp-org:service:WANIPConnection:1", "ssdp:alive", location, 1L); // embedded device
+
+        assertEquals("added uuid:gw", events.poll(5L, TimeUnit.SECONDS));
+        assertNull(events.poll(500L, TimeUnit.MILLISECONDS));
+        assertEquals(1, watcher.getDevices().size());
+
+        UpnpIgdPortMapper.clearDescriptionCache();
+        List<UpnpIgdPortMapper> mappers = UpnpIgdPortMapper.identify(networkBus, watcher);
+        assertEquals(2, mappers.size()); // WANIPConnection:1 and WANIPConnection:2
+        assertEquals(3L, emulator.getDescriptionRequestCount()); // root description and 2 service descriptions fetched once
+
+        notify("uuid:gw-wan", "urn:schemas-upnp-org:service:WANIPConnection:1", "ssdp:byebye", null, null);
+        assertEquals("removed uuid:gw", events.poll(5L, TimeUnit.SECONDS));
+        assertTrue(watcher.getDevices().isEmpty());
+    }
+
+    @Test
+    public void mustAttributeNotificationToLocalAddressOnSendersSubnet() throws Exception {
+        final InetAddress lanAddress = InetAddress.getByAddress(new byte[] {(byte) 192, (byte) 168, 1, 2});
+        final InetAddress otherAddress = InetAddress.getByAddress(new byte[] {10, 1, 0, 2});
+        final List<CreateMulticastUdpNetworkRequest> sockets = new ArrayList<>();
+        Bus interceptingBus = new Bus() {
+            @Override
+            public void send(Object msg) {
+                if (msg instanceof CreateMulticastUdpNetworkRequest) {
+                    CreateMulticastUdpNetworkRequest req = (CreateMulticastUdpNetworkRequest) msg;
+                    sockets.add(req);
+                    req.getResponseBus().send(new CreateUdpNetworkResponse(req.getId()));
+                } else {
+                    networkBus.send(msg);
+                }
+            }
+        };
+
+        UpnpIgdNotifyWatcher multihomedWatcher = UpnpIgdNotifyWatcher.create(interceptingBus, Arrays.asList(lanAddress, otherAddress));
+        try {
+            // every socket is bound to the wildcard address, so each one gets a copy -- the copy on the other socket comes in last
+            InetAddress gatewayAddress = InetAddress.getByAddress(new byte[] {(byte) 192, (byte) 168, 1, 1});
+            String location = emulator.getRootUrl().toString();
+            for (CreateMulticastUdpNetworkRequest socket : sockets) {
+                notify(socket.getResponseBus(), socket.getId(), gatewayAddress, "uuid:gw", IGD_NT, "ssdp:alive", location, 1L);
+            }
+            Thread.sleep(500L);
+
+            List<AnnouncedDevice> devices = multihomedWatcher.getDevices();
+            assertEquals(1, devices.size());
+            assertEquals(lanAddress, devices.get(0).getSourceAddress());
+        } finally {
+            multihomedWatcher.close();
+        }
+    }
+
+    private void notify(String uuid, String nt, String nts, String location, Long bootId) {
+        notify(multicastResponseBus, multicastSocketId, localAddress, uuid, nt, nts, location, bootId);
+    }
+
+    private void notify(Bus responseBus, int socketId, InetAddress senderAddress, String uuid, String nt, String nts, String location,
+            Long bootId) {
+        String msg = "NOTIFY * HTTP/1.1\r\n"
+                + "HOST: 239.255.255.250:1900\r\n"
+                + "CACHE-CONTROL: max-age=120\r\n"
+                + (location == null ? "" : "LOCATION: " + location + "\r\n")
+                + "NT: " + nt + "\r\n"
+                + "NTS: " + nts + "\r\n"
+                + "SERVER: " + RouterEmulator.SERVER_NAME + "\r\n"
+                + "USN: " + uuid + "::" + nt + "\r\n"
+                + (bootId == null ? "" : "BOOTID.UPNP.ORG: " + bootId + "\r\n")
+                + "\r\n";
+        responseBus.send(new ReadUdpNetworkNotification(socketId, new InetSocketAddress(localAddress, 1900),
+                new InetSocketAddress(senderAddress, 50000), msg.getBytes(StandardCharsets.US_ASCII)));
+    }
+}
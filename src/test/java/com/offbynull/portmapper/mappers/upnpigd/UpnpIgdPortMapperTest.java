@@ -0,0 +1,118 @@
+package com.offbynull.portmapper.mappers.upnpigd;
+
+import com.offbynull.portmapper.gateway.Bus;
+import com.offbynull.portmapper.gateways.network.NetworkGateway;
+import com.offbynull.portmapper.gateways.network.internalmessages.KillNetworkRequest;
+import com.offbynull.portmapper.gateways.network.internalmessages.WriteUdpNetworkRequest;
+import com.offbynull.portmapper.mappers.upnpigd.externalmessages.ServiceDiscoveryUpnpIgdRequest.ProbeDeviceType;
+import com.offbynull.portmapper.testtools.RouterEmulator;
+import com.offbynull.portmapper.testtools.VirtualNetworkBus;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class UpnpIgdPortMapperTest {
+
+    private RouterEmulator emulator;
+    private NetworkGateway network;
+    private Bus networkBus;
+    private List<String> searches;
+    private Bus recordingBus;
+
+    @Before
+    public void before() throws IOException {
+        UpnpIgdPortMapper.clearDescriptionCache();
+
+        emulator = RouterEmulator.create(InetAddress.getByAddress(new byte[] {127, 0, 0, 1}), 0,
+                InetAddress.getByAddress(new byte[] {1, 2, 3, 4}));
+        network = NetworkGateway.create();
+        networkBus = network.getBus();
+
+        final VirtualNetworkBus virtualBus = new VirtualNetworkBus(networkBus);
+        virtualBus.setLocalAddresses(Arrays.asList(InetAddress.getByAddress(new byte[] {10, 99, 0, 2})));
+        virtualBus.addRoute(ProbeDeviceType.IPV4.getMulticastSocketAddress(), emulator.getSsdpAddress());
+
+        searches = new CopyOnWriteArrayList<>();
+        recordingBus = new Bus() {
+            @Override
+            public void send(Object msg) {
+                if (msg instanceof WriteUdpNetworkRequest) {
+                    searches.add(new String(((WriteUdpNetworkRequest) msg).getData(), StandardCharsets.US_ASCII));
+                }
+                virtualBus.send(msg);
+            }
+        };
+    }
+
+    @After
+    public void after() throws IOException {
+        networkBus.send(new KillNetworkRequest());
+        emulator.close();
+    }
+
+    @Test
+    public void mustSearchOnlyForGatewayTargets() throws Exception {
+        List<UpnpIgdPortMapper> mappers = UpnpIgdPortMapper.identify(recordingBus);
+
+        assertEquals(2, mappers.size()); // WANIPConnection:1 and WANIPConnection:2
+        assertFalse(searches.isEmpty());
+        for (String search : searches) {
+            assertFalse(search.contains("ssdp:all"));
+            assertTrue(search.contains("ST: urn:schemas-upnp-org:"));
+        }
+    }
+
+    @Test
+    public void mustStopSearchingOnceNoNewLocationsArrive() throws Exception {
+        UpnpIgdPortMapper.identify(recordingBus);
+
+        assertEquals(2 * 4, searches.size()); // 2 rounds of 4 search targets, rather than 5 rounds
+    }
+
+    @Test
+    public void mustStopSearchingWhenNothingAnswers() throws Exception {
+        emulator.setUpnpIgdEnabled(false);
+
+        long startTime = System.currentTimeMillis();
+        List<UpnpIgdPortMapper> mappers = UpnpIgdPortMapper.identify(recordingBus);
+        long duration = System.currentTimeMillis() - startTime;
+
+        assertTrue(mappers.isEmpty());
+        assertEquals(2 * 4, searches.size());
+        assertTrue(duration < 4000L);
+    }
+
+    @Test
+    public void mustReuseCachedDescriptionsForUnchangedDevice() throws Exception {
+        List<UpnpIgdPortMapper> first = UpnpIgdPortMapper.identify(recordingBus);
+        assertEquals(3L, emulator.getDescriptionRequestCount()); // root + 2 SCPDs
+
+        List<UpnpIgdPortMapper> second = UpnpIgdPortMapper.identify(recordingBus);
+        assertEquals(3L, emulator.getDescriptionRequestCount());
+
+        assertEquals(first.toString(), second.toString());
+    }
+
+    @Test
+    public void mustRefetchDescriptionsWhenBootIdOrConfigIdChanges() throws Exception {
+        UpnpIgdPortMapper.identify(recordingBus);
+        assertEquals(3L, emulator.getDescriptionRequestCount());
+
+        emulator.reboot();
+        assertEquals(2, UpnpIgdPortMapper.identify(recordingBus).size());
+        assertEquals(6L, emulator.getDescriptionRequestCount());
+
+        emulator.setConfigId(2L);
+        assertEquals(2, UpnpIgdPortMapper.identify(recordingBus).size());
+        assertEquals(9L, emulator.getDescriptionRequestCount());
+    }
+}
@@ -1,5 +1,8 @@
 package com.offbynull.portmapper.mappers.upnpigd.externalmessages;
 
+import com.offbynull.portmapper.mapper.RouterErrorException;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
 import org.junit.Test;
 
 public class AddPortMappingUpnpIgdResponseTest {
@@ -54,4 +57,34 @@ public class AddPortMappingUpnpIgdResponseTest {
         AddPortMappingUpnpIgdResponse resp = new AddPortMappingUpnpIgdResponse(buffer);
     }
 
+    @Test
+    public void mustReportSoapFaultAsRouterError() throws Exception {
+        String bufferStr
+                = "HTTP/1.1 500 Internal Server Error\r\n"
+                + "Content-Type: text/xml\r\n"
+                + "\r\n"
+                + "<?xml version=\"1.0\"?>"
+                + "<s:Envelope xmlns:s=\"http://schemas.xmlsoap.org/soap/envelope/\" s:encodingStyle=\"http://schemas.xmlsoap.org/soap/encoding/\">"
+                + "<s:Body>"
+                + "<s:Fault>"
+                + "<faultcode>s:Client</faultcode>"
+                + "<faultstring>UPnPError</faultstring>"
+                + "<detail>"
+                + "<UPnPError xmlns=\"urn:schemas-upnp-org:control-1-0\">"
+                + "<errorCode>718</errorCode>"
+                + "<errorDescription>ConflictInMappingEntry</errorDescription>"
+                + "</UPnPError>"
+                + "</detail>"
+                + "</s:Fault>"
+                + "</s:Body>"
+                + "</s:Envelope>";
+        byte[] buffer = bufferStr.getBytes("US-ASCII");
+        try {
+            new AddPortMappingUpnpIgdResponse(buffer);
+            fail();
+        } catch (RouterErrorException ree) {
+            assertEquals("718", ree.getErrorCode());
+        }
+    }
+
 }
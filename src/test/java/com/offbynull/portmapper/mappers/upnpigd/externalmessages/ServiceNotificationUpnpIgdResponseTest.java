@@ -0,0 +1,62 @@
+package com.offbynull.portmapper.mappers.upnpigd.externalmessages;
+
+import java.net.URL;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ServiceNotificationUpnpIgdResponseTest {
+
+    @Test
+    public void mustProperlyParseAlive() throws Exception {
+        byte[] buffer = ("NOTIFY * HTTP/1.1\r\n"
+                + "HOST: 239.255.255.250:1900\r\n"
+                + "CACHE-CONTROL: max-age = 120\r\n"
+                + "LOCATION: http://10.0.0.138:80/IGD.xml\r\n"
+                + "NT: urn:schemas-upnp-org:device:InternetGatewayDevice:1\r\n"
+                + "NTS: ssdp:alive\r\n"
+                + "SERVER: Linux/3.4 UPnP/1.1 MiniUPnPd/2.0\r\n"
+                + "USN: uuid:UPnP-SpeedTouch510::urn:schemas-upnp-org:device:InternetGatewayDevice:1\r\n"
+                + "BOOTID.UPNP.ORG: 7\r\n"
+                + "\r\n")
+                .getBytes("US-ASCII");
+        ServiceNotificationUpnpIgdResponse resp = new ServiceNotificationUpnpIgdResponse(buffer);
+
+        assertEquals(new URL("http://10.0.0.138:80/IGD.xml"), resp.getLocation());
+        assertEquals("Linux/3.4 UPnP/1.1 MiniUPnPd/2.0", resp.getServer());
+        assertEquals("urn:schemas-upnp-org:device:InternetGatewayDevice:1", resp.getNotificationType());
+        assertEquals(ServiceNotificationUpnpIgdResponse.ALIVE, resp.getNotificationSubType());
+        assertEquals("uuid:UPnP-SpeedTouch510", resp.getDeviceUuid());
+        assertEquals(7L, (long) resp.getBootId());
+        assertEquals(120L, (long) resp.getMaxAge());
+    }
+
+    @Test
+    public void mustProperlyParseByeByeWithMissingOptionalHeaders() throws Exception {
+        byte[] buffer = ("NOTIFY * HTTP/1.1\r\n"
+                + "NT: upnp:rootdevice\r\n"
+                + "NTS: SSDP:BYEBYE\r\n"
+                + "USN: uuid:UPnP-SpeedTouch510::upnp:rootdevice\r\n"
+                + "\r\n")
+                .getBytes("US-ASCII");
+        ServiceNotificationUpnpIgdResponse resp = new ServiceNotificationUpnpIgdResponse(buffer);
+
+        assertNull(resp.getLocation());
+        assertNull(resp.getServer());
+        assertNull(resp.getBootId());
+        assertNull(resp.getMaxAge());
+        assertEquals(ServiceNotificationUpnpIgdResponse.BYEBYE, resp.getNotificationSubType());
+        assertEquals("uuid:UPnP-SpeedTouch510", resp.getDeviceUuid());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void mustProperlyParseBufferWithoutNtsHeaderButFailOnAccess() throws Exception {
+        byte[] buffer = ("NOTIFY * HTTP/1.1\r\n"
+                + "NT: upnp:rootdevice\r\n"
+                + "USN: uuid:UPnP-SpeedTouch510::upnp:rootdevice\r\n"
+                + "\r\n")
+                .getBytes("US-ASCII");
+        ServiceNotificationUpnpIgdResponse resp = new ServiceNotificationUpnpIgdResponse(buffer);
+        resp.getNotificationSubType();
+    }
+}
@@ -0,0 +1,292 @@
+package com.offbynull.portmapper.testtools;
+
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.lang3.Validate;
+
+// Mapping state for RouterEmulator. Indexed both by internal endpoint (how NAT-PMP/PCP identify a mapping) and by external port (how
+// UPnP-IGD identifies a mapping). Expired entries are dropped lazily on lookup, and in bulk only once the table hits capacity.
+public final class EmulatedMappingTable {
+
+    public enum Outcome {
+        SUCCESS,
+        NO_RESOURCES,
+        CONFLICT,
+        NOT_AUTHORIZED
+    }
+
+    private final int minPort;
+    private final int maxPort;
+    private final Map<InternalKey, Entry> byInternal;
+    private final Map<Integer, Entry> byExternal;
+    private final int[] allocationCursors; // per protocol slot (0 = tcp, 1 = everything else)
+    private int capacity;
+
+    public EmulatedMappingTable(int minPort, int maxPort, int capacity) {
+        Validate.inclusiveBetween(1, 65535, minPort);
+        Validate.inclusiveBetween(minPort, 65535, maxPort);
+        Validate.isTrue(capacity >= 0);
+        this.minPort = minPort;
+        this.maxPort = maxPort;
+        this.byInternal = new HashMap<>();
+        this.byExternal = new HashMap<>();
+        this.allocationCursors = new int[] {minPort, minPort};
+        this.capacity = capacity;
+    }
+
+    public synchronized void setCapacity(int capacity) {
+        Validate.isTrue(capacity >= 0);
+        this.capacity = capacity;
+    }
+
+    public synchronized int getCapacity() {
+        return capacity;
+    }
+
+    // lifetime of 0 means never expires, nonce may be null if the protocol has no concept of one
+    // if allowAlternate is set and the suggested port is unavailable (or 0), some other free port is assigned
+    public synchronized Result map(int protocol, InetAddress internalAddress, int internalPort, int suggestedExternalPort,
+            boolean allowAlternate, byte[] nonce, long lifetime) {
+        Validate.notNull(internalAddress);
+        Validate.isTrue(lifetime >= 0L);
+        long now = System.nanoTime();
+
+        InternalKey internalKey = new InternalKey(protocol, internalAddress, internalPort);
+        Entry existing = getLive(byInternal.get(internalKey), now);
+        if (existing != null) {
+            if (existing.nonce != null && nonce != null && !Arrays.equals(existing.nonce, nonce)) {
+                return new Result(Outcome.NOT_AUTHORIZED, null);
+            }
+            if (suggestedExternalPort == 0 || suggestedExternalPort == existing.externalPort || allowAlternate) {
+                // refresh -- keep the same external port
+                Entry refreshed = new Entry(protocol, internalAddress, internalPort, existing.externalPort, nonce, lifetime, now);
+                put(refreshed);
+                return new Result(Outcome.SUCCESS, refreshed);
+            }
+            remove(existing);
+        }
+
+        if (byInternal.size() >= capacity) {
+            purgeExpired(now);
+            if (byInternal.size() >= capacity) {
+                return new Result(Outcome.NO_RESOURCES, null);
+            }
+        }
+
+        int externalPort = -1;
+        if (suggestedExternalPort >= minPort && suggestedExternalPort <= maxPort
+                && getLive(byExternal.get(externalKey(protocol, suggestedExternalPort)), now) == null) {
+            externalPort = suggestedExternalPort;
+        } else if (suggestedExternalPort != 0 && !allowAlternate) {
+            return new Result(Outcome.CONFLICT, null);
+        } else {
+            externalPort = allocate(protocol, now);
+            if (externalPort == -1) {
+                return new Result(Outcome.NO_RESOURCES, null);
+            }
+        }
+
+        Entry entry = new Entry(protocol, internalAddress, internalPort, externalPort, nonce, lifetime, now);
+        put(entry);
+        return new Result(Outcome.SUCCESS, entry);
+    }
+
+    // returns removed entry, or null if nothing was mapped
+    public synchronized Entry unmapInternal(int protocol, InetAddress internalAddress, int internalPort, byte[] nonce) {
+        long now = System.nanoTime();
+        Entry existing = getLive(byInternal.get(new InternalKey(protocol, internalAddress, internalPort)), now);
+        if (existing == null) {
+            return null;
+        }
+        if (existing.nonce != null && nonce != null && !Arrays.equals(existing.nonce, nonce)) {
+            return null;
+        }
+        remove(existing);
+        return existing;
+    }
+
+    public synchronized Entry unmapExternal(int protocol, int externalPort) {
+        Entry existing = getLive(byExternal.get(externalKey(protocol, externalPort)), System.nanoTime());
+        if (existing != null) {
+            remove(existing);
+        }
+        return existing;
+    }
+
+    public synchronized Entry findExternal(int protocol, int externalPort) {
+        return getLive(byExternal.get(externalKey(protocol, externalPort)), System.nanoTime());
+    }
+
+    public synchronized int size() {
+        purgeExpired(System.nanoTime());
+        return byInternal.size();
+    }
+
+    public synchronized void clear() {
+        byInternal.clear();
+        byExternal.clear();
+    }
+
+    private int allocate(int protocol, long now) {
+        int slot = protocol == 6 ? 0 : 1;
+        int rangeSize = maxPort - minPort + 1;
+        int port = allocationCursors[slot];
+        for (int i = 0; i < rangeSize; i++) {
+            int candidate = port;
+            port = port == maxPort ? minPort : port + 1;
+            if (getLive(byExternal.get(externalKey(protocol, candidate)), now) == null) {
+                allocationCursors[slot] = port;
+                return candidate;
+            }
+        }
+        return -1;
+    }
+
+    private Entry getLive(Entry entry, long now) {
+        if (entry != null && entry.isExpired(now)) {
+            remove(entry);
+            return null;
+        }
+        return entry;
+    }
+
+    private void purgeExpired(long now) {
+        Iterator<Entry> it = byInternal.values().iterator();
+        while (it.hasNext()) {
+            Entry entry = it.next();
+            if (entry.isExpired(now)) {
+                it.remove();
+                byExternal.remove(externalKey(entry.protocol, entry.externalPort));
+            }
+        }
+    }
+
+    private void put(Entry entry) {
+        byInternal.put(new InternalKey(entry.protocol, entry.internalAddress, entry.internalPort), entry);
+        byExternal.put(externalKey(entry.protocol, entry.externalPort), entry);
+    }
+
+    private void remove(Entry entry) {
+        InternalKey internalKey = new InternalKey(entry.protocol, entry.internalAddress, entry.internalPort);
+        if (byInternal.get(internalKey) == entry) {
+            byInternal.remove(internalKey);
+        }
+        Integer externalKey = externalKey(entry.protocol, entry.externalPort);
+        if (byExternal.get(externalKey) == entry) {
+            byExternal.remove(externalKey);
+        }
+    }
+
+    private static Integer externalKey(int protocol, int externalPort) {
+        return (protocol << 16) | externalPort;
+    }
+
+    public static final class Result {
+        private final Outcome outcome;
+        private final Entry entry;
+
+        private Result(Outcome outcome, Entry entry) {
+            this.outcome = outcome;
+            this.entry = entry;
+        }
+
+        public Outcome getOutcome() {
+            return outcome;
+        }
+
+        public Entry getEntry() {
+            return entry;
+        }
+    }
+
+    public static final class Entry {
+        private final int protocol;
+        private final InetAddress internalAddress;
+        private final int internalPort;
+        private final int externalPort;
+        private final byte[] nonce;
+        private final long lifetime;
+        private final long expiryTime;
+
+        private Entry(int protocol, InetAddress internalAddress, int internalPort, int externalPort, byte[] nonce, long lifetime,
+                long now) {
+            this.protocol = protocol;
+            this.internalAddress = internalAddress;
+            this.internalPort = internalPort;
+            this.externalPort = externalPort;
+            this.nonce = nonce == null ? null : Arrays.copyOf(nonce, nonce.length);
+            this.lifetime = lifetime;
+            this.expiryTime = lifetime == 0L ? Long.MAX_VALUE : now + TimeUnit.SECONDS.toNanos(lifetime);
+        }
+
+        private boolean isExpired(long now) {
+            return expiryTime != Long.MAX_VALUE && now - expiryTime >= 0L;
+        }
+
+        public int getProtocol() {
+            return protocol;
+        }
+
+        public InetAddress getInternalAddress() {
+            return internalAddress;
+        }
+
+        public int getInternalPort() {
+            return internalPort;
+        }
+
+        public int getExternalPort() {
+            return externalPort;
+        }
+
+        public long getLifetime() {
+            return lifetime;
+        }
+
+        // seconds left, 0 if it never expires
+        public long getRemainingLifetime() {
+            if (expiryTime == Long.MAX_VALUE) {
+                return 0L;
+            }
+            return Math.max(1L, TimeUnit.NANOSECONDS.toSeconds(expiryTime - System.nanoTime()));
+        }
+    }
+
+    private static final class InternalKey {
+        private final int protocol;
+        private final InetAddress address;
+        private final int port;
+
+        InternalKey(int protocol, InetAddress address, int port) {
+            this.protocol = protocol;
+            this.address = address;
+            this.port = port;
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = 7;
+            hash = 31 * hash + protocol;
+            hash = 31 * hash + Objects.hashCode(address);
+            hash = 31 * hash + port;
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (obj == null || getClass() != obj.getClass()) {
+                return false;
+            }
+            InternalKey other = (InternalKey) obj;
+            return protocol == other.protocol && port == other.port && Objects.equals(address, other.address);
+        }
+    }
+}
@@ -0,0 +1,252 @@
+package com.offbynull.portmapper.testtools;
+
+import com.offbynull.portmapper.gateway.Bus;
+import com.offbynull.portmapper.gateways.network.internalmessages.CloseNetworkRequest;
+import com.offbynull.portmapper.gateways.network.internalmessages.CreateMulticastUdpNetworkRequest;
+import com.offbynull.portmapper.gateways.network.internalmessages.CreateTcpNetworkRequest;
+import com.offbynull.portmapper.gateways.network.internalmessages.CreateUdpNetworkRequest;
+import com.offbynull.portmapper.gateways.network.internalmessages.ReadClosedTcpNetworkNotification;
+import com.offbynull.portmapper.gateways.network.internalmessages.ReadTcpNetworkNotification;
+import com.offbynull.portmapper.gateways.network.internalmessages.ReadUdpNetworkNotification;
+import com.offbynull.portmapper.gateways.network.internalmessages.WriteTcpNetworkRequest;
+import com.offbynull.portmapper.gateways.network.internalmessages.WriteUdpNetworkRequest;
+import com.offbynull.portmapper.gateways.network.internalmessages.WriteUdpNetworkResponse;
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.lang3.Validate;
+
+// A Bus that sits between the mappers and NetworkGateway's bus and makes the network look worse than it is, as described by a
+// FaultProfile. Pass it to a mapper in place of the gateway's bus.
+//
+// Outgoing UDP writes and incoming UDP reads are individually lost, delayed, duplicated or reordered. TCP is reliable, so TCP writes and
+// reads are only delayed (in order, per socket and direction) -- but a TCP write may instead reset the connection, in which case the
+// socket is closed and the mapper sees it as closed by the remote side. Everything else passes straight through.
+//
+// To see incoming traffic, the response bus of each socket creation request is swapped out for one that goes through this class. All
+// randomness comes from a single seeded Random, so a run is reproducible as long as the mapper issues its requests in the same order.
+public final class FaultInjectingBus implements Bus, Closeable {
+
+    private final Bus networkBus;
+    private final FaultProfile profile;
+    private final Random random;
+    private final ScheduledExecutorService scheduler;
+    private final Map<Integer, Bus> responseBuses;
+    private final Set<Integer> resetIds;
+    private final Map<Long, TcpLane> tcpLanes; // (id, direction) -> TCP messages in flight for that pair
+
+    public FaultInjectingBus(Bus networkBus, FaultProfile profile, long seed) {
+        Validate.notNull(networkBus);
+        Validate.notNull(profile);
+        this.networkBus = networkBus;
+        this.profile = profile;
+        this.random = new Random(seed);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "FaultInjectingBus");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.responseBuses = new ConcurrentHashMap<>();
+        this.resetIds = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+        this.tcpLanes = new HashMap<>();
+    }
+
+    @Override
+    public void send(Object msg) {
+        Validate.notNull(msg);
+
+        if (msg instanceof CreateUdpNetworkRequest) {
+            CreateUdpNetworkRequest req = (CreateUdpNetworkRequest) msg;
+            int id = req.getId();
+            Bus inboundBus = trackSocket(id, req.getResponseBus());
+            networkBus.send(new CreateUdpNetworkRequest(id, inboundBus, req.getSourceAddress()));
+        } else if (msg instanceof CreateMulticastUdpNetworkRequest) {
+            CreateMulticastUdpNetworkRequest req = (CreateMulticastUdpNetworkRequest) msg;
+            int id = req.getId();
+            Bus inboundBus = trackSocket(id, req.getResponseBus());
+            networkBus.send(new CreateMulticastUdpNetworkRequest(id, inboundBus, req.getSourceAddress(), req.getGroupAddress()));
+        } else if (msg instanceof CreateTcpNetworkRequest) {
+            CreateTcpNetworkRequest req = (CreateTcpNetworkRequest) msg;
+            int id = req.getId();
+            Bus inboundBus = trackSocket(id, req.getResponseBus());
+            networkBus.send(new CreateTcpNetworkRequest(id, inboundBus, req.getSourceAddress(), req.getDestinationAddress(),
+                    req.getDestinationPort()));
+        } else if (msg instanceof WriteUdpNetworkRequest) {
+            WriteUdpNetworkRequest req = (WriteUdpNetworkRequest) msg;
+            if (!sendUdp(networkBus, req)) {
+                // dropped "on the wire" -- the local send still succeeded as far as the mapper is concerned
+                Bus responseBus = responseBuses.get(req.getId());
+                if (responseBus != null) {
+                    responseBus.send(new WriteUdpNetworkResponse(req.getId(), req.getData().length));
+                }
+            }
+        } else if (msg instanceof WriteTcpNetworkRequest) {
+            WriteTcpNetworkRequest req = (WriteTcpNetworkRequest) msg;
+            int id = req.getId();
+            if (resetIds.contains(id)) {
+                return;
+            } else if (roll(profile.getResetRate())) {
+                reset(id);
+            } else {
+                sendTcp(networkBus, id, true, req);
+            }
+        } else if (msg instanceof CloseNetworkRequest) {
+            int id = ((CloseNetworkRequest) msg).getId();
+            responseBuses.remove(id);
+            resetIds.remove(id);
+            synchronized (tcpLanes) {
+                tcpLanes.remove(tcpKey(id, true));
+                tcpLanes.remove(tcpKey(id, false));
+            }
+            networkBus.send(msg);
+        } else {
+            networkBus.send(msg);
+        }
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+
+    private Bus trackSocket(final int id, final Bus responseBus) {
+        responseBuses.put(id, responseBus);
+        return new Bus() {
+            @Override
+            public void send(Object msg) {
+                Validate.notNull(msg);
+                if (msg instanceof ReadUdpNetworkNotification) {
+                    sendUdp(responseBus, msg);
+                } else if (msg instanceof ReadTcpNetworkNotification || msg instanceof ReadClosedTcpNetworkNotification) {
+                    if (!resetIds.contains(id)) {
+                        sendTcp(responseBus, id, false, msg);
+                    }
+                } else {
+                    responseBus.send(msg);
+                }
+            }
+        };
+    }
+
+    // returns false if the datagram was lost
+    private boolean sendUdp(Bus target, Object msg) {
+        if (roll(profile.getLossRate())) {
+            return false;
+        }
+
+        long delay = nextLatency();
+        if (roll(profile.getReorderRate())) {
+            delay += profile.getReorderDelay();
+        }
+        deliver(target, msg, delay);
+
+        if (roll(profile.getDuplicationRate())) {
+            deliver(target, msg, nextLatency());
+        }
+        return true;
+    }
+
+    private void sendTcp(final Bus target, int id, boolean outbound, Object msg) {
+        if (profile.getMaxLatency() == 0L) {
+            target.send(msg);
+            return;
+        }
+
+        // Timers that fire at (nearly) the same time aren't guaranteed to run in the order they were scheduled, so the message isn't tied
+        // to its timer. Instead, each timer that fires delivers whatever is at the head of the lane -- that keeps the stream in order.
+        final TcpLane lane;
+        long now = System.currentTimeMillis();
+        long releaseTime = now + nextLatency();
+        synchronized (tcpLanes) {
+            Long key = tcpKey(id, outbound);
+            TcpLane existingLane = tcpLanes.get(key);
+            if (existingLane == null) {
+                existingLane = new TcpLane();
+                tcpLanes.put(key, existingLane);
+            }
+            lane = existingLane;
+        }
+        synchronized (lane) {
+            releaseTime = Math.max(releaseTime, lane.lastReleaseTime); // never let a later message overtake an earlier one
+            lane.lastReleaseTime = releaseTime;
+            lane.pending.addLast(msg);
+        }
+        scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                Object next;
+                synchronized (lane) {
+                    next = lane.pending.pollFirst();
+                }
+                if (next != null) {
+                    target.send(next);
+                }
+            }
+        }, releaseTime - now, TimeUnit.MILLISECONDS);
+    }
+
+    private void reset(int id) {
+        resetIds.add(id);
+        networkBus.send(new CloseNetworkRequest(id));
+        Bus responseBus = responseBuses.get(id);
+        if (responseBus != null) {
+            responseBus.send(new ReadClosedTcpNetworkNotification(id));
+        }
+    }
+
+    private void deliver(final Bus target, final Object msg, long delay) {
+        if (delay <= 0L && profile.getMaxLatency() == 0L) {
+            target.send(msg); // no latency at all, so nothing can be queued ahead of this
+            return;
+        }
+
+        scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                target.send(msg);
+            }
+        }, Math.max(0L, delay), TimeUnit.MILLISECONDS);
+    }
+
+    private long nextLatency() {
+        long min = profile.getMinLatency();
+        long max = profile.getMaxLatency();
+        if (min == max) {
+            return min;
+        }
+        synchronized (random) {
+            return min + (long) (random.nextDouble() * (max - min + 1L));
+        }
+    }
+
+    private boolean roll(double rate) {
+        if (rate <= 0.0) {
+            return false;
+        }
+        synchronized (random) {
+            return random.nextDouble() < rate;
+        }
+    }
+
+    private static Long tcpKey(int id, boolean outbound) {
+        return ((long) id << 1) | (outbound ? 1L : 0L);
+    }
+
+    private static final class TcpLane {
+        private final ArrayDeque<Object> pending = new ArrayDeque<>();
+        private long lastReleaseTime;
+    }
+
+}
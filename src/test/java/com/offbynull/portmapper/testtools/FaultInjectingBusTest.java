@@ -0,0 +1,177 @@
+package com.offbynull.portmapper.testtools;
+
+import com.offbynull.portmapper.gateway.BasicBus;
+import com.offbynull.portmapper.gateway.Bus;
+import com.offbynull.portmapper.gateways.network.internalmessages.CloseNetworkRequest;
+import com.offbynull.portmapper.gateways.network.internalmessages.CreateTcpNetworkRequest;
+import com.offbynull.portmapper.gateways.network.internalmessages.CreateUdpNetworkRequest;
+import com.offbynull.portmapper.gateways.network.internalmessages.ReadClosedTcpNetworkNotification;
+import com.offbynull.portmapper.gateways.network.internalmessages.ReadTcpNetworkNotification;
+import com.offbynull.portmapper.gateways.network.internalmessages.ReadUdpNetworkNotification;
+import com.offbynull.portmapper.gateways.network.internalmessages.WriteTcpNetworkRequest;
+import com.offbynull.portmapper.gateways.network.internalmessages.WriteUdpNetworkRequest;
+import com.offbynull.portmapper.gateways.network.internalmessages.WriteUdpNetworkResponse;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public final class FaultInjectingBusTest {
+
+    private static final InetSocketAddress REMOTE_ADDRESS = new InetSocketAddress("127.0.0.1", 5351);
+    private static final InetSocketAddress LOCAL_ADDRESS = new InetSocketAddress("127.0.0.1", 12345);
+
+    private LinkedBlockingQueue<Object> gatewayQueue;
+    private LinkedBlockingQueue<Object> mapperQueue;
+    private Bus mapperBus;
+    private FaultInjectingBus fixture;
+
+    @Before
+    public void before() {
+        gatewayQueue = new LinkedBlockingQueue<>();
+        mapperQueue = new LinkedBlockingQueue<>();
+        mapperBus = new BasicBus(mapperQueue);
+    }
+
+    @After
+    public void after() {
+        if (fixture != null) {
+            fixture.close();
+        }
+    }
+
+    @Test
+    public void mustPassThroughEverythingWhenIdeal() throws Exception {
+        Bus inboundBus = createUdpSocket(FaultProfile.IDEAL, 1);
+
+        WriteUdpNetworkRequest write = new WriteUdpNetworkRequest(1, REMOTE_ADDRESS, new byte[] {1, 2, 3});
+        fixture.send(write);
+        assertSame(write, gatewayQueue.poll());
+
+        ReadUdpNetworkNotification read = new ReadUdpNetworkNotification(1, LOCAL_ADDRESS, REMOTE_ADDRESS, new byte[] {4, 5, 6});
+        inboundBus.send(read);
+        assertSame(read, mapperQueue.poll());
+    }
+
+    @Test
+    public void mustDropAllUdpWhenLossIsCertain() throws Exception {
+        Bus inboundBus = createUdpSocket(new FaultProfile(1.0, 0L, 0L, 0.0, 0.0, 0L, 0.0), 1);
+
+        fixture.send(new WriteUdpNetworkRequest(1, REMOTE_ADDRESS, new byte[] {1, 2, 3}));
+        assertNull(gatewayQueue.poll());
+        WriteUdpNetworkResponse writeResp = (WriteUdpNetworkResponse) mapperQueue.poll(); // local send still reported as successful
+        assertEquals(3, writeResp.getAmountWritten());
+
+        inboundBus.send(new ReadUdpNetworkNotification(1, LOCAL_ADDRESS, REMOTE_ADDRESS, new byte[] {4, 5, 6}));
+        assertNull(mapperQueue.poll());
+    }
+
+    @Test
+    public void mustDuplicateUdpWhenDuplicationIsCertain() throws Exception {
+        createUdpSocket(new FaultProfile(0.0, 0L, 0L, 1.0, 0.0, 0L, 0.0), 1);
+
+        WriteUdpNetworkRequest write = new WriteUdpNetworkRequest(1, REMOTE_ADDRESS, new byte[] {1, 2, 3});
+        fixture.send(write);
+        assertSame(write, gatewayQueue.poll());
+        assertSame(write, gatewayQueue.poll());
+        assertNull(gatewayQueue.poll());
+    }
+
+    @Test
+    public void mustDelayAndReorderUdp() throws Exception {
+        createUdpSocket(new FaultProfile(0.0, 50L, 50L, 0.0, 0.5, 500L, 0.0), 1);
+
+        // with a 50% reorder rate, at least one of these is very likely to be held back and overtaken -- seed is fixed so this is stable
+        long startTime = System.currentTimeMillis();
+        for (int i = 0; i < 10; i++) {
+            fixture.send(new WriteUdpNetworkRequest(1, REMOTE_ADDRESS, new byte[] {(byte) i}));
+        }
+        int[] order = new int[10];
+        for (int i = 0; i < 10; i++) {
+            WriteUdpNetworkRequest write = (WriteUdpNetworkRequest) gatewayQueue.poll(5L, TimeUnit.SECONDS);
+            order[i] = write.getData()[0];
+        }
+        assertTrue(System.currentTimeMillis() - startTime >= 50L);
+
+        boolean reordered = false;
+        for (int i = 1; i < order.length; i++) {
+            reordered |= order[i] < order[i - 1];
+        }
+        assertTrue(reordered);
+    }
+
+    @Test
+    public void mustKeepTcpInOrderUnderJitter() throws Exception {
+        Bus inboundBus = createTcpSocket(new FaultProfile(0.0, 0L, 100L, 0.0, 0.0, 0L, 0.0), 1);
+
+        for (int i = 0; i < 20; i++) {
+            fixture.send(new WriteTcpNetworkRequest(1, new byte[] {(byte) i}));
+            inboundBus.send(new ReadTcpNetworkNotification(1, new byte[] {(byte) i}));
+        }
+        inboundBus.send(new ReadClosedTcpNetworkNotification(1));
+
+        for (int i = 0; i < 20; i++) {
+            WriteTcpNetworkRequest write = (WriteTcpNetworkRequest) gatewayQueue.poll(5L, TimeUnit.SECONDS);
+            assertArrayEquals(new byte[] {(byte) i}, write.getData());
+            ReadTcpNetworkNotification read = (ReadTcpNetworkNotification) mapperQueue.poll(5L, TimeUnit.SECONDS);
+            assertArrayEquals(new byte[] {(byte) i}, read.getData());
+        }
+        assertTrue(mapperQueue.poll(5L, TimeUnit.SECONDS) instanceof ReadClosedTcpNetworkNotification);
+    }
+
+    @Test
+    public void mustResetTcpWhenResetIsCertain() throws Exception {
+        Bus inboundBus = createTcpSocket(new FaultProfile(0.0, 0L, 0L, 0.0, 0.0, 0L, 1.0), 1);
+
+        fixture.send(new WriteTcpNetworkRequest(1, new byte[] {1, 2, 3}));
+        assertEquals(1, ((CloseNetworkRequest) gatewayQueue.poll()).getId());
+        assertEquals(1, ((ReadClosedTcpNetworkNotification) mapperQueue.poll()).getId());
+
+        // anything after the reset is gone
+        inboundBus.send(new ReadTcpNetworkNotification(1, new byte[] {4, 5, 6}));
+        assertNull(mapperQueue.poll());
+    }
+
+    @Test
+    public void mustBeReproducibleForSameSeed() throws Exception {
+        FaultProfile profile = new FaultProfile(0.5, 0L, 0L, 0.0, 0.0, 0L, 0.0);
+
+        boolean[] firstRun = new boolean[100];
+        createUdpSocket(profile, 42L);
+        for (int i = 0; i < firstRun.length; i++) {
+            fixture.send(new WriteUdpNetworkRequest(1, REMOTE_ADDRESS, new byte[] {1}));
+            firstRun[i] = gatewayQueue.poll() != null;
+        }
+        fixture.close();
+
+        boolean[] secondRun = new boolean[100];
+        createUdpSocket(profile, 42L);
+        for (int i = 0; i < secondRun.length; i++) {
+            fixture.send(new WriteUdpNetworkRequest(1, REMOTE_ADDRESS, new byte[] {1}));
+            secondRun[i] = gatewayQueue.poll() != null;
+        }
+
+        assertArrayEquals(firstRun, secondRun);
+    }
+
+    private Bus createUdpSocket(FaultProfile profile, long seed) throws Exception {
+        fixture = new FaultInjectingBus(new BasicBus(gatewayQueue), profile, seed);
+        fixture.send(new CreateUdpNetworkRequest(1, mapperBus, InetAddress.getByName("127.0.0.1")));
+        return ((CreateUdpNetworkRequest) gatewayQueue.poll()).getResponseBus();
+    }
+
+    private Bus createTcpSocket(FaultProfile profile, long seed) throws Exception {
+        fixture = new FaultInjectingBus(new BasicBus(gatewayQueue), profile, seed);
+        fixture.send(new CreateTcpNetworkRequest(1, mapperBus, InetAddress.getByName("127.0.0.1"), InetAddress.getByName("127.0.0.1"),
+                80));
+        return ((CreateTcpNetworkRequest) gatewayQueue.poll()).getResponseBus();
+    }
+}
@@ -0,0 +1,93 @@
+package com.offbynull.portmapper.testtools;
+
+import org.apache.commons.lang3.Validate;
+
+// Describes how bad a network FaultInjectingBus should emulate. Rates are probabilities in [0,1] applied per UDP datagram (loss,
+// duplication, reordering) or per TCP write (reset). Latency is one-way, uniformly distributed between min and max, and applies to both
+// UDP and TCP. Reordered datagrams get an extra reorderDelay on top of their latency so that datagrams sent after them overtake them.
+public final class FaultProfile {
+
+    public static final FaultProfile IDEAL = new FaultProfile(0.0, 0L, 0L, 0.0, 0.0, 0L, 0.0);
+    public static final FaultProfile LOSSY = new FaultProfile(0.2, 1L, 5L, 0.0, 0.0, 0L, 0.0);
+    public static final FaultProfile SLOW = new FaultProfile(0.0, 100L, 300L, 0.0, 0.0, 0L, 0.0);
+    public static final FaultProfile REORDERING = new FaultProfile(0.0, 5L, 20L, 0.1, 0.3, 100L, 0.0);
+    public static final FaultProfile HOSTILE = new FaultProfile(0.2, 50L, 250L, 0.1, 0.2, 200L, 0.1);
+
+    private final double lossRate;
+    private final long minLatency;
+    private final long maxLatency;
+    private final double duplicationRate;
+    private final double reorderRate;
+    private final long reorderDelay;
+    private final double resetRate;
+
+    public FaultProfile(double lossRate, long minLatency, long maxLatency, double duplicationRate, double reorderRate, long reorderDelay,
+            double resetRate) {
+        Validate.inclusiveBetween(0.0, 1.0, lossRate);
+        Validate.isTrue(minLatency >= 0L);
+        Validate.isTrue(maxLatency >= minLatency);
+        Validate.inclusiveBetween(0.0, 1.0, duplicationRate);
+        Validate.inclusiveBetween(0.0, 1.0, reorderRate);
+        Validate.isTrue(reorderDelay >= 0L);
+        Validate.inclusiveBetween(0.0, 1.0, resetRate);
+        this.lossRate = lossRate;
+        this.minLatency = minLatency;
+        this.maxLatency = maxLatency;
+        this.duplicationRate = duplicationRate;
+        this.reorderRate = reorderRate;
+        this.reorderDelay = reorderDelay;
+        this.resetRate = resetRate;
+    }
+
+    public static FaultProfile valueOf(String name) {
+        switch (name) {
+            case "IDEAL":
+                return IDEAL;
+            case "LOSSY":
+                return LOSSY;
+            case "SLOW":
+                return SLOW;
+            case "REORDERING":
+                return REORDERING;
+            case "HOSTILE":
+                return HOSTILE;
+            default:
+                throw new IllegalArgumentException(name);
+        }
+    }
+
+    public double getLossRate() {
+        return lossRate;
+    }
+
+    public long getMinLatency() {
+        return minLatency;
+    }
+
+    public long getMaxLatency() {
+        return maxLatency;
+    }
+
+    public double getDuplicationRate() {
+        return duplicationRate;
+    }
+
+    public double getReorderRate() {
+        return reorderRate;
+    }
+
+    public long getReorderDelay() {
+        return reorderDelay;
+    }
+
+    public double getResetRate() {
+        return resetRate;
+    }
+
+    @Override
+    public String toString() {
+        return "FaultProfile{" + "lossRate=" + lossRate + ", minLatency=" + minLatency + ", maxLatency=" + maxLatency
+                + ", duplicationRate=" + duplicationRate + ", reorderRate=" + reorderRate + ", reorderDelay=" + reorderDelay
+                + ", resetRate=" + resetRate + '}';
+    }
+}
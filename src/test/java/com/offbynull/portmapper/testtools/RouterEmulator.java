@@ -0,0 +1,954 @@
+package com.offbynull.portmapper.testtools;
+
+import com.offbynull.portmapper.helpers.NetworkUtils;
+import com.offbynull.portmapper.mappers.natpmp.externalmessages.ExternalAddressNatPmpRequest;
+import com.offbynull.portmapper.mappers.natpmp.externalmessages.ExternalAddressNatPmpResponse;
+import com.offbynull.portmapper.mappers.natpmp.externalmessages.MappingNatPmpRequest;
+import com.offbynull.portmapper.mappers.natpmp.externalmessages.TcpMappingNatPmpRequest;
+import com.offbynull.portmapper.mappers.natpmp.externalmessages.TcpMappingNatPmpResponse;
+import com.offbynull.portmapper.mappers.natpmp.externalmessages.UdpMappingNatPmpRequest;
+import com.offbynull.portmapper.mappers.natpmp.externalmessages.UdpMappingNatPmpResponse;
+import com.offbynull.portmapper.mappers.pcp.externalmessages.AnnouncePcpRequest;
+import com.offbynull.portmapper.mappers.pcp.externalmessages.AnnouncePcpResponse;
+import com.offbynull.portmapper.mappers.pcp.externalmessages.MapPcpRequest;
+import com.offbynull.portmapper.mappers.pcp.externalmessages.MapPcpResponse;
+import com.offbynull.portmapper.mappers.pcp.externalmessages.PeerPcpRequest;
+import com.offbynull.portmapper.mappers.pcp.externalmessages.PeerPcpResponse;
+import com.offbynull.portmapper.testtools.EmulatedMappingTable.Entry;
+import com.offbynull.portmapper.testtools.EmulatedMappingTable.Result;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.apache.commons.lang3.StringEscapeUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.Validate;
+
+// A stateful, in-process gateway that speaks the server side of NAT-PMP, PCP (MAP/PEER/ANNOUNCE) and UPnP-IGD (SSDP, root XML, SCPD,
+// SOAP port mapping actions), all backed by the same mapping table. Unlike UdpServerEmulator/TcpServerEmulator it doesn't replay canned
+// bytes and doesn't sleep unless latency is configured -- it's meant to be hammered by the real mappers for load/performance testing.
+//
+// NAT-PMP and PCP share one UDP socket (the mappers always target port 5351, so bind that if they need to find it), dispatched on the
+// version byte. SSDP and HTTP bind ephemeral ports on the same address. Latency, loss and capacity can be changed while running.
+public final class RouterEmulator implements Closeable {
+
+    public static final String DEVICE_TYPE = "urn:schemas-upnp-org:device:InternetGatewayDevice:1";
+    public static final String OLD_SERVICE_TYPE = "urn:schemas-upnp-org:service:WANIPConnection:1";
+    public static final String NEW_SERVICE_TYPE = "urn:schemas-upnp-org:service:WANIPConnection:2";
+    public static final String SERVER_NAME = "RouterEmulator/1.0 UPnP/1.1";
+
+    private static final String ROOT_PATH = "/rootDesc.xml";
+    private static final String OLD_SCPD_PATH = "/WANIPCn1.xml";
+    private static final String NEW_SCPD_PATH = "/WANIPCn2.xml";
+    private static final String OLD_CONTROL_PATH = "/ctl/IPConn1";
+    private static final String NEW_CONTROL_PATH = "/ctl/IPConn2";
+
+    private static final int TCP = 6;
+    private static final int UDP = 17;
+    private static final long ERROR_LIFETIME = 30L;
+    private static final int MAX_UDP_SIZE = 1100; // max PCP message size, NAT-PMP and SSDP probes are smaller than this
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
+    private static final Pattern SOAP_ARGUMENT_PATTERN = Pattern.compile("<(New[A-Za-z]+)>([^<]*)</\\1>");
+
+    private final InetAddress bindAddress;
+    private volatile InetAddress externalAddress;
+    private final EmulatedMappingTable table;
+    private final DatagramSocket pcpSocket;
+    private final DatagramSocket ssdpSocket;
+    private final ServerSocket httpSocket;
+    private final ScheduledExecutorService replyExecutor; // delays UDP replies without holding up the receive loops
+    private final ExecutorService httpExecutor;
+    private final List<Thread> loopThreads;
+    private final AtomicLong requestCount;
+    private final AtomicLong descriptionRequestCount;
+
+    private volatile long latency;
+    private volatile double lossRate;
+    private volatile long maxLifetime;
+    private volatile long epochStartTime;
+    private volatile long bootId;
+    private volatile long configId;
+    private volatile boolean natPmpEnabled;
+    private volatile boolean pcpEnabled;
+    private volatile boolean versionErrorsEnabled;
+    private volatile boolean upnpIgdEnabled;
+    private volatile byte[] replyNonce;
+
+    private RouterEmulator(InetAddress bindAddress, int pcpPort, InetAddress externalAddress) throws IOException {
+        this.bindAddress = bindAddress;
+        this.externalAddress = externalAddress;
+        this.table = new EmulatedMappingTable(1024, 65535, 65536);
+        this.requestCount = new AtomicLong();
+        this.descriptionRequestCount = new AtomicLong();
+        this.bootId = 1L;
+        this.configId = 1L;
+        this.maxLifetime = 86400L;
+        this.natPmpEnabled = true;
+        this.pcpEnabled = true;
+        this.upnpIgdEnabled = true;
+        this.epochStartTime = System.nanoTime();
+
+        DatagramSocket pcp = null;
+        DatagramSocket ssdp = null;
+        ServerSocket http = null;
+        try {
+            pcp = new DatagramSocket(new InetSocketAddress(bindAddress, pcpPort));
+            ssdp = new DatagramSocket(new InetSocketAddress(bindAddress, 0));
+            http = new ServerSocket(0, 512, bindAddress);
+        } catch (IOException ioe) {
+            closeQuietly(pcp);
+            closeQuietly(ssdp);
+            closeQuietly(http);
+            throw ioe;
+        }
+        this.pcpSocket = pcp;
+        this.ssdpSocket = ssdp;
+        this.httpSocket = http;
+
+        this.replyExecutor = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("RouterEmulator Reply"));
+        this.httpExecutor = Executors.newCachedThreadPool(new DaemonThreadFactory("RouterEmulator HTTP"));
+        this.loopThreads = new ArrayList<>(3);
+    }
+
+    public static RouterEmulator create(InetAddress bindAddress, int pcpPort, InetAddress externalAddress) throws IOException {
+        Validate.notNull(bindAddress);
+        Validate.notNull(externalAddress);
+        Validate.inclusiveBetween(0, 65535, pcpPort);
+
+        final RouterEmulator emulator = new RouterEmulator(bindAddress, pcpPort, externalAddress);
+
+        emulator.loopThreads.add(startDaemon("RouterEmulator PCP/NAT-PMP", new Runnable() {
+            @Override
+            public void run() {
+                emulator.runPcpLoop();
+            }
+        }));
+        emulator.loopThreads.add(startDaemon("RouterEmulator SSDP", new Runnable() {
+            @Override
+            public void run() {
+                emulator.runSsdpLoop();
+            }
+        }));
+        emulator.loopThreads.add(startDaemon("RouterEmulator HTTP Accept", new Runnable() {
+            @Override
+            public void run() {
+                emulator.runHttpAcceptLoop();
+            }
+        }));
+
+        return emulator;
+    }
+
+    // delay added before every reply (UDP and HTTP)
+    public void setLatency(long latency, TimeUnit unit) {
+        Validate.isTrue(latency >= 0L);
+        Validate.notNull(unit);
+        this.latency = unit.toMillis(latency);
+    }
+
+    // chance [0,1] that an incoming request is silently dropped (for HTTP the connection is closed without a response)
+    public void setLossRate(double lossRate) {
+        Validate.inclusiveBetween(0.0, 1.0, lossRate);
+        this.lossRate = lossRate;
+    }
+
+    // maximum number of live mappings, shared across all protocols
+    public void setCapacity(int capacity) {
+        table.setCapacity(capacity);
+    }
+
+    // NAT-PMP/PCP lifetimes are clamped to this many seconds
+    public void setMaxLifetime(long maxLifetime) {
+        Validate.inclusiveBetween(1L, 0xFFFFFFFFL, maxLifetime);
+        this.maxLifetime = maxLifetime;
+    }
+
+    // a disabled protocol ignores its requests, as a gateway that doesn't speak it would (for UPnP-IGD, SSDP searches go unanswered)
+    public void setNatPmpEnabled(boolean natPmpEnabled) {
+        this.natPmpEnabled = natPmpEnabled;
+    }
+
+    public void setPcpEnabled(boolean pcpEnabled) {
+        this.pcpEnabled = pcpEnabled;
+    }
+
+    // when enabled, a PCP request that arrives while only NAT-PMP is enabled gets NAT-PMP's "unsupported version" error back (RFC 6886
+    // section 3.5) instead of being ignored
+    public void setVersionErrorsEnabled(boolean versionErrorsEnabled) {
+        this.versionErrorsEnabled = versionErrorsEnabled;
+    }
+
+    public void setUpnpIgdEnabled(boolean upnpIgdEnabled) {
+        this.upnpIgdEnabled = upnpIgdEnabled;
+    }
+
+    // moves the epoch as if the gateway has been up for this many seconds
+    public void setEpoch(long seconds) {
+        Validate.inclusiveBetween(0L, 0xFFFFFFFFL, seconds);
+        epochStartTime = System.nanoTime() - TimeUnit.SECONDS.toNanos(seconds);
+    }
+
+    // simulates a reboot -- all mappings are lost, the epoch starts again from 0 and the UPnP boot ID is bumped
+    public void reboot() {
+        table.clear();
+        epochStartTime = System.nanoTime();
+        bootId++;
+    }
+
+    // when set, PCP MAP responses carry this nonce instead of the request's, as if the reply was meant for some other mapping (null to
+    // go back to echoing the request's nonce)
+    public void setReplyNonce(byte[] replyNonce) {
+        Validate.isTrue(replyNonce == null || replyNonce.length == 12);
+        this.replyNonce = replyNonce == null ? null : replyNonce.clone();
+    }
+
+    // UPnP CONFIGID.UPNP.ORG sent with SSDP responses -- a real device changes this when its descriptions change
+    public void setConfigId(long configId) {
+        this.configId = configId;
+    }
+
+    // sends unsolicited PCP ANNOUNCE and NAT-PMP external address messages, as a gateway does after it reboots
+    public void announce(InetSocketAddress destination) throws IOException {
+        Validate.notNull(destination);
+        long epoch = getEpoch();
+        byte[] pcpData = new AnnouncePcpResponse(0, epoch).dump();
+        byte[] natPmpData = new ExternalAddressNatPmpResponse(0, epoch, externalAddress).dump();
+        pcpSocket.send(new DatagramPacket(pcpData, pcpData.length, destination));
+        pcpSocket.send(new DatagramPacket(natPmpData, natPmpData.length, destination));
+    }
+
+    public InetSocketAddress getPcpAddress() {
+        return (InetSocketAddress) pcpSocket.getLocalSocketAddress();
+    }
+
+    public InetSocketAddress getSsdpAddress() {
+        return (InetSocketAddress) ssdpSocket.getLocalSocketAddress();
+    }
+
+    public URL getRootUrl() {
+        return createUrl(ROOT_PATH);
+    }
+
+    public URL getControlUrl(boolean newServiceType) {
+        return createUrl(newServiceType ? NEW_CONTROL_PATH : OLD_CONTROL_PATH);
+    }
+
+    public InetAddress getExternalAddress() {
+        return externalAddress;
+    }
+
+    // simulates the ISP handing the gateway a different external address
+    public void setExternalAddress(InetAddress externalAddress) {
+        Validate.notNull(externalAddress);
+        this.externalAddress = externalAddress;
+    }
+
+    public int getMappingCount() {
+        return table.size();
+    }
+
+    public Entry getMapping(int protocol, int externalPort) {
+        return table.findExternal(protocol, externalPort);
+    }
+
+    // number of requests handled (all protocols), dropped requests aren't counted
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    // number of root/service description (HTTP GET) requests handled
+    public long getDescriptionRequestCount() {
+        return descriptionRequestCount.get();
+    }
+
+    @Override
+    public void close() throws IOException {
+        closeQuietly(pcpSocket);
+        closeQuietly(ssdpSocket);
+        closeQuietly(httpSocket);
+        replyExecutor.shutdownNow();
+        httpExecutor.shutdownNow();
+
+        // a socket that's closed while another thread is blocked on it only releases its port once that thread wakes up, so wait for the
+        // loops to exit -- otherwise a new emulator created right after this one may fail to bind
+        try {
+            for (Thread loopThread : loopThreads) {
+                loopThread.join(5000L);
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+
+    private void runPcpLoop() {
+        try {
+            byte[] buffer = new byte[MAX_UDP_SIZE];
+            while (true) {
+                DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+                pcpSocket.receive(packet);
+                if (shouldDrop()) {
+                    continue;
+                }
+
+                byte[] data = Arrays.copyOf(buffer, packet.getLength());
+                byte[] reply;
+                try {
+                    if (data.length < 2) {
+                        continue;
+                    }
+                    switch (data[0]) {
+                        case 0:
+                            reply = natPmpEnabled ? handleNatPmp(data, packet.getAddress()) : null;
+                            break;
+                        case 2:
+                            if (pcpEnabled) {
+                                reply = handlePcp(data, packet.getAddress());
+                            } else if (natPmpEnabled && versionErrorsEnabled) {
+                                reply = createNatPmpUnsupportedVersionResponse(data);
+                            } else {
+                                reply = null;
+                            }
+                            break;
+                        default:
+                            reply = null;
+                            break;
+                    }
+                } catch (RuntimeException re) {
+                    reply = null; // malformed -- real gateways just ignore these
+                }
+
+                if (reply != null) {
+                    requestCount.incrementAndGet();
+                    sendDelayed(pcpSocket, new DatagramPacket(reply, reply.length, packet.getSocketAddress()));
+                }
+            }
+        } catch (IOException ioe) {
+            // socket closed, do nothing
+        }
+    }
+
+    private byte[] handleNatPmp(byte[] data, InetAddress sourceAddress) {
+        long epoch = getEpoch();
+        int op = data[1] & 0xFF;
+        switch (op) {
+            case 0: {
+                new ExternalAddressNatPmpRequest(data); // validates
+                return new ExternalAddressNatPmpResponse(0, epoch, externalAddress).dump();
+            }
+            case 1:
+                return handleNatPmpMapping(UDP, new UdpMappingNatPmpRequest(data), sourceAddress, epoch);
+            case 2:
+                return handleNatPmpMapping(TCP, new TcpMappingNatPmpRequest(data), sourceAddress, epoch);
+            default:
+                return null;
+        }
+    }
+
+    private byte[] createNatPmpUnsupportedVersionResponse(byte[] data) {
+        long epoch = getEpoch();
+        return new byte[] {
+            0, (byte) (0x80 | (data[1] & 0x7F)), // version, response opcode
+            0, 1, // result code: unsupported version
+            (byte) (epoch >>> 24), (byte) (epoch >>> 16), (byte) (epoch >>> 8), (byte) epoch
+        };
+    }
+
+    private byte[] handleNatPmpMapping(int protocol, MappingNatPmpRequest req, InetAddress sourceAddress, long epoch) {
+        int internalPort = req.getInternalPort();
+
+        if (req.getLifetime() == 0L) {
+            table.unmapInternal(protocol, sourceAddress, internalPort, null);
+            return createNatPmpMappingResponse(protocol, 0, epoch, internalPort, 0, 0L);
+        }
+
+        long lifetime = Math.min(req.getLifetime(), maxLifetime);
+        Result result = table.map(protocol, sourceAddress, internalPort, req.getSuggestedExternalPort(), true, null, lifetime);
+        switch (result.getOutcome()) {
+            case SUCCESS:
+                return createNatPmpMappingResponse(protocol, 0, epoch, internalPort, result.getEntry().getExternalPort(), lifetime);
+            case NO_RESOURCES:
+                return createNatPmpMappingResponse(protocol, 4, epoch, internalPort, 0, 0L); // OUT_OF_RESOURCES
+            default:
+                return createNatPmpMappingResponse(protocol, 2, epoch, internalPort, 0, 0L); // NOT_AUTHORIZED
+        }
+    }
+
+    private static byte[] createNatPmpMappingResponse(int protocol, int resultCode, long epoch, int internalPort, int externalPort,
+            long lifetime) {
+        if (protocol == TCP) {
+            return new TcpMappingNatPmpResponse(resultCode, epoch, internalPort, externalPort, lifetime).dump();
+        } else {
+            return new UdpMappingNatPmpResponse(resultCode, epoch, internalPort, externalPort, lifetime).dump();
+        }
+    }
+
+    private byte[] handlePcp(byte[] data, InetAddress sourceAddress) {
+        long epoch = getEpoch();
+        int op = data[1] & 0x7F;
+        switch (op) {
+            case 0: {
+                new AnnouncePcpRequest(data); // validates
+                return new AnnouncePcpResponse(0, epoch).dump();
+            }
+            case 1: {
+                MapPcpRequest req = new MapPcpRequest(data);
+                byte[] nonce = replyNonce != null ? replyNonce : req.getMappingNonce();
+                int resultCode = checkPcpAddress(req.getInternalIp(), sourceAddress);
+                Entry entry = null;
+                long lifetime = 0L;
+                if (resultCode == 0) {
+                    lifetime = Math.min(req.getLifetime(), maxLifetime);
+                    if (lifetime == 0L) {
+                        entry = table.unmapInternal(req.getProtocol(), sourceAddress, req.getInternalPort(), req.getMappingNonce());
+                    } else {
+                        Result result = table.map(req.getProtocol(), sourceAddress, req.getInternalPort(),
+                                req.getSuggestedExternalPort(), true, req.getMappingNonce(), lifetime);
+                        resultCode = toPcpResultCode(result);
+                        entry = result.getEntry();
+                    }
+                }
+                if (resultCode != 0) {
+                    return new MapPcpResponse(nonce, req.getProtocol(), req.getInternalPort(), 0, NetworkUtils.ZERO_IPV6, resultCode,
+                            ERROR_LIFETIME, epoch).dump();
+                }
+                int externalPort = entry != null ? entry.getExternalPort() : Math.max(1, req.getInternalPort()); // unmap of nothing
+                return new MapPcpResponse(nonce, req.getProtocol(), req.getInternalPort(), externalPort, externalAddress, 0, lifetime,
+                        epoch).dump();
+            }
+            case 2: {
+                PeerPcpRequest req = new PeerPcpRequest(data);
+                int resultCode = checkPcpAddress(req.getInternalIp(), sourceAddress);
+                Entry entry = null;
+                long lifetime = 0L;
+                if (resultCode == 0) {
+                    lifetime = Math.min(req.getLifetime(), maxLifetime);
+                    Result result = table.map(req.getProtocol(), sourceAddress, req.getInternalPort(), req.getSuggestedExternalPort(),
+                            true, req.getMappingNonce(), Math.max(1L, lifetime));
+                    resultCode = toPcpResultCode(result);
+                    entry = result.getEntry();
+                }
+                if (resultCode != 0) {
+                    return new PeerPcpResponse(req.getMappingNonce(), req.getProtocol(), req.getInternalPort(), 0, NetworkUtils.ZERO_IPV6,
+                            req.getRemotePeerPort(), req.getRemotePeerIpAddress(), resultCode, ERROR_LIFETIME, epoch).dump();
+                }
+                return new PeerPcpResponse(req.getMappingNonce(), req.getProtocol(), req.getInternalPort(), entry.getExternalPort(),
+                        externalAddress, req.getRemotePeerPort(), req.getRemotePeerIpAddress(), 0, lifetime, epoch).dump();
+            }
+            default:
+                return null;
+        }
+    }
+
+    private static int checkPcpAddress(InetAddress requestAddress, InetAddress sourceAddress) {
+        byte[] requestBytes = NetworkUtils.convertAddressToIpv6Bytes(requestAddress);
+        byte[] sourceBytes = NetworkUtils.convertAddressToIpv6Bytes(sourceAddress);
+        return Arrays.equals(requestBytes, sourceBytes) ? 0 : 12; // ADDRESS_MISMATCH
+    }
+
+    private static int toPcpResultCode(Result result) {
+        switch (result.getOutcome()) {
+            case SUCCESS:
+                return 0;
+            case NOT_AUTHORIZED:
+                return 2; // NOT_AUTHORIZED
+            case NO_RESOURCES:
+                return 8; // NO_RESOURCES
+            default:
+                return 11; // CANNOT_PROVIDE_EXTERNAL
+        }
+    }
+
+
+
+    private void runSsdpLoop() {
+        try {
+            byte[] buffer = new byte[MAX_UDP_SIZE];
+            while (true) {
+                DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+                ssdpSocket.receive(packet);
+                if (!upnpIgdEnabled || shouldDrop()) {
+                    continue;
+                }
+
+                String request = new String(buffer, 0, packet.getLength(), US_ASCII);
+                if (!StringUtils.startsWithIgnoreCase(request, "M-SEARCH")) {
+                    continue;
+                }
+                String searchTarget = StringUtils.trimToEmpty(parseHeaders(request).get("st"));
+                String responseTarget;
+                if (searchTarget.equalsIgnoreCase("ssdp:all") || searchTarget.equalsIgnoreCase("upnp:rootdevice")) {
+                    responseTarget = DEVICE_TYPE;
+                } else if (searchTarget.equalsIgnoreCase(DEVICE_TYPE) || searchTarget.equalsIgnoreCase(OLD_SERVICE_TYPE)
+                        || searchTarget.equalsIgnoreCase(NEW_SERVICE_TYPE)) {
+                    responseTarget = searchTarget;
+                } else {
+                    continue;
+                }
+
+                String response = "HTTP/1.1 200 OK\r\n"
+                        + "CACHE-CONTROL: max-age=120\r\n"
+                        + "ST: " + responseTarget + "\r\n"
+                        + "USN: uuid:00000000-0000-0000-0000-000000000000::" + responseTarget + "\r\n"
+                        + "EXT:\r\n"
+                        + "SERVER: " + SERVER_NAME + "\r\n"
+                        + "LOCATION: " + getRootUrl() + "\r\n"
+                        + "BOOTID.UPNP.ORG: " + bootId + "\r\n"
+                        + "CONFIGID.UPNP.ORG: " + configId + "\r\n"
+                        + "\r\n";
+                byte[] reply = response.getBytes(US_ASCII);
+                requestCount.incrementAndGet();
+                sendDelayed(ssdpSocket, new DatagramPacket(reply, reply.length, packet.getSocketAddress()));
+            }
+        } catch (IOException ioe) {
+            // socket closed, do nothing
+        }
+    }
+
+
+
+    private void runHttpAcceptLoop() {
+        try {
+            while (true) {
+                final Socket socket = httpSocket.accept();
+                httpExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        handleHttpConnection(socket);
+                    }
+                });
+            }
+        } catch (IOException ioe) {
+            // socket closed, do nothing
+        }
+    }
+
+    private void handleHttpConnection(Socket socket) {
+        try (Socket s = socket) {
+            s.setSoTimeout(10000);
+            InputStream is = new BufferedInputStream(s.getInputStream());
+
+            // read header
+            ByteArrayOutputStream headerOs = new ByteArrayOutputStream();
+            int lastFour = 0;
+            while (lastFour != 0x0D0A0D0A) { // \r\n\r\n
+                int b = is.read();
+                if (b == -1) {
+                    return;
+                }
+                headerOs.write(b);
+                lastFour = (lastFour << 8) | b;
+            }
+            String header = new String(headerOs.toByteArray(), US_ASCII);
+            Map<String, String> headers = parseHeaders(header);
+
+            // read content
+            int contentLength = Integer.parseInt(StringUtils.defaultIfBlank(headers.get("content-length"), "0").trim());
+            byte[] content = new byte[contentLength];
+            int read = 0;
+            while (read < contentLength) {
+                int count = is.read(content, read, contentLength - read);
+                if (count == -1) {
+                    return;
+                }
+                read += count;
+            }
+
+            if (shouldDrop()) {
+                return;
+            }
+            long delay = latency;
+            if (delay > 0L) {
+                Thread.sleep(delay);
+            }
+
+            String[] requestLine = StringUtils.split(StringUtils.substringBefore(header, "\r\n"), ' ');
+            Validate.isTrue(requestLine.length >= 2);
+            String response = handleHttpRequest(requestLine[0], requestLine[1], headers, new String(content, US_ASCII));
+            requestCount.incrementAndGet();
+
+            OutputStream os = s.getOutputStream();
+            os.write(response.getBytes(US_ASCII));
+            os.flush();
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            // bad request or connection problem -- drop the connection
+        }
+    }
+
+    private String handleHttpRequest(String method, String path, Map<String, String> headers, String content) {
+        if (method.equalsIgnoreCase("GET")) {
+            descriptionRequestCount.incrementAndGet();
+            switch (path) {
+                case ROOT_PATH:
+                    return createHttpResponse("200 OK", createRootXml());
+                case OLD_SCPD_PATH:
+                    return createHttpResponse("200 OK", createScpdXml(false));
+                case NEW_SCPD_PATH:
+                    return createHttpResponse("200 OK", createScpdXml(true));
+                default:
+                    return createHttpResponse("404 Not Found", "");
+            }
+        } else if (method.equalsIgnoreCase("POST")) {
+            String serviceType;
+            switch (path) {
+                case OLD_CONTROL_PATH:
+                    serviceType = OLD_SERVICE_TYPE;
+                    break;
+                case NEW_CONTROL_PATH:
+                    serviceType = NEW_SERVICE_TYPE;
+                    break;
+                default:
+                    return createHttpResponse("404 Not Found", "");
+            }
+            String soapAction = StringUtils.strip(StringUtils.trimToEmpty(headers.get("soapaction")), "\"");
+            String action = StringUtils.substringAfterLast(soapAction, "#");
+            return handleSoapAction(serviceType, action, parseSoapArguments(content));
+        } else {
+            return createHttpResponse("405 Method Not Allowed", "");
+        }
+    }
+
+    private String handleSoapAction(String serviceType, String action, Map<String, String> args) {
+        try {
+            switch (action) {
+                case "GetExternalIPAddress": {
+                    Map<String, String> out = new LinkedHashMap<>();
+                    out.put("NewExternalIPAddress", externalAddress.getHostAddress());
+                    return createSoapResponse(serviceType, action, out);
+                }
+                case "AddPortMapping":
+                case "AddAnyPortMapping": {
+                    boolean any = action.equals("AddAnyPortMapping");
+                    if (any && !serviceType.equals(NEW_SERVICE_TYPE)) {
+                        return createSoapFault(401, "Invalid Action");
+                    }
+                    int protocol = toProtocol(args.get("NewProtocol"));
+                    int externalPort = Integer.parseInt(args.get("NewExternalPort"));
+                    int internalPort = Integer.parseInt(args.get("NewInternalPort"));
+                    InetAddress internalClient = InetAddress.getByName(args.get("NewInternalClient"));
+                    long leaseDuration = Long.parseLong(args.get("NewLeaseDuration"));
+                    if (!any && externalPort == 0) {
+                        return createSoapFault(716, "WildCardNotPermittedInExtPort");
+                    }
+
+                    Result result = table.map(protocol, internalClient, internalPort, externalPort, any, null, leaseDuration);
+                    switch (result.getOutcome()) {
+                        case SUCCESS: {
+                            Map<String, String> out = new LinkedHashMap<>();
+                            if (any) {
+                                out.put("NewReservedPort", String.valueOf(result.getEntry().getExternalPort()));
+                            }
+                            return createSoapResponse(serviceType, action, out);
+                        }
+                        case NO_RESOURCES:
+                            return createSoapFault(728, "NoPortMapsAvailable");
+                        default:
+                            return createSoapFault(718, "ConflictInMappingEntry");
+                    }
+                }
+                case "DeletePortMapping": {
+                    int protocol = toProtocol(args.get("NewProtocol"));
+                    int externalPort = Integer.parseInt(args.get("NewExternalPort"));
+                    if (table.unmapExternal(protocol, externalPort) == null) {
+                        return createSoapFault(714, "NoSuchEntryInArray");
+                    }
+                    return createSoapResponse(serviceType, action, new LinkedHashMap<String, String>());
+                }
+                case "GetSpecificPortMappingEntry": {
+                    int protocol = toProtocol(args.get("NewProtocol"));
+                    int externalPort = Integer.parseInt(args.get("NewExternalPort"));
+                    Entry entry = table.findExternal(protocol, externalPort);
+                    if (entry == null) {
+                        return createSoapFault(714, "NoSuchEntryInArray");
+                    }
+                    Map<String, String> out = new LinkedHashMap<>();
+                    out.put("NewInternalPort", String.valueOf(entry.getInternalPort()));
+                    out.put("NewInternalClient", entry.getInternalAddress().getHostAddress());
+                    out.put("NewEnabled", "1");
+                    out.put("NewPortMappingDescription", "");
+                    out.put("NewLeaseDuration", String.valueOf(entry.getRemainingLifetime()));
+                    return createSoapResponse(serviceType, action, out);
+                }
+                default:
+                    return createSoapFault(401, "Invalid Action");
+            }
+        } catch (IOException | RuntimeException e) {
+            return createSoapFault(402, "Invalid Args");
+        }
+    }
+
+    private static int toProtocol(String protocol) {
+        if ("TCP".equalsIgnoreCase(protocol)) {
+            return TCP;
+        } else if ("UDP".equalsIgnoreCase(protocol)) {
+            return UDP;
+        }
+        throw new IllegalArgumentException();
+    }
+
+    private static Map<String, String> parseSoapArguments(String content) {
+        Map<String, String> ret = new HashMap<>();
+        Matcher matcher = SOAP_ARGUMENT_PATTERN.matcher(content);
+        while (matcher.find()) {
+            ret.put(matcher.group(1), StringEscapeUtils.unescapeXml(matcher.group(2)).trim());
+        }
+        return ret;
+    }
+
+    private static Map<String, String> parseHeaders(String header) {
+        Map<String, String> ret = new HashMap<>();
+        for (String line : StringUtils.split(header, "\r\n")) {
+            int idx = line.indexOf(':');
+            if (idx != -1) {
+                ret.put(line.substring(0, idx).trim().toLowerCase(), line.substring(idx + 1).trim());
+            }
+        }
+        return ret;
+    }
+
+    private static String createHttpResponse(String status, String content) {
+        return "HTTP/1.1 " + status + "\r\n"
+                + "Content-Type: text/xml; charset=\"utf-8\"\r\n"
+                + "Connection: close\r\n"
+                + "Server: " + SERVER_NAME + "\r\n"
+                + "Content-Length: " + content.getBytes(US_ASCII).length + "\r\n"
+                + "\r\n"
+                + content;
+    }
+
+    private static String createSoapResponse(String serviceType, String action, Map<String, String> args) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("<?xml version=\"1.0\"?>\r\n");
+        sb.append("<s:Envelope xmlns:s=\"http://schemas.xmlsoap.org/soap/envelope/\" ")
+                .append("s:encodingStyle=\"http://schemas.xmlsoap.org/soap/encoding/\">");
+        sb.append("<s:Body>");
+        sb.append("<u:").append(action).append("Response xmlns:u=\"").append(serviceType).append("\">");
+        for (Map.Entry<String, String> arg : args.entrySet()) {
+            sb.append('<').append(arg.getKey()).append('>')
+                    .append(StringEscapeUtils.escapeXml10(arg.getValue()))
+                    .append("</").append(arg.getKey()).append('>');
+        }
+        sb.append("</u:").append(action).append("Response>");
+        sb.append("</s:Body>");
+        sb.append("</s:Envelope>\r\n");
+        return createHttpResponse("200 OK", sb.toString());
+    }
+
+    private static String createSoapFault(int errorCode, String errorDescription) {
+        String content = "<?xml version=\"1.0\"?>\r\n"
+                + "<s:Envelope xmlns:s=\"http://schemas.xmlsoap.org/soap/envelope/\" "
+                + "s:encodingStyle=\"http://schemas.xmlsoap.org/soap/encoding/\">"
+                + "<s:Body><s:Fault>"
+                + "<faultcode>s:Client</faultcode><faultstring>UPnPError</faultstring>"
+                + "<detail><UPnPError xmlns=\"urn:schemas-upnp-org:control-1-0\">"
+                + "<errorCode>" + errorCode + "</errorCode><errorDescription>" + errorDescription + "</errorDescription>"
+                + "</UPnPError></detail>"
+                + "</s:Fault></s:Body>"
+                + "</s:Envelope>\r\n";
+        return createHttpResponse("500 Internal Server Error", content);
+    }
+
+    private static String createRootXml() {
+        return "<?xml version=\"1.0\"?>\r\n"
+                + "<root xmlns=\"urn:schemas-upnp-org:device-1-0\">"
+                + "<specVersion><major>1</major><minor>1</minor></specVersion>"
+                + "<device>"
+                + "<deviceType>" + DEVICE_TYPE + "</deviceType>"
+                + "<friendlyName>RouterEmulator</friendlyName>"
+                + "<UDN>uuid:00000000-0000-0000-0000-000000000000</UDN>"
+                + "<deviceList><device>"
+                + "<deviceType>urn:schemas-upnp-org:device:WANDevice:1</deviceType>"
+                + "<UDN>uuid:00000000-0000-0000-0000-000000000001</UDN>"
+                + "<deviceList><device>"
+                + "<deviceType>urn:schemas-upnp-org:device:WANConnectionDevice:1</deviceType>"
+                + "<UDN>uuid:00000000-0000-0000-0000-000000000002</UDN>"
+                + "<serviceList>"
+                + "<service>"
+                + "<serviceType>" + OLD_SERVICE_TYPE + "</serviceType>"
+                + "<serviceId>urn:upnp-org:serviceId:WANIPConn1</serviceId>"
+                + "<SCPDURL>" + OLD_SCPD_PATH + "</SCPDURL>"
+                + "<controlURL>" + OLD_CONTROL_PATH + "</controlURL>"
+                + "<eventSubURL>/evt/IPConn1</eventSubURL>"
+                + "</service>"
+                + "<service>"
+                + "<serviceType>" + NEW_SERVICE_TYPE + "</serviceType>"
+                + "<serviceId>urn:upnp-org:serviceId:WANIPConn2</serviceId>"
+                + "<SCPDURL>" + NEW_SCPD_PATH + "</SCPDURL>"
+                + "<controlURL>" + NEW_CONTROL_PATH + "</controlURL>"
+                + "<eventSubURL>/evt/IPConn2</eventSubURL>"
+                + "</service>"
+                + "</serviceList>"
+                + "</device></deviceList>"
+                + "</device></deviceList>"
+                + "</device>"
+                + "</root>\r\n";
+    }
+
+    private static String createScpdXml(boolean includeAddAny) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("<?xml version=\"1.0\"?>\r\n");
+        sb.append("<scpd xmlns=\"urn:schemas-upnp-org:service-1-0\">");
+        sb.append("<specVersion><major>1</major><minor>0</minor></specVersion>");
+        sb.append("<actionList>");
+        appendAction(sb, "GetExternalIPAddress",
+                "NewExternalIPAddress", "out", "ExternalIPAddress");
+        appendAction(sb, "GetSpecificPortMappingEntry",
+                "NewRemoteHost", "in", "RemoteHost",
+                "NewExternalPort", "in", "ExternalPort",
+                "NewProtocol", "in", "PortMappingProtocol",
+                "NewInternalPort", "out", "InternalPort",
+                "NewInternalClient", "out", "InternalClient",
+                "NewEnabled", "out", "PortMappingEnabled",
+                "NewPortMappingDescription", "out", "PortMappingDescription",
+                "NewLeaseDuration", "out", "PortMappingLeaseDuration");
+        appendAction(sb, "DeletePortMapping",
+                "NewRemoteHost", "in", "RemoteHost",
+                "NewExternalPort", "in", "ExternalPort",
+                "NewProtocol", "in", "PortMappingProtocol");
+        appendAction(sb, "AddPortMapping",
+                "NewRemoteHost", "in", "RemoteHost",
+                "NewExternalPort", "in", "ExternalPort",
+                "NewProtocol", "in", "PortMappingProtocol",
+                "NewInternalPort", "in", "InternalPort",
+                "NewInternalClient", "in", "InternalClient",
+                "NewEnabled", "in", "PortMappingEnabled",
+                "NewPortMappingDescription", "in", "PortMappingDescription",
+                "NewLeaseDuration", "in", "PortMappingLeaseDuration");
+        if (includeAddAny) {
+            appendAction(sb, "AddAnyPortMapping",
+                    "NewRemoteHost", "in", "RemoteHost",
+                    "NewExternalPort", "in", "ExternalPort",
+                    "NewProtocol", "in", "PortMappingProtocol",
+                    "NewInternalPort", "in", "InternalPort",
+                    "NewInternalClient", "in", "InternalClient",
+                    "NewEnabled", "in", "PortMappingEnabled",
+                    "NewPortMappingDescription", "in", "PortMappingDescription",
+                    "NewLeaseDuration", "in", "PortMappingLeaseDuration",
+                    "NewReservedPort", "out", "ExternalPort");
+        }
+        sb.append("</actionList>");
+        sb.append("<serviceStateTable>");
+        sb.append("<stateVariable sendEvents=\"no\"><name>ExternalIPAddress</name><dataType>string</dataType></stateVariable>");
+        sb.append("<stateVariable sendEvents=\"no\"><name>RemoteHost</name><dataType>string</dataType></stateVariable>");
+        sb.append("<stateVariable sendEvents=\"no\"><name>ExternalPort</name><dataType>ui2</dataType></stateVariable>");
+        sb.append("<stateVariable sendEvents=\"no\"><name>PortMappingProtocol</name><dataType>string</dataType></stateVariable>");
+        sb.append("<stateVariable sendEvents=\"no\"><name>InternalPort</name><dataType>ui2</dataType></stateVariable>");
+        sb.append("<stateVariable sendEvents=\"no\"><name>InternalClient</name><dataType>string</dataType></stateVariable>");
+        sb.append("<stateVariable sendEvents=\"no\"><name>PortMappingEnabled</name><dataType>boolean</dataType></stateVariable>");
+        sb.append("<stateVariable sendEvents=\"no\"><name>PortMappingDescription</name><dataType>string</dataType></stateVariable>");
+        sb.append("<stateVariable sendEvents=\"no\"><name>PortMappingLeaseDuration</name><dataType>ui4</dataType>")
+                .append("<allowedValueRange><minimum>0</minimum><maximum>604800</maximum></allowedValueRange></stateVariable>");
+        sb.append("</serviceStateTable>");
+        sb.append("</scpd>\r\n");
+        return sb.toString();
+    }
+
+    private static void appendAction(StringBuilder sb, String name, String ... args) {
+        sb.append("<action><name>").append(name).append("</name><argumentList>");
+        for (int i = 0; i < args.length; i += 3) {
+            sb.append("<argument>")
+                    .append("<name>").append(args[i]).append("</name>")
+                    .append("<direction>").append(args[i + 1]).append("</direction>")
+                    .append("<relatedStateVariable>").append(args[i + 2]).append("</relatedStateVariable>")
+                    .append("</argument>");
+        }
+        sb.append("</argumentList></action>");
+    }
+
+
+
+    private URL createUrl(String path) {
+        try {
+            return new URL("http", bindAddress.getHostAddress(), httpSocket.getLocalPort(), path);
+        } catch (IOException ioe) {
+            throw new IllegalStateException(ioe); // should never happen
+        }
+    }
+
+    private long getEpoch() {
+        return TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - epochStartTime);
+    }
+
+    private boolean shouldDrop() {
+        double rate = lossRate;
+        return rate > 0.0 && ThreadLocalRandom.current().nextDouble() < rate;
+    }
+
+    private void sendDelayed(final DatagramSocket socket, final DatagramPacket packet) throws IOException {
+        long delay = latency;
+        if (delay == 0L) {
+            socket.send(packet);
+            return;
+        }
+
+        replyExecutor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    socket.send(packet);
+                } catch (IOException ioe) {
+                    // socket closed, do nothing
+                }
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private static Thread startDaemon(String name, Runnable runnable) {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException ioe) {
+            // do nothing
+        }
+    }
+
+    private static final class DaemonThreadFactory implements ThreadFactory {
+        private final String name;
+
+        DaemonThreadFactory(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, name);
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
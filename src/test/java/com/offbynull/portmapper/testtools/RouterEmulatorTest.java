@@ -0,0 +1,211 @@
+package com.offbynull.portmapper.testtools;
+
+import com.offbynull.portmapper.gateway.Bus;
+import com.offbynull.portmapper.gateways.network.NetworkGateway;
+import com.offbynull.portmapper.gateways.network.internalmessages.KillNetworkRequest;
+import com.offbynull.portmapper.mapper.MappedPort;
+import com.offbynull.portmapper.mapper.PortType;
+import com.offbynull.portmapper.mappers.natpmp.NatPmpPortMapper;
+import com.offbynull.portmapper.mappers.pcp.PcpPortMapper;
+import com.offbynull.portmapper.mappers.upnpigd.PortMapperUpnpIgdPortMapper;
+import com.offbynull.portmapper.mappers.upnpigd.externalmessages.RootUpnpIgdRequest;
+import com.offbynull.portmapper.mappers.upnpigd.externalmessages.RootUpnpIgdResponse;
+import com.offbynull.portmapper.mappers.upnpigd.externalmessages.RootUpnpIgdResponse.ServiceReference;
+import com.offbynull.portmapper.mappers.upnpigd.externalmessages.ServiceDescriptionUpnpIgdRequest;
+import com.offbynull.portmapper.mappers.upnpigd.externalmessages.ServiceDescriptionUpnpIgdResponse;
+import com.offbynull.portmapper.mappers.upnpigd.externalmessages.ServiceDescriptionUpnpIgdResponse.IdentifiedService;
+import com.offbynull.portmapper.mappers.upnpigd.externalmessages.ServiceDescriptionUpnpIgdResponse.ServiceType;
+import com.offbynull.portmapper.mappers.upnpigd.externalmessages.ServiceDiscoveryUpnpIgdRequest;
+import com.offbynull.portmapper.mappers.upnpigd.externalmessages.ServiceDiscoveryUpnpIgdRequest.ProbeDeviceType;
+import com.offbynull.portmapper.mappers.upnpigd.externalmessages.ServiceDiscoveryUpnpIgdResponse;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map.Entry;
+import java.util.Set;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public final class RouterEmulatorTest {
+
+    private InetAddress localAddress;
+    private InetAddress externalAddress;
+    private RouterEmulator emulator;
+    private NetworkGateway network;
+    private Bus networkBus;
+
+    @Before
+    public void before() throws IOException {
+        localAddress = InetAddress.getByAddress(new byte[] {127, 0, 0, 1});
+        externalAddress = InetAddress.getByAddress(new byte[] {1, 2, 3, 4});
+        emulator = RouterEmulator.create(localAddress, 5351, externalAddress); // mappers always talk to port 5351
+        network = NetworkGateway.create();
+        networkBus = network.getBus();
+    }
+
+    @After
+    public void after() throws IOException {
+        networkBus.send(new KillNetworkRequest());
+        emulator.close();
+    }
+
+    @Test
+    public void mustMapRefreshAndUnmapWithNatPmp() throws Throwable {
+        NatPmpPortMapper mapper = new NatPmpPortMapper(networkBus, localAddress, localAddress);
+
+        MappedPort tcpPort = mapper.mapPort(PortType.TCP, 12345, 12345, 3600L);
+        assertEquals(12345, tcpPort.getInternalPort());
+        assertEquals(12345, tcpPort.getExternalPort());
+        assertEquals(externalAddress, tcpPort.getExternalAddress());
+        assertEquals(3600L, tcpPort.getLifetime());
+
+        MappedPort udpPort = mapper.mapPort(PortType.UDP, 12345, 12345, 3600L);
+        assertEquals(12345, udpPort.getExternalPort());
+        assertEquals(2, emulator.getMappingCount());
+
+        tcpPort = mapper.refreshPort(tcpPort, 10000L);
+        assertEquals(12345, tcpPort.getExternalPort());
+        assertEquals(10000L, tcpPort.getLifetime());
+
+        mapper.unmapPort(tcpPort);
+        mapper.unmapPort(udpPort);
+        assertEquals(0, emulator.getMappingCount());
+    }
+
+    @Test
+    public void mustMapRefreshAndUnmapWithPcp() throws Throwable {
+        PcpPortMapper mapper = new PcpPortMapper(networkBus, localAddress, localAddress);
+
+        MappedPort tcpPort = mapper.mapPort(PortType.TCP, 12345, 12345, 3600L);
+        assertEquals(12345, tcpPort.getInternalPort());
+        assertEquals(12345, tcpPort.getExternalPort());
+        assertEquals(externalAddress, tcpPort.getExternalAddress());
+
+        MappedPort otherTcpPort = mapper.mapPort(PortType.TCP, 12346, 12345, 3600L); // external port taken, must get another one
+        assertTrue(otherTcpPort.getExternalPort() != 12345);
+        assertEquals(2, emulator.getMappingCount());
+
+        tcpPort = mapper.refreshPort(tcpPort, 10000L);
+        assertEquals(12345, tcpPort.getExternalPort());
+        assertEquals(10000L, tcpPort.getLifetime());
+
+        mapper.unmapPort(tcpPort);
+        mapper.unmapPort(otherTcpPort);
+        assertEquals(0, emulator.getMappingCount());
+    }
+
+    @Test
+    public void mustDiscoverAndMapWithUpnpIgd() throws Throwable {
+        // SSDP
+        byte[] probe = new ServiceDiscoveryUpnpIgdRequest(ProbeDeviceType.IPV4, null, 3, "ssdp:all").dump();
+        ServiceDiscoveryUpnpIgdResponse discoveryResp;
+        try (DatagramSocket socket = new DatagramSocket(0, localAddress)) {
+            socket.setSoTimeout(5000);
+            socket.send(new DatagramPacket(probe, probe.length, emulator.getSsdpAddress()));
+            DatagramPacket packet = new DatagramPacket(new byte[1100], 1100);
+            socket.receive(packet);
+            discoveryResp = new ServiceDiscoveryUpnpIgdResponse(Arrays.copyOf(packet.getData(), packet.getLength()));
+        }
+        URL location = discoveryResp.getLocation();
+        assertEquals(emulator.getRootUrl(), location);
+
+        // Root XML
+        RootUpnpIgdResponse rootResp = new RootUpnpIgdResponse(location,
+                httpExchange(location, new RootUpnpIgdRequest(location.getAuthority(), location.getFile()).dump()));
+        assertEquals(2, rootResp.getServices().size());
+
+        // SCPD + SOAP
+        Set<ServiceType> foundServiceTypes = new HashSet<>();
+        for (ServiceReference serviceRef : rootResp.getServices()) {
+            URL scpdUrl = serviceRef.getScpdUrl();
+            ServiceDescriptionUpnpIgdResponse scpdResp = new ServiceDescriptionUpnpIgdResponse(
+                    httpExchange(scpdUrl, new ServiceDescriptionUpnpIgdRequest(scpdUrl.getAuthority(), scpdUrl.getFile()).dump()));
+            assertEquals(1, scpdResp.getIdentifiedServices().size());
+
+            Entry<ServiceType, IdentifiedService> identified = scpdResp.getIdentifiedServices().entrySet().iterator().next();
+            foundServiceTypes.add(identified.getKey());
+            PortMapperUpnpIgdPortMapper mapper = new PortMapperUpnpIgdPortMapper(networkBus, localAddress, serviceRef.getControlUrl(),
+                    discoveryResp.getServer(), serviceRef.getServiceType(), identified.getValue().getExternalPortRange(),
+                    identified.getValue().getLeaseDurationRange(), identified.getKey() == ServiceType.NEW_PORT_MAPPER);
+
+            MappedPort tcpPort = mapper.mapPort(PortType.TCP, 12345, 12345, 3600L);
+            assertEquals(12345, tcpPort.getInternalPort());
+            assertEquals(12345, tcpPort.getExternalPort());
+            assertEquals(externalAddress, tcpPort.getExternalAddress());
+            assertEquals(12345, emulator.getMapping(6, 12345).getInternalPort());
+
+            tcpPort = mapper.refreshPort(tcpPort, 10000L);
+            assertEquals(12345, tcpPort.getExternalPort());
+            assertEquals(10000L, tcpPort.getLifetime());
+
+            mapper.unmapPort(tcpPort);
+            assertNull(emulator.getMapping(6, 12345));
+        }
+        assertEquals(new HashSet<>(Arrays.asList(ServiceType.OLD_PORT_MAPPER, ServiceType.NEW_PORT_MAPPER)), foundServiceTypes);
+    }
+
+    @Test
+    public void mustRefuseMappingsOverCapacity() throws Throwable {
+        emulator.setCapacity(2);
+        NatPmpPortMapper mapper = new NatPmpPortMapper(networkBus, localAddress, localAddress);
+
+        mapper.mapPort(PortType.TCP, 10000, 10000, 3600L);
+        mapper.mapPort(PortType.TCP, 10001, 10001, 3600L);
+        try {
+            mapper.mapPort(PortType.TCP, 10002, 10002, 3600L);
+            fail();
+        } catch (IllegalStateException ise) {
+            // expected
+        }
+        assertEquals(2, emulator.getMappingCount());
+    }
+
+    @Test
+    public void mustLoseMappingsOnReboot() throws Throwable {
+        PcpPortMapper mapper = new PcpPortMapper(networkBus, localAddress, localAddress);
+        mapper.mapPort(PortType.UDP, 12345, 12345, 3600L);
+        assertNotNull(emulator.getMapping(17, 12345));
+
+        emulator.reboot();
+        assertEquals(0, emulator.getMappingCount());
+    }
+
+    @Test
+    public void mustHoldTensOfThousandsOfMappings() throws Throwable {
+        EmulatedMappingTable table = new EmulatedMappingTable(1024, 65535, 100000);
+        Set<Integer> externalPorts = new HashSet<>();
+        for (int i = 0; i < 50000; i++) {
+            InetAddress internalAddress = InetAddress.getByAddress(new byte[] {10, 0, (byte) (i >> 8), (byte) i});
+            EmulatedMappingTable.Result result = table.map(6, internalAddress, 5000, 5000, true, null, 3600L);
+            assertEquals(EmulatedMappingTable.Outcome.SUCCESS, result.getOutcome());
+            externalPorts.add(result.getEntry().getExternalPort());
+        }
+        assertEquals(50000, externalPorts.size());
+        assertEquals(50000, table.size());
+    }
+
+    private static byte[] httpExchange(URL url, byte[] request) throws IOException {
+        try (Socket socket = new Socket(url.getHost(), url.getPort())) {
+            socket.setSoTimeout(5000);
+            OutputStream os = socket.getOutputStream();
+            os.write(request);
+            os.flush();
+            InputStream is = socket.getInputStream();
+            return IOUtils.toByteArray(is);
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.offbynull.portmapper.testtools;
+
+import com.offbynull.portmapper.gateway.Bus;
+import com.offbynull.portmapper.gateways.process.internalmessages.CloseProcessRequest;
+import com.offbynull.portmapper.gateways.process.internalmessages.CreateProcessRequest;
+import com.offbynull.portmapper.gateways.process.internalmessages.CreateProcessResponse;
+import com.offbynull.portmapper.gateways.process.internalmessages.ExitProcessNotification;
+import com.offbynull.portmapper.gateways.process.internalmessages.GetNextIdProcessRequest;
+import com.offbynull.portmapper.gateways.process.internalmessages.GetNextIdProcessResponse;
+import com.offbynull.portmapper.gateways.process.internalmessages.IdentifiableErrorProcessResponse;
+import com.offbynull.portmapper.gateways.process.internalmessages.ReadProcessNotification;
+import com.offbynull.portmapper.gateways.process.internalmessages.ReadType;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.Validate;
+
+// A stand-in for ProcessGateway's bus that doesn't launch anything. Each command line (executable and parameters separated by spaces, e.g.
+// "netstat -rn") is answered with canned stdout and an exit code of 0. Command lines that haven't been set up fail the same way a missing
+// executable does with ProcessGateway. Command lines set up as hanging start but never output anything or exit until they're closed.
+//
+// Everything is answered synchronously on the sender's thread.
+public final class StubProcessBus implements Bus {
+
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
+
+    private final Map<String, String> outputs;
+    private final Set<String> hangingCommandLines;
+    private final Set<Integer> closedIds;
+    private final AtomicInteger createCount;
+    private final AtomicInteger nextId;
+
+    public StubProcessBus() {
+        outputs = new ConcurrentHashMap<>();
+        hangingCommandLines = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        closedIds = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+        nextId = new AtomicInteger();
+        createCount = new AtomicInteger();
+    }
+
+    public void setOutput(String commandLine, String stdout) {
+        Validate.notNull(commandLine);
+        Validate.notNull(stdout);
+        outputs.put(commandLine, stdout);
+    }
+
+    public void setHanging(String commandLine) {
+        Validate.notNull(commandLine);
+        hangingCommandLines.add(commandLine);
+    }
+
+    public void clearOutputs() {
+        outputs.clear();
+        hangingCommandLines.clear();
+    }
+
+    public int getCreateCount() {
+        return createCount.get();
+    }
+
+    public int getCloseCount() {
+        return closedIds.size();
+    }
+
+    @Override
+    public void send(Object msg) {
+        Validate.notNull(msg);
+
+        if (msg instanceof GetNextIdProcessRequest) {
+            ((GetNextIdProcessRequest) msg).getResponseBus().send(new GetNextIdProcessResponse(nextId.getAndIncrement()));
+        } else if (msg instanceof CreateProcessRequest) {
+            CreateProcessRequest req = (CreateProcessRequest) msg;
+            createCount.incrementAndGet();
+            int id = req.getId();
+            Bus responseBus = req.getResponseBus();
+
+            String commandLine = req.getExecutable();
+            if (!req.getParameters().isEmpty()) {
+                commandLine += " " + StringUtils.join(req.getParameters(), ' ');
+            }
+
+            if (hangingCommandLines.contains(commandLine)) {
+                responseBus.send(new CreateProcessResponse(id));
+                return;
+            }
+
+            String stdout = outputs.get(commandLine);
+            if (stdout == null) {
+                responseBus.send(new IdentifiableErrorProcessResponse(id));
+                return;
+            }
+
+            responseBus.send(new CreateProcessResponse(id));
+            int start = 0;
+            while (start < stdout.length()) { // line by line, as a real process would output it
+                int end = stdout.indexOf('\n', start);
+                end = end == -1 ? stdout.length() : end + 1;
+                responseBus.send(new ReadProcessNotification(id, stdout.substring(start, end).getBytes(US_ASCII), ReadType.STDOUT));
+                start = end;
+            }
+            responseBus.send(new ExitProcessNotification(id, 0));
+        } else if (msg instanceof CloseProcessRequest) {
+            closedIds.add(((CloseProcessRequest) msg).getId());
+        }
+        // anything else (kills) is ignored -- the processes have already exited by the time the sender sees them
+    }
+}
@@ -0,0 +1,150 @@
+package com.offbynull.portmapper.testtools;
+
+import com.offbynull.portmapper.gateway.Bus;
+import com.offbynull.portmapper.gateways.network.internalmessages.CloseNetworkRequest;
+import com.offbynull.portmapper.gateways.network.internalmessages.CreateMulticastUdpNetworkRequest;
+import com.offbynull.portmapper.gateways.network.internalmessages.CreateTcpNetworkRequest;
+import com.offbynull.portmapper.gateways.network.internalmessages.CreateUdpNetworkRequest;
+import com.offbynull.portmapper.gateways.network.internalmessages.GetLocalIpAddressesNetworkRequest;
+import com.offbynull.portmapper.gateways.network.internalmessages.GetLocalIpAddressesNetworkResponse;
+import com.offbynull.portmapper.gateways.network.internalmessages.ReadUdpNetworkNotification;
+import com.offbynull.portmapper.gateways.network.internalmessages.WriteUdpNetworkRequest;
+import com.offbynull.portmapper.gateways.network.internalmessages.WriteUdpNetworkResponse;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.commons.lang3.Validate;
+
+// A Bus that sits between the mappers and NetworkGateway's bus and makes the machine look like it's on a different network, so that
+// discovery can be run against stand-in gateways on an isolated machine (no router, no multicast, no real interfaces needed).
+//
+// The interfaces reported to GetLocalIpAddressesNetworkRequest are whatever was set through setLocalAddresses(). Sockets created on those
+// interfaces are actually bound to the loopback interface. Datagrams sent to an address that has a route (e.g. a fake gateway IP on port
+// 5351 or the SSDP multicast address) are redirected to wherever that route points, and replies coming back from there are made to look
+// like they came from the original address. Datagrams sent anywhere else are silently dropped, as if nobody was listening. TCP connections
+// are redirected the same way if a route exists, otherwise they pass through untouched.
+public final class VirtualNetworkBus implements Bus {
+
+    private static final InetAddress IPV4_LOOPBACK;
+    private static final InetAddress IPV6_LOOPBACK;
+    static {
+        try {
+            IPV4_LOOPBACK = InetAddress.getByAddress(new byte[] {127, 0, 0, 1});
+            IPV6_LOOPBACK = InetAddress.getByAddress(new byte[] {0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 1});
+        } catch (UnknownHostException uhe) {
+            throw new IllegalStateException(uhe); // should never happen
+        }
+    }
+
+    private final Bus networkBus;
+    private volatile Set<InetAddress> localAddresses;
+    private final Map<InetSocketAddress, InetSocketAddress> routes; // virtual -> actual
+    private final Map<InetSocketAddress, InetSocketAddress> reverseRoutes; // actual -> virtual
+    private final Map<Integer, Bus> responseBuses;
+
+    public VirtualNetworkBus(Bus networkBus) {
+        Validate.notNull(networkBus);
+        this.networkBus = networkBus;
+        this.localAddresses = Collections.emptySet();
+        this.routes = new ConcurrentHashMap<>();
+        this.reverseRoutes = new ConcurrentHashMap<>();
+        this.responseBuses = new ConcurrentHashMap<>();
+    }
+
+    public void setLocalAddresses(Collection<InetAddress> localAddresses) {
+        Validate.notNull(localAddresses);
+        Validate.noNullElements(localAddresses);
+        this.localAddresses = Collections.unmodifiableSet(new HashSet<>(localAddresses));
+    }
+
+    public void addRoute(InetSocketAddress virtualAddress, InetSocketAddress actualAddress) {
+        Validate.notNull(virtualAddress);
+        Validate.notNull(actualAddress);
+        routes.put(virtualAddress, actualAddress);
+        reverseRoutes.put(actualAddress, virtualAddress);
+    }
+
+    public void clearRoutes() {
+        routes.clear();
+        reverseRoutes.clear();
+    }
+
+    @Override
+    public void send(Object msg) {
+        Validate.notNull(msg);
+
+        if (msg instanceof GetLocalIpAddressesNetworkRequest) {
+            Bus responseBus = ((GetLocalIpAddressesNetworkRequest) msg).getResponseBus();
+            responseBus.send(new GetLocalIpAddressesNetworkResponse(localAddresses));
+        } else if (msg instanceof CreateUdpNetworkRequest) {
+            CreateUdpNetworkRequest req = (CreateUdpNetworkRequest) msg;
+            int id = req.getId();
+            Bus inboundBus = trackSocket(id, req.getResponseBus(), req.getSourceAddress());
+            networkBus.send(new CreateUdpNetworkRequest(id, inboundBus, toLoopback(req.getSourceAddress())));
+        } else if (msg instanceof CreateMulticastUdpNetworkRequest) {
+            // a multicast socket can't be bound to the loopback interface, so this is stood in for by a plain UDP socket
+            CreateMulticastUdpNetworkRequest req = (CreateMulticastUdpNetworkRequest) msg;
+            int id = req.getId();
+            Bus inboundBus = trackSocket(id, req.getResponseBus(), req.getSourceAddress());
+            networkBus.send(new CreateUdpNetworkRequest(id, inboundBus, toLoopback(req.getSourceAddress())));
+        } else if (msg instanceof CreateTcpNetworkRequest) {
+            CreateTcpNetworkRequest req = (CreateTcpNetworkRequest) msg;
+            InetSocketAddress dst = new InetSocketAddress(req.getDestinationAddress(), req.getDestinationPort());
+            InetSocketAddress actualDst = routes.get(dst);
+            if (actualDst == null) {
+                actualDst = dst;
+            }
+            networkBus.send(new CreateTcpNetworkRequest(req.getId(), req.getResponseBus(), toLoopback(req.getSourceAddress()),
+                    actualDst.getAddress(), actualDst.getPort()));
+        } else if (msg instanceof WriteUdpNetworkRequest) {
+            WriteUdpNetworkRequest req = (WriteUdpNetworkRequest) msg;
+            int id = req.getId();
+            InetSocketAddress actualDst = routes.get(req.getRemoteAddress());
+            if (actualDst != null) {
+                networkBus.send(new WriteUdpNetworkRequest(id, actualDst, req.getData()));
+            } else {
+                Bus responseBus = responseBuses.get(id);
+                if (responseBus != null) {
+                    responseBus.send(new WriteUdpNetworkResponse(id, req.getData().length));
+                }
+            }
+        } else if (msg instanceof CloseNetworkRequest) {
+            responseBuses.remove(((CloseNetworkRequest) msg).getId());
+            networkBus.send(msg);
+        } else {
+            networkBus.send(msg);
+        }
+    }
+
+    private Bus trackSocket(final int id, final Bus responseBus, final InetAddress virtualSourceAddress) {
+        responseBuses.put(id, responseBus);
+        return new Bus() {
+            @Override
+            public void send(Object msg) {
+                Validate.notNull(msg);
+                if (msg instanceof ReadUdpNetworkNotification) {
+                    ReadUdpNetworkNotification read = (ReadUdpNetworkNotification) msg;
+                    InetSocketAddress remoteAddress = reverseRoutes.get(read.getRemoteAddress());
+                    if (remoteAddress == null) {
+                        remoteAddress = read.getRemoteAddress();
+                    }
+                    InetSocketAddress localAddress = new InetSocketAddress(virtualSourceAddress, read.getLocalAddress().getPort());
+                    responseBus.send(new ReadUdpNetworkNotification(id, localAddress, remoteAddress, read.getData()));
+                } else {
+                    responseBus.send(msg);
+                }
+            }
+        };
+    }
+
+    private static InetAddress toLoopback(InetAddress address) {
+        return address instanceof Inet6Address ? IPV6_LOOPBACK : IPV4_LOOPBACK;
+    }
+}
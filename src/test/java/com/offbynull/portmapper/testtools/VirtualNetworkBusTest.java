@@ -0,0 +1,129 @@
+package com.offbynull.portmapper.testtools;
+
+import com.offbynull.portmapper.PortMapperFactory;
+import com.offbynull.portmapper.gateway.BasicBus;
+import com.offbynull.portmapper.gateway.Bus;
+import com.offbynull.portmapper.gateways.network.NetworkGateway;
+import com.offbynull.portmapper.gateways.network.internalmessages.CreateUdpNetworkRequest;
+import com.offbynull.portmapper.gateways.network.internalmessages.GetLocalIpAddressesNetworkRequest;
+import com.offbynull.portmapper.gateways.network.internalmessages.GetLocalIpAddressesNetworkResponse;
+import com.offbynull.portmapper.gateways.network.internalmessages.KillNetworkRequest;
+import com.offbynull.portmapper.gateways.network.internalmessages.ReadUdpNetworkNotification;
+import com.offbynull.portmapper.gateways.network.internalmessages.WriteUdpNetworkRequest;
+import com.offbynull.portmapper.gateways.network.internalmessages.WriteUdpNetworkResponse;
+import com.offbynull.portmapper.mapper.PortMapper;
+import com.offbynull.portmapper.mappers.natpmp.NatPmpPortMapper;
+import com.offbynull.portmapper.mappers.pcp.PcpPortMapper;
+import com.offbynull.portmapper.mappers.upnpigd.PortMapperUpnpIgdPortMapper;
+import com.offbynull.portmapper.mappers.upnpigd.externalmessages.ServiceDiscoveryUpnpIgdRequest.ProbeDeviceType;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public final class VirtualNetworkBusTest {
+
+    private InetAddress gatewayAddress;
+    private InetAddress interfaceAddress;
+    private RouterEmulator emulator;
+    private NetworkGateway network;
+    private Bus networkBus;
+    private VirtualNetworkBus virtualBus;
+    private StubProcessBus processBus;
+
+    @Before
+    public void before() throws IOException {
+        gatewayAddress = InetAddress.getByAddress(new byte[] {10, 99, 0, 1});
+        interfaceAddress = InetAddress.getByAddress(new byte[] {10, 99, 0, 2});
+        emulator = RouterEmulator.create(InetAddress.getByAddress(new byte[] {127, 0, 0, 1}), 5351,
+                InetAddress.getByAddress(new byte[] {1, 2, 3, 4}));
+        network = NetworkGateway.create();
+        networkBus = network.getBus();
+
+        virtualBus = new VirtualNetworkBus(networkBus);
+        virtualBus.setLocalAddresses(Arrays.asList(interfaceAddress));
+        virtualBus.addRoute(new InetSocketAddress(gatewayAddress, 5351), emulator.getPcpAddress());
+        virtualBus.addRoute(ProbeDeviceType.IPV4.getMulticastSocketAddress(), emulator.getSsdpAddress());
+
+        processBus = new StubProcessBus();
+        processBus.setOutput("netstat -rn", ""
+                + "Kernel IP routing table\n"
+                + "Destination     Gateway         Genmask         Flags   MSS Window  irtt Iface\n"
+                + "0.0.0.0         10.99.0.1       0.0.0.0         UG        0 0          0 eth0\n");
+    }
+
+    @After
+    public void after() throws IOException {
+        networkBus.send(new KillNetworkRequest());
+        emulator.close();
+    }
+
+    @Test
+    public void mustReportStubbedLocalAddresses() throws Exception {
+        LinkedBlockingQueue<Object> queue = new LinkedBlockingQueue<>();
+        virtualBus.send(new GetLocalIpAddressesNetworkRequest(new BasicBus(queue)));
+        GetLocalIpAddressesNetworkResponse resp = (GetLocalIpAddressesNetworkResponse) queue.poll();
+        assertEquals(1, resp.getLocalAddresses().size());
+        assertTrue(resp.getLocalAddresses().contains(interfaceAddress));
+    }
+
+    @Test
+    public void mustDropDatagramsWithoutRoute() throws Exception {
+        LinkedBlockingQueue<Object> gatewayQueue = new LinkedBlockingQueue<>();
+        LinkedBlockingQueue<Object> mapperQueue = new LinkedBlockingQueue<>();
+        VirtualNetworkBus fixture = new VirtualNetworkBus(new BasicBus(gatewayQueue));
+        fixture.addRoute(new InetSocketAddress(gatewayAddress, 5351), new InetSocketAddress("127.0.0.1", 40000));
+
+        fixture.send(new CreateUdpNetworkRequest(1, new BasicBus(mapperQueue), interfaceAddress));
+        CreateUdpNetworkRequest createReq = (CreateUdpNetworkRequest) gatewayQueue.poll();
+        assertEquals(InetAddress.getByName("127.0.0.1"), createReq.getSourceAddress());
+
+        fixture.send(new WriteUdpNetworkRequest(1, new InetSocketAddress("192.168.1.1", 5351), new byte[] {1, 2, 3}));
+        assertNull(gatewayQueue.poll());
+        assertEquals(3, ((WriteUdpNetworkResponse) mapperQueue.poll()).getAmountWritten());
+
+        fixture.send(new WriteUdpNetworkRequest(1, new InetSocketAddress(gatewayAddress, 5351), new byte[] {1, 2, 3}));
+        WriteUdpNetworkRequest writeReq = (WriteUdpNetworkRequest) gatewayQueue.poll();
+        assertEquals(new InetSocketAddress("127.0.0.1", 40000), writeReq.getRemoteAddress());
+
+        createReq.getResponseBus().send(new ReadUdpNetworkNotification(1, new InetSocketAddress("127.0.0.1", 50000),
+                new InetSocketAddress("127.0.0.1", 40000), new byte[] {4, 5, 6}));
+        ReadUdpNetworkNotification read = (ReadUdpNetworkNotification) mapperQueue.poll();
+        assertEquals(new InetSocketAddress(gatewayAddress, 5351), read.getRemoteAddress());
+        assertEquals(new InetSocketAddress(interfaceAddress, 50000), read.getLocalAddress());
+    }
+
+    @Test
+    public void mustDiscoverEmulatedGatewayThroughStubs() throws Exception {
+        List<PortMapper> mappers = PortMapperFactory.discover(virtualBus, processBus);
+
+        Map<Class<?>, Integer> counts = new HashMap<>();
+        for (PortMapper mapper : mappers) {
+            Integer count = counts.get(mapper.getClass());
+            counts.put(mapper.getClass(), count == null ? 1 : count + 1);
+        }
+        assertEquals(2, (int) counts.get(PortMapperUpnpIgdPortMapper.class)); // WANIPConnection:1 and WANIPConnection:2
+        assertEquals(1, (int) counts.get(NatPmpPortMapper.class));
+        assertEquals(1, (int) counts.get(PcpPortMapper.class));
+        assertEquals(3, counts.size());
+    }
+
+    @Test
+    public void mustNotIdentifyDisabledProtocol() throws Exception {
+        emulator.setNatPmpEnabled(false);
+
+        List<NatPmpPortMapper> mappers = NatPmpPortMapper.identify(virtualBus, processBus);
+
+        assertTrue(mappers.isEmpty());
+    }
+}